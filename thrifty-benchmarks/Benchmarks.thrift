@@ -0,0 +1,86 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+
+/*
+ * Representative payload shapes for the JMH suites in thrifty-benchmarks.
+ */
+
+namespace kt com.microsoft.thrifty.benchmarks.gen
+
+enum Kind {
+  UNKNOWN = 0,
+  LEAF = 1,
+  BRANCH = 2,
+}
+
+/**
+ * A small struct of scalar fields; exercises per-field overhead.
+ */
+struct SmallFlat {
+  1: required i32 id,
+  2: required i64 timestamp,
+  3: required double score,
+  4: required bool active,
+  5: required byte flags,
+  6: required i16 shard,
+  7: required Kind kind,
+}
+
+/**
+ * A recursive struct used to build deep object graphs.
+ */
+struct Nested {
+  1: required i32 depth,
+  2: required string label,
+  3: optional SmallFlat leaf,
+  4: optional Nested child,
+}
+
+/**
+ * Large numeric containers; exercises container headers and primitive reads.
+ */
+struct Collections {
+  1: required list<i32> ints,
+  2: required list<i64> longs,
+  3: required list<double> doubles,
+  4: required map<i32, i64> counters,
+  5: required set<i64> ids,
+}
+
+/**
+ * Many string fields and string-keyed containers.
+ */
+struct StringHeavy {
+  1: required string host,
+  2: required string path,
+  3: required string userAgent,
+  4: required list<string> tags,
+  5: required map<string, string> attributes,
+}
+
+/**
+ * A handful of large binary blobs.
+ */
+struct BinaryHeavy {
+  1: required binary header,
+  2: required binary body,
+  3: required list<binary> chunks,
+}
@@ -0,0 +1,130 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks
+
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.BufferedTransport
+import com.microsoft.thrifty.transport.Transport
+import okio.Buffer
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Compares protocols reading from and writing to a stream-backed transport,
+ * which, like [com.microsoft.thrifty.transport.SocketTransport], pays for a
+ * stream call on every transport operation, with and without a
+ * [BufferedTransport] in between.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class BufferedTransportBenchmark {
+    @Param("BINARY", "COMPACT")
+    lateinit var protocolKind: ProtocolKind
+
+    @Param("SMALL_FLAT", "LARGE_COLLECTIONS", "STRING_HEAVY")
+    lateinit var payload: Payload
+
+    @Param("false", "true")
+    var buffered: Boolean = false
+
+    private lateinit var case: PayloadCase<*>
+    private lateinit var encoded: ByteArray
+    private lateinit var input: ByteArrayInputStream
+    private lateinit var reader: Protocol
+    private lateinit var writer: Protocol
+
+    @Setup
+    fun setup() {
+        case = payload.create(Random(SEED))
+
+        val buffer = Buffer()
+        val protocol = protocolKind.create(BufferTransport(buffer))
+        case.write(protocol)
+        protocol.flush()
+        encoded = buffer.readByteArray()
+
+        input = ByteArrayInputStream(encoded)
+        reader = protocolKind.create(wrap(StreamTransport(input, NullOutputStream)))
+        writer = protocolKind.create(wrap(StreamTransport(ByteArrayInputStream(ByteArray(0)), NullOutputStream)))
+    }
+
+    private fun wrap(transport: Transport): Transport {
+        return if (buffered) BufferedTransport(transport) else transport
+    }
+
+    @Benchmark
+    fun read(): Any? {
+        input.reset()
+        reader.reset()
+        return case.read(reader)
+    }
+
+    @Benchmark
+    fun write() {
+        case.write(writer)
+        writer.flush()
+    }
+
+    private class StreamTransport(
+            private val input: InputStream,
+            private val output: OutputStream
+    ) : Transport {
+        override fun read(buffer: ByteArray, offset: Int, count: Int) = input.read(buffer, offset, count)
+
+        override fun write(buffer: ByteArray, offset: Int, count: Int) {
+            output.write(buffer, offset, count)
+        }
+
+        override fun flush() = output.flush()
+
+        override fun close() {
+            input.close()
+            output.close()
+        }
+    }
+
+    private object NullOutputStream : OutputStream() {
+        override fun write(b: Int) {
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+        }
+    }
+}
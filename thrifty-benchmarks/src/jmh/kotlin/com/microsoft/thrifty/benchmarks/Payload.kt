@@ -0,0 +1,117 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks
+
+import com.microsoft.thrifty.benchmarks.gen.BinaryHeavy
+import com.microsoft.thrifty.benchmarks.gen.Collections
+import com.microsoft.thrifty.benchmarks.gen.Kind
+import com.microsoft.thrifty.benchmarks.gen.Nested
+import com.microsoft.thrifty.benchmarks.gen.SmallFlat
+import com.microsoft.thrifty.benchmarks.gen.StringHeavy
+import com.microsoft.thrifty.kotlin.Adapter
+import com.microsoft.thrifty.protocol.Protocol
+import okio.ByteString.Companion.toByteString
+import kotlin.random.Random
+
+/**
+ * The payload shapes exercised by the benchmark suites.
+ *
+ * Values are generated from a fixed seed so that every run, and every
+ * protocol, sees identical data.
+ */
+enum class Payload {
+    SMALL_FLAT {
+        override fun create(random: Random) = PayloadCase(SmallFlat.ADAPTER, smallFlat(random))
+    },
+
+    DEEPLY_NESTED {
+        override fun create(random: Random): PayloadCase<*> {
+            var node = Nested(depth = 0, label = "leaf", leaf = smallFlat(random), child = null)
+            for (depth in 1 until NESTING_DEPTH) {
+                node = Nested(depth = depth, label = "level-$depth", leaf = null, child = node)
+            }
+            return PayloadCase(Nested.ADAPTER, node)
+        }
+    },
+
+    LARGE_COLLECTIONS {
+        override fun create(random: Random) = PayloadCase(Collections.ADAPTER, Collections(
+                ints = List(COLLECTION_SIZE) { random.nextInt() },
+                longs = List(COLLECTION_SIZE) { random.nextLong() },
+                doubles = List(COLLECTION_SIZE) { random.nextDouble() },
+                counters = (0 until COLLECTION_SIZE).associateWith { random.nextLong() },
+                ids = (0 until COLLECTION_SIZE).mapTo(LinkedHashSet()) { random.nextLong() },
+        ))
+    },
+
+    STRING_HEAVY {
+        override fun create(random: Random) = PayloadCase(StringHeavy.ADAPTER, StringHeavy(
+                host = "frontend-${random.nextInt(100)}.eastus.example.com",
+                path = "/api/v2/accounts/${random.nextLong()}/messages?folder=inbox&top=50",
+                userAgent = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) Thrifty/3.1 (+benchmark) éèü",
+                tags = List(STRING_COUNT) { "tag-${it % 16}" },
+                attributes = (0 until STRING_COUNT).associate { "attribute-key-$it" to "value-${random.nextInt()}" },
+        ))
+    },
+
+    BINARY_HEAVY {
+        override fun create(random: Random) = PayloadCase(BinaryHeavy.ADAPTER, BinaryHeavy(
+                header = random.nextBytes(64).toByteString(),
+                body = random.nextBytes(64 * 1024).toByteString(),
+                chunks = List(16) { random.nextBytes(4 * 1024).toByteString() },
+        ))
+    };
+
+    abstract fun create(random: Random): PayloadCase<*>
+
+    companion object {
+        private const val NESTING_DEPTH = 32
+        private const val COLLECTION_SIZE = 1_000
+        private const val STRING_COUNT = 64
+
+        private fun smallFlat(random: Random) = SmallFlat(
+                id = random.nextInt(),
+                timestamp = random.nextLong(),
+                score = random.nextDouble(),
+                active = random.nextBoolean(),
+                flags = random.nextInt().toByte(),
+                shard = random.nextInt(Short.MAX_VALUE.toInt()).toShort(),
+                kind = Kind.LEAF,
+        )
+    }
+}
+
+/**
+ * Pairs a struct value with the adapter that knows how to read and write it,
+ * so that benchmarks can treat every payload uniformly.
+ */
+class PayloadCase<T>(
+        private val adapter: Adapter<T>,
+        private val value: T,
+) {
+    fun write(protocol: Protocol) {
+        adapter.write(protocol, value)
+    }
+
+    fun read(protocol: Protocol): T {
+        return adapter.read(protocol)
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks
+
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.transport.BufferTransport
+import okio.Buffer
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Measures the cost of writing a generated struct through each protocol
+ * into an in-memory [BufferTransport].
+ *
+ * Run with the `gc` profiler (the default for this module) to get
+ * allocation-per-op figures alongside throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class SerializeBenchmark {
+    @Param
+    lateinit var protocolKind: ProtocolKind
+
+    @Param
+    lateinit var payload: Payload
+
+    private val buffer = Buffer()
+    private lateinit var protocol: Protocol
+    private lateinit var case: PayloadCase<*>
+
+    @Setup
+    fun setup() {
+        protocol = protocolKind.create(BufferTransport(buffer))
+        case = payload.create(Random(SEED))
+    }
+
+    @Benchmark
+    fun serialize(): Long {
+        buffer.clear()
+        case.write(protocol)
+        protocol.flush()
+        return buffer.size
+    }
+}
+
+/**
+ * Measures the cost of reading a generated struct through each protocol
+ * from an in-memory [BufferTransport].
+ *
+ * [ProtocolKind.SIMPLE_JSON] is write-only, and so is excluded here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class DeserializeBenchmark {
+    @Param("BINARY", "COMPACT", "JSON")
+    lateinit var protocolKind: ProtocolKind
+
+    @Param
+    lateinit var payload: Payload
+
+    private val buffer = Buffer()
+    private lateinit var protocol: Protocol
+    private lateinit var case: PayloadCase<*>
+    private lateinit var encoded: ByteArray
+
+    @Setup
+    fun setup() {
+        protocol = protocolKind.create(BufferTransport(buffer))
+        case = payload.create(Random(SEED))
+        case.write(protocol)
+        protocol.flush()
+        encoded = buffer.readByteArray()
+    }
+
+    @Benchmark
+    fun deserialize(): Any? {
+        buffer.clear()
+        buffer.write(encoded)
+        protocol.reset()
+        return case.read(protocol)
+    }
+}
+
+internal const val SEED = 0x7417F7L
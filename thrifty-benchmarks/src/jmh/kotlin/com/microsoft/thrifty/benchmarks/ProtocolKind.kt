@@ -0,0 +1,54 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks
+
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.CompactProtocol
+import com.microsoft.thrifty.protocol.JsonProtocol
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.protocol.SimpleJsonProtocol
+import com.microsoft.thrifty.transport.Transport
+
+/**
+ * Every [Protocol] implementation shipped in thrifty-runtime.
+ */
+enum class ProtocolKind {
+    BINARY {
+        override fun create(transport: Transport): Protocol = BinaryProtocol(transport)
+    },
+
+    COMPACT {
+        override fun create(transport: Transport): Protocol = CompactProtocol(transport)
+    },
+
+    JSON {
+        override fun create(transport: Transport): Protocol = JsonProtocol(transport)
+    },
+
+    /**
+     * Write-only; [SimpleJsonProtocol] cannot read what it writes.
+     */
+    SIMPLE_JSON {
+        override fun create(transport: Transport): Protocol = SimpleJsonProtocol(transport)
+    };
+
+    abstract fun create(transport: Transport): Protocol
+}
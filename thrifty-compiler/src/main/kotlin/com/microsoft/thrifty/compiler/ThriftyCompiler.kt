@@ -68,6 +68,7 @@ import kotlin.system.exitProcess
  * [--nullability-annotation-type=[none|android-support|androidx]]
  * [--omit-service-clients]
  * [--omit-file-comments]
+ * [--generate-server]
  * file1.thrift
  * file2.thrift
  * ...
@@ -143,6 +144,11 @@ import kotlin.system.exitProcess
  * The default behavior is to prefix generated files with a comment indicating that they
  * are generated by Thrifty, and should probably not be modified by hand.
  *
+ * `--generate-server` (or `--experimental-kt-generate-server`) is optional.  When specified,
+ * a server-side handler interface and processor are generated for each service.  Kotlin
+ * processors are suspending [com.microsoft.thrifty.service.server.Processor]s; Java processors
+ * are [com.microsoft.thrifty.service.server.BlockingProcessor]s.  This is experimental.
+ *
  * `--experimental-kt-builder-required-ctor` is optional. When specified, Generate struct Builder
  * constructor with required parameters, and marks empty Builder constructor as deprecated. Helpful
  * when needing a compile time check that required parameters are supplied to the struct. This
@@ -191,6 +197,10 @@ class ThriftyCompiler {
         val setTypeName: String? by option("--set-type", help =  "when specified, the concrete type to use for sets")
         val mapTypeName: String? by option("--map-type", help = "when specified, the concrete type to use for maps")
 
+        val primitiveCollections: Boolean by option("--primitive-collections",
+                    help = "When set, lists of i32, i64, and double are read into lists backed by primitive arrays")
+                .flag(default = false)
+
         val emitNullabilityAnnotations: Boolean by option("--use-android-annotations", hidden = true)
                 .flag(default = false)
                 .deprecated("Equivalent to --nullability-annotation-type=android-support")
@@ -218,8 +228,8 @@ class ThriftyCompiler {
                     help = "When set, don't generate service clients")
                 .flag(default = false)
 
-        val generateServer: Boolean by option("--experimental-kt-generate-server",
-                help = "When set, generate kotlin server implementation (EXPERIMENTAL)")
+        val generateServer: Boolean by option("--experimental-kt-generate-server", "--generate-server",
+                help = "When set, generate server implementations (EXPERIMENTAL)")
                 .flag(default = false)
 
         val omitFileComments: Boolean by option("--omit-file-comments",
@@ -323,6 +333,9 @@ class ThriftyCompiler {
             listTypeName?.let { gen = gen.withListType(it) }
             setTypeName?.let { gen = gen.withSetType(it) }
             mapTypeName?.let { gen = gen.withMapType(it) }
+            if (primitiveCollections) {
+                gen = gen.withPrimitiveCollections()
+            }
 
             val svc = TypeProcessorService.getInstance()
             val processor = svc.javaProcessor
@@ -334,6 +347,7 @@ class ThriftyCompiler {
             gen.emitFileComment(!omitFileComments)
             gen.emitParcelable(emitParcelable)
             gen.failOnUnknownEnumValues(failOnUnknownEnumValues)
+            gen.generateServer(generateServer)
 
             gen.generate(outputDirectory)
         }
@@ -383,6 +397,10 @@ class ThriftyCompiler {
             setTypeName?.let { gen.setClassName(it) }
             mapTypeName?.let { gen.mapClassName(it) }
 
+            if (primitiveCollections) {
+                gen.primitiveCollections()
+            }
+
             if (kotlinStructBuilders) {
                 gen.withDataClassBuilders()
             }
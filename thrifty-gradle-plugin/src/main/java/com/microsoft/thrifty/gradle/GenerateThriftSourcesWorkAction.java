@@ -196,6 +196,10 @@ public abstract class GenerateThriftSourcesWorkAction implements WorkAction<Gene
             gen.mapClassName(opts.getMapType());
         }
 
+        if (opts.isPrimitiveCollections()) {
+            gen.primitiveCollections();
+        }
+
         TypeProcessorService typeProcessorService = TypeProcessorService.getInstance();
         KotlinTypeProcessor kotlinProcessor = typeProcessorService.getKotlinProcessor();
         if (kotlinProcessor != null) {
@@ -225,6 +229,10 @@ public abstract class GenerateThriftSourcesWorkAction implements WorkAction<Gene
             gen.withMapType(opts.getMapType());
         }
 
+        if (opts.isPrimitiveCollections()) {
+            gen.withPrimitiveCollections();
+        }
+
         SerializableThriftOptions.Java jopt = opts.getJavaOpts();
 
         NullabilityAnnotations anno = jopt.getNullabilityAnnotations();
@@ -249,6 +257,8 @@ public abstract class GenerateThriftSourcesWorkAction implements WorkAction<Gene
                 throw new IllegalStateException("Unexpected NullabilityAnnotations value: " + anno);
         }
 
+        gen.generateServer(jopt.isGenerateServer());
+
         TypeProcessorService typeProcessorService = TypeProcessorService.getInstance();
         TypeProcessor typeProcessor = typeProcessorService.getJavaProcessor();
         if (typeProcessor != null) {
@@ -48,6 +48,7 @@ public class JavaThriftOptions extends ThriftOptions implements Serializable {
     }
 
     private NullabilityAnnotations nullabilityAnnotations = NullabilityAnnotations.NONE;
+    private boolean generateServer = false;
 
     @Input
     public NullabilityAnnotations getNullabilityAnnotations() {
@@ -78,4 +79,13 @@ public class JavaThriftOptions extends ThriftOptions implements Serializable {
         Objects.requireNonNull(nullabilityAnnotations);
         this.nullabilityAnnotations = nullabilityAnnotations;
     }
+
+    @Input
+    public boolean isGenerateServer() {
+        return generateServer;
+    }
+
+    public void setGenerateServer(boolean generateServer) {
+        this.generateServer = generateServer;
+    }
 }
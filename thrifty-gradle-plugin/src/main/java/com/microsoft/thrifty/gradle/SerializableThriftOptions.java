@@ -57,17 +57,23 @@ class SerializableThriftOptions implements Serializable {
 
     static class Java implements Serializable {
         private NullabilityAnnotations nullabilityAnnotations;
+        private boolean generateServer;
 
         // Required for Serializable
         Java() {}
 
-        public Java(NullabilityAnnotations nullabilityAnnotations) {
+        public Java(NullabilityAnnotations nullabilityAnnotations, boolean generateServer) {
             this.nullabilityAnnotations = nullabilityAnnotations;
+            this.generateServer = generateServer;
         }
 
         public NullabilityAnnotations getNullabilityAnnotations() {
             return nullabilityAnnotations;
         }
+
+        public boolean isGenerateServer() {
+            return generateServer;
+        }
     }
 
     private boolean generateServiceClients = true;
@@ -75,6 +81,7 @@ class SerializableThriftOptions implements Serializable {
     private String listType = null;
     private String setType = null;
     private String mapType = null;
+    private boolean primitiveCollections = false;
     private boolean parcelable = false;
     private boolean allowUnknownEnumValues = false;
     private Kotlin kotlinOpts;
@@ -89,6 +96,7 @@ class SerializableThriftOptions implements Serializable {
         this.listType = options.getListType();
         this.setType = options.getSetType();
         this.mapType = options.getMapType();
+        this.primitiveCollections = options.getPrimitiveCollections();
         this.parcelable = options.getParcelable();
         this.allowUnknownEnumValues = options.getAllowUnknownEnumValues();
 
@@ -97,7 +105,7 @@ class SerializableThriftOptions implements Serializable {
             this.kotlinOpts = new Kotlin(kto.getServiceClientStyle(), kto.getStructBuilders(), kto.isGenerateServer());
         } else if (options instanceof JavaThriftOptions) {
             JavaThriftOptions jto = (JavaThriftOptions) options;
-            this.javaOpts = new Java(jto.getNullabilityAnnotations());
+            this.javaOpts = new Java(jto.getNullabilityAnnotations(), jto.isGenerateServer());
         } else {
             throw new IllegalArgumentException("Unexpected thrift-options type:" + options);
         }
@@ -123,6 +131,10 @@ class SerializableThriftOptions implements Serializable {
         return mapType;
     }
 
+    public boolean isPrimitiveCollections() {
+        return primitiveCollections;
+    }
+
     public boolean isParcelable() {
         return parcelable;
     }
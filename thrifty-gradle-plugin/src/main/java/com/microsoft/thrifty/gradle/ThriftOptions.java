@@ -36,6 +36,7 @@ public abstract class ThriftOptions implements Serializable {
     private String listType = null;
     private String setType = null;
     private String mapType = null;
+    private boolean primitiveCollections = false;
     private boolean parcelable = false;
     private boolean allowUnknownEnumValues = false;
 
@@ -108,6 +109,15 @@ public abstract class ThriftOptions implements Serializable {
         this.mapType = mapType;
     }
 
+    @Input
+    public boolean getPrimitiveCollections() {
+        return primitiveCollections;
+    }
+
+    public void setPrimitiveCollections(boolean primitiveCollections) {
+        this.primitiveCollections = primitiveCollections;
+    }
+
     @Input
     public boolean getParcelable() {
         return parcelable;
@@ -0,0 +1,169 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.metrics
+
+import com.microsoft.thrifty.service.MethodCallMetrics
+import com.microsoft.thrifty.service.MethodCallMetrics.Outcome
+import com.microsoft.thrifty.service.MethodCallMetrics.Side
+import com.microsoft.thrifty.service.MethodMetrics
+import org.HdrHistogram.Histogram
+import org.HdrHistogram.Recorder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Records the latencies and message sizes of each method, on each side, in
+ * HdrHistograms, so that their distributions - and in particular their
+ * tails - can be compared.
+ *
+ * Recording never waits on other recorders, nor on snapshots.  Measurements
+ * accumulate until the next [snapshot], which returns them and starts a new
+ * interval; a reporter would typically take one snapshot per reporting
+ * period:
+ *
+ * ```kotlin
+ * val metrics = HdrHistogramMetrics()
+ * val config = ClientConfig.Builder().metrics(metrics).build()
+ *
+ * // every minute
+ * metrics.snapshot()
+ *     .sortedByDescending { it.latency.getValueAtPercentile(99.0) }
+ *     .forEach { println("${it.side} ${it.method}: p99 ${it.latency.getValueAtPercentile(99.0)}ns") }
+ * ```
+ *
+ * @param significantDigits the precision of recorded values, from 0 to 5;
+ *                          see [Histogram].
+ */
+class HdrHistogramMetrics @JvmOverloads constructor(
+        private val significantDigits: Int = 3
+) : MethodMetrics {
+    private val clientMethods = ConcurrentHashMap<String, MethodRecorders>()
+    private val serverMethods = ConcurrentHashMap<String, MethodRecorders>()
+
+    init {
+        require(significantDigits in 0..5) { "significantDigits must be between 0 and 5" }
+    }
+
+    override fun onCallCompleted(call: MethodCallMetrics) {
+        val methods = if (call.side == Side.CLIENT) clientMethods else serverMethods
+        val recorders = methods[call.method]
+                ?: methods.computeIfAbsent(call.method) { MethodRecorders(call.side, it) }
+        recorders.record(call)
+    }
+
+    /**
+     * Returns the measurements of every method called since the previous
+     * snapshot, and starts a new interval.
+     */
+    fun snapshot(): List<Snapshot> {
+        return (clientMethods.values + serverMethods.values)
+                .map { it.snapshot() }
+                .filter { it.calls > 0 }
+    }
+
+    /**
+     * The measurements of one method, on one side, over an interval.
+     *
+     * Durations are in nanoseconds, and sizes in bytes; calls whose message
+     * sizes were unknown are left out of [requestBytes] and [responseBytes].
+     */
+    class Snapshot internal constructor(
+            val side: Side,
+            val method: String,
+            val latency: Histogram,
+            val serialization: Histogram,
+
+            /**
+             * Time on the wire, as seen by clients; empty for servers.
+             */
+            val wire: Histogram,
+
+            /**
+             * Time in the handler, as seen by servers; empty for clients.
+             */
+            val handler: Histogram,
+            val requestBytes: Histogram,
+            val responseBytes: Histogram,
+            private val outcomes: LongArray
+    ) {
+        /**
+         * The number of calls completed in the interval.
+         */
+        val calls: Long
+            get() = outcomes.sum()
+
+        /**
+         * The number of calls completed in the interval with the given outcome.
+         */
+        fun count(outcome: Outcome): Long = outcomes[outcome.ordinal]
+
+        override fun toString(): String {
+            return "Snapshot(side=$side, method=$method, calls=$calls, " +
+                    "p50=${latency.getValueAtPercentile(50.0)}, " +
+                    "p99=${latency.getValueAtPercentile(99.0)}, " +
+                    "max=${latency.maxValue})"
+        }
+    }
+
+    private inner class MethodRecorders(
+            private val side: Side,
+            private val method: String
+    ) {
+        private val latency = Recorder(significantDigits)
+        private val serialization = Recorder(significantDigits)
+        private val wire = Recorder(significantDigits)
+        private val handler = Recorder(significantDigits)
+        private val requestBytes = Recorder(significantDigits)
+        private val responseBytes = Recorder(significantDigits)
+        private val outcomes = AtomicLongArray(Outcome.values().size)
+
+        fun record(call: MethodCallMetrics) {
+            latency.recordValue(call.totalNanos.coerceAtLeast(0))
+            serialization.recordValue(call.serializationNanos.coerceAtLeast(0))
+            if (side == Side.CLIENT) {
+                wire.recordValue(call.wireNanos.coerceAtLeast(0))
+            } else {
+                handler.recordValue(call.handlerNanos.coerceAtLeast(0))
+            }
+            if (call.requestBytes >= 0) {
+                requestBytes.recordValue(call.requestBytes)
+            }
+            if (call.responseBytes >= 0) {
+                responseBytes.recordValue(call.responseBytes)
+            }
+            outcomes.incrementAndGet(call.outcome.ordinal)
+        }
+
+        fun snapshot(): Snapshot {
+            val counts = LongArray(outcomes.length()) { outcomes.getAndSet(it, 0) }
+            return Snapshot(
+                    side,
+                    method,
+                    latency.intervalHistogram,
+                    serialization.intervalHistogram,
+                    wire.intervalHistogram,
+                    handler.intervalHistogram,
+                    requestBytes.intervalHistogram,
+                    responseBytes.intervalHistogram,
+                    counts)
+        }
+    }
+}
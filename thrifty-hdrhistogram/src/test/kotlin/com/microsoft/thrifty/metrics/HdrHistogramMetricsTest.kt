@@ -0,0 +1,111 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.metrics
+
+import com.microsoft.thrifty.Struct
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.MessageMetadata
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.MethodCallMetrics.Outcome
+import com.microsoft.thrifty.service.MethodCallMetrics.Side
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.service.server.DefaultErrorHandler
+import com.microsoft.thrifty.service.server.ServerCall
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.FramedTransport
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.shouldBe
+import kotlinx.coroutines.runBlocking
+import okio.Buffer
+import kotlin.test.Test
+
+class HdrHistogramMetricsTest {
+    private val metrics = HdrHistogramMetrics()
+
+    @Test
+    fun snapshotsSummarizeEachMethod() {
+        process("square", 3)
+        process("square", 4)
+        process("square", -1)
+        process("negate", 5)
+
+        val snapshots = metrics.snapshot().associateBy { it.method }
+        snapshots.keys shouldBe setOf("square", "negate")
+
+        val square = snapshots.getValue("square")
+        square.side shouldBe Side.SERVER
+        square.calls shouldBe 3L
+        square.count(Outcome.SUCCESS) shouldBe 2L
+        square.count(Outcome.APPLICATION_EXCEPTION) shouldBe 1L
+        square.latency.totalCount shouldBe 3L
+        square.handler.totalCount shouldBe 3L
+        square.wire.totalCount shouldBe 0L
+        square.requestBytes.maxValue shouldBe 4L
+
+        snapshots.getValue("negate").calls shouldBe 1L
+    }
+
+    @Test
+    fun eachSnapshotStartsANewInterval() {
+        process("square", 2)
+        metrics.snapshot().single().calls shouldBe 1L
+
+        metrics.snapshot().shouldBeEmpty()
+
+        process("square", 2)
+        metrics.snapshot().single().calls shouldBe 1L
+    }
+
+    @Test
+    fun significantDigitsAreValidated() {
+        shouldThrow<IllegalArgumentException> { HdrHistogramMetrics(6) }
+    }
+
+    /**
+     * Serves a call to [method] whose argument is [value]; negative values
+     * fail the call.
+     */
+    private fun process(method: String, value: Int) = runBlocking {
+        val request = Buffer()
+        val writer = BinaryProtocol(FramedTransport(BufferTransport(request)))
+        writer.writeI32(value)
+        writer.flush()
+
+        val input = BinaryProtocol(FramedTransport(BufferTransport(request)))
+        val output = BinaryProtocol(FramedTransport(BufferTransport(Buffer())))
+        val msg = MessageMetadata(method, TMessageType.CALL, 1)
+        IntCall.process(msg, input, output, DefaultErrorHandler, Unit, metrics)
+    }
+
+    private object IntCall : ServerCall<Int, Unit> {
+        override val oneWay = false
+
+        override suspend fun receive(protocol: Protocol) = protocol.readI32()
+
+        override suspend fun getResult(args: Int, handler: Unit): Struct {
+            require(args >= 0) { "negative" }
+            return object : Struct {
+                override fun write(protocol: Protocol) = protocol.writeI32(args * args)
+            }
+        }
+    }
+}
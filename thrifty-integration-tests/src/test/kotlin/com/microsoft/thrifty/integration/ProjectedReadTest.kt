@@ -0,0 +1,130 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.integration
+
+import com.microsoft.thrifty.FieldMask
+import com.microsoft.thrifty.integration.gen.StructA
+import com.microsoft.thrifty.integration.gen.StructB
+import com.microsoft.thrifty.integration.gen.Xtruct
+import com.microsoft.thrifty.integration.gen.Xtruct2
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.CompactProtocol
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.Transport
+import io.kotest.matchers.shouldBe
+import okio.Buffer
+import org.junit.jupiter.api.Test
+import com.microsoft.thrifty.integration.kgen.Xtruct as KXtruct
+import com.microsoft.thrifty.integration.kgen.Xtruct2 as KXtruct2
+
+class ProjectedReadTest {
+    private val protocols = listOf<(Transport) -> Protocol>({ BinaryProtocol(it) }, { CompactProtocol(it) })
+
+    private val xtruct2 = Xtruct2.Builder()
+            .byte_thing(1)
+            .struct_thing(Xtruct.Builder()
+                    .string_thing("nested")
+                    .i32_thing(2)
+                    .i64_thing(3L)
+                    .build())
+            .i32_thing(4)
+            .build()
+
+    @Test
+    fun maskedFieldsAreSkipped() {
+        val mask = FieldMask.Builder()
+                .include(2, 1)
+                .include(3)
+                .build()
+
+        for (newProtocol in protocols) {
+            val read = roundTrip(newProtocol, { Xtruct2.ADAPTER.write(it, xtruct2) }) {
+                Xtruct2.ADAPTER.read(it, mask)
+            }
+
+            read.byte_thing shouldBe null
+            read.struct_thing shouldBe Xtruct.Builder().string_thing("nested").build()
+            read.i32_thing shouldBe 4
+        }
+    }
+
+    @Test
+    fun requiredFieldsAreAlwaysRead() {
+        val struct = StructB.Builder()
+                .aa(StructA.Builder().s("optional").build())
+                .ab(StructA.Builder().s("required").build())
+                .build()
+
+        for (newProtocol in protocols) {
+            val read = roundTrip(newProtocol, { StructB.ADAPTER.write(it, struct) }) {
+                StructB.ADAPTER.read(it, FieldMask.of())
+            }
+
+            read.aa shouldBe null
+            read.ab shouldBe struct.ab
+        }
+    }
+
+    @Test
+    fun readingEverythingMatchesAPlainRead() {
+        for (newProtocol in protocols) {
+            roundTrip(newProtocol, { Xtruct2.ADAPTER.write(it, xtruct2) }) {
+                Xtruct2.ADAPTER.read(it, FieldMask.ALL)
+            } shouldBe xtruct2
+        }
+    }
+
+    @Test
+    fun kotlinStructsAreProjected() {
+        val struct = KXtruct2.Builder()
+                .byte_thing(1)
+                .struct_thing(KXtruct.Builder()
+                        .string_thing("nested")
+                        .i32_thing(2)
+                        .build())
+                .i32_thing(4)
+                .build()
+        val mask = FieldMask.Builder()
+                .include(2, 9)
+                .include(3)
+                .build()
+
+        for (newProtocol in protocols) {
+            val read = roundTrip(newProtocol, { KXtruct2.ADAPTER.write(it, struct) }) {
+                KXtruct2.ADAPTER.read(it, mask)
+            }
+
+            read shouldBe KXtruct2.Builder()
+                    .struct_thing(KXtruct.Builder().i32_thing(2).build())
+                    .i32_thing(4)
+                    .build()
+        }
+    }
+
+    private fun <T> roundTrip(newProtocol: (Transport) -> Protocol, write: (Protocol) -> Unit, read: (Protocol) -> T): T {
+        val buffer = Buffer()
+        write(newProtocol(BufferTransport(buffer)))
+        val result = read(newProtocol(BufferTransport(buffer)))
+        buffer.size shouldBe 0L
+        return result
+    }
+}
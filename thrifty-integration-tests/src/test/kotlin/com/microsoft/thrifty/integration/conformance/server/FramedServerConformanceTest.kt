@@ -0,0 +1,83 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.integration.conformance.server
+
+import com.microsoft.thrifty.integration.kgen.ThriftTestProcessor
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.CompactProtocol
+import com.microsoft.thrifty.protocol.JsonProtocol
+import com.microsoft.thrifty.server.ThriftServer
+import com.microsoft.thrifty.testing.ServerProtocol
+import com.microsoft.thrifty.testing.TestClient
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.net.InetSocketAddress
+
+class BinaryFramedServerConformanceTest : FramedServerConformanceTest(ServerProtocol.BINARY)
+class CompactFramedServerConformanceTest : FramedServerConformanceTest(ServerProtocol.COMPACT)
+class JsonFramedServerConformanceTest : FramedServerConformanceTest(ServerProtocol.JSON)
+
+/**
+ * Like [KotlinServerConformanceTest], but serving the generated processor
+ * over framed sockets with a [ThriftServer].
+ */
+abstract class FramedServerConformanceTest(
+        private val serverProtocol: ServerProtocol
+) {
+    private lateinit var server: ThriftServer
+
+    @BeforeEach
+    fun setUp() {
+        server = ThriftServer.Builder(ThriftTestProcessor(ThriftTestHandler()))
+                .bindAddress(InetSocketAddress("localhost", 0))
+                .protocolFactory { transport ->
+                    when (serverProtocol) {
+                        ServerProtocol.BINARY -> BinaryProtocol(transport)
+                        ServerProtocol.COMPACT -> CompactProtocol(transport)
+                        ServerProtocol.JSON -> JsonProtocol(transport)
+                    }
+                }
+                .build()
+                .start()
+    }
+
+    @AfterEach
+    fun tearDown() {
+        server.close()
+    }
+
+    @Test
+    fun testServer() {
+        val protocol = when (serverProtocol) {
+            ServerProtocol.BINARY -> "binary"
+            ServerProtocol.COMPACT -> "compact"
+            ServerProtocol.JSON -> "json"
+        }
+
+        TestClient.main(arrayOf(
+            "--host=localhost",
+            "--port=${server.port}",
+            "--transport=framed",
+            "--protocol=$protocol"
+        ))
+    }
+}
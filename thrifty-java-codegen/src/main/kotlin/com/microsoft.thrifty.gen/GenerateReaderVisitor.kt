@@ -32,6 +32,7 @@ import com.microsoft.thrifty.schema.StructType
 import com.microsoft.thrifty.schema.ThriftType
 import com.microsoft.thrifty.schema.TypedefType
 import com.microsoft.thrifty.schema.UserType
+import com.squareup.javapoet.CodeBlock
 import com.squareup.javapoet.MethodSpec
 import com.squareup.javapoet.ParameterizedTypeName
 
@@ -59,14 +60,41 @@ internal open class GenerateReaderVisitor(
 
     private var scope: Int = 0
 
+    // The mask with which to read the field's value, if it is a struct.
+    private var nestedFieldMask: CodeBlock? = null
+
     fun generate() {
         val fieldTypeCode = resolver.getTypeCode(fieldType)
         val codeName = TypeNames.getTypeCodeName(fieldTypeCode)
-        read.beginControlFlow("if (field.typeId == \$T.\$L)", TypeNames.TTYPE, codeName)
+        generate(CodeBlock.of("field.typeId == \$T.\$L", TypeNames.TTYPE, codeName))
+    }
 
-        nameStack.push("value")
-        fieldType.accept(this)
-        nameStack.pop()
+    /**
+     * Generates a projected read of the field with ID [fieldId], which is
+     * skipped unless it is [required] or the [com.microsoft.thrifty.FieldMask]
+     * named [fieldMask] contains it.  If the field is a struct, it is itself
+     * read with the nested mask for [fieldId].
+     */
+    fun generateProjected(fieldMask: String, fieldId: Int, required: Boolean) {
+        val fieldTypeCode = resolver.getTypeCode(fieldType)
+        val codeName = TypeNames.getTypeCodeName(fieldTypeCode)
+        val condition = if (required) {
+            CodeBlock.of("field.typeId == \$T.\$L", TypeNames.TTYPE, codeName)
+        } else {
+            CodeBlock.of("field.typeId == \$T.\$L && \$N.contains(\$L)", TypeNames.TTYPE, codeName, fieldMask, fieldId)
+        }
+        nestedFieldMask = CodeBlock.of("\$N.nested(\$L)", fieldMask, fieldId)
+        try {
+            generate(condition)
+        } finally {
+            nestedFieldMask = null
+        }
+    }
+
+    private fun generate(condition: CodeBlock) {
+        read.beginControlFlow("if (\$L)", condition)
+
+        generateValue("value")
 
         useReadValue("value")
 
@@ -76,6 +104,16 @@ internal open class GenerateReaderVisitor(
 
     }
 
+    /**
+     * Generates code that reads the field's value, without first checking
+     * its type, into a new local variable named [localName].
+     */
+    fun generateValue(localName: String) {
+        nameStack.push(localName)
+        fieldType.accept(this)
+        nameStack.pop()
+    }
+
     protected open fun useReadValue(localName: String) {
         if (failOnUnknownEnumValues || !fieldType.isEnum) {
             read.addStatement("builder.\$N(\$N)", fieldName, localName)
@@ -144,6 +182,13 @@ internal open class GenerateReaderVisitor(
     override fun visitList(listType: ListType) {
         val elementType = resolver.getJavaClass(listType.elementType.trueType)
         val genericListType = ParameterizedTypeName.get(TypeNames.LIST, elementType)
+
+        val primitiveListType = resolver.primitiveListClass(listType)
+        if (primitiveListType != null) {
+            read.addStatement("\$T \$N = \$T.read(protocol)", genericListType, nameStack.peek(), primitiveListType)
+            return
+        }
+
         val listImplType = resolver.listOf(elementType)
 
         val listInfo = "listMetadata$scope"
@@ -228,7 +273,12 @@ internal open class GenerateReaderVisitor(
 
     override fun visitStruct(structType: StructType) {
         val qualifiedJavaName = getFullyQualifiedJavaName(structType)
-        read.addStatement("$1L $2N = $1L.ADAPTER.read(protocol)", qualifiedJavaName, nameStack.peek())
+        val fieldMask = nestedFieldMask
+        if (fieldMask != null && scope == 0 && !structType.isUnion) {
+            read.addStatement("$1L $2N = $1L.ADAPTER.read(protocol, $3L)", qualifiedJavaName, nameStack.peek(), fieldMask)
+        } else {
+            read.addStatement("$1L $2N = $1L.ADAPTER.read(protocol)", qualifiedJavaName, nameStack.peek())
+        }
     }
 
     override fun visitTypedef(typedefType: TypedefType) {
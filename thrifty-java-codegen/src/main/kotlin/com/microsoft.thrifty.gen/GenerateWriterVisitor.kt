@@ -47,23 +47,33 @@ import java.util.LinkedList
  * @param resolver the [TypeResolver] singleton
  * @param write the [Adapter.write] method under construction
  * @param proto the name of the [Protocol] parameter to the write method
- * @param subject the name of the struct parameter to the write method
- * @param fieldName the Java name of the field being written
+ * @param value an expression evaluating to the value being written
  */
 internal class GenerateWriterVisitor(
         private val resolver: TypeResolver,
         private val write: MethodSpec.Builder,
         private val proto: String,
-        subject: String,
-        fieldName: String
+        value: String
 ) : ThriftType.Visitor<Unit> {
 
+    /**
+     * @param subject the name of the struct parameter to the write method
+     * @param fieldName the Java name of the field being written
+     */
+    constructor(
+            resolver: TypeResolver,
+            write: MethodSpec.Builder,
+            proto: String,
+            subject: String,
+            fieldName: String
+    ) : this(resolver, write, proto, "$subject.$fieldName")
+
     /**
      * A stack of names, with the topmost name being the one currently
      * being written/assigned.
      */
     private val nameStack: Deque<String> = LinkedList<String>().apply {
-        push("$subject.$fieldName")
+        push(value)
     }
 
     /**
@@ -113,6 +123,12 @@ internal class GenerateWriterVisitor(
     }
 
     override fun visitList(listType: ListType) {
+        val primitiveListType = resolver.primitiveListClass(listType)
+        if (primitiveListType != null) {
+            write.addStatement("\$T.write(\$N, \$L)", primitiveListType, proto, nameStack.peek())
+            return
+        }
+
         visitSingleElementCollection(
                 listType.elementType.trueType,
                 "writeListBegin",
@@ -130,6 +130,14 @@ internal class ServiceBuilder(
                 .addStatement("super(protocol, listener)")
                 .build())
 
+        builder.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(TypeNames.PROTOCOL, "protocol")
+                .addParameter(TypeNames.SERVICE_CLIENT_LISTENER, "listener")
+                .addParameter(TypeNames.SERVICE_CLIENT_CONFIG, "config")
+                .addStatement("super(protocol, listener, config)")
+                .build())
+
         for ((i, methodSpec) in serviceInterface.methodSpecs.withIndex()) {
             val serviceMethod = service.methods[i]
             val call = buildCallSpec(serviceMethod)
@@ -395,4 +403,327 @@ internal class ServiceBuilder(
 
         return recv.build()
     }
+
+    fun serverInterfaceName(service: ServiceType): ClassName {
+        return ClassName.get(service.getNamespaceFor(NamespaceScope.JAVA) + ".server", service.name)
+    }
+
+    /**
+     * Builds the interface implemented by server-side service handlers.
+     * Unlike the client interface, its methods return their results
+     * directly, and throw the service's declared exceptions.
+     */
+    fun buildServerInterface(service: ServiceType): TypeSpec {
+        val serviceSpec = TypeSpec.interfaceBuilder(service.name)
+                .addModifiers(Modifier.PUBLIC)
+
+        service.documentation.let {
+            if (it.isNotEmpty()) {
+                serviceSpec.addJavadoc(it)
+            }
+        }
+
+        if (service.isDeprecated) {
+            serviceSpec.addAnnotation(AnnotationSpec.builder(Deprecated::class.java).build())
+        }
+
+        service.extendsService?.let {
+            serviceSpec.addSuperinterface(serverInterfaceName(it.trueType as ServiceType))
+        }
+
+        for (method in service.methods) {
+            val allocator = NameAllocator()
+            var tag = 0
+
+            val methodBuilder = MethodSpec.methodBuilder(method.name)
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+
+            if (method.hasJavadoc) {
+                methodBuilder.addJavadoc(method.documentation)
+            }
+
+            for (field in method.parameters) {
+                val name = allocator.newName(fieldNamer.getName(field), ++tag)
+                methodBuilder.addParameter(typeResolver.getJavaClass(field.type.trueType), name)
+            }
+
+            val returnType = method.returnType
+            if (returnType != BuiltinType.VOID) {
+                methodBuilder.returns(typeResolver.getJavaClass(returnType.trueType))
+            }
+
+            for (field in method.exceptions) {
+                methodBuilder.addException(typeResolver.getJavaClass(field.type.trueType))
+            }
+
+            serviceSpec.addMethod(methodBuilder.build())
+        }
+
+        return serviceSpec.build()
+    }
+
+    /**
+     * Builds a [com.microsoft.thrifty.service.server.BlockingProcessor] that
+     * dispatches requests to a handler implementing the service's server
+     * interface, including methods inherited from base services.
+     */
+    fun buildProcessor(service: ServiceType): TypeSpec {
+        val handlerTypeName = serverInterfaceName(service)
+        val builder = TypeSpec.classBuilder(service.name + "Processor")
+                .addModifiers(Modifier.PUBLIC)
+                .addSuperinterface(TypeNames.SERVICE_BLOCKING_PROCESSOR)
+                .addField(handlerTypeName, "handler", Modifier.PRIVATE, Modifier.FINAL)
+
+        builder.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(handlerTypeName, "handler")
+                .addStatement("if (handler == null) throw new NullPointerException(\$S)", "handler")
+                .addStatement("this.handler = handler")
+                .build())
+
+        val names = NameAllocator()
+        names.newName("process")
+        names.newName("writeException")
+
+        val process = MethodSpec.methodBuilder("process")
+                .addAnnotation(Override::class.java)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(TypeNames.PROTOCOL, "input")
+                .addParameter(TypeNames.PROTOCOL, "output")
+                .addException(TypeNames.IO_EXCEPTION)
+                .addStatement("\$T msg = input.readMessageBegin()", TypeNames.MESSAGE_METADATA)
+                .beginControlFlow("switch (msg.name)")
+
+        val processMethods = mutableListOf<MethodSpec>()
+        val services = generateSequence(service) { it.extendsService?.trueType as? ServiceType }
+        for (method in services.toList().asReversed().flatMap { it.methods }) {
+            val capitalized = method.name.replaceFirstChar { if (it.isLowerCase()) it.titlecase(Locale.getDefault()) else it.toString() }
+            val call = buildServerCallSpec(method, names.newName(capitalized + "Call"))
+            builder.addType(call)
+
+            val processMethod = buildProcessMethod(method, names.newName("process$capitalized"), call)
+            processMethods += processMethod
+
+            process.addStatement("case \$S: \$N(msg, input, output); break", method.name, processMethod)
+        }
+
+        process.beginControlFlow("default:")
+                .addStatement("\$T.skip(input, \$T.STRUCT)", TypeNames.PROTO_UTIL, TypeNames.TTYPE)
+                .addStatement("input.readMessageEnd()")
+                .beginControlFlow("if (msg.type != \$T.ONEWAY)", TypeNames.TMESSAGE_TYPE)
+                .addStatement(
+                        "writeException(msg, output, new \$T(\$T.\$L, \$S + msg.name))",
+                        TypeNames.THRIFT_EXCEPTION,
+                        TypeNames.THRIFT_EXCEPTION_KIND,
+                        ThriftException.Kind.UNKNOWN_METHOD.name,
+                        "Unknown method ")
+                .endControlFlow()
+                .addStatement("break")
+                .endControlFlow()
+                .endControlFlow() // end switch
+
+        builder.addMethod(process.build())
+        builder.addMethods(processMethods)
+
+        builder.addMethod(MethodSpec.methodBuilder("writeException")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(TypeNames.MESSAGE_METADATA, "msg")
+                .addParameter(TypeNames.PROTOCOL, "output")
+                .addParameter(TypeNames.THRIFT_EXCEPTION, "e")
+                .addException(TypeNames.IO_EXCEPTION)
+                .addStatement("output.writeMessageBegin(msg.name, \$T.EXCEPTION, msg.seqId)", TypeNames.TMESSAGE_TYPE)
+                .addStatement("e.write(output)")
+                .addStatement("output.writeMessageEnd()")
+                .build())
+
+        return builder.build()
+    }
+
+    private fun buildProcessMethod(method: ServiceMethod, name: String, call: TypeSpec): MethodSpec {
+        val hasReturnType = method.returnType != BuiltinType.VOID
+        val spec = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(TypeNames.MESSAGE_METADATA, "msg")
+                .addParameter(TypeNames.PROTOCOL, "input")
+                .addParameter(TypeNames.PROTOCOL, "output")
+                .addException(TypeNames.IO_EXCEPTION)
+                .addStatement("\$N call = new \$N()", call, call)
+                .addStatement("call.read(input)")
+                .addStatement("input.readMessageEnd()")
+
+        val args = call.fieldSpecs.take(method.parameters.size).joinToString(", ") { "call.${it.name}" }
+        val hasValidate = call.methodSpecs.any { it.name == "validate" }
+
+        spec.beginControlFlow("try")
+        if (hasValidate) {
+            spec.addStatement("call.validate()")
+        }
+        if (hasReturnType) {
+            spec.addStatement("call.\$N = handler.\$N(\$L)", call.fieldSpecs[method.parameters.size], method.name, args)
+        } else {
+            spec.addStatement("handler.\$N(\$L)", method.name, args)
+        }
+
+        if (method.oneWay) {
+            spec.nextControlFlow("catch (\$T ignored)", TypeNames.EXCEPTION)
+            spec.addComment("Oneway calls have no reply, so there is no one to tell")
+            spec.endControlFlow()
+            return spec.build()
+        }
+
+        val exceptionFields = call.fieldSpecs.takeLast(method.exceptions.size)
+        for ((field, fieldSpec) in method.exceptions.zip(exceptionFields)) {
+            spec.nextControlFlow("catch (\$T e)", typeResolver.getJavaClass(field.type.trueType))
+            spec.addStatement("call.\$N = e", fieldSpec)
+        }
+
+        spec.nextControlFlow("catch (\$T e)", TypeNames.THRIFT_EXCEPTION)
+                .addStatement("writeException(msg, output, e)")
+                .addStatement("return")
+                .nextControlFlow("catch (\$T e)", TypeNames.EXCEPTION)
+                .addStatement(
+                        "writeException(msg, output, new \$T(\$T.\$L, \$S))",
+                        TypeNames.THRIFT_EXCEPTION,
+                        TypeNames.THRIFT_EXCEPTION_KIND,
+                        ThriftException.Kind.INTERNAL_ERROR.name,
+                        "Internal error processing ${method.name}")
+                .addStatement("return")
+                .endControlFlow()
+
+        spec.addStatement("output.writeMessageBegin(msg.name, \$T.REPLY, msg.seqId)", TypeNames.TMESSAGE_TYPE)
+        spec.addStatement("call.write(output)")
+        spec.addStatement("output.writeMessageEnd()")
+
+        return spec.build()
+    }
+
+    /**
+     * Builds a holder for one request's arguments and its outcome, which
+     * knows how to read the former and write the latter.
+     *
+     * Its fields are, in order, the method's parameters, its result (if
+     * it is not void), and its declared exceptions.
+     */
+    private fun buildServerCallSpec(method: ServiceMethod, name: String): TypeSpec {
+        val allocator = NameAllocator()
+        val callBuilder = TypeSpec.classBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+
+        val paramNames = method.parameters.map { allocator.newName(fieldNamer.getName(it), it) }
+        val successName = if (method.returnType != BuiltinType.VOID) allocator.newName("success", "success") else null
+        val exceptionNames = method.exceptions.map { allocator.newName(fieldNamer.getName(it), it) }
+
+        for ((field, fieldName) in method.parameters.zip(paramNames)) {
+            callBuilder.addField(typeResolver.getJavaClass(field.type.trueType), fieldName)
+        }
+        if (successName != null) {
+            callBuilder.addField(typeResolver.getJavaClass(method.returnType.trueType), successName)
+        }
+        for ((field, fieldName) in method.exceptions.zip(exceptionNames)) {
+            callBuilder.addField(typeResolver.getJavaClass(field.type.trueType), fieldName)
+        }
+
+        // Read the arguments
+        val read = MethodSpec.methodBuilder("read")
+                .addParameter(TypeNames.PROTOCOL, "protocol")
+                .addException(TypeNames.IO_EXCEPTION)
+                .addStatement("protocol.readStructBegin()")
+                .beginControlFlow("while (true)")
+                .addStatement("\$T field = protocol.readFieldBegin()", TypeNames.FIELD_METADATA)
+                .beginControlFlow("if (field.typeId == \$T.STOP)", TypeNames.TTYPE)
+                .addStatement("break")
+                .endControlFlow()
+                .beginControlFlow("switch (field.fieldId)")
+
+        for ((field, fieldName) in method.parameters.zip(paramNames)) {
+            read.beginControlFlow("case \$L:", field.id)
+            object : GenerateReaderVisitor(typeResolver, read, fieldName, field.type.trueType) {
+                override fun useReadValue(localName: String) {
+                    read.addStatement("this.\$N = \$N", fieldName, localName)
+                }
+            }.generate()
+            read.endControlFlow()
+            read.addStatement("break")
+        }
+
+        read.addStatement("default: \$T.skip(protocol, field.typeId); break", TypeNames.PROTO_UTIL)
+                .endControlFlow() // end switch
+                .addStatement("protocol.readFieldEnd()")
+                .endControlFlow() // end while
+                .addStatement("protocol.readStructEnd()")
+
+        val scope = AtomicInteger(0)
+        for ((field, fieldName) in method.parameters.zip(paramNames)) {
+            val defaultValue = field.defaultValue ?: continue
+            read.beginControlFlow("if (this.\$N == null)", fieldName)
+            val init = CodeBlock.builder()
+            constantBuilder.generateFieldInitializer(
+                    init,
+                    allocator,
+                    scope,
+                    "this.$fieldName",
+                    field.type.trueType,
+                    defaultValue,
+                    false)
+            read.addCode(init.build())
+            read.endControlFlow()
+        }
+
+        callBuilder.addMethod(read.build())
+
+        // Check that required arguments were given
+        val required = method.parameters.zip(paramNames).filter { (field, _) -> field.required && field.defaultValue == null }
+        if (required.isNotEmpty()) {
+            val validate = MethodSpec.methodBuilder("validate")
+            for ((field, fieldName) in required) {
+                validate.beginControlFlow("if (this.\$N == null)", fieldName)
+                validate.addStatement(
+                        "throw new \$T(\$T.\$L, \$S)",
+                        TypeNames.THRIFT_EXCEPTION,
+                        TypeNames.THRIFT_EXCEPTION_KIND,
+                        ThriftException.Kind.PROTOCOL_ERROR.name,
+                        "Required argument '${field.name}' is missing")
+                validate.endControlFlow()
+            }
+            callBuilder.addMethod(validate.build())
+        }
+
+        // Write the result
+        val write = MethodSpec.methodBuilder("write")
+                .addParameter(TypeNames.PROTOCOL, "protocol")
+                .addException(TypeNames.IO_EXCEPTION)
+                .addStatement("protocol.writeStructBegin(\$S)", "result")
+
+        if (successName != null) {
+            val type = method.returnType.trueType
+            write.beginControlFlow("if (this.\$N != null)", successName)
+                    .addStatement("protocol.writeFieldBegin(\$S, 0, \$T.\$L)",
+                            "success",
+                            TypeNames.TTYPE,
+                            TypeNames.getTypeCodeName(typeResolver.getTypeCode(type)))
+            type.accept(GenerateWriterVisitor(typeResolver, write, "protocol", "this", successName))
+            write.addStatement("protocol.writeFieldEnd()")
+                    .endControlFlow()
+        }
+
+        for ((field, fieldName) in method.exceptions.zip(exceptionNames)) {
+            val type = field.type.trueType
+            write.beginControlFlow("if (this.\$N != null)", fieldName)
+                    .addStatement("protocol.writeFieldBegin(\$S, \$L, \$T.\$L)",
+                            field.name,
+                            field.id,
+                            TypeNames.TTYPE,
+                            TypeNames.getTypeCodeName(typeResolver.getTypeCode(type)))
+            type.accept(GenerateWriterVisitor(typeResolver, write, "protocol", "this", fieldName))
+            write.addStatement("protocol.writeFieldEnd()")
+                    .endControlFlow()
+        }
+
+        write.addStatement("protocol.writeFieldStop()")
+                .addStatement("protocol.writeStructEnd()")
+
+        callBuilder.addMethod(write.build())
+
+        return callBuilder.build()
+    }
 }
@@ -50,6 +50,7 @@ import com.squareup.javapoet.MethodSpec
 import com.squareup.javapoet.NameAllocator
 import com.squareup.javapoet.ParameterSpec
 import com.squareup.javapoet.ParameterizedTypeName
+import com.squareup.javapoet.TypeName
 import com.squareup.javapoet.TypeSpec
 import javax.lang.model.element.Modifier
 import java.io.File
@@ -57,6 +58,7 @@ import java.nio.file.Path
 import java.time.Instant
 import java.time.format.DateTimeFormatter
 import java.util.ArrayList
+import java.util.Locale
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 
@@ -73,6 +75,7 @@ class ThriftyCodeGenerator(
     private var emitParcelable: Boolean = false
     private var emitFileComment = true
     private var failOnUnknownEnumValues = true
+    private var generateServer = false
 
     fun withListType(listClassName: String): ThriftyCodeGenerator {
         typeResolver.listClass = ClassName.bestGuess(listClassName)
@@ -89,6 +92,11 @@ class ThriftyCodeGenerator(
         return this
     }
 
+    fun withPrimitiveCollections(): ThriftyCodeGenerator {
+        typeResolver.primitiveCollections = true
+        return this
+    }
+
     fun nullabilityAnnotationType(type: NullabilityAnnotationType): ThriftyCodeGenerator {
         nullabilityAnnotationType = type
         return this
@@ -114,6 +122,11 @@ class ThriftyCodeGenerator(
         return this
     }
 
+    fun generateServer(generateServer: Boolean): ThriftyCodeGenerator {
+        this.generateServer = generateServer
+        return this
+    }
+
     fun generate(directory: Path) {
         generate { file ->
             file?.writeTo(directory)
@@ -150,7 +163,19 @@ class ThriftyCodeGenerator(
             listOf(assembleJavaFile(svc, iface), assembleJavaFile(svc, impl))
         }.filterNotNull()
 
-        return enums + structs + exceptions + unions + constants + services
+        val servers = if (generateServer) {
+            schema.services.flatMap { svc ->
+                val handler = serviceBuilder.buildServerInterface(svc)
+                val processor = serviceBuilder.buildProcessor(svc)
+                val handlerPackage = serviceBuilder.serverInterfaceName(svc).packageName()
+
+                listOf(assembleJavaFile(handlerPackage, handler, svc.location), assembleJavaFile(svc, processor))
+            }.filterNotNull()
+        } else {
+            emptyList()
+        }
+
+        return enums + structs + exceptions + unions + constants + services + servers
     }
 
     private fun generate(writer: (JavaFile?) -> Unit) {
@@ -232,7 +257,7 @@ class ThriftyCodeGenerator(
             val name = fieldNamer.getName(field)
             val fieldType = field.type
             val trueType = fieldType.trueType
-            val fieldTypeName = typeResolver.getJavaClass(trueType)
+            val fieldTypeName = javaTypeOf(field)
 
             // Define field
             var fieldBuilder: FieldSpec.Builder = FieldSpec.builder(fieldTypeName, name)
@@ -271,6 +296,7 @@ class ThriftyCodeGenerator(
             val assignment = CodeBlock.builder().add("$[this.\$N = ", name)
 
             when {
+                field.isLazy -> assignment.add("builder.\$N", name)
                 trueType.isList -> {
                     if (!field.required) {
                         assignment.add("builder.\$N == null ? null : ", name)
@@ -347,7 +373,7 @@ class ThriftyCodeGenerator(
 
         for (field in structType.fields) {
             val name = fieldNamer.getName(field)
-            val fieldType = typeResolver.getJavaClass(field.type.trueType)
+            val fieldType = javaTypeOf(field)
             parcelCtor.addStatement("this.\$N = (\$T) in.readValue(CLASS_LOADER)", name, fieldType)
 
             parcelWriter.addStatement("dest.writeValue(this.\$N)", name)
@@ -417,7 +443,7 @@ class ThriftyCodeGenerator(
         val tempNameId = AtomicInteger(0) // used for generating unique names of temporary values
         for (field in structType.fields) {
             val fieldType = field.type.trueType
-            val javaTypeName = typeResolver.getJavaClass(fieldType)
+            val javaTypeName = javaTypeOf(field)
             val fieldName = fieldNamer.getName(field)
             val f = FieldSpec.builder(javaTypeName, fieldName, Modifier.PRIVATE)
 
@@ -524,6 +550,8 @@ class ThriftyCodeGenerator(
                 TypeNames.ADAPTER,
                 structClassName,
                 builderClassName)
+        val adapterClassName = structClassName.nestedClass(structType.name + "Adapter")
+        val lazyFieldMethods = mutableListOf<MethodSpec>()
 
         val write = MethodSpec.methodBuilder("write")
                 .addAnnotation(TypeNames.OVERRIDE)
@@ -532,7 +560,13 @@ class ThriftyCodeGenerator(
                 .addParameter(structClassName, "struct")
                 .addException(TypeNames.IO_EXCEPTION)
 
-        val read = MethodSpec.methodBuilder("read")
+        // Structs are read with a FieldMask, skipping the optional fields
+        // outside of it; a plain read uses FieldMask.ALL.  A union holds a
+        // single field, so there is nothing to gain from projecting it; it
+        // keeps the default, which reads everything.
+        val projected = !structType.isUnion
+
+        val builderRead = MethodSpec.methodBuilder("read")
                 .addAnnotation(TypeNames.OVERRIDE)
                 .addModifiers(Modifier.PUBLIC)
                 .returns(typeResolver.getJavaClass(structType))
@@ -540,6 +574,19 @@ class ThriftyCodeGenerator(
                 .addParameter(builderClassName, "builder")
                 .addException(TypeNames.IO_EXCEPTION)
 
+        val read = if (projected) {
+            builderRead.addStatement("return read(protocol, builder, \$T.ALL)", TypeNames.FIELD_MASK)
+            MethodSpec.methodBuilder("read")
+                    .addModifiers(Modifier.PRIVATE)
+                    .returns(typeResolver.getJavaClass(structType))
+                    .addParameter(TypeNames.PROTOCOL, "protocol")
+                    .addParameter(builderClassName, "builder")
+                    .addParameter(TypeNames.FIELD_MASK, "fieldMask")
+                    .addException(TypeNames.IO_EXCEPTION)
+        } else {
+            builderRead
+        }
+
         val readHelper = MethodSpec.methodBuilder("read")
                 .addAnnotation(TypeNames.OVERRIDE)
                 .addModifiers(Modifier.PUBLIC)
@@ -549,6 +596,20 @@ class ThriftyCodeGenerator(
                 .addStatement("return read(protocol, new \$T())", builderClassName)
                 .build()
 
+        val projectedRead = if (projected) {
+            MethodSpec.methodBuilder("read")
+                    .addAnnotation(TypeNames.OVERRIDE)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(typeResolver.getJavaClass(structType))
+                    .addParameter(TypeNames.PROTOCOL, "protocol")
+                    .addParameter(TypeNames.FIELD_MASK, "fieldMask")
+                    .addException(TypeNames.IO_EXCEPTION)
+                    .addStatement("return read(protocol, new \$T(), fieldMask)", builderClassName)
+                    .build()
+        } else {
+            null
+        }
+
         // First, the writer
         write.addStatement("protocol.writeStructBegin(\$S)", structType.name)
 
@@ -584,7 +645,13 @@ class ThriftyCodeGenerator(
                     TypeNames.TTYPE,
                     typeCodeName)
 
-            tt.accept(GenerateWriterVisitor(typeResolver, write, "protocol", "struct", fieldName))
+            if (field.isLazy) {
+                val writeMethod = lazyFieldWriter(field)
+                lazyFieldMethods += writeMethod
+                write.addStatement("struct.\$N.write(protocol, \$T::\$N)", fieldName, adapterClassName, writeMethod)
+            } else {
+                tt.accept(GenerateWriterVisitor(typeResolver, write, "protocol", "struct", fieldName))
+            }
 
             write.addStatement("protocol.writeFieldEnd()")
 
@@ -599,7 +666,29 @@ class ThriftyCodeGenerator(
             }
 
             read.beginControlFlow("case \$L:", field.id)
-            GenerateReaderVisitor(typeResolver, read, fieldName, tt, effectiveFailOnUnknownValues).generate()
+            if (field.isLazy) {
+                val readMethod = lazyFieldReader(field, effectiveFailOnUnknownValues)
+                lazyFieldMethods += readMethod
+                if (projected && optional) {
+                    read.beginControlFlow("if (field.typeId == \$T.\$L && fieldMask.contains(\$L))",
+                            TypeNames.TTYPE, typeCodeName, field.id)
+                } else {
+                    read.beginControlFlow("if (field.typeId == \$T.\$L)", TypeNames.TTYPE, typeCodeName)
+                }
+                read.addStatement("\$T value = \$T.read(protocol, \$T.\$L, \$T::\$N)",
+                        javaTypeOf(field), TypeNames.LAZY_FIELD, TypeNames.TTYPE, typeCodeName, adapterClassName, readMethod)
+                read.addStatement("builder.\$N(value)", fieldName)
+                read.nextControlFlow("else")
+                read.addStatement("\$T.skip(protocol, field.typeId)", TypeNames.PROTO_UTIL)
+                read.endControlFlow()
+            } else {
+                val visitor = GenerateReaderVisitor(typeResolver, read, fieldName, tt, effectiveFailOnUnknownValues)
+                if (projected) {
+                    visitor.generateProjected("fieldMask", field.id, field.required)
+                } else {
+                    visitor.generate()
+                }
+            }
             read.endControlFlow() // end case block
             read.addStatement("break")
         }
@@ -620,15 +709,78 @@ class ThriftyCodeGenerator(
         read.addStatement("protocol.readStructEnd()")
         read.addStatement("return builder.build()")
 
-        return TypeSpec.classBuilder(structType.name + "Adapter")
+        val adapter = TypeSpec.classBuilder(adapterClassName)
                 .addSuperinterface(adapterSuperclass)
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
                 .addMethod(write.build())
-                .addMethod(read.build())
+                .addMethod(builderRead.build())
                 .addMethod(readHelper)
+        if (projectedRead != null) {
+            adapter.addMethod(projectedRead)
+            adapter.addMethod(read.build())
+        }
+        return adapter
+                .addMethods(lazyFieldMethods)
                 .build()
     }
 
+    /**
+     * The type of the given field's Java member; lazy fields are wrapped
+     * in a [com.microsoft.thrifty.LazyField].
+     */
+    private fun javaTypeOf(field: Field): TypeName {
+        val typeName = typeResolver.getJavaClass(field.type.trueType)
+        return if (field.isLazy) {
+            ParameterizedTypeName.get(TypeNames.LAZY_FIELD, typeName)
+        } else {
+            typeName
+        }
+    }
+
+    /**
+     * Builds an adapter method that decodes the value of a lazy field.
+     * Containers are made unmodifiable here, as the struct constructor
+     * does for other fields.
+     */
+    private fun lazyFieldReader(field: Field, failOnUnknownEnumValues: Boolean): MethodSpec {
+        val tt = field.type.trueType
+        val method = MethodSpec.methodBuilder("read" + lazyFieldMethodSuffix(field))
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(typeResolver.getJavaClass(tt))
+                .addParameter(TypeNames.PROTOCOL, "protocol")
+                .addException(TypeNames.IO_EXCEPTION)
+
+        GenerateReaderVisitor(typeResolver, method, fieldNamer.getName(field), tt, failOnUnknownEnumValues)
+                .generateValue("value")
+
+        when {
+            tt.isList -> method.addStatement("return \$T.unmodifiableList(value)", TypeNames.COLLECTIONS)
+            tt.isSet -> method.addStatement("return \$T.unmodifiableSet(value)", TypeNames.COLLECTIONS)
+            tt.isMap -> method.addStatement("return \$T.unmodifiableMap(value)", TypeNames.COLLECTIONS)
+            else -> method.addStatement("return value")
+        }
+        return method.build()
+    }
+
+    /**
+     * Builds an adapter method that encodes the value of a lazy field.
+     */
+    private fun lazyFieldWriter(field: Field): MethodSpec {
+        val tt = field.type.trueType
+        val method = MethodSpec.methodBuilder("write" + lazyFieldMethodSuffix(field))
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(TypeNames.PROTOCOL, "protocol")
+                .addParameter(typeResolver.getJavaClass(tt), "value")
+                .addException(TypeNames.IO_EXCEPTION)
+
+        tt.accept(GenerateWriterVisitor(typeResolver, method, "protocol", "value"))
+        return method.build()
+    }
+
+    private fun lazyFieldMethodSuffix(field: Field): String {
+        return fieldNamer.getName(field).replaceFirstChar { it.titlecase(Locale.US) }
+    }
+
     private fun buildWrite(): MethodSpec {
         return MethodSpec.methodBuilder("write")
                 .addAnnotation(TypeNames.OVERRIDE)
@@ -758,6 +910,19 @@ class ThriftyCodeGenerator(
          */
         class Chunk(val format: String, vararg val args: Any)
 
+        /**
+         * An expression for the value of an obfuscated container field,
+         * which must be decoded first if the field is lazy.
+         */
+        fun obfuscatedValue(field: Field): String {
+            val fieldName = fieldNamer.getName(field)
+            return if (field.isLazy) {
+                "(this.$fieldName == null ? null : this.$fieldName.getValue())"
+            } else {
+                "this.$fieldName"
+            }
+        }
+
         val toString = MethodSpec.methodBuilder("toString")
                 .addAnnotation(TypeNames.OVERRIDE)
                 .addModifiers(Modifier.PUBLIC)
@@ -794,9 +959,9 @@ class ThriftyCodeGenerator(
                             elementType = (fieldType as SetType).elementType.name
                         }
 
-                        Chunk("\$T.summarizeCollection(this.\$L, \$S, \$S)",
+                        Chunk("\$T.summarizeCollection(\$L, \$S, \$S)",
                                 TypeNames.OBFUSCATION_UTIL,
-                                fieldName,
+                                obfuscatedValue(field),
                                 type,
                                 elementType)
                     } else if (fieldType.isMap) {
@@ -804,9 +969,9 @@ class ThriftyCodeGenerator(
                         val keyType = mapType.keyType.name
                         val valueType = mapType.valueType.name
 
-                        Chunk("\$T.summarizeMap(this.\$L, \$S, \$S)",
+                        Chunk("\$T.summarizeMap(\$L, \$S, \$S)",
                                 TypeNames.OBFUSCATION_UTIL,
-                                fieldName,
+                                obfuscatedValue(field),
                                 keyType,
                                 valueType)
                     } else {
@@ -21,6 +21,8 @@
 package com.microsoft.thrifty.gen
 
 import com.microsoft.thrifty.Adapter
+import com.microsoft.thrifty.FieldMask
+import com.microsoft.thrifty.LazyField
 import com.microsoft.thrifty.Obfuscated
 import com.microsoft.thrifty.Redacted
 import com.microsoft.thrifty.StructBuilder
@@ -34,9 +36,14 @@ import com.microsoft.thrifty.protocol.MessageMetadata
 import com.microsoft.thrifty.protocol.Protocol
 import com.microsoft.thrifty.protocol.SetMetadata
 import com.microsoft.thrifty.service.AsyncClientBase
+import com.microsoft.thrifty.service.ClientConfig
 import com.microsoft.thrifty.service.MethodCall
 import com.microsoft.thrifty.service.ServiceMethodCallback
 import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.service.server.BlockingProcessor
+import com.microsoft.thrifty.util.DoubleList
+import com.microsoft.thrifty.util.IntList
+import com.microsoft.thrifty.util.LongList
 import com.microsoft.thrifty.util.ObfuscationUtil
 import com.microsoft.thrifty.util.ProtocolUtil
 import com.squareup.javapoet.ClassName
@@ -75,6 +82,10 @@ internal object TypeNames {
     val LINKED_HASH_MAP = classNameOf<LinkedHashMap<*, *>>()
     val LINKED_HASH_SET = classNameOf<LinkedHashSet<*>>()
 
+    val INT_LIST = classNameOf<IntList>()
+    val LONG_LIST = classNameOf<LongList>()
+    val DOUBLE_LIST = classNameOf<DoubleList>()
+
     val LIST_META = classNameOf<ListMetadata>()
     val SET_META = classNameOf<SetMetadata>()
     val MAP_META = classNameOf<MapMetadata>()
@@ -92,6 +103,8 @@ internal object TypeNames {
 
     val BUILDER = classNameOf<StructBuilder<*>>()
     val ADAPTER = classNameOf<Adapter<*, *>>()
+    val LAZY_FIELD = classNameOf<LazyField<*>>()
+    val FIELD_MASK = classNameOf<FieldMask>()
 
     val FIELD_METADATA = classNameOf<FieldMetadata>()
     val MESSAGE_METADATA = classNameOf<MessageMetadata>()
@@ -111,7 +124,9 @@ internal object TypeNames {
     val SERVICE_CALLBACK = classNameOf<ServiceMethodCallback<*>>()
     val SERVICE_CLIENT_BASE = classNameOf<AsyncClientBase>()
     val SERVICE_CLIENT_LISTENER = classNameOf<AsyncClientBase.Listener>()
+    val SERVICE_CLIENT_CONFIG = classNameOf<ClientConfig>()
     val SERVICE_METHOD_CALL = classNameOf<MethodCall<*>>()
+    val SERVICE_BLOCKING_PROCESSOR = classNameOf<BlockingProcessor>()
 
     val PARCEL = ClassName.get("android.os", "Parcel")
     val PARCELABLE = ClassName.get("android.os", "Parcelable")
@@ -46,6 +46,7 @@ internal class TypeResolver {
     var listClass = TypeNames.ARRAY_LIST
     var setClass = TypeNames.LINKED_HASH_SET
     var mapClass = TypeNames.LINKED_HASH_MAP
+    var primitiveCollections = false
 
     /**
      * Returns the [TType] constant representing the type-code for the given
@@ -63,6 +64,23 @@ internal class TypeResolver {
         return ParameterizedTypeName.get(listClass, elementType)
     }
 
+    /**
+     * Returns the runtime class that reads and writes lists of the given
+     * type without boxing their elements, if [primitiveCollections] are
+     * enabled and there is one for the list's element type.
+     */
+    fun primitiveListClass(listType: ListType): ClassName? {
+        if (!primitiveCollections) {
+            return null
+        }
+        return when (listType.elementType.trueType) {
+            BuiltinType.I32 -> TypeNames.INT_LIST
+            BuiltinType.I64 -> TypeNames.LONG_LIST
+            BuiltinType.DOUBLE -> TypeNames.DOUBLE_LIST
+            else -> null
+        }
+    }
+
     fun setOf(elementType: TypeName): ParameterizedTypeName {
         return ParameterizedTypeName.get(setClass, elementType)
     }
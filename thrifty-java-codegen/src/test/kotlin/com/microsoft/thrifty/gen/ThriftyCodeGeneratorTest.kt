@@ -445,7 +445,7 @@ class ThriftyCodeGeneratorTest {
         """
         val expected = """
           case 1: {
-            if (field.typeId == TType.I32) {
+            if (field.typeId == TType.I32 && fieldMask.contains(1)) {
               int i32_0 = protocol.readI32();
               structs.enums.TestEnum value = structs.enums.TestEnum.findByValue(i32_0);
               if (value == null) {
@@ -479,7 +479,7 @@ class ThriftyCodeGeneratorTest {
         """
         val expected = """
           case 1: {
-            if (field.typeId == TType.I32) {
+            if (field.typeId == TType.I32 && fieldMask.contains(1)) {
               int i32_0 = protocol.readI32();
               structs.enums.TestEnum value = structs.enums.TestEnum.findByValue(i32_0);
               if (value != null) {
@@ -630,6 +630,144 @@ class ThriftyCodeGeneratorTest {
         """.trimMargin()
     }
 
+    @Test
+    fun serverProcessorAndHandler() {
+        val thrift = """
+            namespace java test.server
+
+            exception Oops {
+              1: string reason
+            }
+
+            service Base {
+              string name()
+            }
+
+            service Calc extends Base {
+              i32 add(1: i32 a, 2: i32 b = 10) throws (1: Oops oops)
+              oneway void poke(1: string why)
+            }
+        """
+
+        val schema = parse("server.thrift", thrift)
+        val gen = ThriftyCodeGenerator(schema).emitFileComment(false).generateServer(true)
+        val javaFiles = gen.generateTypes()
+
+        val handler = javaFiles.single { it.packageName == "test.server.server" && it.typeSpec.name == "Calc" }
+        handler.toString() shouldContain """
+            |public interface Calc extends Base {
+            |  Integer add(Integer a, Integer b) throws Oops;
+            |
+            |  void poke(String why);
+            |}
+        """.trimMargin()
+
+        val processor = javaFiles.single { it.typeSpec.name == "CalcProcessor" }.toString()
+        processor shouldContain "public class CalcProcessor implements BlockingProcessor {"
+        processor shouldContain """
+            |    switch (msg.name) {
+            |      case "name": processName(msg, input, output); break;
+            |      case "add": processAdd(msg, input, output); break;
+            |      case "poke": processPoke(msg, input, output); break;
+        """.trimMargin()
+        processor shouldContain """
+            |    } catch (Oops e) {
+            |      call.oops = e;
+            |    } catch (ThriftException e) {
+        """.trimMargin()
+        processor shouldContain "this.b = 10;"
+        processor shouldContain "// Oneway calls have no reply, so there is no one to tell"
+
+        gen.generateServer(false).generateTypes().none { it.typeSpec.name == "CalcProcessor" } shouldBe true
+    }
+
+    @Test
+    fun primitiveCollections() {
+        val thrift = """
+            namespace java test.primitive
+
+            struct Samples {
+              1: required list<i64> times;
+              2: optional list<double> values;
+              3: optional list<string> labels;
+            }
+        """
+
+        val schema = parse("primitive.thrift", thrift)
+        val gen = ThriftyCodeGenerator(schema).emitFileComment(false).withPrimitiveCollections()
+        val java = gen.generateTypes().single().toString()
+
+        java shouldContain "List<Long> value = LongList.read(protocol);"
+        java shouldContain "List<Double> value = DoubleList.read(protocol);"
+        java shouldContain "LongList.write(protocol, struct.times);"
+        java shouldContain "DoubleList.write(protocol, struct.values);"
+        java shouldContain "List<String> value = new ArrayList<String>(listMetadata0.size);"
+    }
+
+    @Test
+    fun lazyFields() {
+        val thrift = """
+            namespace java test.lazy
+
+            struct Header {
+              1: optional string name;
+            }
+
+            struct Envelope {
+              1: required i32 id;
+              2: required Header header (thrifty.lazy = "true");
+              3: optional list<Header> history (thrifty.lazy = "true");
+            }
+        """
+
+        val java = compile("lazy.thrift", thrift).single { it.typeSpec.name == "Envelope" }.toString()
+
+        java shouldContain "public final LazyField<Header> header;"
+        java shouldContain "LazyField<List<Header>> value = LazyField.read(protocol, TType.LIST, EnvelopeAdapter::readHistory);"
+        java shouldContain "struct.header.write(protocol, EnvelopeAdapter::writeHeader);"
+        java shouldContain "private static List<Header> readHistory(Protocol protocol) throws IOException {"
+        java shouldContain "return Collections.unmodifiableList(value);"
+        java shouldContain "this.history = builder.history;"
+    }
+
+    @Test
+    fun projectedReads() {
+        val thrift = """
+            namespace java test.projection
+
+            struct Header {
+              1: optional string name;
+            }
+
+            union Payload {
+              1: string text;
+              2: binary data;
+            }
+
+            struct Envelope {
+              1: required i32 id;
+              2: optional Header header;
+              3: optional list<Header> history;
+              4: optional Payload payload;
+            }
+        """
+
+        val java = compile("projection.thrift", thrift).associate { it.typeSpec.name to it.toString() }
+        val envelope = java.getValue("Envelope")
+
+        envelope shouldContain "return read(protocol, builder, FieldMask.ALL);"
+        envelope shouldContain "return read(protocol, new Builder(), fieldMask);"
+        envelope.replace(Regex("\\s+"), " ") shouldContain
+                "private Envelope read(Protocol protocol, Builder builder, FieldMask fieldMask) throws IOException {"
+        envelope.split("switch (field.fieldId)").size shouldBe 2
+        envelope shouldContain "if (field.typeId == TType.I32) {"
+        envelope shouldContain "if (field.typeId == TType.STRUCT && fieldMask.contains(2)) {"
+        envelope shouldContain "test.projection.Header value = test.projection.Header.ADAPTER.read(protocol, fieldMask.nested(2));"
+        envelope shouldContain "if (field.typeId == TType.LIST && fieldMask.contains(3)) {"
+        envelope shouldContain "test.projection.Payload value = test.projection.Payload.ADAPTER.read(protocol);"
+        java.getValue("Payload") shouldNotContain "FieldMask"
+    }
+
     private fun compile(filename: String, text: String): List<JavaFile> {
         val schema = parse(filename, text)
         val gen = ThriftyCodeGenerator(schema).emitFileComment(false)
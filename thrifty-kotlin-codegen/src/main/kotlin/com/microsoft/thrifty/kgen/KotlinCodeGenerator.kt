@@ -24,6 +24,8 @@ import com.google.common.cache.CacheBuilder
 import com.google.common.cache.CacheLoader
 import com.google.common.collect.LinkedHashMultimap
 import com.microsoft.thrifty.Adapter
+import com.microsoft.thrifty.FieldMask
+import com.microsoft.thrifty.LazyField
 import com.microsoft.thrifty.Obfuscated
 import com.microsoft.thrifty.Redacted
 import com.microsoft.thrifty.Struct
@@ -59,13 +61,19 @@ import com.microsoft.thrifty.schema.parser.ListValueElement
 import com.microsoft.thrifty.schema.parser.LiteralValueElement
 import com.microsoft.thrifty.schema.parser.MapValueElement
 import com.microsoft.thrifty.service.AsyncClientBase
+import com.microsoft.thrifty.service.ClientConfig
 import com.microsoft.thrifty.service.MethodCall
+import com.microsoft.thrifty.service.MethodMetrics
 import com.microsoft.thrifty.service.ServiceMethodCallback
 import com.microsoft.thrifty.service.TMessageType
 import com.microsoft.thrifty.service.server.DefaultErrorHandler
 import com.microsoft.thrifty.service.server.ErrorHandler
 import com.microsoft.thrifty.service.server.Processor
 import com.microsoft.thrifty.service.server.ServerCall
+import com.microsoft.thrifty.service.server.ServerInterceptor
+import com.microsoft.thrifty.util.DoubleList
+import com.microsoft.thrifty.util.IntList
+import com.microsoft.thrifty.util.LongList
 import com.microsoft.thrifty.util.ObfuscationUtil
 import com.microsoft.thrifty.util.ProtocolUtil
 import com.squareup.kotlinpoet.AnnotationSpec
@@ -158,6 +166,7 @@ class KotlinCodeGenerator(
     private var listClassName: ClassName? = null
     private var setClassName: ClassName? = null
     private var mapClassName: ClassName? = null
+    private var primitiveCollections: Boolean = false
 
     private val nameAllocators = CacheBuilder
             .newBuilder()
@@ -241,6 +250,10 @@ class KotlinCodeGenerator(
         this.mapClassName = ClassName.bestGuess(name)
     }
 
+    fun primitiveCollections(): KotlinCodeGenerator = apply {
+        this.primitiveCollections = true
+    }
+
     fun withDataClassBuilders(): KotlinCodeGenerator = apply {
         this.builderlessDataClasses = false
     }
@@ -527,7 +540,7 @@ class KotlinCodeGenerator(
         val nameAllocator = nameAllocators[struct]
         for (field in struct.fields) {
             val fieldName = nameAllocator.get(field)
-            val typeName = field.type.typeName.let {
+            val typeName = fieldTypeName(field).let {
                 if (!field.required) it.copy(nullable = true) else it
             }
 
@@ -785,18 +798,25 @@ class KotlinCodeGenerator(
                 when {
                     field.isRedacted -> add("<REDACTED>")
                     field.isObfuscated -> {
+                        // Containers are summarized by their contents,
+                        // so lazy ones must be decoded.
+                        val value = when {
+                            !field.isLazy -> fieldName
+                            field.required -> "$fieldName.value"
+                            else -> "$fieldName?.value"
+                        }
                         val type = field.type
                         when (type) {
                             is ListType -> {
                                 val elementName = type.elementType.name
-                                add("\${%T.summarizeCollection($fieldName, %S, %S)}",
+                                add("\${%T.summarizeCollection($value, %S, %S)}",
                                         ObfuscationUtil::class,
                                         "list",
                                         elementName)
                             }
                             is SetType -> {
                                 val elementName = type.elementType.name
-                                add("\${%T.summarizeCollection($fieldName, %S, %S)}",
+                                add("\${%T.summarizeCollection($value, %S, %S)}",
                                         ObfuscationUtil::class,
                                         "set",
                                         elementName)
@@ -804,7 +824,7 @@ class KotlinCodeGenerator(
                             is MapType -> {
                                 val keyName = type.keyType.name
                                 val valName = type.valueType.name
-                                add("\${%T.summarizeMap($fieldName, %S, %S)}",
+                                add("\${%T.summarizeMap($value, %S, %S)}",
                                         ObfuscationUtil::class,
                                         keyName,
                                         valName)
@@ -863,7 +883,7 @@ class KotlinCodeGenerator(
                 buildParamStringBuilder.add(", ")
             }
             val name = nameAllocator.get(field)
-            val type = field.type.typeName
+            val type = fieldTypeName(field)
 
             // Add a private var
 
@@ -1019,14 +1039,27 @@ class KotlinCodeGenerator(
                 .addModifiers(KModifier.PRIVATE)
                 .addSuperinterface(adapterInterfaceName)
 
+        // Structs are read with a FieldMask, skipping the optional fields
+        // outside of it; a plain read uses FieldMask.ALL.  A union holds a
+        // single field, so there is nothing to gain from projecting it; it
+        // keeps the default, which reads everything.
+        val fieldMask = if (struct.isUnion) null else "fieldMask"
+
         val reader = FunSpec.builder("read").apply {
-            addModifiers(KModifier.OVERRIDE)
+            if (fieldMask != null && builderType != null) {
+                addModifiers(KModifier.PRIVATE)
+            } else {
+                addModifiers(KModifier.OVERRIDE)
+            }
             returns(struct.typeName)
             addParameter("protocol", Protocol::class)
 
             if (builderType != null) {
                 addParameter("builder", builderType)
             }
+            if (fieldMask != null) {
+                addParameter(fieldMask, FieldMask::class)
+            }
         }
 
         val writer = FunSpec.builder("write")
@@ -1053,7 +1086,13 @@ class KotlinCodeGenerator(
                     TType::class,
                     fieldType.typeCodeName)
 
-            generateWriteCall(writer, "struct.$name", fieldType)
+            if (field.isLazy) {
+                val writeFun = lazyFieldWriter(field, name)
+                adapter.addFunction(writeFun)
+                writer.addStatement("struct.%N.write(protocol, this::%N)", name, writeFun)
+            } else {
+                generateWriteCall(writer, "struct.$name", fieldType)
+            }
 
             writer.addStatement("protocol.writeFieldEnd()")
 
@@ -1072,7 +1111,7 @@ class KotlinCodeGenerator(
 
         if (builderType == null) {
             for (field in struct.fields) {
-                reader.addStatement("var %N: %T? = null", localFieldName(field), field.type.typeName)
+                reader.addStatement("var %N: %T? = null", localFieldName(field), fieldTypeName(field))
             }
         }
 
@@ -1095,14 +1134,31 @@ class KotlinCodeGenerator(
 
                 reader.addCode {
                     addStatement("${field.id}·->·{⇥")
-                    beginControlFlow("if (fieldMeta.typeId == %T.%L)", TType::class, fieldType.typeCodeName)
+                    if (fieldMask != null && !field.required) {
+                        beginControlFlow("if (fieldMeta.typeId == %T.%L && %N.contains(%L))",
+                                TType::class, fieldType.typeCodeName, fieldMask, field.id)
+                    } else {
+                        beginControlFlow("if (fieldMeta.typeId == %T.%L)", TType::class, fieldType.typeCodeName)
+                    }
 
                     val effectiveFailOnUnknownValues = if (fieldType.isEnum) {
                         failOnUnknownEnumValues || field.required
                     } else {
                         failOnUnknownEnumValues
                     }
-                    generateReadCall(this, name, fieldType, failOnUnknownEnumValues = effectiveFailOnUnknownValues)
+                    if (field.isLazy) {
+                        val readFun = lazyFieldReader(field, name, effectiveFailOnUnknownValues)
+                        adapter.addFunction(readFun)
+                        addStatement("val $name = %T.read(protocol, %T.%L, this::%N)",
+                                LazyField::class, TType::class, fieldType.typeCodeName, readFun)
+                    } else {
+                        generateReadCall(
+                                this,
+                                name,
+                                fieldType,
+                                failOnUnknownEnumValues = effectiveFailOnUnknownValues,
+                                fieldMask = fieldMask?.let { "$it.nested(${field.id})" })
+                    }
 
                     if (effectiveFailOnUnknownValues || !fieldType.isEnum) {
                         if (builderType != null) {
@@ -1178,6 +1234,32 @@ class KotlinCodeGenerator(
                     .build())
         }
 
+        if (fieldMask != null) {
+            if (builderType != null) {
+                adapter.addFunction(FunSpec.builder("read")
+                        .addModifiers(KModifier.OVERRIDE)
+                        .returns(struct.typeName)
+                        .addParameter("protocol", Protocol::class)
+                        .addParameter("builder", builderType)
+                        .addStatement("return read(protocol, builder, %T.ALL)", FieldMask::class)
+                        .build())
+                adapter.addFunction(FunSpec.builder("read")
+                        .addModifiers(KModifier.OVERRIDE)
+                        .returns(struct.typeName)
+                        .addParameter("protocol", Protocol::class)
+                        .addParameter(fieldMask, FieldMask::class)
+                        .addStatement("return read(protocol, %T(), %N)", builderType, fieldMask)
+                        .build())
+            } else {
+                adapter.addFunction(FunSpec.builder("read")
+                        .addModifiers(KModifier.OVERRIDE)
+                        .returns(struct.typeName)
+                        .addParameter("protocol", Protocol::class)
+                        .addStatement("return read(protocol, %T.ALL)", FieldMask::class)
+                        .build())
+            }
+        }
+
         return adapter
                 .addFunction(reader.build())
                 .addFunction(writer.build())
@@ -1374,6 +1456,12 @@ class KotlinCodeGenerator(
                 }
 
                 override fun visitList(listType: ListType) {
+                    val primitiveListClass = primitiveListClass(listType)
+                    if (primitiveListClass != null) {
+                        writer.addStatement("%T.write(%N, %L)", primitiveListClass, "protocol", source)
+                        return
+                    }
+
                     val elementType = listType.elementType
                     writer.addStatement(
                             "%N.writeListBegin(%T.%L, %L.size)",
@@ -1452,13 +1540,71 @@ class KotlinCodeGenerator(
         generateRecursiveWrite(name, type, 0)
     }
 
+    /**
+     * The type of the given struct field's property; lazy fields are
+     * wrapped in a [LazyField].
+     */
+    private fun fieldTypeName(field: Field): TypeName {
+        val typeName = field.type.typeName
+        return if (field.isLazy) {
+            LazyField::class.asClassName().parameterizedBy(typeName)
+        } else {
+            typeName
+        }
+    }
+
+    /**
+     * Builds an adapter function that decodes the value of a lazy field.
+     */
+    private fun lazyFieldReader(field: Field, name: String, failOnUnknownEnumValues: Boolean): FunSpec {
+        return FunSpec.builder("read${name.capitalize()}")
+                .addModifiers(KModifier.PRIVATE)
+                .addParameter("protocol", Protocol::class)
+                .returns(field.type.typeName)
+                .addCode(buildCodeBlock {
+                    generateReadCall(this, "value", field.type, failOnUnknownEnumValues = failOnUnknownEnumValues)
+                    addStatement("return value")
+                })
+                .build()
+    }
+
+    /**
+     * Builds an adapter function that encodes the value of a lazy field.
+     */
+    private fun lazyFieldWriter(field: Field, name: String): FunSpec {
+        return FunSpec.builder("write${name.capitalize()}")
+                .addModifiers(KModifier.PRIVATE)
+                .addParameter("protocol", Protocol::class)
+                .addParameter("value", field.type.typeName)
+                .apply { generateWriteCall(this, "value", field.type) }
+                .build()
+    }
+
+    /**
+     * Returns the runtime class that reads and writes lists of the given
+     * type without boxing their elements, if primitive collections are
+     * enabled and there is one for the list's element type.
+     */
+    private fun primitiveListClass(listType: ListType): ClassName? {
+        if (!primitiveCollections) {
+            return null
+        }
+        return when (listType.elementType.trueType) {
+            BuiltinType.I32 -> IntList::class.asClassName()
+            BuiltinType.I64 -> LongList::class.asClassName()
+            BuiltinType.DOUBLE -> DoubleList::class.asClassName()
+            else -> null
+        }
+    }
+
     private fun generateReadCall(
             block: CodeBlock.Builder,
             name: String,
             type: ThriftType,
             scope: Int = 0,
             localNamePrefix: String = "",
-            failOnUnknownEnumValues: Boolean = true
+            failOnUnknownEnumValues: Boolean = true,
+            fieldMask: String? = null
     ): CodeBlock.Builder {
         type.accept(object : ThriftType.Visitor<Unit> {
             override fun visitVoid(voidType: BuiltinType) {
@@ -1513,6 +1659,12 @@ class KotlinCodeGenerator(
             }
 
             override fun visitList(listType: ListType) {
+                val primitiveListClass = primitiveListClass(listType)
+                if (primitiveListClass != null) {
+                    block.addStatement("val $name = %T.read(protocol)", primitiveListClass)
+                    return
+                }
+
                 val elementType = listType.elementType
                 val listImplClassName = listClassName ?: ClassNames.ARRAY_LIST
                 val listImplType = listImplClassName.parameterizedBy(elementType.typeName)
@@ -1592,7 +1744,11 @@ class KotlinCodeGenerator(
             }
 
             override fun visitStruct(structType: StructType) {
-                block.addStatement("val $name = %T.ADAPTER.read(protocol)", structType.typeName)
+                if (fieldMask != null && !structType.isUnion) {
+                    block.addStatement("val $name = %T.ADAPTER.read(protocol, $fieldMask)", structType.typeName)
+                } else {
+                    block.addStatement("val $name = %T.ADAPTER.read(protocol)", structType.typeName)
+                }
             }
 
             override fun visitTypedef(typedefType: TypedefType) {
@@ -2046,12 +2202,17 @@ class KotlinCodeGenerator(
             }
 
             primaryConstructor(FunSpec.constructorBuilder()
+                    .addAnnotation(JvmOverloads::class)
                     .addParameter("protocol", Protocol::class)
                     .addParameter("listener", AsyncClientBase.Listener::class)
+                    .addParameter(ParameterSpec.builder("config", ClientConfig::class)
+                            .defaultValue("%T.DEFAULT", ClientConfig::class)
+                            .build())
                     .build())
 
             addSuperclassConstructorParameter("protocol", Protocol::class)
             addSuperclassConstructorParameter("listener", AsyncClientBase.Listener::class)
+            addSuperclassConstructorParameter("config", ClientConfig::class)
         }
 
         for ((index, interfaceFun) in serviceInterface.funSpecs.withIndex()) {
@@ -2083,6 +2244,7 @@ class KotlinCodeGenerator(
 
     internal fun generateProcessorImplementation(schema: Schema, serviceType: ServiceType, serviceInterface: TypeSpec): TypeSpec {
         val serverTypeName = serviceType.name + "Processor"
+        val interceptorListType = List::class.asClassName().parameterizedBy(ServerInterceptor::class.asClassName())
         val type = TypeSpec.classBuilder(serverTypeName).apply {
             primaryConstructor(
                     FunSpec.constructorBuilder()
@@ -2091,6 +2253,14 @@ class KotlinCodeGenerator(
                                     "errorHandler",
                                     ErrorHandler::class).defaultValue("%T", DefaultErrorHandler::class).build()
                             )
+                            .addParameter(ParameterSpec.builder(
+                                    "metrics",
+                                    MethodMetrics::class).defaultValue("%T.NONE", MethodMetrics::class).build()
+                            )
+                            .addParameter(ParameterSpec.builder(
+                                    "interceptors",
+                                    interceptorListType).defaultValue("emptyList()").build()
+                            )
                             .build()
             )
             addProperty(
@@ -2099,6 +2269,18 @@ class KotlinCodeGenerator(
                             .addModifiers(KModifier.PRIVATE)
                             .build()
             )
+            addProperty(
+                    PropertySpec.builder("metrics", MethodMetrics::class)
+                            .initializer("metrics")
+                            .addModifiers(KModifier.PRIVATE)
+                            .build()
+            )
+            addProperty(
+                    PropertySpec.builder("interceptors", interceptorListType)
+                            .initializer("interceptors")
+                            .addModifiers(KModifier.PRIVATE)
+                            .build()
+            )
             addProperty(
                     PropertySpec.builder("handler", getServerTypeName(serviceType))
                             .initializer("handler")
@@ -2141,7 +2323,7 @@ class KotlinCodeGenerator(
             endControlFlow()
             endControlFlow()
 
-            addStatement("call.process(msg, input, output, errorHandler, handler)")
+            addStatement("call.process(msg, input, output, errorHandler, handler, metrics, interceptors)")
             endControlFlow()
         }
 
@@ -2309,17 +2491,21 @@ class KotlinCodeGenerator(
             }
 
             primaryConstructor(FunSpec.constructorBuilder()
+                    .addAnnotation(JvmOverloads::class)
                     .addParameter("protocol", Protocol::class)
                     .addParameter("listener", AsyncClientBase.Listener::class)
+                    .addParameter(ParameterSpec.builder("config", ClientConfig::class)
+                            .defaultValue("%T.DEFAULT", ClientConfig::class)
+                            .build())
                     .build())
 
             addSuperclassConstructorParameter("protocol", Protocol::class)
             addSuperclassConstructorParameter("listener", AsyncClientBase.Listener::class)
+            addSuperclassConstructorParameter("config", ClientConfig::class)
         }
 
-        // suspendCoroutine is obviously not a class, but until kotlinpoet supports
-        // importing fully-qualified fun names, we can pun and use a ClassName.
-        val suspendCoroFn = MemberName("kotlin.coroutines", "suspendCoroutine")
+        // Cancellable, so that calls not yet sent when the caller gives up are dropped.
+        val suspendCoroFn = MemberName("kotlinx.coroutines", "suspendCancellableCoroutine")
         val coroResultClass = ClassNames.RESULT
 
         for ((index, interfaceFun) in serviceInterface.funSpecs.withIndex()) {
@@ -2366,7 +2552,7 @@ class KotlinCodeGenerator(
                     addCode("%N, ", param.name)
                 }
 
-                addCode("%L))»\n", callback)
+                addCode("%L), cont)»\n", callback)
 
                 addCode("⇤}\n")
             }
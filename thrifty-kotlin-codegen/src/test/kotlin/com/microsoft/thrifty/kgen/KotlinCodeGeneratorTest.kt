@@ -432,11 +432,12 @@ class KotlinCodeGeneratorTest {
             |  public suspend fun doSomething(foo: Int): Int
             |}
             |
-            |public class SvcClient(
+            |public class SvcClient @JvmOverloads constructor(
             |  protocol: Protocol,
             |  listener: AsyncClientBase.Listener,
-            |) : AsyncClientBase(protocol, listener), Svc {
-            |  public override suspend fun doSomething(foo: Int): Int = suspendCoroutine { cont ->
+            |  config: ClientConfig = ClientConfig.DEFAULT,
+            |) : AsyncClientBase(protocol, listener, config), Svc {
+            |  public override suspend fun doSomething(foo: Int): Int = suspendCancellableCoroutine { cont ->
             |    this.enqueue(DoSomethingCall(foo, object : ServiceMethodCallback<Int> {
             |      public override fun onSuccess(result: Int): Unit {
             |        cont.resumeWith(Result.success(result))
@@ -445,7 +446,7 @@ class KotlinCodeGeneratorTest {
             |      public override fun onError(error: Throwable): Unit {
             |        cont.resumeWith(Result.failure(error))
             |      }
-            |    }))
+            |    }), cont)
             |  }
             |
         """.trimMargin())
@@ -970,7 +971,7 @@ class KotlinCodeGeneratorTest {
 
         val expected = """
           1 -> {
-            if (fieldMeta.typeId == TType.I32) {
+            if (fieldMeta.typeId == TType.I32 && fieldMask.contains(1)) {
               val field_ = protocol.readI32().let {
                 TestEnum.findByValue(it) ?: throw
                     ThriftException(ThriftException.Kind.PROTOCOL_ERROR,
@@ -1002,7 +1003,7 @@ class KotlinCodeGeneratorTest {
 
         val expected = """
           1 -> {
-            if (fieldMeta.typeId == TType.I32) {
+            if (fieldMeta.typeId == TType.I32 && fieldMask.contains(1)) {
               val field1 = protocol.readI32().let {
                 TestEnum.findByValue(it)
               }
@@ -1049,7 +1050,7 @@ class KotlinCodeGeneratorTest {
 
         val expected = """
           1 -> {
-            if (fieldMeta.typeId == TType.I32) {
+            if (fieldMeta.typeId == TType.I32 && fieldMask.contains(1)) {
               val field1 = protocol.readI32().let {
                 TestEnum.findByValue(it)
               }
@@ -1514,6 +1515,105 @@ class KotlinCodeGeneratorTest {
         println(files)
     }
 
+    @Test
+    fun `primitive collections read numeric lists without boxing`() {
+        val thrift = """
+            |namespace kt test.primitive
+            |
+            |typedef i64 Timestamp
+            |
+            |struct Samples {
+            |  1: required list<Timestamp> times;
+            |  2: optional list<double> values;
+            |  3: optional list<list<i32>> buckets;
+            |  4: optional list<string> labels;
+            |}
+        """.trimMargin()
+
+        val files = generate(thrift) { primitiveCollections() }
+        files.shouldCompile()
+
+        val text = files.single().toString()
+        text shouldContain "val times = LongList.read(protocol)"
+        text shouldContain "val values = DoubleList.read(protocol)"
+        text shouldContain "val item0 = IntList.read(protocol)"
+        text shouldContain "LongList.write(protocol, struct.times)"
+        text shouldContain "DoubleList.write(protocol, struct.values)"
+        text shouldContain "IntList.write(protocol, item0)"
+        text shouldContain "val labels = ArrayList<String>(list0.size)"
+    }
+
+    @Test
+    fun `lazy fields are wrapped in LazyField`() {
+        val thrift = """
+            |namespace kt test.lazy
+            |
+            |struct Header {
+            |  1: optional string name;
+            |}
+            |
+            |struct Envelope {
+            |  1: required i32 id;
+            |  2: required Header origin (thrifty.lazy = "true");
+            |  3: optional list<Header> history (thrifty.lazy = "true");
+            |  4: optional map<string, list<i32>> index (thrifty.lazy = "true", thrifty.obfuscated = "true");
+            |}
+        """.trimMargin()
+
+        generate(thrift) { withDataClassBuilders() }.shouldCompile()
+
+        val files = generate(thrift)
+        files.shouldCompile()
+
+        val text = files.single().toString()
+        text shouldContain "public val origin: LazyField<Header>,"
+        text shouldContain "public val history: LazyField<List<Header>>?"
+        text shouldContain "val origin = LazyField.read(protocol, TType.STRUCT, this::readOrigin)"
+        text shouldContain "val history = LazyField.read(protocol, TType.LIST, this::readHistory)"
+        text shouldContain "struct.history.write(protocol, this::writeHistory)"
+        text shouldContain "private fun readIndex(protocol: Protocol): Map<String, List<Int>>"
+        text shouldContain "ObfuscationUtil.summarizeMap(index?.value"
+    }
+
+    @Test
+    fun `projected reads skip fields outside the mask`() {
+        val thrift = """
+            |namespace kt test.projection
+            |
+            |struct Header {
+            |  1: optional string name;
+            |}
+            |
+            |struct Envelope {
+            |  1: required i32 id;
+            |  2: optional Header origin;
+            |  3: optional list<Header> history (thrifty.lazy = "true");
+            |}
+        """.trimMargin()
+
+        val withBuilders = generate(thrift) { withDataClassBuilders() }
+        withBuilders.shouldCompile()
+        val builderText = withBuilders.single().toString().replace(Regex("\\s+"), " ")
+        builderText shouldContain "Envelope = read(protocol, builder, FieldMask.ALL)"
+        builderText shouldContain "Envelope = read(protocol, Builder(), fieldMask)"
+        builderText shouldContain "private fun read( protocol: Protocol, builder: Builder, fieldMask: FieldMask, ): Envelope {"
+
+        val files = generate(thrift)
+        files.shouldCompile()
+
+        // Each struct has a single read body, which a plain read enters
+        // with FieldMask.ALL.
+        val text = files.single().toString()
+        text.split("when (fieldMeta.fieldId.toInt())").size shouldBe 3
+        text shouldContain "read(protocol, FieldMask.ALL)"
+        text shouldContain "override fun read(protocol: Protocol, fieldMask: FieldMask): Envelope {"
+        text shouldContain "if (fieldMeta.typeId == TType.I32) {"
+        text shouldContain "if (fieldMeta.typeId == TType.STRUCT && fieldMask.contains(2)) {"
+        text shouldContain "val origin = Header.ADAPTER.read(protocol, fieldMask.nested(2))"
+        text shouldContain "if (fieldMeta.typeId == TType.LIST && fieldMask.contains(3)) {"
+        text.split("private fun readHistory(").size shouldBe 2
+    }
+
     private fun generate(thrift: String, config: (KotlinCodeGenerator.() -> KotlinCodeGenerator)? = null): List<FileSpec> {
         val configOrDefault = config ?: { emitFileComment(false) }
         return KotlinCodeGenerator()
@@ -52,6 +52,21 @@ interface Adapter<T, B : StructBuilder<T>> {
     @Throws(IOException::class)
     fun read(protocol: Protocol, builder: B): T
 
+    /**
+     * Reads a new instance of [T] from the given `protocol`, decoding only
+     * the fields in `fieldMask` and skipping the rest.  Required fields are
+     * always read.
+     *
+     * The default implementation ignores the mask and reads every field.
+     *
+     * @param protocol the protocol from which to read
+     * @param fieldMask the fields to be decoded
+     * @return an instance of [T] populated with the fields just read.
+     * @throws IOException if reading fails, or if the struct is malformed.
+     */
+    @Throws(IOException::class)
+    fun read(protocol: Protocol, fieldMask: FieldMask): T = read(protocol)
+
     /**
      * Writes the given `struct` to the given `protocol`.
      *
@@ -0,0 +1,146 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty
+
+import kotlin.jvm.JvmField
+import kotlin.jvm.JvmStatic
+
+/**
+ * A set of field IDs to be decoded by [Adapter.read], so that a projected
+ * read can skip the fields a caller does not need rather than materializing
+ * them.
+ *
+ * A mask may name fields of nested structs by path; for example, the path
+ * `(2, 5)` selects field 5 of the struct in field 2.  A struct field that is
+ * included without a path is read in full.
+ *
+ * Required fields are always read, whether or not they are in a mask, since
+ * a struct cannot be built without them.  Masks do not apply to unions, or
+ * to structs in containers.
+ *
+ * Instances are immutable, and may be shared between threads.
+ */
+class FieldMask private constructor(
+        private val fieldIds: ShortArray,
+        private val children: Array<FieldMask>
+) {
+    /**
+     * True if this mask includes every field.
+     */
+    val isAll: Boolean
+        get() = this === ALL
+
+    /**
+     * Returns true if the field with the given [fieldId] should be read.
+     */
+    fun contains(fieldId: Int): Boolean {
+        return isAll || indexOf(fieldId) >= 0
+    }
+
+    /**
+     * Returns the mask to apply to the struct in the field with the given
+     * [fieldId]; this is [ALL] if the field is included without a path.
+     */
+    fun nested(fieldId: Int): FieldMask {
+        if (isAll) return ALL
+        val index = indexOf(fieldId)
+        return if (index >= 0) children[index] else ALL
+    }
+
+    // Masks are expected to be small, so a scan of the sorted IDs beats
+    // anything cleverer.
+    private fun indexOf(fieldId: Int): Int {
+        for (i in fieldIds.indices) {
+            val id = fieldIds[i].toInt()
+            if (id == fieldId) return i
+            if (id > fieldId) break
+        }
+        return -1
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is FieldMask || isAll || other.isAll) return false
+        return fieldIds.contentEquals(other.fieldIds) && children.contentEquals(other.children)
+    }
+
+    override fun hashCode(): Int = 31 * fieldIds.contentHashCode() + children.contentHashCode()
+
+    override fun toString(): String {
+        if (isAll) return "FieldMask(*)"
+        return fieldIds.indices.joinToString(", ", "FieldMask(", ")") { i ->
+            val child = children[i]
+            if (child.isAll) "${fieldIds[i]}" else "${fieldIds[i]}=$child"
+        }
+    }
+
+    /**
+     * Builds a [FieldMask] from field IDs and paths of field IDs.
+     */
+    class Builder {
+        private val entries = mutableMapOf<Short, Builder>()
+        private var whole = false
+
+        /**
+         * Includes the field at the given [path] of field IDs.  A field that
+         * is included on its own is read in full, even if paths beneath it
+         * are included as well.
+         */
+        fun include(vararg path: Int): Builder = apply {
+            require(path.isNotEmpty()) { "path must not be empty" }
+            var builder = this
+            for (id in path) {
+                require(id in Short.MIN_VALUE..Short.MAX_VALUE) { "Invalid field ID: $id" }
+                builder = builder.entries.getOrPut(id.toShort()) { Builder() }
+            }
+            builder.whole = true
+        }
+
+        fun build(): FieldMask {
+            val keys = entries.keys.sorted()
+            val ids = ShortArray(keys.size) { keys[it] }
+            val children = Array(keys.size) { entries.getValue(keys[it]).buildChild() }
+            return FieldMask(ids, children)
+        }
+
+        private fun buildChild(): FieldMask = if (whole) ALL else build()
+    }
+
+    companion object {
+        /**
+         * A mask that includes every field.
+         */
+        @JvmField
+        val ALL = FieldMask(ShortArray(0), emptyArray())
+
+        /**
+         * Creates a mask including the given top-level fields.
+         */
+        @JvmStatic
+        fun of(vararg fieldIds: Int): FieldMask {
+            val builder = Builder()
+            for (id in fieldIds) {
+                builder.include(id)
+            }
+            return builder.build()
+        }
+    }
+}
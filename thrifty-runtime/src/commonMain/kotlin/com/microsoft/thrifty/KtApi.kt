@@ -25,6 +25,9 @@ import com.microsoft.thrifty.protocol.CompactProtocol
 import com.microsoft.thrifty.protocol.JsonProtocol
 import com.microsoft.thrifty.protocol.SimpleJsonProtocol
 import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.BufferedTransport
+import com.microsoft.thrifty.transport.SinkTransport
+import com.microsoft.thrifty.transport.SourceTransport
 import com.microsoft.thrifty.transport.Transport
 import okio.Buffer
 import okio.BufferedSink
@@ -44,21 +47,7 @@ fun Buffer.transport() = BufferTransport(this)
  * @receiver the source underlying the new transport.
  * @return a read-only transport.
  */
-fun <S : BufferedSource> S.transport() = object : Transport {
-    private val self = this@transport
-
-    override fun close() = self.close()
-
-    override fun read(buffer: ByteArray, offset: Int, count: Int) = self.read(buffer, offset, count)
-
-    override fun write(data: ByteArray) = error("read-only transport")
-
-    override fun write(buffer: ByteArray, offset: Int, count: Int) = error("read-only transport")
-
-    override fun flush() {
-        // No-op
-    }
-}
+fun <S : BufferedSource> S.transport(): Transport = SourceTransport(this)
 
 /**
  * Creates a write-only transport from the given [BufferedSink]
@@ -66,21 +55,15 @@ fun <S : BufferedSource> S.transport() = object : Transport {
  * @receiver the sink underlying the new transport.
  * @return a write-only transport.
  */
-fun <S : BufferedSink> S.transport() = object : Transport {
-    private val self = this@transport
-
-    override fun close() = self.close()
+fun <S : BufferedSink> S.transport(): Transport = SinkTransport(this)
 
-    override fun read(buffer: ByteArray, offset: Int, count: Int) = error("write-only transport")
-
-    override fun write(data: ByteArray) { self.write(data) }
-
-    override fun write(buffer: ByteArray, offset: Int, count: Int) {
-        self.write(buffer, offset, count)
-    }
-
-    override fun flush() = self.flush()
-}
+/**
+ * Wraps the given [Transport] in a [BufferedTransport].
+ *
+ * @receiver the transport to be buffered.
+ * @return a transport that buffers reads and writes to the receiver.
+ */
+fun <T : Transport> T.buffered() = BufferedTransport(this)
 
 /**
  * Creates a [BinaryProtocol] from the given [Transport].
@@ -0,0 +1,132 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty
+
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.protocol.RawValue
+import okio.IOException
+import kotlin.concurrent.Volatile
+import kotlin.jvm.JvmStatic
+
+/**
+ * The value of a field annotated `thrifty.lazy`, which is decoded only when
+ * first accessed.
+ *
+ * When its protocol supports [Protocol.readRawValue], a lazy field is read
+ * by capturing the value's encoded bytes, which is much cheaper than
+ * decoding it.  The bytes are kept, so that writing the field with the same
+ * protocol encoding copies them verbatim instead of re-encoding [value];
+ * this makes passing a struct through a proxy nearly free.
+ *
+ * Two lazy fields are equal if their values are equal.  Instances are
+ * threadsafe.
+ *
+ * @param T the type of the field's value
+ */
+class LazyField<T : Any> private constructor(
+        private val raw: RawValue?,
+        private val reader: Reader<T>?,
+        @Volatile private var decoded: T?
+) {
+    /**
+     * The field's value, decoded on first access.
+     *
+     * @throws IllegalStateException if the captured bytes cannot be decoded.
+     */
+    val value: T
+        get() {
+            val current = decoded
+            if (current != null) {
+                return current
+            }
+            val result = try {
+                raw!!.decode { reader!!.read(it) }
+            } catch (e: IOException) {
+                throw IllegalStateException("Malformed lazy field", e)
+            }
+            decoded = result
+            return result
+        }
+
+    /**
+     * Writes the field's value to [protocol], copying the bytes it was read
+     * from if possible and otherwise encoding its value with [writer].
+     */
+    @Throws(IOException::class)
+    fun write(protocol: Protocol, writer: Writer<T>) {
+        val raw = raw
+        if (raw == null || !protocol.writeRawValue(raw)) {
+            writer.write(protocol, value)
+        }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is LazyField<*>) return false
+        return value == other.value
+    }
+
+    override fun hashCode(): Int = value.hashCode()
+
+    override fun toString(): String = value.toString()
+
+    /**
+     * Decodes a lazy field's value.
+     */
+    fun interface Reader<T> {
+        @Throws(IOException::class)
+        fun read(protocol: Protocol): T
+    }
+
+    /**
+     * Encodes a lazy field's value.
+     */
+    fun interface Writer<T> {
+        @Throws(IOException::class)
+        fun write(protocol: Protocol, value: T)
+    }
+
+    companion object {
+        /**
+         * Creates a lazy field holding the given, already-decoded, value.
+         */
+        @JvmStatic
+        fun <T : Any> of(value: T): LazyField<T> {
+            return LazyField(null, null, value)
+        }
+
+        /**
+         * Reads a lazy field whose value is of type [typeId], capturing the
+         * value's bytes if [protocol] can, and otherwise decoding it
+         * immediately with [reader].
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun <T : Any> read(protocol: Protocol, typeId: Byte, reader: Reader<T>): LazyField<T> {
+            val raw = protocol.readRawValue(typeId)
+            return if (raw != null) {
+                LazyField(raw, reader, null)
+            } else {
+                LazyField(null, null, reader.read(protocol))
+            }
+        }
+    }
+}
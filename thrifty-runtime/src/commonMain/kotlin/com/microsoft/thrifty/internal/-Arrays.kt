@@ -0,0 +1,39 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.internal
+
+/*
+ * Bulk conversions between byte arrays and arrays of fixed-width numbers,
+ * in either byte order.  Each reads or writes `count` values, starting at
+ * `offset` in the byte array and at the given index in the other array.
+ */
+
+internal expect fun ByteArray.getInts(offset: Int, dest: IntArray, destIndex: Int, count: Int, bigEndian: Boolean)
+
+internal expect fun ByteArray.putInts(offset: Int, src: IntArray, srcIndex: Int, count: Int, bigEndian: Boolean)
+
+internal expect fun ByteArray.getLongs(offset: Int, dest: LongArray, destIndex: Int, count: Int, bigEndian: Boolean)
+
+internal expect fun ByteArray.putLongs(offset: Int, src: LongArray, srcIndex: Int, count: Int, bigEndian: Boolean)
+
+internal expect fun ByteArray.getDoubles(offset: Int, dest: DoubleArray, destIndex: Int, count: Int, bigEndian: Boolean)
+
+internal expect fun ByteArray.putDoubles(offset: Int, src: DoubleArray, srcIndex: Int, count: Int, bigEndian: Boolean)
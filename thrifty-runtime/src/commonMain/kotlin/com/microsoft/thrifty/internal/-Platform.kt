@@ -25,4 +25,9 @@ import okio.IOException
 
 expect class ProtocolException(message: String) : IOException
 
-expect val DefaultDispatcher: CoroutineDispatcher
\ No newline at end of file
+expect val DefaultDispatcher: CoroutineDispatcher
+
+/**
+ * A monotonic clock reading, in nanoseconds, for measuring elapsed time.
+ */
+internal expect fun nanoTime(): Long
@@ -20,6 +20,7 @@
  */
 package com.microsoft.thrifty.kotlin
 
+import com.microsoft.thrifty.FieldMask
 import com.microsoft.thrifty.protocol.Protocol
 
 /**
@@ -36,6 +37,18 @@ interface Adapter<T> {
      */
     fun read(protocol: Protocol): T
 
+    /**
+     * Reads a Thrift struct from the given [protocol], decoding only the
+     * fields in [fieldMask] and skipping the rest.  Required fields are
+     * always read.
+     *
+     * The default implementation ignores the mask and reads every field.
+     *
+     * @param protocol A [Protocol] from which to read a struct.
+     * @param fieldMask The fields to be decoded.
+     */
+    fun read(protocol: Protocol, fieldMask: FieldMask): T = read(protocol)
+
     /**
      * Writes the given [struct] to the given [protocol].
      *
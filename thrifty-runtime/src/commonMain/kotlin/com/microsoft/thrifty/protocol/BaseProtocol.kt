@@ -20,7 +20,14 @@
  */
 package com.microsoft.thrifty.protocol
 
+import com.microsoft.thrifty.transport.BatchingTransport
+import com.microsoft.thrifty.transport.ByteCountingTransport
+import com.microsoft.thrifty.transport.OkioTransport
+import com.microsoft.thrifty.transport.PeekableTransport
 import com.microsoft.thrifty.transport.Transport
+import okio.ByteString
+import okio.ByteString.Companion.toByteString
+import okio.EOFException
 import okio.IOException
 import kotlin.jvm.JvmField
 
@@ -28,6 +35,82 @@ abstract class BaseProtocol(
         @JvmField
         protected val transport: Transport
 ) : Protocol {
+    /**
+     * The transport, if it counts the bytes passing through it.
+     */
+    internal val byteCounter: ByteCountingTransport?
+        get() = transport as? ByteCountingTransport
+
+    /**
+     * The transport, if it can batch messages.
+     */
+    internal val batchingTransport: BatchingTransport?
+        get() = transport as? BatchingTransport
+
+    // Receives skipped bytes that cannot be discarded in place.
+    private var skipBuffer: ByteArray? = null
+
+    /**
+     * Reads the bytes of the next value, whose end [scan] finds by reading
+     * ahead of the transport, or returns `null` having read nothing.
+     *
+     * Values are captured from an [OkioTransport]'s source, or from a
+     * [PeekableTransport]'s buffer when the whole value is in it.  [scan]
+     * returns `false` if the value continues past the available bytes.
+     */
+    @Throws(IOException::class)
+    internal inline fun captureValue(scan: (Lookahead) -> Boolean): ByteString? {
+        val source = (transport as? OkioTransport)?.source
+        if (source != null) {
+            val lookahead = SourceLookahead(source)
+            if (!scan(lookahead)) {
+                return null
+            }
+            return source.readByteString(lookahead.position)
+        }
+
+        val peek = transport as? PeekableTransport ?: return null
+        val lookahead = ArrayLookahead(peek.buffer, peek.bufferPosition, peek.bytesRemainingInBuffer)
+        if (!scan(lookahead)) {
+            return null
+        }
+        val length = lookahead.position.toInt()
+        val bytes = peek.buffer.toByteString(peek.bufferPosition, length)
+        peek.consumeBuffer(length)
+        return bytes
+    }
+
+    /**
+     * Advances past the next [count] bytes, discarding them from an
+     * [OkioTransport]'s source or a [PeekableTransport]'s buffer rather than
+     * copying them out.
+     */
+    @Throws(IOException::class)
+    internal fun skipBytes(count: Long) {
+        val source = (transport as? OkioTransport)?.source
+        if (source != null) {
+            source.skip(count)
+            return
+        }
+
+        val peek = transport as? PeekableTransport
+        var remaining = count
+        while (remaining > 0) {
+            if (peek != null && peek.bytesRemainingInBuffer > 0) {
+                val n = minOf(remaining, peek.bytesRemainingInBuffer.toLong()).toInt()
+                peek.consumeBuffer(n)
+                remaining -= n
+            } else {
+                val buffer = skipBuffer ?: ByteArray(SKIP_BUFFER_SIZE).also { skipBuffer = it }
+                val n = transport.read(buffer, 0, minOf(remaining, buffer.size.toLong()).toInt())
+                if (n == -1) {
+                    throw EOFException("Expected $count bytes; got ${count - remaining}")
+                }
+                remaining -= n
+            }
+        }
+    }
+
     override fun close() {
         transport.close()
     }
@@ -36,4 +119,8 @@ abstract class BaseProtocol(
     override fun flush() {
         transport.flush()
     }
+
+    private companion object {
+        const val SKIP_BUFFER_SIZE = 4096
+    }
 }
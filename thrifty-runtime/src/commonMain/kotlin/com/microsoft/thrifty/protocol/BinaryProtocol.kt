@@ -22,6 +22,14 @@ package com.microsoft.thrifty.protocol
 
 import com.microsoft.thrifty.TType
 import com.microsoft.thrifty.internal.ProtocolException
+import com.microsoft.thrifty.internal.getDoubles
+import com.microsoft.thrifty.internal.getInts
+import com.microsoft.thrifty.internal.getLongs
+import com.microsoft.thrifty.internal.putDoubles
+import com.microsoft.thrifty.internal.putInts
+import com.microsoft.thrifty.internal.putLongs
+import com.microsoft.thrifty.transport.OkioTransport
+import com.microsoft.thrifty.transport.PeekableTransport
 import com.microsoft.thrifty.transport.Transport
 import okio.ByteString
 import okio.ByteString.Companion.toByteString
@@ -34,6 +42,12 @@ import kotlin.jvm.JvmOverloads
  *
  * Instances of this class are *not* threadsafe.
  *
+ * When [transport] is an [OkioTransport], values are read from and written
+ * to its Okio source and sink directly.  When it is a [PeekableTransport]
+ * (for example, a [com.microsoft.thrifty.transport.BufferedTransport]),
+ * values are decoded directly from its read buffer whenever enough bytes are
+ * available.
+ *
  * @param transport
  * @param stringLengthLimit
  *      The maximum number of bytes to read from the transport for
@@ -41,6 +55,9 @@ import kotlin.jvm.JvmOverloads
  * @param containerLengthLimit
  *      The maximum number of elements to read from the network for containers
  *      (maps, lists, sets).
+ * @param stringCache
+ *      An optional cache through which short strings are decoded, so that
+ *      repeated strings share a single instance.
  */
 class BinaryProtocol @JvmOverloads constructor(
         transport: Transport,
@@ -48,11 +65,37 @@ class BinaryProtocol @JvmOverloads constructor(
         private val containerLengthLimit: Long = -1,
         private val strictRead: Boolean = false,
         private val strictWrite: Boolean = false,
+        private val stringCache: StringCache? = null,
 ) : BaseProtocol(transport) {
     /**
-     * A shared buffer for writing.
+     * Scratch buffers for writing and reading; kept separate so that one
+     * thread may write requests while another reads responses.
      */
-    private val buffer = ByteArray(8)
+    private val writeBuffer = ByteArray(8)
+    private val readBuffer = ByteArray(8)
+
+    /**
+     * The transport, if it allows decoding directly from its read buffer.
+     */
+    private val peekable = transport as? PeekableTransport
+
+    /**
+     * The Okio source and sink underlying the transport, if any.
+     */
+    private val source = (transport as? OkioTransport)?.source
+    private val sink = (transport as? OkioTransport)?.sink
+
+    /**
+     * Encodes strings and copies binaries without allocating.
+     */
+    private val scratchWriter = ScratchWriter(transport)
+
+    /**
+     * Scratch buffers for bulk reads and writes of numeric arrays, allocated
+     * on first use.
+     */
+    private var bulkWriteBuffer: ByteArray? = null
+    private var bulkReadBuffer: ByteArray? = null
 
     @Throws(IOException::class)
     override fun writeMessageBegin(name: String, typeId: Byte, seqId: Int) {
@@ -133,37 +176,57 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun writeByte(b: Byte) {
-        buffer[0] = b
-        transport.write(buffer, 0, 1)
+        val sink = sink
+        if (sink != null) {
+            sink.writeByte(b.toInt())
+            return
+        }
+        writeBuffer[0] = b
+        transport.write(writeBuffer, 0, 1)
     }
 
     @Throws(IOException::class)
     override fun writeI16(i16: Short) {
-        buffer[0] = ((i16.toInt() shr 8) and 0xFF).toByte()
-        buffer[1] = (i16.toInt() and 0xFF).toByte()
-        transport.write(buffer, 0, 2)
+        val sink = sink
+        if (sink != null) {
+            sink.writeShort(i16.toInt())
+            return
+        }
+        writeBuffer[0] = ((i16.toInt() shr 8) and 0xFF).toByte()
+        writeBuffer[1] = (i16.toInt() and 0xFF).toByte()
+        transport.write(writeBuffer, 0, 2)
     }
 
     @Throws(IOException::class)
     override fun writeI32(i32: Int) {
-        buffer[0] = ((i32 shr 24) and 0xFF).toByte()
-        buffer[1] = ((i32 shr 16) and 0xFF).toByte()
-        buffer[2] = ((i32 shr 8) and 0xFF).toByte()
-        buffer[3] = (i32 and 0xFF).toByte()
-        transport.write(buffer, 0, 4)
+        val sink = sink
+        if (sink != null) {
+            sink.writeInt(i32)
+            return
+        }
+        writeBuffer[0] = ((i32 shr 24) and 0xFF).toByte()
+        writeBuffer[1] = ((i32 shr 16) and 0xFF).toByte()
+        writeBuffer[2] = ((i32 shr 8) and 0xFF).toByte()
+        writeBuffer[3] = (i32 and 0xFF).toByte()
+        transport.write(writeBuffer, 0, 4)
     }
 
     @Throws(IOException::class)
     override fun writeI64(i64: Long) {
-        buffer[0] = ((i64 shr 56) and 0xFF).toByte()
-        buffer[1] = ((i64 shr 48) and 0xFF).toByte()
-        buffer[2] = ((i64 shr 40) and 0xFF).toByte()
-        buffer[3] = ((i64 shr 32) and 0xFF).toByte()
-        buffer[4] = ((i64 shr 24) and 0xFF).toByte()
-        buffer[5] = ((i64 shr 16) and 0xFF).toByte()
-        buffer[6] = ((i64 shr 8) and 0xFF).toByte()
-        buffer[7] = (i64 and 0xFF).toByte()
-        transport.write(buffer, 0, 8)
+        val sink = sink
+        if (sink != null) {
+            sink.writeLong(i64)
+            return
+        }
+        writeBuffer[0] = ((i64 shr 56) and 0xFF).toByte()
+        writeBuffer[1] = ((i64 shr 48) and 0xFF).toByte()
+        writeBuffer[2] = ((i64 shr 40) and 0xFF).toByte()
+        writeBuffer[3] = ((i64 shr 32) and 0xFF).toByte()
+        writeBuffer[4] = ((i64 shr 24) and 0xFF).toByte()
+        writeBuffer[5] = ((i64 shr 16) and 0xFF).toByte()
+        writeBuffer[6] = ((i64 shr 8) and 0xFF).toByte()
+        writeBuffer[7] = (i64 and 0xFF).toByte()
+        transport.write(writeBuffer, 0, 8)
     }
 
     @Throws(IOException::class)
@@ -173,15 +236,78 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun writeString(str: String) {
-        val bs = str.encodeToByteArray()
-        writeI32(bs.size)
-        transport.write(bs)
+        val size = ScratchWriter.utf8Size(str)
+        if (size < 0) {
+            val bytes = str.encodeToByteArray()
+            writeI32(bytes.size)
+            transport.write(bytes)
+            return
+        }
+        writeI32(size)
+        val sink = sink
+        if (sink != null) {
+            sink.writeUtf8(str)
+        } else {
+            scratchWriter.writeUtf8(str, size)
+        }
     }
 
     @Throws(IOException::class)
     override fun writeBinary(buf: ByteString) {
         writeI32(buf.size)
-        transport.write(buf.toByteArray())
+        val sink = sink
+        if (sink != null) {
+            sink.write(buf)
+        } else {
+            scratchWriter.write(buf)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeI32Array(src: IntArray, offset: Int, count: Int) {
+        val sink = sink
+        if (sink != null) {
+            for (i in offset until offset + count) sink.writeInt(src[i])
+            return
+        }
+        writeArray(offset, count, 4) { buffer, index, n -> buffer.putInts(0, src, index, n, bigEndian = true) }
+    }
+
+    @Throws(IOException::class)
+    override fun writeI64Array(src: LongArray, offset: Int, count: Int) {
+        val sink = sink
+        if (sink != null) {
+            for (i in offset until offset + count) sink.writeLong(src[i])
+            return
+        }
+        writeArray(offset, count, 8) { buffer, index, n -> buffer.putLongs(0, src, index, n, bigEndian = true) }
+    }
+
+    @Throws(IOException::class)
+    override fun writeDoubleArray(src: DoubleArray, offset: Int, count: Int) {
+        val sink = sink
+        if (sink != null) {
+            for (i in offset until offset + count) sink.writeLong(src[i].toRawBits())
+            return
+        }
+        writeArray(offset, count, 8) { buffer, index, n -> buffer.putDoubles(0, src, index, n, bigEndian = true) }
+    }
+
+    /**
+     * Writes [count] values of [width] bytes, starting at [offset], by
+     * encoding as many as fit into a scratch buffer at a time.  Used when
+     * the transport has no Okio sink to write values to directly.
+     */
+    @Throws(IOException::class)
+    private inline fun writeArray(offset: Int, count: Int, width: Int, encode: (ByteArray, Int, Int) -> Unit) {
+        val buffer = bulkWriteBuffer ?: ByteArray(BULK_BUFFER_SIZE).also { bulkWriteBuffer = it }
+        var done = 0
+        while (done < count) {
+            val n = minOf(count - done, buffer.size / width)
+            encode(buffer, offset + done, n)
+            transport.write(buffer, 0, n * width)
+            done += n
+        }
     }
 
     //////////////////////
@@ -276,37 +402,66 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readByte(): Byte {
-        readFully(buffer, 1)
-        return buffer[0]
+        val source = source
+        if (source != null) {
+            return source.readByte()
+        }
+        val peek = peekable
+        if (peek != null && peek.bytesRemainingInBuffer >= 1) {
+            val b = peek.buffer[peek.bufferPosition]
+            peek.consumeBuffer(1)
+            return b
+        }
+        readFully(readBuffer, 1)
+        return readBuffer[0]
     }
 
     @Throws(IOException::class)
     override fun readI16(): Short {
-        readFully(buffer, 2)
-        return (((buffer[0].toInt() and 0xFF) shl 8)
-                or (buffer[1].toInt() and 0xFF)).toShort()
+        val source = source
+        if (source != null) {
+            return source.readShort()
+        }
+        val peek = peekable
+        if (peek != null && peek.bytesRemainingInBuffer >= 2) {
+            val result = decodeI16(peek.buffer, peek.bufferPosition)
+            peek.consumeBuffer(2)
+            return result
+        }
+        readFully(readBuffer, 2)
+        return decodeI16(readBuffer, 0)
     }
 
     @Throws(IOException::class)
     override fun readI32(): Int {
-        readFully(buffer, 4)
-        return (((buffer[0].toInt() and 0xFF) shl 24)
-                or ((buffer[1].toInt() and 0xFF) shl 16)
-                or ((buffer[2].toInt() and 0xFF) shl 8)
-                or (buffer[3].toInt() and 0xFF))
+        val source = source
+        if (source != null) {
+            return source.readInt()
+        }
+        val peek = peekable
+        if (peek != null && peek.bytesRemainingInBuffer >= 4) {
+            val result = decodeI32(peek.buffer, peek.bufferPosition)
+            peek.consumeBuffer(4)
+            return result
+        }
+        readFully(readBuffer, 4)
+        return decodeI32(readBuffer, 0)
     }
 
     @Throws(IOException::class)
     override fun readI64(): Long {
-        readFully(buffer, 8)
-        return (((buffer[0].toLong() and 0xFFL) shl 56)
-                or ((buffer[1].toLong() and 0xFFL) shl 48)
-                or ((buffer[2].toLong() and 0xFFL) shl 40)
-                or ((buffer[3].toLong() and 0xFFL) shl 32)
-                or ((buffer[4].toLong() and 0xFFL) shl 24)
-                or ((buffer[5].toLong() and 0xFFL) shl 16)
-                or ((buffer[6].toLong() and 0xFFL) shl 8)
-                or ((buffer[7].toLong() and 0xFFL)))
+        val source = source
+        if (source != null) {
+            return source.readLong()
+        }
+        val peek = peekable
+        if (peek != null && peek.bytesRemainingInBuffer >= 8) {
+            val result = decodeI64(peek.buffer, peek.bufferPosition)
+            peek.consumeBuffer(8)
+            return result
+        }
+        readFully(readBuffer, 8)
+        return decodeI64(readBuffer, 0)
     }
 
     @Throws(IOException::class)
@@ -329,18 +484,263 @@ class BinaryProtocol @JvmOverloads constructor(
         if (stringLengthLimit != -1L && sizeInBytes > stringLengthLimit) {
             throw ProtocolException("Binary size limit exceeded")
         }
+        val source = source
+        if (source != null && sizeInBytes >= 0) {
+            return source.readByteString(sizeInBytes.toLong())
+        }
+        val peek = peekable
+        if (peek != null && sizeInBytes >= 0 && peek.bytesRemainingInBuffer >= sizeInBytes) {
+            val result = peek.buffer.toByteString(peek.bufferPosition, sizeInBytes)
+            peek.consumeBuffer(sizeInBytes)
+            return result
+        }
         val data = ByteArray(sizeInBytes)
         readFully(data, data.size)
         return data.toByteString()
     }
 
+    @Throws(IOException::class)
+    override fun skipString() {
+        val sizeInBytes = readI32()
+        if (stringLengthLimit != -1L && sizeInBytes > stringLengthLimit) {
+            throw ProtocolException("String size limit exceeded")
+        }
+        skipLength(sizeInBytes)
+    }
+
+    @Throws(IOException::class)
+    override fun skipValues(typeId: Byte, count: Int) {
+        val width = fixedWidth(typeId)
+        if (width == 0) {
+            throw ProtocolException("Not a scalar type: $typeId")
+        }
+        skipBytes(width.toLong() * count)
+    }
+
+    @Throws(IOException::class)
+    private fun skipLength(sizeInBytes: Int) {
+        if (sizeInBytes < 0) {
+            throw ProtocolException("Negative length: $sizeInBytes")
+        }
+        skipBytes(sizeInBytes.toLong())
+    }
+
+    @Throws(IOException::class)
+    override fun readI32Array(dest: IntArray, offset: Int, count: Int) {
+        val source = source
+        if (source != null) {
+            for (i in offset until offset + count) dest[i] = source.readInt()
+            return
+        }
+        readArray(offset, count, 4) { buffer, position, index, n ->
+            buffer.getInts(position, dest, index, n, bigEndian = true)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readI64Array(dest: LongArray, offset: Int, count: Int) {
+        val source = source
+        if (source != null) {
+            for (i in offset until offset + count) dest[i] = source.readLong()
+            return
+        }
+        readArray(offset, count, 8) { buffer, position, index, n ->
+            buffer.getLongs(position, dest, index, n, bigEndian = true)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readDoubleArray(dest: DoubleArray, offset: Int, count: Int) {
+        val source = source
+        if (source != null) {
+            for (i in offset until offset + count) dest[i] = Double.fromBits(source.readLong())
+            return
+        }
+        readArray(offset, count, 8) { buffer, position, index, n ->
+            buffer.getDoubles(position, dest, index, n, bigEndian = true)
+        }
+    }
+
+    /**
+     * Reads [count] values of [width] bytes, starting at [offset].  Values
+     * are decoded in place from the transport's buffer while it holds any,
+     * and otherwise read in blocks into a scratch buffer.  Used when the
+     * transport has no Okio source to read values from directly.
+     */
+    @Throws(IOException::class)
+    private inline fun readArray(offset: Int, count: Int, width: Int, decode: (ByteArray, Int, Int, Int) -> Unit) {
+        var done = 0
+        while (done < count) {
+            val peek = peekable
+            val n: Int
+            if (peek != null && peek.bytesRemainingInBuffer >= width) {
+                n = minOf(count - done, peek.bytesRemainingInBuffer / width)
+                decode(peek.buffer, peek.bufferPosition, offset + done, n)
+                peek.consumeBuffer(n * width)
+            } else {
+                val buffer = bulkReadBuffer ?: ByteArray(BULK_BUFFER_SIZE).also { bulkReadBuffer = it }
+                n = minOf(count - done, buffer.size / width)
+                readFully(buffer, n * width)
+                decode(buffer, 0, offset + done, n)
+            }
+            done += n
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readRawValue(typeId: Byte): RawValue? {
+        val bytes = captureValue { scanValue(it, typeId) } ?: return null
+        return RawValue(typeId, bytes, RawValue.Encoding.BINARY) {
+            BinaryProtocol(it, stringLengthLimit, containerLengthLimit)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeRawValue(value: RawValue): Boolean {
+        if (value.encoding != RawValue.Encoding.BINARY) {
+            return false
+        }
+        val sink = sink
+        if (sink != null) {
+            sink.write(value.bytes)
+        } else {
+            scratchWriter.write(value.bytes)
+        }
+        return true
+    }
+
+    /**
+     * Reads past a value of type [typeId], returning `false` if it extends
+     * beyond the bytes available to [lookahead].
+     */
+    @Throws(IOException::class)
+    private fun scanValue(lookahead: Lookahead, typeId: Byte): Boolean {
+        val width = fixedWidth(typeId)
+        if (width > 0) {
+            return lookahead.skip(width.toLong())
+        }
+        when (typeId) {
+            TType.STRING -> {
+                val size = scanI32(lookahead) ?: return false
+                if (size < 0 || (stringLengthLimit != -1L && size > stringLengthLimit)) {
+                    throw ProtocolException("Invalid string size: $size")
+                }
+                return lookahead.skip(size.toLong())
+            }
+            TType.STRUCT -> {
+                while (true) {
+                    val fieldTypeId = lookahead.next()
+                    if (fieldTypeId == -1) {
+                        return false
+                    }
+                    if (fieldTypeId.toByte() == TType.STOP) {
+                        return true
+                    }
+                    if (!lookahead.skip(2) || !scanValue(lookahead, fieldTypeId.toByte())) {
+                        return false
+                    }
+                }
+            }
+            TType.LIST, TType.SET -> {
+                val elementTypeId = lookahead.next()
+                if (elementTypeId == -1) {
+                    return false
+                }
+                val size = scanContainerSize(lookahead) ?: return false
+                return scanValues(lookahead, elementTypeId.toByte(), size)
+            }
+            TType.MAP -> {
+                val keyTypeId = lookahead.next()
+                val valueTypeId = lookahead.next()
+                if (valueTypeId == -1) {
+                    return false
+                }
+                val size = scanContainerSize(lookahead) ?: return false
+                val keyWidth = fixedWidth(keyTypeId.toByte())
+                val valueWidth = fixedWidth(valueTypeId.toByte())
+                if (keyWidth > 0 && valueWidth > 0) {
+                    return lookahead.skip(size.toLong() * (keyWidth + valueWidth))
+                }
+                for (i in 0 until size) {
+                    if (!scanValue(lookahead, keyTypeId.toByte()) || !scanValue(lookahead, valueTypeId.toByte())) {
+                        return false
+                    }
+                }
+                return true
+            }
+            else -> throw ProtocolException("Unrecognized TType value: $typeId")
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun scanValues(lookahead: Lookahead, typeId: Byte, count: Int): Boolean {
+        val width = fixedWidth(typeId)
+        if (width > 0) {
+            return lookahead.skip(count.toLong() * width)
+        }
+        for (i in 0 until count) {
+            if (!scanValue(lookahead, typeId)) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun scanContainerSize(lookahead: Lookahead): Int? {
+        val size = scanI32(lookahead) ?: return null
+        if (size < 0 || (containerLengthLimit != -1L && size > containerLengthLimit)) {
+            throw ProtocolException("Invalid container size: $size")
+        }
+        return size
+    }
+
+    private fun scanI32(lookahead: Lookahead): Int? {
+        var result = 0
+        for (i in 0 until 4) {
+            val b = lookahead.next()
+            if (b == -1) {
+                return null
+            }
+            result = (result shl 8) or b
+        }
+        return result
+    }
+
     @Throws(IOException::class)
     private fun readStringWithSize(size: Int): String {
+        val cache = stringCache
+        if (cache != null && size >= 0 && size <= cache.maxStringLength) {
+            return readCachedString(cache, size)
+        }
+        val source = source
+        if (source != null && size >= 0) {
+            return source.readUtf8(size.toLong())
+        }
+        val peek = peekable
+        if (peek != null && size >= 0 && peek.bytesRemainingInBuffer >= size) {
+            val position = peek.bufferPosition
+            val result = peek.buffer.decodeToString(position, position + size)
+            peek.consumeBuffer(size)
+            return result
+        }
         val encoded = ByteArray(size)
         readFully(encoded, size)
         return encoded.decodeToString()
     }
 
+    @Throws(IOException::class)
+    private fun readCachedString(cache: StringCache, size: Int): String {
+        val peek = peekable
+        if (peek != null && peek.bytesRemainingInBuffer >= size) {
+            val result = cache.decode(peek.buffer, peek.bufferPosition, size)
+            peek.consumeBuffer(size)
+            return result
+        }
+        val scratch = cache.scratch
+        readFully(scratch, size)
+        return cache.decode(scratch, 0, size)
+    }
+
     @Throws(IOException::class)
     private fun readFully(buffer: ByteArray, count: Int) {
         var toRead = count
@@ -359,5 +759,42 @@ class BinaryProtocol @JvmOverloads constructor(
         private const val VERSION_MASK = -0x10000
         private const val VERSION_1 = -0x7fff0000
         private val NO_STRUCT = StructMetadata("")
+        private const val BULK_BUFFER_SIZE = 4096
+
+        /**
+         * The encoded size of values of type [typeId], or 0 if it varies.
+         */
+        private fun fixedWidth(typeId: Byte): Int {
+            return when (typeId) {
+                TType.BOOL, TType.BYTE -> 1
+                TType.I16 -> 2
+                TType.I32 -> 4
+                TType.I64, TType.DOUBLE -> 8
+                else -> 0
+            }
+        }
+
+        private fun decodeI16(buffer: ByteArray, offset: Int): Short {
+            return (((buffer[offset].toInt() and 0xFF) shl 8)
+                    or (buffer[offset + 1].toInt() and 0xFF)).toShort()
+        }
+
+        private fun decodeI32(buffer: ByteArray, offset: Int): Int {
+            return (((buffer[offset].toInt() and 0xFF) shl 24)
+                    or ((buffer[offset + 1].toInt() and 0xFF) shl 16)
+                    or ((buffer[offset + 2].toInt() and 0xFF) shl 8)
+                    or (buffer[offset + 3].toInt() and 0xFF))
+        }
+
+        private fun decodeI64(buffer: ByteArray, offset: Int): Long {
+            return (((buffer[offset].toLong() and 0xFFL) shl 56)
+                    or ((buffer[offset + 1].toLong() and 0xFFL) shl 48)
+                    or ((buffer[offset + 2].toLong() and 0xFFL) shl 40)
+                    or ((buffer[offset + 3].toLong() and 0xFFL) shl 32)
+                    or ((buffer[offset + 4].toLong() and 0xFFL) shl 24)
+                    or ((buffer[offset + 5].toLong() and 0xFFL) shl 16)
+                    or ((buffer[offset + 6].toLong() and 0xFFL) shl 8)
+                    or ((buffer[offset + 7].toLong() and 0xFFL)))
+        }
     }
 }
@@ -45,18 +45,45 @@ package com.microsoft.thrifty.protocol
 
 import com.microsoft.thrifty.TType
 import com.microsoft.thrifty.internal.ProtocolException
+import com.microsoft.thrifty.internal.getDoubles
+import com.microsoft.thrifty.internal.putDoubles
+import com.microsoft.thrifty.transport.OkioTransport
+import com.microsoft.thrifty.transport.PeekableTransport
 import com.microsoft.thrifty.transport.Transport
 import okio.ByteString
 import okio.ByteString.Companion.toByteString
 import okio.EOFException
 import okio.IOException
+import kotlin.jvm.JvmOverloads
 
 /**
  * An implementation of the Thrift compact binary protocol.
  *
  * Instances of this class are *not* threadsafe.
+ *
+ * When [transport] is an [OkioTransport], values are read from and written
+ * to its Okio source and sink directly.  When it is a [PeekableTransport]
+ * (for example, a [com.microsoft.thrifty.transport.BufferedTransport]),
+ * values are decoded directly from its read buffer whenever enough bytes are
+ * available.
+ *
+ * @param transport
+ * @param stringLengthLimit
+ *      The maximum number of bytes to read from the transport for
+ *      variable-length fields (strings or binary), or -1 for unlimited.
+ * @param containerLengthLimit
+ *      The maximum number of elements to read from the network for containers
+ *      (maps, lists, sets), or -1 for unlimited.
+ * @param stringCache
+ *      An optional cache through which short strings are decoded, so that
+ *      repeated strings share a single instance.
  */
-class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
+class CompactProtocol @JvmOverloads constructor(
+        transport: Transport,
+        private val stringLengthLimit: Long = -1,
+        private val containerLengthLimit: Long = -1,
+        private val stringCache: StringCache? = null,
+) : BaseProtocol(transport) {
 
     // Boolean fields get special treatment - their value is encoded
     // directly in the field header.  As such, when a boolean field
@@ -67,7 +94,26 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     // Similarly, we cache the value read from a field header until
     // the `readBool` call.
     private var booleanFieldType: Byte = -1
-    private val buffer = ByteArray(16)
+
+    // Separate scratch buffers, so that one thread may write requests
+    // while another reads responses.
+    private val writeBuffer = ByteArray(16)
+    private val readBuffer = ByteArray(8)
+
+    // The transport, if it allows decoding directly from its read buffer.
+    private val peekable = transport as? PeekableTransport
+
+    // The Okio source and sink underlying the transport, if any.
+    private val source = (transport as? OkioTransport)?.source
+    private val sink = (transport as? OkioTransport)?.sink
+
+    // Encodes strings and copies binaries without allocating.
+    private val scratchWriter = ScratchWriter(transport)
+
+    // Scratch buffers for bulk reads and writes of numeric arrays,
+    // allocated on first use.
+    private var bulkWriteBuffer: ByteArray? = null
+    private var bulkReadBuffer: ByteArray? = null
 
     // Keep track of the most-recently-written fields,
     // used for delta-encoding.
@@ -188,8 +234,13 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun writeByte(b: Byte) {
-        buffer[0] = b
-        transport.write(buffer, 0, 1)
+        val sink = sink
+        if (sink != null) {
+            sink.writeByte(b.toInt())
+            return
+        }
+        writeBuffer[0] = b
+        transport.write(writeBuffer, 0, 1)
     }
 
     @Throws(IOException::class)
@@ -211,29 +262,99 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     override fun writeDouble(dub: Double) {
         val bits = dub.toRawBits()
 
+        val sink = sink
+        if (sink != null) {
+            sink.writeLongLe(bits)
+            return
+        }
+
         // Doubles get written out in little-endian order
-        buffer[0] = (bits and 0xFFL).toByte()
-        buffer[1] = ((bits ushr  8) and 0xFFL).toByte()
-        buffer[2] = ((bits ushr 16) and 0xFFL).toByte()
-        buffer[3] = ((bits ushr 24) and 0xFFL).toByte()
-        buffer[4] = ((bits ushr 32) and 0xFFL).toByte()
-        buffer[5] = ((bits ushr 40) and 0xFFL).toByte()
-        buffer[6] = ((bits ushr 48) and 0xFFL).toByte()
-        buffer[7] = ((bits ushr 56) and 0xFFL).toByte()
-        transport.write(buffer, 0, 8)
+        writeBuffer[0] = (bits and 0xFFL).toByte()
+        writeBuffer[1] = ((bits ushr  8) and 0xFFL).toByte()
+        writeBuffer[2] = ((bits ushr 16) and 0xFFL).toByte()
+        writeBuffer[3] = ((bits ushr 24) and 0xFFL).toByte()
+        writeBuffer[4] = ((bits ushr 32) and 0xFFL).toByte()
+        writeBuffer[5] = ((bits ushr 40) and 0xFFL).toByte()
+        writeBuffer[6] = ((bits ushr 48) and 0xFFL).toByte()
+        writeBuffer[7] = ((bits ushr 56) and 0xFFL).toByte()
+        transport.write(writeBuffer, 0, 8)
     }
 
     @Throws(IOException::class)
     override fun writeString(str: String) {
-        val bytes = str.encodeToByteArray()
-        writeVarint32(bytes.size)
-        transport.write(bytes)
+        val size = ScratchWriter.utf8Size(str)
+        if (size < 0) {
+            val bytes = str.encodeToByteArray()
+            writeVarint32(bytes.size)
+            transport.write(bytes)
+            return
+        }
+        writeVarint32(size)
+        val sink = sink
+        if (sink != null) {
+            sink.writeUtf8(str)
+        } else {
+            scratchWriter.writeUtf8(str, size)
+        }
     }
 
     @Throws(IOException::class)
     override fun writeBinary(buf: ByteString) {
         writeVarint32(buf.size)
-        transport.write(buf.toByteArray())
+        val sink = sink
+        if (sink != null) {
+            sink.write(buf)
+        } else {
+            scratchWriter.write(buf)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeI32Array(src: IntArray, offset: Int, count: Int) {
+        val buffer = bulkWriteBuffer()
+        var pos = 0
+        for (i in offset until offset + count) {
+            if (pos > buffer.size - MAX_VARINT32_BYTES) {
+                transport.write(buffer, 0, pos)
+                pos = 0
+            }
+            pos = putVarint64(buffer, pos, intToZigZag(src[i]).toLong() and 0xFFFFFFFFL)
+        }
+        if (pos > 0) {
+            transport.write(buffer, 0, pos)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeI64Array(src: LongArray, offset: Int, count: Int) {
+        val buffer = bulkWriteBuffer()
+        var pos = 0
+        for (i in offset until offset + count) {
+            if (pos > buffer.size - MAX_VARINT64_BYTES) {
+                transport.write(buffer, 0, pos)
+                pos = 0
+            }
+            pos = putVarint64(buffer, pos, longToZigZag(src[i]))
+        }
+        if (pos > 0) {
+            transport.write(buffer, 0, pos)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeDoubleArray(src: DoubleArray, offset: Int, count: Int) {
+        val buffer = bulkWriteBuffer()
+        var done = 0
+        while (done < count) {
+            val n = minOf(count - done, buffer.size / 8)
+            buffer.putDoubles(0, src, offset + done, n, bigEndian = false)
+            transport.write(buffer, 0, n * 8)
+            done += n
+        }
+    }
+
+    private fun bulkWriteBuffer(): ByteArray {
+        return bulkWriteBuffer ?: ByteArray(BULK_BUFFER_SIZE).also { bulkWriteBuffer = it }
     }
 
     @Throws(IOException::class)
@@ -250,13 +371,13 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     @Throws(IOException::class)
     private fun writeVarint32(num: Int) {
         var n = num
-        for (i in buffer.indices) {
+        for (i in writeBuffer.indices) {
             if (n and 0x7F.inv() == 0x00) {
-                buffer[i] = n.toByte()
-                transport.write(buffer, 0, i + 1)
+                writeBuffer[i] = n.toByte()
+                transport.write(writeBuffer, 0, i + 1)
                 return
             } else {
-                buffer[i] = ((n and 0x7F) or 0x80).toByte()
+                writeBuffer[i] = ((n and 0x7F) or 0x80).toByte()
                 n = n ushr 7
             }
         }
@@ -266,13 +387,13 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     @Throws(IOException::class)
     private fun writeVarint64(num: Long) {
         var n = num
-        for (i in buffer.indices) {
+        for (i in writeBuffer.indices) {
             if (n and 0x7FL.inv() == 0x00L) {
-                buffer[i] = n.toByte()
-                transport.write(buffer, 0, i + 1)
+                writeBuffer[i] = n.toByte()
+                transport.write(writeBuffer, 0, i + 1)
                 return
             } else {
-                buffer[i] = ((n and 0x7F) or 0x80).toByte()
+                writeBuffer[i] = ((n and 0x7F) or 0x80).toByte()
                 n = n ushr 7
             }
         }
@@ -346,6 +467,9 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     @Throws(IOException::class)
     override fun readMapBegin(): MapMetadata {
         val size = readVarint32()
+        if (containerLengthLimit != -1L && size > containerLengthLimit) {
+            throw ProtocolException("Container size limit exceeded")
+        }
         val keyAndValueTypes = if (size == 0) 0 else readByte()
         val keyType = CompactTypes.compactToTtype(((keyAndValueTypes.toInt() shr 4) and 0x0F).toByte())
         val valueType = CompactTypes.compactToTtype((keyAndValueTypes.toInt() and 0x0F).toByte())
@@ -378,6 +502,9 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         if (size == 0x0F) {
             size = readVarint32()
         }
+        if (containerLengthLimit != -1L && size > containerLengthLimit) {
+            throw ProtocolException("Container size limit exceeded")
+        }
         val compactType = (sizeAndType.toInt() and 0x0F).toByte()
         val ttype = CompactTypes.compactToTtype(compactType)
         return buildMetadata(ttype, size)
@@ -402,8 +529,18 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun readByte(): Byte {
-        readFully(buffer, 1)
-        return buffer[0]
+        val source = source
+        if (source != null) {
+            return source.readByte()
+        }
+        val peek = peekable
+        if (peek != null && peek.bytesRemainingInBuffer >= 1) {
+            val b = peek.buffer[peek.bufferPosition]
+            peek.consumeBuffer(1)
+            return b
+        }
+        readFully(readBuffer, 1)
+        return readBuffer[0]
     }
 
     @Throws(IOException::class)
@@ -423,24 +560,44 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun readDouble(): Double {
-        readFully(buffer, 8)
-        val bits: Long = ((buffer[0].toLong() and 0xFFL)
-                or ((buffer[1].toLong() and 0xFFL) shl 8)
-                or ((buffer[2].toLong() and 0xFFL) shl 16)
-                or ((buffer[3].toLong() and 0xFFL) shl 24)
-                or ((buffer[4].toLong() and 0xFFL) shl 32)
-                or ((buffer[5].toLong() and 0xFFL) shl 40)
-                or ((buffer[6].toLong() and 0xFFL) shl 48)
-                or ((buffer[7].toLong() and 0xFFL) shl 56))
-        return Double.fromBits(bits)
+        val source = source
+        if (source != null) {
+            return Double.fromBits(source.readLongLe())
+        }
+        val peek = peekable
+        if (peek != null && peek.bytesRemainingInBuffer >= 8) {
+            val bits = decodeLittleEndianLong(peek.buffer, peek.bufferPosition)
+            peek.consumeBuffer(8)
+            return Double.fromBits(bits)
+        }
+        readFully(readBuffer, 8)
+        return Double.fromBits(decodeLittleEndianLong(readBuffer, 0))
     }
 
     @Throws(IOException::class)
     override fun readString(): String {
         val length = readVarint32()
+        if (stringLengthLimit != -1L && length > stringLengthLimit) {
+            throw ProtocolException("String size limit exceeded")
+        }
         if (length == 0) {
             return ""
         }
+        val cache = stringCache
+        if (cache != null && length > 0 && length <= cache.maxStringLength) {
+            return readCachedString(cache, length)
+        }
+        val source = source
+        if (source != null && length > 0) {
+            return source.readUtf8(length.toLong())
+        }
+        val peek = peekable
+        if (peek != null && length > 0 && peek.bytesRemainingInBuffer >= length) {
+            val position = peek.bufferPosition
+            val result = peek.buffer.decodeToString(position, position + length)
+            peek.consumeBuffer(length)
+            return result
+        }
         val bytes = ByteArray(length)
         readFully(bytes, length)
         return bytes.decodeToString()
@@ -449,16 +606,356 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     @Throws(IOException::class)
     override fun readBinary(): ByteString {
         val length = readVarint32()
+        if (stringLengthLimit != -1L && length > stringLengthLimit) {
+            throw ProtocolException("Binary size limit exceeded")
+        }
         if (length == 0) {
             return ByteString.EMPTY
         }
+        val source = source
+        if (source != null && length > 0) {
+            return source.readByteString(length.toLong())
+        }
+        val peek = peekable
+        if (peek != null && length > 0 && peek.bytesRemainingInBuffer >= length) {
+            val result = peek.buffer.toByteString(peek.bufferPosition, length)
+            peek.consumeBuffer(length)
+            return result
+        }
         val bytes = ByteArray(length)
         readFully(bytes, length)
         return bytes.toByteString()
     }
 
+    @Throws(IOException::class)
+    override fun skipString() {
+        skipLengthPrefixed()
+    }
+
+    @Throws(IOException::class)
+    override fun skipValues(typeId: Byte, count: Int) {
+        when (typeId) {
+            TType.BOOL, TType.BYTE, TType.DOUBLE -> skipBytes(fixedWidth(typeId).toLong() * count)
+            TType.I16, TType.I32, TType.I64 -> skipVarints(count)
+            else -> throw ProtocolException("Not a scalar type: $typeId")
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun skipLengthPrefixed() {
+        val length = readVarint32()
+        if (length < 0) {
+            throw ProtocolException("Negative length: $length")
+        }
+        if (stringLengthLimit != -1L && length > stringLengthLimit) {
+            throw ProtocolException("String size limit exceeded")
+        }
+        skipBytes(length.toLong())
+    }
+
+    // Skips varints without decoding them, by counting the bytes that end
+    // them: those with the continuation bit clear.
+    @Throws(IOException::class)
+    private fun skipVarints(count: Int) {
+        var remaining = count
+        var continuations = 0
+        while (remaining > 0) {
+            val peek = peekable
+            if (peek != null && peek.bytesRemainingInBuffer > 0) {
+                val buf = peek.buffer
+                val start = peek.bufferPosition
+                val end = start + peek.bytesRemainingInBuffer
+                var pos = start
+                while (pos < end && remaining > 0) {
+                    if (buf[pos++] >= 0) {
+                        --remaining
+                        continuations = 0
+                    } else if (++continuations == MAX_VARINT64_BYTES) {
+                        throw ProtocolException("Varint is longer than $MAX_VARINT64_BYTES bytes")
+                    }
+                }
+                peek.consumeBuffer(pos - start)
+            } else if (readByte() >= 0) {
+                --remaining
+                continuations = 0
+            } else if (++continuations == MAX_VARINT64_BYTES) {
+                throw ProtocolException("Varint is longer than $MAX_VARINT64_BYTES bytes")
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readI32Array(dest: IntArray, offset: Int, count: Int) {
+        var i = offset
+        val end = offset + count
+        while (i < end) {
+            val peek = peekable
+            if (peek == null || peek.bytesRemainingInBuffer < MAX_VARINT32_BYTES) {
+                dest[i++] = readI32()
+                continue
+            }
+
+            // Decode every value that is certain to be entirely buffered,
+            // then consume them all at once.
+            val buf = peek.buffer
+            val start = peek.bufferPosition
+            val limit = start + peek.bytesRemainingInBuffer - MAX_VARINT32_BYTES
+            var pos = start
+            while (i < end && pos <= limit) {
+                var result = 0
+                var shift = 0
+                while (true) {
+                    val b = buf[pos++].toInt()
+                    result = result or ((b and 0x7F) shl shift)
+                    if (b and 0x80 != 0x80) {
+                        break
+                    }
+                    shift += 7
+                    if (shift == 7 * MAX_VARINT32_BYTES) {
+                        throw ProtocolException("Varint is longer than $MAX_VARINT32_BYTES bytes")
+                    }
+                }
+                dest[i++] = zigZagToInt(result)
+            }
+            peek.consumeBuffer(pos - start)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readI64Array(dest: LongArray, offset: Int, count: Int) {
+        var i = offset
+        val end = offset + count
+        while (i < end) {
+            val peek = peekable
+            if (peek == null || peek.bytesRemainingInBuffer < MAX_VARINT64_BYTES) {
+                dest[i++] = readI64()
+                continue
+            }
+
+            // As in readI32Array.
+            val buf = peek.buffer
+            val start = peek.bufferPosition
+            val limit = start + peek.bytesRemainingInBuffer - MAX_VARINT64_BYTES
+            var pos = start
+            while (i < end && pos <= limit) {
+                var result = 0L
+                var shift = 0
+                while (true) {
+                    val b = buf[pos++].toInt()
+                    result = result or ((b and 0x7F).toLong() shl shift)
+                    if (b and 0x80 != 0x80) {
+                        break
+                    }
+                    shift += 7
+                    if (shift == 7 * MAX_VARINT64_BYTES) {
+                        throw ProtocolException("Varint is longer than $MAX_VARINT64_BYTES bytes")
+                    }
+                }
+                dest[i++] = zigZagToLong(result)
+            }
+            peek.consumeBuffer(pos - start)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readDoubleArray(dest: DoubleArray, offset: Int, count: Int) {
+        var done = 0
+        while (done < count) {
+            val peek = peekable
+            val n: Int
+            if (peek != null && peek.bytesRemainingInBuffer >= 8) {
+                n = minOf(count - done, peek.bytesRemainingInBuffer / 8)
+                peek.buffer.getDoubles(peek.bufferPosition, dest, offset + done, n, bigEndian = false)
+                peek.consumeBuffer(n * 8)
+            } else {
+                val buffer = bulkReadBuffer ?: ByteArray(BULK_BUFFER_SIZE).also { bulkReadBuffer = it }
+                n = minOf(count - done, buffer.size / 8)
+                readFully(buffer, n * 8)
+                buffer.getDoubles(0, dest, offset + done, n, bigEndian = false)
+            }
+            done += n
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readRawValue(typeId: Byte): RawValue? {
+        val bytes = captureValue { scanValue(it, typeId) } ?: return null
+        return RawValue(typeId, bytes, RawValue.Encoding.COMPACT) {
+            CompactProtocol(it, stringLengthLimit, containerLengthLimit)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeRawValue(value: RawValue): Boolean {
+        if (value.encoding != RawValue.Encoding.COMPACT) {
+            return false
+        }
+        val sink = sink
+        if (sink != null) {
+            sink.write(value.bytes)
+        } else {
+            scratchWriter.write(value.bytes)
+        }
+        return true
+    }
+
+    // Reads past a value of type `typeId`, returning false if it
+    // extends beyond the bytes available to `lookahead`.  Struct values
+    // are self-contained, because field-ID deltas restart within each
+    // struct; only a bool *field* keeps its value in the field header.
+    @Throws(IOException::class)
+    private fun scanValue(lookahead: Lookahead, typeId: Byte): Boolean {
+        when (typeId) {
+            TType.BOOL, TType.BYTE -> return lookahead.skip(1)
+            TType.DOUBLE -> return lookahead.skip(8)
+            TType.I16, TType.I32, TType.I64 -> return skipVarint(lookahead)
+            TType.STRING -> {
+                val length = scanLength(lookahead)
+                if (stringLengthLimit != -1L && length > stringLengthLimit) {
+                    throw ProtocolException("Invalid string size: $length")
+                }
+                return length != -1 && lookahead.skip(length.toLong())
+            }
+            TType.STRUCT -> {
+                while (true) {
+                    val header = lookahead.next()
+                    if (header == -1) {
+                        return false
+                    }
+                    if (header == 0) {
+                        return true
+                    }
+                    if (header shr 4 == 0 && !skipVarint(lookahead)) {
+                        return false
+                    }
+                    val fieldTypeId = CompactTypes.compactToTtype((header and 0x0F).toByte())
+                    if (fieldTypeId != TType.BOOL && !scanValue(lookahead, fieldTypeId)) {
+                        return false
+                    }
+                }
+            }
+            TType.LIST, TType.SET -> {
+                val sizeAndType = lookahead.next()
+                if (sizeAndType == -1) {
+                    return false
+                }
+                var size = (sizeAndType shr 4) and 0x0F
+                if (size == 0x0F) {
+                    size = scanLength(lookahead)
+                    if (size == -1) {
+                        return false
+                    }
+                }
+                checkScannedContainerSize(size)
+                val elementTypeId = CompactTypes.compactToTtype((sizeAndType and 0x0F).toByte())
+                val width = fixedWidth(elementTypeId)
+                if (width > 0) {
+                    return lookahead.skip(size.toLong() * width)
+                }
+                for (i in 0 until size) {
+                    if (!scanValue(lookahead, elementTypeId)) {
+                        return false
+                    }
+                }
+                return true
+            }
+            TType.MAP -> {
+                val size = scanLength(lookahead)
+                if (size == -1) {
+                    return false
+                }
+                checkScannedContainerSize(size)
+                if (size == 0) {
+                    return true
+                }
+                val types = lookahead.next()
+                if (types == -1) {
+                    return false
+                }
+                val keyTypeId = CompactTypes.compactToTtype(((types shr 4) and 0x0F).toByte())
+                val valueTypeId = CompactTypes.compactToTtype((types and 0x0F).toByte())
+                val keyWidth = fixedWidth(keyTypeId)
+                val valueWidth = fixedWidth(valueTypeId)
+                if (keyWidth > 0 && valueWidth > 0) {
+                    return lookahead.skip(size.toLong() * (keyWidth + valueWidth))
+                }
+                for (i in 0 until size) {
+                    if (!scanValue(lookahead, keyTypeId) || !scanValue(lookahead, valueTypeId)) {
+                        return false
+                    }
+                }
+                return true
+            }
+            else -> throw ProtocolException("Unrecognized TType value: $typeId")
+        }
+    }
+
+    private fun checkScannedContainerSize(size: Int) {
+        if (containerLengthLimit != -1L && size > containerLengthLimit) {
+            throw ProtocolException("Invalid container size: $size")
+        }
+    }
+
+    // Reads past a varint, returning false if it is incomplete.
+    @Throws(IOException::class)
+    private fun skipVarint(lookahead: Lookahead): Boolean {
+        for (i in 0 until MAX_VARINT64_BYTES) {
+            val b = lookahead.next()
+            if (b == -1) {
+                return false
+            }
+            if (b and 0x80 == 0) {
+                return true
+            }
+        }
+        throw ProtocolException("Varint is too long")
+    }
+
+    // Reads a string or container length, returning -1 if it is incomplete.
+    @Throws(IOException::class)
+    private fun scanLength(lookahead: Lookahead): Int {
+        var result = 0
+        var shift = 0
+        for (i in 0 until MAX_VARINT32_BYTES) {
+            val b = lookahead.next()
+            if (b == -1) {
+                return -1
+            }
+            result = result or ((b and 0x7F) shl shift)
+            if (b and 0x80 == 0) {
+                if (result < 0) {
+                    throw ProtocolException("Negative length: $result")
+                }
+                return result
+            }
+            shift += 7
+        }
+        throw ProtocolException("Varint is too long")
+    }
+
     @Throws(IOException::class)
     private fun readVarint32(): Int {
+        val peek = peekable
+        if (peek != null) {
+            // Decode in place if the entire varint is already buffered;
+            // otherwise, fall through and read it byte-by-byte.
+            val buf = peek.buffer
+            val start = peek.bufferPosition
+            val end = start + peek.bytesRemainingInBuffer.coerceAtMost(MAX_VARINT32_BYTES)
+            var result = 0
+            var shift = 0
+            var pos = start
+            while (pos < end) {
+                val b = buf[pos++].toInt()
+                result = result or ((b and 0x7F) shl shift)
+                if (b and 0x80 != 0x80) {
+                    peek.consumeBuffer(pos - start)
+                    return result
+                }
+                shift += 7
+            }
+        }
+
         var result = 0
         var shift = 0
         while (true) {
@@ -473,6 +970,27 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     private fun readVarint64(): Long {
+        val peek = peekable
+        if (peek != null) {
+            // As in readVarint32, decode in place only if the entire
+            // varint is already buffered.
+            val buf = peek.buffer
+            val start = peek.bufferPosition
+            val end = start + peek.bytesRemainingInBuffer.coerceAtMost(MAX_VARINT64_BYTES)
+            var result = 0L
+            var shift = 0
+            var pos = start
+            while (pos < end) {
+                val b = buf[pos++].toInt()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 != 0x80) {
+                    peek.consumeBuffer(pos - start)
+                    return result
+                }
+                shift += 7
+            }
+        }
+
         var result: Long = 0
         var shift = 0
         while (true) {
@@ -485,6 +1003,19 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         }
     }
 
+    @Throws(IOException::class)
+    private fun readCachedString(cache: StringCache, size: Int): String {
+        val peek = peekable
+        if (peek != null && peek.bytesRemainingInBuffer >= size) {
+            val result = cache.decode(peek.buffer, peek.bufferPosition, size)
+            peek.consumeBuffer(size)
+            return result
+        }
+        val scratch = cache.scratch
+        readFully(scratch, size)
+        return cache.decode(scratch, 0, size)
+    }
+
     @Throws(IOException::class)
     private fun readFully(buffer: ByteArray, count: Int) {
         var toRead = count
@@ -587,6 +1118,18 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         private const val TYPE_MASK = 0xE0.toByte()
         private const val TYPE_BITS: Byte = 0x07
         private const val TYPE_SHIFT_AMOUNT = 5
+        private const val MAX_VARINT32_BYTES = 5
+        private const val MAX_VARINT64_BYTES = 10
+        private const val BULK_BUFFER_SIZE = 4096
+
+        // The encoded size of values of the given type, or 0 if it varies.
+        private fun fixedWidth(typeId: Byte): Int {
+            return when (typeId) {
+                TType.BOOL, TType.BYTE -> 1
+                TType.DOUBLE -> 8
+                else -> 0
+            }
+        }
         private val NO_STRUCT = StructMetadata("")
         private val END_FIELDS = FieldMetadata("", TType.STOP, 0.toShort())
 
@@ -606,6 +1149,21 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
             return n shl 1 xor (n shr 63)
         }
 
+        /**
+         * Encodes [n] as a varint into [buffer] at [pos], returning the
+         * position after it.
+         */
+        private fun putVarint64(buffer: ByteArray, pos: Int, n: Long): Int {
+            var value = n
+            var p = pos
+            while (value and 0x7FL.inv() != 0L) {
+                buffer[p++] = ((value and 0x7F) or 0x80).toByte()
+                value = value ushr 7
+            }
+            buffer[p++] = value.toByte()
+            return p
+        }
+
         private fun zigZagToInt(n: Int): Int {
             return n ushr 1 xor -(n and 1)
         }
@@ -613,5 +1171,16 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         private fun zigZagToLong(n: Long): Long {
             return n ushr 1 xor -(n and 1)
         }
+
+        private fun decodeLittleEndianLong(buffer: ByteArray, offset: Int): Long {
+            return ((buffer[offset].toLong() and 0xFFL)
+                    or ((buffer[offset + 1].toLong() and 0xFFL) shl 8)
+                    or ((buffer[offset + 2].toLong() and 0xFFL) shl 16)
+                    or ((buffer[offset + 3].toLong() and 0xFFL) shl 24)
+                    or ((buffer[offset + 4].toLong() and 0xFFL) shl 32)
+                    or ((buffer[offset + 5].toLong() and 0xFFL) shl 40)
+                    or ((buffer[offset + 6].toLong() and 0xFFL) shl 48)
+                    or ((buffer[offset + 7].toLong() and 0xFFL) shl 56))
+        }
     }
 }
@@ -20,6 +20,8 @@
  */
 package com.microsoft.thrifty.protocol
 
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.internal.ProtocolException
 import okio.ByteString
 import okio.Closeable
 import okio.IOException
@@ -89,6 +91,40 @@ interface Protocol : Closeable {
     @Throws(IOException::class)
     fun writeBinary(buf: ByteString)
 
+    /**
+     * Writes [count] i32 values from [src], starting at [offset], as the
+     * elements of a list or set.  This is equivalent to calling [writeI32]
+     * for each value, but protocols may encode them in bulk.
+     */
+    @Throws(IOException::class)
+    fun writeI32Array(src: IntArray, offset: Int, count: Int) {
+        for (i in offset until offset + count) {
+            writeI32(src[i])
+        }
+    }
+
+    /**
+     * Writes [count] i64 values from [src], starting at [offset]; see
+     * [writeI32Array].
+     */
+    @Throws(IOException::class)
+    fun writeI64Array(src: LongArray, offset: Int, count: Int) {
+        for (i in offset until offset + count) {
+            writeI64(src[i])
+        }
+    }
+
+    /**
+     * Writes [count] double values from [src], starting at [offset]; see
+     * [writeI32Array].
+     */
+    @Throws(IOException::class)
+    fun writeDoubleArray(src: DoubleArray, offset: Int, count: Int) {
+        for (i in offset until offset + count) {
+            writeDouble(src[i])
+        }
+    }
+
     ////////
 
     @Throws(IOException::class)
@@ -151,6 +187,92 @@ interface Protocol : Closeable {
     @Throws(IOException::class)
     fun readBinary(): ByteString
 
+    /**
+     * Reads [count] i32 values into [dest], starting at [offset].  This is
+     * equivalent to calling [readI32] for each value, but protocols may
+     * decode them in bulk.
+     */
+    @Throws(IOException::class)
+    fun readI32Array(dest: IntArray, offset: Int, count: Int) {
+        for (i in offset until offset + count) {
+            dest[i] = readI32()
+        }
+    }
+
+    /**
+     * Reads [count] i64 values into [dest], starting at [offset]; see
+     * [readI32Array].
+     */
+    @Throws(IOException::class)
+    fun readI64Array(dest: LongArray, offset: Int, count: Int) {
+        for (i in offset until offset + count) {
+            dest[i] = readI64()
+        }
+    }
+
+    /**
+     * Reads [count] double values into [dest], starting at [offset]; see
+     * [readI32Array].
+     */
+    @Throws(IOException::class)
+    fun readDoubleArray(dest: DoubleArray, offset: Int, count: Int) {
+        for (i in offset until offset + count) {
+            dest[i] = readDouble()
+        }
+    }
+
+    /**
+     * Skips the next string value.  This is equivalent to calling
+     * [readString] and discarding the result, but protocols may advance past
+     * the encoded bytes without copying or decoding them.
+     */
+    @Throws(IOException::class)
+    fun skipString() {
+        readString()
+    }
+
+    /**
+     * Skips [count] consecutive elements of a list, set or map, each of the
+     * scalar type [typeId]: one of [TType.BOOL], [TType.BYTE], [TType.I16],
+     * [TType.I32], [TType.I64] or [TType.DOUBLE].  Protocols whose values
+     * are of fixed size may skip them all at once.
+     */
+    @Throws(IOException::class)
+    fun skipValues(typeId: Byte, count: Int) {
+        for (i in 0 until count) {
+            when (typeId) {
+                TType.BOOL -> readBool()
+                TType.BYTE -> readByte()
+                TType.I16 -> readI16()
+                TType.I32 -> readI32()
+                TType.I64 -> readI64()
+                TType.DOUBLE -> readDouble()
+                else -> throw ProtocolException("Not a scalar type: $typeId")
+            }
+        }
+    }
+
+    /**
+     * Reads the next value, of type [typeId], without decoding it.
+     *
+     * Returns `null`, having read nothing, if this protocol cannot capture
+     * the value; the caller must then read it as usual.  Protocols that
+     * capture values generally do so only when the entire value is already
+     * buffered by the transport.
+     */
+    @Throws(IOException::class)
+    fun readRawValue(typeId: Byte): RawValue? = null
+
+    /**
+     * Writes [value] exactly as it was read, if this protocol has the same
+     * encoding as the one that read it.
+     *
+     * @return `true` if the value was written, or `false` (having written
+     *         nothing) if the caller must encode it as usual.
+     */
+    @Throws(IOException::class)
+    fun writeRawValue(value: RawValue): Boolean = false
+
     //////////////
 
     @Throws(IOException::class)
@@ -0,0 +1,142 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol
+
+import com.microsoft.thrifty.transport.SourceTransport
+import com.microsoft.thrifty.transport.Transport
+import okio.Buffer
+import okio.BufferedSource
+import okio.ByteString
+import okio.EOFException
+import okio.IOException
+
+/**
+ * A single encoded value, captured by [Protocol.readRawValue] without being
+ * decoded.
+ *
+ * A raw value can be decoded later with [decode], or written back out,
+ * byte for byte, by a protocol with the same encoding via
+ * [Protocol.writeRawValue].
+ */
+class RawValue internal constructor(
+        /**
+         * The [com.microsoft.thrifty.TType] of the captured value.
+         */
+        val typeId: Byte,
+
+        /**
+         * The encoded value.
+         */
+        val bytes: ByteString,
+
+        internal val encoding: Encoding,
+
+        private val newProtocol: (Transport) -> Protocol
+) {
+    /**
+     * Decodes the captured value by passing [read] a protocol positioned
+     * at its first byte.
+     */
+    @Throws(IOException::class)
+    fun <T> decode(read: (Protocol) -> T): T {
+        val protocol = newProtocol(SourceTransport(Buffer().write(bytes)))
+        return read(protocol)
+    }
+
+    internal enum class Encoding {
+        BINARY,
+        COMPACT
+    }
+}
+
+/**
+ * Reads ahead of a protocol's transport without consuming anything, so that
+ * a protocol can find where an encoded value ends before capturing it.
+ */
+internal abstract class Lookahead {
+    /**
+     * The number of bytes read ahead so far.
+     */
+    var position: Long = 0L
+        protected set
+
+    /**
+     * Reads the next byte as an unsigned value, or returns -1 if no more
+     * bytes are available.
+     */
+    abstract fun next(): Int
+
+    /**
+     * Reads past [count] bytes, returning `false` if fewer are available.
+     */
+    abstract fun skip(count: Long): Boolean
+}
+
+/**
+ * Reads ahead of an Okio source, buffering as much of it as necessary.
+ */
+internal class SourceLookahead(source: BufferedSource) : Lookahead() {
+    private val peek = source.peek()
+
+    override fun next(): Int {
+        if (!peek.request(1)) {
+            return -1
+        }
+        position++
+        return peek.readByte().toInt() and 0xFF
+    }
+
+    override fun skip(count: Long): Boolean {
+        try {
+            peek.skip(count)
+        } catch (e: EOFException) {
+            return false
+        }
+        position += count
+        return true
+    }
+}
+
+/**
+ * Reads ahead within the [limit] bytes of [buffer] that begin at [offset].
+ */
+internal class ArrayLookahead(
+        private val buffer: ByteArray,
+        private val offset: Int,
+        private val limit: Int
+) : Lookahead() {
+    override fun next(): Int {
+        if (position >= limit) {
+            return -1
+        }
+        val b = buffer[offset + position.toInt()]
+        position++
+        return b.toInt() and 0xFF
+    }
+
+    override fun skip(count: Long): Boolean {
+        if (count > limit - position) {
+            return false
+        }
+        position += count
+        return true
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol
+
+import com.microsoft.thrifty.transport.Transport
+import okio.ByteString
+import okio.IOException
+
+/**
+ * Writes strings and binaries to a [Transport] through a reusable scratch
+ * buffer, so that neither UTF-8 encoding nor [ByteString] access allocates.
+ *
+ * Values larger than the scratch buffer's maximum size are written in
+ * chunks.  The scratch buffer is allocated lazily, and only grows.
+ */
+internal class ScratchWriter(
+        private val transport: Transport
+) {
+    private var scratch = ByteArray(0)
+
+    /**
+     * Writes the UTF-8 encoding of [str], which must be exactly [byteCount]
+     * bytes long as computed by [utf8Size], and so have no unpaired
+     * surrogates.
+     */
+    @Throws(IOException::class)
+    fun writeUtf8(str: String, byteCount: Int) {
+        val buf = scratchFor(byteCount)
+        val limit = buf.size
+        var pos = 0
+        var i = 0
+        val length = str.length
+        while (i < length) {
+            val c = str[i].code
+            when {
+                c < 0x80 -> {
+                    if (pos == limit) {
+                        transport.write(buf, 0, pos)
+                        pos = 0
+                    }
+                    buf[pos++] = c.toByte()
+                    i++
+
+                    // Fast path for runs of ASCII characters.
+                    while (i < length && pos < limit) {
+                        val next = str[i].code
+                        if (next >= 0x80) break
+                        buf[pos++] = next.toByte()
+                        i++
+                    }
+                }
+
+                c < 0x800 -> {
+                    if (pos + 2 > limit) {
+                        transport.write(buf, 0, pos)
+                        pos = 0
+                    }
+                    buf[pos++] = (c shr 6 or 0xc0).toByte()
+                    buf[pos++] = (c and 0x3f or 0x80).toByte()
+                    i++
+                }
+
+                c < 0xd800 || c > 0xdfff -> {
+                    if (pos + 3 > limit) {
+                        transport.write(buf, 0, pos)
+                        pos = 0
+                    }
+                    buf[pos++] = (c shr 12 or 0xe0).toByte()
+                    buf[pos++] = (c shr 6 and 0x3f or 0x80).toByte()
+                    buf[pos++] = (c and 0x3f or 0x80).toByte()
+                    i++
+                }
+
+                else -> {
+                    if (pos + 4 > limit) {
+                        transport.write(buf, 0, pos)
+                        pos = 0
+                    }
+                    val low = str[i + 1].code
+                    val codePoint = 0x010000 + (c and 0x03ff shl 10 or (low and 0x03ff))
+                    buf[pos++] = (codePoint shr 18 or 0xf0).toByte()
+                    buf[pos++] = (codePoint shr 12 and 0x3f or 0x80).toByte()
+                    buf[pos++] = (codePoint shr 6 and 0x3f or 0x80).toByte()
+                    buf[pos++] = (codePoint and 0x3f or 0x80).toByte()
+                    i += 2
+                }
+            }
+        }
+
+        if (pos > 0) {
+            transport.write(buf, 0, pos)
+        }
+    }
+
+    /**
+     * Writes the contents of [bytes].
+     */
+    @Throws(IOException::class)
+    fun write(bytes: ByteString) {
+        val size = bytes.size
+        val buf = scratchFor(size)
+        var offset = 0
+        while (offset < size) {
+            val count = (size - offset).coerceAtMost(buf.size)
+            bytes.copyInto(offset, buf, 0, count)
+            transport.write(buf, 0, count)
+            offset += count
+        }
+    }
+
+    private fun scratchFor(byteCount: Int): ByteArray {
+        val wanted = byteCount.coerceIn(MIN_SIZE, MAX_SIZE)
+        if (scratch.size < wanted) {
+            var size = MIN_SIZE
+            while (size < wanted) {
+                size = size shl 1
+            }
+            scratch = ByteArray(size)
+        }
+        return scratch
+    }
+
+    companion object {
+        // Must be at least 4, the longest UTF-8 sequence.
+        private const val MIN_SIZE = 64
+        private const val MAX_SIZE = 8192
+
+        /**
+         * Returns the length of the UTF-8 encoding of [str], or -1 if it has
+         * unpaired surrogates.  Such strings should be encoded with
+         * [String.encodeToByteArray], so that they are replaced exactly as
+         * the platform always has replaced them.
+         */
+        fun utf8Size(str: String): Int {
+            var size = 0
+            var i = 0
+            val length = str.length
+            while (i < length) {
+                val c = str[i].code
+                when {
+                    c < 0x80 -> size += 1
+                    c < 0x800 -> size += 2
+                    c < 0xd800 || c > 0xdfff -> size += 3
+                    else -> {
+                        val low = if (i + 1 < length) str[i + 1].code else 0
+                        if (c > 0xdbff || low !in 0xdc00..0xdfff) {
+                            return -1
+                        }
+                        size += 4
+                        i++
+                    }
+                }
+                i++
+            }
+            return size
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol
+
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A bounded cache of decoded strings, keyed by their raw UTF-8 bytes.
+ *
+ * Payloads frequently repeat a small vocabulary of strings - enum-like tags,
+ * hostnames, map keys - many times over.  When given a [StringCache],
+ * [BinaryProtocol] and [CompactProtocol] decode such strings through it,
+ * returning a shared [String] instance rather than allocating a fresh byte
+ * array and string for every occurrence.
+ *
+ * The cache is direct-mapped: each distinct byte sequence maps to a single
+ * slot, and a miss replaces whatever occupied that slot.  Lookups never
+ * allocate; misses allocate one copy of the key alongside the decoded string.
+ * Strings longer than [maxStringLength] bytes bypass the cache entirely.
+ *
+ * Instances of this class are *not* threadsafe, and so must not be shared
+ * between protocols that are used concurrently.
+ *
+ * @param maxEntries the maximum number of strings retained; rounded up to a
+ *                   power of two.
+ * @param maxStringLength the length, in bytes, of the longest string eligible
+ *                        for caching.
+ */
+class StringCache @JvmOverloads constructor(
+        maxEntries: Int = DEFAULT_MAX_ENTRIES,
+        val maxStringLength: Int = DEFAULT_MAX_STRING_LENGTH
+) {
+    private val mask: Int
+    private val hashes: IntArray
+    private val keys: Array<ByteArray?>
+    private val values: Array<String?>
+
+    /**
+     * A reusable buffer into which protocols read candidate strings that are
+     * not already available in a contiguous array.
+     */
+    internal val scratch: ByteArray
+
+    /**
+     * The number of lookups that returned a cached string.
+     */
+    var hits: Long = 0
+        private set
+
+    /**
+     * The number of lookups that had to decode a new string.
+     */
+    var misses: Long = 0
+        private set
+
+    init {
+        require(maxEntries > 0) { "maxEntries must be positive" }
+        require(maxStringLength >= 0) { "maxStringLength must not be negative" }
+        require(maxEntries <= MAX_CAPACITY) { "maxEntries cannot exceed $MAX_CAPACITY" }
+
+        var capacity = 1
+        while (capacity < maxEntries) {
+            capacity = capacity shl 1
+        }
+
+        mask = capacity - 1
+        hashes = IntArray(capacity)
+        keys = arrayOfNulls(capacity)
+        values = arrayOfNulls(capacity)
+        scratch = ByteArray(maxStringLength)
+    }
+
+    /**
+     * Returns the string encoded by the given UTF-8 bytes, from the cache if
+     * possible.
+     *
+     * @param bytes an array containing UTF-8 encoded data.
+     * @param offset the offset in [bytes] at which the encoded string begins.
+     * @param length the length, in bytes, of the encoded string.
+     */
+    fun decode(bytes: ByteArray, offset: Int, length: Int): String {
+        if (length > maxStringLength) {
+            return bytes.decodeToString(offset, offset + length)
+        }
+
+        val hash = hash(bytes, offset, length)
+        val slot = hash and mask
+        val key = keys[slot]
+        if (key != null && hashes[slot] == hash && contentEquals(key, bytes, offset, length)) {
+            hits++
+            return values[slot]!!
+        }
+
+        misses++
+        val value = bytes.decodeToString(offset, offset + length)
+        hashes[slot] = hash
+        keys[slot] = bytes.copyOfRange(offset, offset + length)
+        values[slot] = value
+        return value
+    }
+
+    /**
+     * Evicts all cached strings and resets [hits] and [misses] to zero.
+     */
+    fun clear() {
+        keys.fill(null)
+        values.fill(null)
+        hits = 0
+        misses = 0
+    }
+
+    companion object {
+        const val DEFAULT_MAX_ENTRIES = 1024
+        const val DEFAULT_MAX_STRING_LENGTH = 64
+
+        private const val MAX_CAPACITY = 1 shl 30
+
+        private fun hash(bytes: ByteArray, offset: Int, length: Int): Int {
+            var h = length
+            for (i in offset until offset + length) {
+                h = 31 * h + bytes[i]
+            }
+            // Spread the high bits into the low bits, which select the slot.
+            return h xor (h ushr 16)
+        }
+
+        private fun contentEquals(key: ByteArray, bytes: ByteArray, offset: Int, length: Int): Boolean {
+            if (key.size != length) {
+                return false
+            }
+            for (i in 0 until length) {
+                if (key[i] != bytes[offset + i]) {
+                    return false
+                }
+            }
+            return true
+        }
+    }
+}
@@ -21,6 +21,7 @@
 package com.microsoft.thrifty.service
 
 import com.microsoft.thrifty.protocol.Protocol
+import kotlinx.coroutines.CancellableContinuation
 import okio.Closeable
 
 /**
@@ -35,11 +36,18 @@ import okio.Closeable
  *
  * @param protocol the [Protocol] used to encode/decode requests and responses.
  * @param listener a callback object to receive client-level events.
+ * @param config options governing how calls are sent and received.
  */
 expect open class AsyncClientBase protected constructor(
     protocol: Protocol,
-    listener: Listener
+    listener: Listener,
+    config: ClientConfig
 ) : ClientBase, Closeable {
+    /**
+     * Creates a client with the [default configuration][ClientConfig.DEFAULT].
+     */
+    protected constructor(protocol: Protocol, listener: Listener)
+
     /**
      * Exposes important events in the client's lifecycle.
      */
@@ -77,4 +85,19 @@ expect open class AsyncClientBase protected constructor(
      * expect this to change and/or be removed entirely!
      */
     protected fun enqueue(methodCall: MethodCall<*>)
+
+    /**
+     * Enqueues a method call whose callback resumes the given continuation.
+     *
+     * If the continuation is cancelled - e.g. when a `withTimeout` deadline
+     * expires - before the call has been sent, the call is dropped.  If it
+     * has been sent, its response is still read, so that the connection
+     * remains usable, but is discarded.
+     *
+     * WARNING:
+     * This method is *NOT* part of the public API.  It is an implementation
+     * detail, for use by generated code only.  As multi-platform code evolves,
+     * expect this to change and/or be removed entirely!
+     */
+    protected fun enqueue(methodCall: MethodCall<*>, continuation: CancellableContinuation<*>)
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+import com.microsoft.thrifty.internal.nanoTime
+import com.microsoft.thrifty.service.MethodCallMetrics.Companion.UNKNOWN_SIZE
+import com.microsoft.thrifty.transport.ByteCountingTransport
+import kotlin.concurrent.Volatile
+
+/**
+ * Times the phases of a single call, and reports them to [metrics] once
+ * the call completes.
+ *
+ * Clients invoke the `request*` and `response*` methods as the call is
+ * written and its response read; servers invoke [argumentsRead],
+ * [handlerReturned] and [replyWritten].  Each call is measured by one
+ * thread at a time.
+ *
+ * A pipelining client's reader thread may see a response as soon as the
+ * request has been written, so writer-side methods must not touch any
+ * state after [requestWritten] for calls expecting a response.  Its write
+ * of [phaseStart] hands the request's measurements over to the reader.
+ */
+internal class CallRecorder(
+        private val metrics: MethodMetrics,
+        private val side: MethodCallMetrics.Side,
+        private val method: String,
+        private val oneWay: Boolean,
+        private val input: ByteCountingTransport?,
+        private val output: ByteCountingTransport?
+) {
+    private val start = nanoTime()
+    @Volatile
+    private var phaseStart = start
+    private var bytesMark = input?.bytesRead ?: 0L
+
+    var seqId = 0
+    private var requestBytes = UNKNOWN_SIZE
+    private var responseBytes = UNKNOWN_SIZE
+    private var serializationNanos = 0L
+    private var wireNanos = 0L
+    private var handlerNanos = 0L
+
+    fun requestStarted(seqId: Int) {
+        this.seqId = seqId
+        phaseStart = nanoTime()
+        bytesMark = output?.bytesWritten ?: 0L
+    }
+
+    fun requestWritten() {
+        val now = nanoTime()
+        serializationNanos += now - phaseStart
+        output?.let { requestBytes = it.bytesWritten - bytesMark }
+        phaseStart = now
+    }
+
+    /**
+     * Records the time taken to flush a one-way call.  The wire time of
+     * other calls runs until [responseArrived], so this ignores them; their
+     * responses may already be being read on another thread.
+     */
+    fun requestFlushed() {
+        if (oneWay) {
+            wireNanos = nanoTime() - phaseStart
+        }
+    }
+
+    /**
+     * @param bytesReadBefore the input's [ByteCountingTransport.bytesRead]
+     * before the response's message header was read.
+     */
+    fun responseArrived(bytesReadBefore: Long) {
+        val now = nanoTime()
+        wireNanos = now - phaseStart
+        phaseStart = now
+        bytesMark = bytesReadBefore
+    }
+
+    fun responseRead() {
+        serializationNanos += nanoTime() - phaseStart
+        input?.let { responseBytes = it.bytesRead - bytesMark }
+    }
+
+    fun argumentsRead() {
+        val now = nanoTime()
+        serializationNanos += now - phaseStart
+        phaseStart = now
+        input?.let { requestBytes = it.bytesRead - bytesMark }
+    }
+
+    fun handlerReturned() {
+        val now = nanoTime()
+        handlerNanos = now - phaseStart
+        phaseStart = now
+        bytesMark = output?.bytesWritten ?: 0L
+    }
+
+    fun replyWritten() {
+        serializationNanos += nanoTime() - phaseStart
+        if (!oneWay) {
+            output?.let { responseBytes = it.bytesWritten - bytesMark }
+        }
+    }
+
+    fun complete(outcome: MethodCallMetrics.Outcome) {
+        val call = MethodCallMetrics(
+                side = side,
+                method = method,
+                seqId = seqId,
+                oneWay = oneWay,
+                outcome = outcome,
+                requestBytes = requestBytes,
+                responseBytes = responseBytes,
+                totalNanos = nanoTime() - start,
+                serializationNanos = serializationNanos,
+                wireNanos = wireNanos,
+                handlerNanos = handlerNanos)
+        try {
+            metrics.onCallCompleted(call)
+        } catch (ignored: Exception) {
+            // A faulty metrics implementation mustn't fail the call.
+        }
+    }
+}
@@ -25,7 +25,10 @@ import com.microsoft.thrifty.ThriftException
 import com.microsoft.thrifty.ThriftException.Companion.read
 import com.microsoft.thrifty.internal.AtomicBoolean
 import com.microsoft.thrifty.internal.AtomicInteger
+import com.microsoft.thrifty.protocol.BaseProtocol
+import com.microsoft.thrifty.protocol.MessageMetadata
 import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.MethodCallMetrics.Outcome
 import okio.Closeable
 import okio.IOException
 
@@ -36,8 +39,44 @@ import okio.IOException
  * at the transport level.  If your backend requires framing, be sure to
  * configure your [Protocol] and [com.microsoft.thrifty.transport.Transport]
  * objects appropriately.
+ *
+ * Calls are measured and reported to the given [MethodMetrics], if any.
+ * Request and response sizes are known only when the protocol's transport
+ * is a [com.microsoft.thrifty.transport.ByteCountingTransport], such as a
+ * [com.microsoft.thrifty.transport.FramedTransport].
  */
-open class ClientBase protected constructor(private val protocol: Protocol) : Closeable {
+open class ClientBase protected constructor(
+        private val protocol: Protocol,
+        metrics: MethodMetrics
+) : Closeable {
+    protected constructor(protocol: Protocol) : this(protocol, MethodMetrics.NONE)
+
+    /**
+     * Where calls are measured, or `null` if they are not.
+     */
+    private val metrics: MethodMetrics? = metrics.takeIf { it !== MethodMetrics.NONE }
+
+    private val byteCounter = (protocol as? BaseProtocol)?.byteCounter
+
+    /**
+     * The transport, if several requests may be written to it and then
+     * flushed together.
+     */
+    internal val batchingTransport = (protocol as? BaseProtocol)?.batchingTransport
+
+    /**
+     * The number of bytes written to the transport, if it counts them;
+     * otherwise, zero.
+     */
+    internal val bytesWritten: Long
+        get() = byteCounter?.bytesWritten ?: 0L
+
+    /**
+     * The transport's read count before the most recent message header was
+     * read; only maintained when calls are measured.
+     */
+    private var bytesReadBeforeMessage = 0L
+
     /**
      * A sequence ID generator; contains the most-recently-used
      * sequence ID (or zero, if no calls have been made).
@@ -58,10 +97,15 @@ open class ClientBase protected constructor(private val protocol: Protocol) : Cl
     @Throws(Exception::class)
     protected fun execute(methodCall: MethodCall<*>): Any? {
         check(running.get()) { "Cannot write to a closed service client" }
+        startRecording(methodCall)
         return try {
-            invokeRequest(methodCall)
+            invokeRequest(methodCall).also { finishRecording(methodCall, Outcome.SUCCESS) }
         } catch (e: ServerException) {
+            finishRecording(methodCall, Outcome.APPLICATION_EXCEPTION)
             throw e.thriftException
+        } catch (e: Exception) {
+            finishRecording(methodCall, if (e is Struct) Outcome.DECLARED_EXCEPTION else Outcome.FAILURE)
+            throw e
         }
     }
 
@@ -98,21 +142,125 @@ open class ClientBase protected constructor(private val protocol: Protocol) : Cl
     @Throws(Exception::class)
     fun invokeRequest(call: MethodCall<*>): Any? {
         val isOneWay = call.callTypeId == TMessageType.ONEWAY
-        val sid = seqId.incrementAndGet()
-        protocol.writeMessageBegin(call.name, call.callTypeId, sid)
-        call.send(protocol)
-        protocol.writeMessageEnd()
-        protocol.flush()
+        val sid = nextSeqId()
+        writeRequest(call, sid)
         if (isOneWay) {
             // No response will be received
             return Unit
         }
-        val metadata = protocol.readMessageBegin()
+        val metadata = readMessageBegin()
         if (metadata.seqId != sid) {
             throw ThriftException(
                     ThriftException.Kind.BAD_SEQUENCE_ID,
                     "Unrecognized sequence ID")
         }
+        return readResponse(call, metadata)
+    }
+
+    /**
+     * Returns a new sequence ID, unique for the lifetime of this client.
+     */
+    internal fun nextSeqId(): Int = seqId.incrementAndGet()
+
+    /**
+     * Begins measuring the given call, if calls are measured.
+     */
+    internal fun startRecording(call: MethodCall<*>) {
+        val metrics = metrics ?: return
+        call.recorder = CallRecorder(
+                metrics,
+                MethodCallMetrics.Side.CLIENT,
+                call.name,
+                call.callTypeId == TMessageType.ONEWAY,
+                byteCounter,
+                byteCounter)
+    }
+
+    /**
+     * Reports the given call's measurements, if it is being measured and
+     * has not already been reported.
+     */
+    internal fun finishRecording(call: MethodCall<*>, outcome: Outcome) {
+        val recorder = call.recorder ?: return
+        call.recorder = null
+        recorder.complete(outcome)
+    }
+
+    /**
+     * Writes the given call to the server under the given sequence ID, and
+     * flushes the protocol.
+     */
+    @Throws(IOException::class)
+    internal fun writeRequest(call: MethodCall<*>, seqId: Int) {
+        writeUnflushedRequest(call, seqId)
+        protocol.flush()
+        call.recorder?.requestFlushed()
+    }
+
+    /**
+     * Writes the given call under the given sequence ID, to be sent by a
+     * later [flushRequests] along with others.  Requires a
+     * [batchingTransport].
+     */
+    @Throws(IOException::class)
+    internal fun writeBatchedRequest(call: MethodCall<*>, seqId: Int) {
+        writeUnflushedRequest(call, seqId)
+        batchingTransport!!.endMessage()
+    }
+
+    /**
+     * Flushes the given calls, which were written by [writeBatchedRequest].
+     */
+    @Throws(IOException::class)
+    internal fun flushRequests(calls: List<MethodCall<*>>) {
+        protocol.flush()
+        for (call in calls) {
+            call.recorder?.requestFlushed()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun writeUnflushedRequest(call: MethodCall<*>, seqId: Int) {
+        val recorder = call.recorder
+        recorder?.requestStarted(seqId)
+        protocol.writeMessageBegin(call.name, call.callTypeId, seqId)
+        call.send(protocol)
+        protocol.writeMessageEnd()
+        recorder?.requestWritten()
+    }
+
+    /**
+     * Reads the header of the next message sent by the server.
+     */
+    @Throws(IOException::class)
+    internal fun readMessageBegin(): MessageMetadata {
+        if (metrics != null) {
+            bytesReadBeforeMessage = byteCounter?.bytesRead ?: 0L
+        }
+        return protocol.readMessageBegin()
+    }
+
+    /**
+     * Reads the remainder of the response to the given call, whose header
+     * has already been read as [metadata].
+     *
+     * @throws ServerException wrapper around [ThriftException]. Callers should catch and unwrap this.
+     * @throws IOException from the protocol
+     * @throws Exception exception received from server implements [com.microsoft.thrifty.Struct]
+     */
+    @Throws(Exception::class)
+    internal fun readResponse(call: MethodCall<*>, metadata: MessageMetadata): Any? {
+        val recorder = call.recorder ?: return readResponseUnmeasured(call, metadata)
+        recorder.responseArrived(bytesReadBeforeMessage)
+        try {
+            return readResponseUnmeasured(call, metadata)
+        } finally {
+            recorder.responseRead()
+        }
+    }
+
+    @Throws(Exception::class)
+    private fun readResponseUnmeasured(call: MethodCall<*>, metadata: MessageMetadata): Any? {
         if (metadata.type == TMessageType.EXCEPTION) {
             val e = read(protocol)
             protocol.readMessageEnd()
@@ -122,11 +270,6 @@ open class ClientBase protected constructor(private val protocol: Protocol) : Cl
                     ThriftException.Kind.INVALID_MESSAGE_TYPE,
                     "Invalid message type: " + metadata.type)
         }
-        if (metadata.seqId != seqId.get()) {
-            throw ThriftException(
-                    ThriftException.Kind.BAD_SEQUENCE_ID,
-                    "Out-of-order response")
-        }
         if (metadata.name != call.name) {
             throw ThriftException(
                     ThriftException.Kind.WRONG_METHOD_NAME,
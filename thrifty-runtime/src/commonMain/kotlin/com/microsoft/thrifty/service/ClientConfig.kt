@@ -0,0 +1,72 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+/**
+ * Tunes the behavior of an [AsyncClientBase].
+ *
+ * [ClientConfig.DEFAULT] matches the classic behavior of sending one call
+ * at a time, and waiting for its response before sending the next.
+ */
+expect class ClientConfig internal constructor(
+    builder: Builder
+) {
+    /**
+     * The maximum number of calls that may be awaiting a response at once.
+     */
+    val maxInFlightCalls: Int
+
+    /**
+     * The interceptors that each call passes through, in order.
+     */
+    val interceptors: List<ClientInterceptor>
+
+    class Builder() {
+        /**
+         * Allows up to [maxInFlightCalls] calls to be written to the connection
+         * before their responses arrive.  Responses are matched to calls by
+         * sequence ID, so they may arrive in any order.
+         *
+         * Values greater than 1 enable pipelining, which requires a
+         * full-duplex transport (e.g. a socket, not HTTP), a protocol that
+         * can read and write concurrently (binary or compact), and a server
+         * that reads the next request before it has replied to the previous.
+         * Pipelining is currently implemented on the JVM only; on other
+         * platforms, calls are always sent one at a time.  Defaults to 1.
+         */
+        fun maxInFlightCalls(maxInFlightCalls: Int): Builder
+
+        /**
+         * Adds an interceptor that each call passes through before it is
+         * sent, after those already added.
+         */
+        fun addInterceptor(interceptor: ClientInterceptor): Builder
+
+        fun build(): ClientConfig
+    }
+
+    companion object {
+        /**
+         * A configuration that sends one call at a time.
+         */
+        val DEFAULT: ClientConfig
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+/**
+ * Observes, alters or answers calls made through an [AsyncClientBase],
+ * without changes to generated code - e.g. to enforce deadlines, retry
+ * failed calls, trace them, or serve them from a cache.
+ *
+ * Interceptors are configured with [ClientConfig.Builder.addInterceptor],
+ * and run in the order they were added, on the thread that made the call,
+ * before the call is queued.  Each either passes the call along with
+ * [Chain.proceed] - possibly a different call, such as one made by
+ * [MethodCall.withCallback] to observe the outcome - or completes it
+ * itself, by invoking its [MethodCall.callback], in which case nothing is
+ * sent to the server.
+ */
+fun interface ClientInterceptor {
+    fun intercept(call: MethodCall<*>, chain: Chain)
+
+    /**
+     * The remaining interceptors, followed by the client itself.
+     */
+    fun interface Chain {
+        /**
+         * Passes [call] to the next interceptor, or queues it to be sent if
+         * there are none left.  May be called again, e.g. to retry a call
+         * once it has failed.
+         */
+        fun proceed(call: MethodCall<*>)
+    }
+}
+
+/**
+ * Runs [call] through these interceptors, in order, and then hands it to
+ * [send].
+ */
+internal fun List<ClientInterceptor>.intercept(call: MethodCall<*>, send: (MethodCall<*>) -> Unit) {
+    ClientChain(this, 0, send).proceed(call)
+}
+
+private class ClientChain(
+        private val interceptors: List<ClientInterceptor>,
+        private val index: Int,
+        private val send: (MethodCall<*>) -> Unit
+) : ClientInterceptor.Chain {
+    override fun proceed(call: MethodCall<*>) {
+        if (index == interceptors.size) {
+            send(call)
+        } else {
+            interceptors[index].intercept(call, ClientChain(interceptors, index + 1, send))
+        }
+    }
+}
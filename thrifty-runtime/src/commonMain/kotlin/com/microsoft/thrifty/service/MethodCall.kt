@@ -20,9 +20,11 @@
  */
 package com.microsoft.thrifty.service
 
+import com.microsoft.thrifty.internal.AtomicBoolean
 import com.microsoft.thrifty.protocol.MessageMetadata
 import com.microsoft.thrifty.protocol.Protocol
 import okio.IOException
+import kotlin.concurrent.Volatile
 import kotlin.jvm.JvmField
 
 /**
@@ -34,6 +36,26 @@ abstract class MethodCall<T>(
         @JvmField val callTypeId: Byte,
         @JvmField val callback: ServiceMethodCallback<T>?,
 ) {
+    /**
+     * Measures this call, when the client sending it has [MethodMetrics].
+     */
+    internal var recorder: CallRecorder? = null
+
+    /**
+     * Set once the caller has stopped waiting for this call's outcome, e.g.
+     * because its coroutine was cancelled; a call that has not been sent by
+     * then is dropped.  Shared with calls made from this one by
+     * [withCallback].
+     */
+    internal var cancelled = AtomicBoolean(false)
+
+    /**
+     * The call placed in the client's queue on this one's behalf: this call
+     * itself, or one that interceptors made from it.  A cancelled call is
+     * removed from the queue through this reference.
+     */
+    @Volatile
+    internal var queued: MethodCall<*>? = null
 
     @Throws(IOException::class)
     abstract fun send(protocol: Protocol)
@@ -41,6 +63,13 @@ abstract class MethodCall<T>(
     @Throws(Exception::class)
     abstract fun receive(protocol: Protocol, metadata: MessageMetadata): T
 
+    /**
+     * Returns a call that is sent, and whose response is read, exactly as
+     * this one's, but whose outcome is reported to [callback] instead.
+     * Useful to [ClientInterceptor]s that need to observe the outcome.
+     */
+    fun withCallback(callback: ServiceMethodCallback<T>?): MethodCall<T> = Redirected(this, callback)
+
     init {
         require(callTypeId == TMessageType.CALL || callTypeId == TMessageType.ONEWAY) {
             "Unexpected call type: $callTypeId"
@@ -50,3 +79,16 @@ abstract class MethodCall<T>(
         }
     }
 }
+
+private class Redirected<T>(
+        private val call: MethodCall<T>,
+        callback: ServiceMethodCallback<T>?
+) : MethodCall<T>(call.name, call.callTypeId, callback) {
+    init {
+        cancelled = call.cancelled
+    }
+
+    override fun send(protocol: Protocol) = call.send(protocol)
+
+    override fun receive(protocol: Protocol, metadata: MessageMetadata): T = call.receive(protocol, metadata)
+}
@@ -0,0 +1,164 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+import kotlin.jvm.JvmField
+
+/**
+ * Receives measurements of service method calls, as taken by clients and by
+ * generated server processors.
+ *
+ * Implementations are invoked on the thread that completed each call - a
+ * client's I/O thread, or the coroutine in which a server processed the
+ * request - and so must be thread-safe, quick, and must not throw; anything
+ * expensive should be handed off elsewhere.
+ *
+ * Clients and servers recognize [NONE], the default, and take no
+ * measurements at all when given it.
+ */
+fun interface MethodMetrics {
+    /**
+     * Invoked once for every call, after its outcome is known and before
+     * its result is delivered.
+     */
+    fun onCallCompleted(call: MethodCallMetrics)
+
+    companion object {
+        /**
+         * Discards all measurements.
+         */
+        @JvmField
+        val NONE: MethodMetrics = MethodMetrics { }
+    }
+}
+
+/**
+ * Measurements of one completed service method call.
+ *
+ * All durations are in nanoseconds.  On the client, [totalNanos] runs from
+ * when the call was enqueued to when its response was read, and so includes
+ * any time spent waiting for earlier calls; on the server, it runs from
+ * when the call was dispatched to when its reply was written.
+ */
+class MethodCallMetrics internal constructor(
+        /**
+         * Whether the call was measured by a client or a server.
+         */
+        @JvmField val side: Side,
+
+        /**
+         * The name of the method called.
+         */
+        @JvmField val method: String,
+
+        /**
+         * The sequence ID of the call, or zero if a client failed it before
+         * it was sent.
+         */
+        @JvmField val seqId: Int,
+
+        /**
+         * True if the method is oneway, in which case there is no response.
+         */
+        @JvmField val oneWay: Boolean,
+
+        @JvmField val outcome: Outcome,
+
+        /**
+         * The size of the request, or [UNKNOWN_SIZE] if the transport does
+         * not count bytes.  On the server, this excludes the message header,
+         * which is read before the call is dispatched.
+         */
+        @JvmField val requestBytes: Long,
+
+        /**
+         * The size of the response, or [UNKNOWN_SIZE] if there was none or
+         * the transport does not count bytes.
+         */
+        @JvmField val responseBytes: Long,
+
+        @JvmField val totalNanos: Long,
+
+        /**
+         * Time spent writing the request and reading the response, on the
+         * client, or reading the request and writing the reply, on the
+         * server.
+         */
+        @JvmField val serializationNanos: Long,
+
+        /**
+         * On the client, time from when the request was written until the
+         * response began to arrive - or, for oneway calls, until the request
+         * was flushed.  This covers the network and the server.  Always zero
+         * on the server.
+         */
+        @JvmField val wireNanos: Long,
+
+        /**
+         * On the server, time spent in the service handler.  Always zero on
+         * the client.
+         */
+        @JvmField val handlerNanos: Long
+) {
+    enum class Side {
+        CLIENT,
+        SERVER
+    }
+
+    enum class Outcome {
+        /**
+         * The method returned normally.
+         */
+        SUCCESS,
+
+        /**
+         * The method threw one of the exceptions it declares.  Servers cannot
+         * tell these apart from successful calls, and report them as
+         * [SUCCESS].
+         */
+        DECLARED_EXCEPTION,
+
+        /**
+         * The server replied with a [com.microsoft.thrifty.ThriftException],
+         * e.g. because the handler threw an exception it does not declare.
+         */
+        APPLICATION_EXCEPTION,
+
+        /**
+         * The call was not completed, due to a transport or protocol error or
+         * because the client was closed.
+         */
+        FAILURE
+    }
+
+    override fun toString(): String {
+        return "MethodCallMetrics(side=$side, method=$method, seqId=$seqId, oneWay=$oneWay, outcome=$outcome, " +
+                "requestBytes=$requestBytes, responseBytes=$responseBytes, totalNanos=$totalNanos, " +
+                "serializationNanos=$serializationNanos, wireNanos=$wireNanos, handlerNanos=$handlerNanos)"
+    }
+
+    companion object {
+        /**
+         * The size reported when a message's size is not known.
+         */
+        const val UNKNOWN_SIZE = -1L
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service.server
+
+import com.microsoft.thrifty.protocol.Protocol
+import okio.IOException
+
+/**
+ * A [Processor] for servers that process each request on its own thread,
+ * and so can afford to block while a handler runs.
+ *
+ * Implementations read one request message from [process]'s `input`, and
+ * write the reply, if any, to its `output`; the caller is responsible for
+ * flushing `output`.
+ */
+interface BlockingProcessor {
+    @Throws(IOException::class)
+    fun process(input: Protocol, output: Protocol)
+}
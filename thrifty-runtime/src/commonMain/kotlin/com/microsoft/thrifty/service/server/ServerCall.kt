@@ -21,8 +21,12 @@
 package com.microsoft.thrifty.service.server
 
 import com.microsoft.thrifty.Struct
+import com.microsoft.thrifty.protocol.BaseProtocol
 import com.microsoft.thrifty.protocol.MessageMetadata
 import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.CallRecorder
+import com.microsoft.thrifty.service.MethodCallMetrics
+import com.microsoft.thrifty.service.MethodMetrics
 
 interface ServerCall<TArgs, THandler> {
     val oneWay: Boolean
@@ -45,17 +49,85 @@ interface ServerCall<TArgs, THandler> {
         errorHandler: ErrorHandler,
         handler: THandler
     ) {
+        process(msg, input, output, errorHandler, handler, MethodMetrics.NONE)
+    }
+
+    /**
+     * Passes the call through [interceptors], then reads its arguments,
+     * invokes the handler, and writes its reply, reporting how long each
+     * step took to [metrics].
+     */
+    suspend fun process(
+        msg: MessageMetadata,
+        input: Protocol,
+        output: Protocol,
+        errorHandler: ErrorHandler,
+        handler: THandler,
+        metrics: MethodMetrics,
+        interceptors: List<ServerInterceptor>
+    ) {
+        if (interceptors.isEmpty()) {
+            process(msg, input, output, errorHandler, handler, metrics)
+        } else {
+            interceptors.intercept(msg, input, output, errorHandler, oneWay) {
+                process(msg, input, output, errorHandler, handler, metrics)
+            }
+        }
+    }
+
+    /**
+     * Reads the call's arguments, invokes the handler, and writes its reply,
+     * reporting how long each step took to [metrics].
+     *
+     * Request and reply sizes are reported only when the protocols'
+     * transports are [com.microsoft.thrifty.transport.ByteCountingTransport]s.
+     */
+    suspend fun process(
+        msg: MessageMetadata,
+        input: Protocol,
+        output: Protocol,
+        errorHandler: ErrorHandler,
+        handler: THandler,
+        metrics: MethodMetrics
+    ) {
+        val recorder = if (metrics === MethodMetrics.NONE) {
+            null
+        } else {
+            CallRecorder(
+                metrics,
+                MethodCallMetrics.Side.SERVER,
+                msg.name,
+                oneWay,
+                (input as? BaseProtocol)?.byteCounter,
+                (output as? BaseProtocol)?.byteCounter
+            ).also { it.seqId = msg.seqId }
+        }
+
         val args = receive(input)
+        recorder?.argumentsRead()
+        var outcome = MethodCallMetrics.Outcome.SUCCESS
+        var handled = false
         try {
             val result = getResult(args, handler)
+            handled = true
+            recorder?.handlerReturned()
             if (!oneWay) {
                 msg.reply(output) {
                     result.write(this)
                 }
             }
         } catch (e: Exception) {
+            outcome = MethodCallMetrics.Outcome.APPLICATION_EXCEPTION
+            if (!handled) {
+                recorder?.handlerReturned()
+            }
             errorHandler.onError(e, msg, input, output, oneWay)
         }
+
+        if (recorder != null) {
+            recorder.replyWritten()
+            recorder.complete(outcome)
+        }
     }
 }
 
@@ -0,0 +1,110 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service.server
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.protocol.MessageMetadata
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.util.ProtocolUtil
+
+/**
+ * Observes, alters or answers calls received by a generated [Processor],
+ * without changes to generated code - e.g. to authorize, trace or
+ * rate-limit calls.
+ *
+ * Interceptors run in order, once each call's message header has been read
+ * and before its arguments are.  Each either passes the call along with
+ * [Chain.proceed], or answers it itself by writing a reply to `output`
+ * (unless the call is oneway), in which case the call's arguments are
+ * skipped and its handler is not invoked.  An exception thrown before
+ * proceeding is passed to the processor's [ErrorHandler], as if the handler
+ * had thrown it; one thrown after proceeding propagates from the processor.
+ */
+interface ServerInterceptor {
+    suspend fun intercept(msg: MessageMetadata, input: Protocol, output: Protocol, chain: Chain)
+
+    /**
+     * The remaining interceptors, followed by the call's handler.
+     */
+    interface Chain {
+        /**
+         * Passes the call to the next interceptor, or, if there are none
+         * left, reads its arguments, invokes its handler and writes its
+         * reply.  May be called at most once.
+         */
+        suspend fun proceed()
+    }
+}
+
+/**
+ * Runs the call described by [msg] through these interceptors, in order,
+ * and then hands it to [process].
+ */
+internal suspend fun List<ServerInterceptor>.intercept(
+    msg: MessageMetadata,
+    input: Protocol,
+    output: Protocol,
+    errorHandler: ErrorHandler,
+    oneWay: Boolean,
+    process: suspend () -> Unit
+) {
+    val dispatch = ServerDispatch(this, msg, input, output, process)
+    try {
+        dispatch.proceed(0)
+    } catch (e: Exception) {
+        if (dispatch.proceeded) {
+            throw e
+        }
+        ProtocolUtil.skip(input, TType.STRUCT)
+        errorHandler.onError(e, msg, input, output, oneWay)
+        return
+    }
+
+    if (!dispatch.proceeded) {
+        // An interceptor answered the call; its arguments are still unread.
+        ProtocolUtil.skip(input, TType.STRUCT)
+    }
+}
+
+private class ServerDispatch(
+    private val interceptors: List<ServerInterceptor>,
+    private val msg: MessageMetadata,
+    private val input: Protocol,
+    private val output: Protocol,
+    private val process: suspend () -> Unit
+) {
+    var proceeded = false
+        private set
+
+    suspend fun proceed(index: Int) {
+        if (index < interceptors.size) {
+            interceptors[index].intercept(msg, input, output, Link(index + 1))
+            return
+        }
+        check(!proceeded) { "proceed() may be called at most once" }
+        proceeded = true
+        process()
+    }
+
+    private inner class Link(private val index: Int) : ServerInterceptor.Chain {
+        override suspend fun proceed() = this@ServerDispatch.proceed(index)
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport
+
+import okio.IOException
+
+/**
+ * A [Transport] that can hold several complete messages and write them to
+ * the wire together, so that a batch of messages costs a single flush.
+ *
+ * Transports that delimit messages themselves, like [FramedTransport],
+ * normally end each message at [flush]; [endMessage] ends one without
+ * flushing it.
+ */
+interface BatchingTransport : Transport {
+    /**
+     * Ends the message written since the previous call to [endMessage] or
+     * [flush]; it will be written to the wire by the next [flush].
+     */
+    @Throws(IOException::class)
+    fun endMessage()
+}
@@ -21,11 +21,19 @@
 package com.microsoft.thrifty.transport
 
 import okio.Buffer
+import okio.BufferedSink
+import okio.BufferedSource
 import kotlin.jvm.JvmOverloads
 
 class BufferTransport @JvmOverloads constructor(
         private val b: Buffer = Buffer()
-) : Transport {
+) : OkioTransport {
+
+    override val source: BufferedSource
+        get() = b
+
+    override val sink: BufferedSink
+        get() = b
 
     override fun read(buffer: ByteArray, offset: Int, count: Int) = b.read(buffer, offset, count)
 
@@ -0,0 +1,171 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport
+
+import okio.IOException
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A transport decorator that buffers reads from and writes to the underlying
+ * transport.
+ *
+ * Protocols issue many small reads and writes - often a single byte at a
+ * time.  When the underlying transport is backed by a socket or a stream,
+ * each of those is at minimum a stream call and potentially a syscall.
+ * Wrapping such a transport in a [BufferedTransport] batches reads into
+ * [bufferSize]-byte chunks, and holds writes until the buffer fills or
+ * [flush] is called.
+ *
+ * Because it is a [PeekableTransport], [com.microsoft.thrifty.protocol.BinaryProtocol]
+ * and [com.microsoft.thrifty.protocol.CompactProtocol] decode primitives
+ * directly from its read buffer.
+ *
+ * Messages written to an unframed stream delimit themselves, so a
+ * [BufferedTransport] can also batch them: [endMessage] does nothing, and
+ * the messages go out together when the buffer fills or [flush] is called.
+ * The bytes read and written are counted in [bytesRead] and [bytesWritten].
+ *
+ * Instances of this class are *not* threadsafe.
+ *
+ * @param inner the transport to be buffered.
+ * @param bufferSize the size, in bytes, of each of the read and write buffers.
+ */
+class BufferedTransport @JvmOverloads constructor(
+        private val inner: Transport,
+        bufferSize: Int = DEFAULT_BUFFER_SIZE
+) : PeekableTransport, ByteCountingTransport, BatchingTransport {
+    override var bytesRead: Long = 0
+        private set
+
+    override var bytesWritten: Long = 0
+        private set
+
+    // Read state
+    private val readBuffer: ByteArray
+    private var readPosition = 0
+    private var readLimit = 0
+
+    // Write state
+    private val writeBuffer: ByteArray
+    private var writeSize = 0
+
+    init {
+        require(bufferSize > 0) { "bufferSize must be positive" }
+        readBuffer = ByteArray(bufferSize)
+        writeBuffer = ByteArray(bufferSize)
+    }
+
+    override val buffer: ByteArray
+        get() = readBuffer
+
+    override val bufferPosition: Int
+        get() = readPosition
+
+    override val bytesRemainingInBuffer: Int
+        get() = readLimit - readPosition
+
+    override fun consumeBuffer(count: Int) {
+        require(count >= 0 && count <= readLimit - readPosition) {
+            "Cannot consume $count bytes; only ${readLimit - readPosition} are buffered"
+        }
+        readPosition += count
+        bytesRead += count
+    }
+
+    @Throws(IOException::class)
+    override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+        if (readPosition == readLimit) {
+            if (count >= readBuffer.size) {
+                // Nothing is gained by copying large reads through the buffer.
+                val numRead = inner.read(buffer, offset, count)
+                if (numRead > 0) {
+                    bytesRead += numRead
+                }
+                return numRead
+            }
+
+            val numRead = inner.read(readBuffer, 0, readBuffer.size)
+            if (numRead <= 0) {
+                return numRead
+            }
+            readPosition = 0
+            readLimit = numRead
+        }
+
+        val toCopy = count.coerceAtMost(readLimit - readPosition)
+        readBuffer.copyInto(
+                destination = buffer,
+                destinationOffset = offset,
+                startIndex = readPosition,
+                endIndex = readPosition + toCopy)
+        readPosition += toCopy
+        bytesRead += toCopy
+        return toCopy
+    }
+
+    @Throws(IOException::class)
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        bytesWritten += count
+        if (count > writeBuffer.size - writeSize) {
+            flushWriteBuffer()
+            if (count >= writeBuffer.size) {
+                inner.write(buffer, offset, count)
+                return
+            }
+        }
+        buffer.copyInto(
+                destination = writeBuffer,
+                destinationOffset = writeSize,
+                startIndex = offset,
+                endIndex = offset + count)
+        writeSize += count
+    }
+
+    @Throws(IOException::class)
+    override fun flush() {
+        flushWriteBuffer()
+        inner.flush()
+    }
+
+    override fun endMessage() {
+        // Nothing to do; the message stays buffered until it is flushed.
+    }
+
+    @Throws(IOException::class)
+    private fun flushWriteBuffer() {
+        if (writeSize > 0) {
+            val size = writeSize
+            writeSize = 0
+            inner.write(writeBuffer, 0, size)
+        }
+    }
+
+    override fun close() {
+        readPosition = 0
+        readLimit = 0
+        writeSize = 0
+        inner.close()
+    }
+
+    companion object {
+        const val DEFAULT_BUFFER_SIZE = 8192
+    }
+}
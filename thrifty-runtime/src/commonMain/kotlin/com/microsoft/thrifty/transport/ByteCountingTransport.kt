@@ -0,0 +1,43 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport
+
+/**
+ * A [Transport] that counts the bytes read from and written to it, so that
+ * the size of each message can be measured - for instance, by
+ * [com.microsoft.thrifty.service.MethodMetrics].
+ *
+ * Counts are taken where the protocol meets the transport, and so exclude
+ * any framing the transport adds.  Only the difference between two counts
+ * taken while a single message is read or written is meaningful.
+ */
+interface ByteCountingTransport : Transport {
+    /**
+     * The number of bytes read from this transport.
+     */
+    val bytesRead: Long
+
+    /**
+     * The number of bytes written to this transport, whether or not they
+     * have been flushed.
+     */
+    val bytesWritten: Long
+}
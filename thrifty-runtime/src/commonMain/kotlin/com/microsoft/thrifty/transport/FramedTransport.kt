@@ -20,39 +20,189 @@
  */
 package com.microsoft.thrifty.transport
 
+import com.microsoft.thrifty.internal.ProtocolException
 import okio.EOFException
+import kotlin.jvm.JvmOverloads
 
 /**
  * A transport decorator that reads from and writes to the underlying transport
  * in length-prefixed frames.  Used when the server is using a non-blocking
  * implementation, which currently requires such framing.
+ *
+ * Outgoing frames are accumulated in a buffer which is reused from frame to
+ * frame, and which reserves room for the frame header so that each frame
+ * reaches the underlying transport in a single write.
+ *
+ * By default, incoming frames are streamed from the underlying transport in
+ * whatever sizes callers request.  When [readWholeFrames] is set, each frame
+ * is instead read in one bulk read into a reusable buffer, from which all
+ * reads are served.  The buffer is exposed as a [PeekableTransport] window,
+ * so that protocols can decode values in place.
+ *
+ * @param inner the transport to which frames are read and written.
+ * @param maxFrameSize the largest frame, in bytes, that will be accepted
+ *                     when reading; larger frames cause a [ProtocolException].
+ * @param maxRetainedBufferSize the largest write buffer, in bytes, that will
+ *                              be retained between frames; after flushing a
+ *                              larger frame, the buffer is discarded.
+ *                              The same limit applies to the read buffer
+ *                              when [readWholeFrames] is set.
+ * @param readWholeFrames whether to read each incoming frame in its entirety
+ *                        before serving any of it.
+ *
+ * The bytes of frames read and written, excluding headers, are counted in
+ * [bytesRead] and [bytesWritten].
+ *
+ * Each [flush] ends the frame being written and writes it out.  Frames may
+ * instead be ended by [endMessage], and written out together by the next
+ * [flush].
  */
-class FramedTransport(
-        private val inner: Transport
-) : Transport {
+class FramedTransport @JvmOverloads constructor(
+        private val inner: Transport,
+        private val maxFrameSize: Int = DEFAULT_MAX_FRAME_SIZE,
+        private val maxRetainedBufferSize: Int = DEFAULT_MAX_RETAINED_BUFFER_SIZE,
+        private val readWholeFrames: Boolean = false
+) : PeekableTransport, ByteCountingTransport, BatchingTransport {
+    override var bytesRead: Long = 0
+        private set
+
+    override var bytesWritten: Long = 0
+        private set
+
     // Read state
     private var remainingBytes = 0
+    private val headerBytes = ByteArray(HEADER_SIZE)
+
+    // Scratch space into which skipped frames are read, allocated on first use.
+    private var skipBuffer: ByteArray? = null
+
+    // Whole-frame read state; the current frame occupies
+    // frameBuffer[framePosition, frameLimit).
+    private var frameBuffer = EMPTY_FRAME
+    private var framePosition = 0
+    private var frameLimit = 0
 
     // Write state
-    private var pendingWrite: SimpleBuffer? = null
+    private var pendingWrite: FrameBuffer? = null
+
+    init {
+        require(maxFrameSize >= 0) { "maxFrameSize must not be negative" }
+        require(maxRetainedBufferSize >= 0) { "maxRetainedBufferSize must not be negative" }
+    }
 
     override fun close() {
         inner.close()
         pendingWrite = null
+        skipBuffer = null
+        frameBuffer = EMPTY_FRAME
+        framePosition = 0
+        frameLimit = 0
+    }
+
+    /**
+     * The buffer holding the current frame, when [readWholeFrames] is set.
+     */
+    override val buffer: ByteArray
+        get() = frameBuffer
+
+    override val bufferPosition: Int
+        get() = framePosition
+
+    /**
+     * The number of unread bytes of the current frame available in [buffer].
+     *
+     * This is always zero unless [readWholeFrames] is set.  It is also zero
+     * between frames; the next frame is read by the next call to [read].
+     */
+    override val bytesRemainingInBuffer: Int
+        get() = frameLimit - framePosition
+
+    override fun consumeBuffer(count: Int) {
+        require(count >= 0 && count <= frameLimit - framePosition) {
+            "Cannot consume $count bytes; only ${frameLimit - framePosition} are buffered"
+        }
+        framePosition += count
+        bytesRead += count
+    }
+
+    /**
+     * Discards any unread remainder of the current frame, so that the next
+     * read begins at the start of the next frame.
+     *
+     * This allows unwanted messages to be skipped without decoding them.
+     */
+    fun skipFrame() {
+        if (readWholeFrames) {
+            framePosition = frameLimit
+            return
+        }
+
+        if (remainingBytes > 0) {
+            val discard = skipBuffer ?: ByteArray(SKIP_BUFFER_SIZE).also { skipBuffer = it }
+            while (remainingBytes > 0) {
+                val n = inner.read(discard, 0, remainingBytes.coerceAtMost(discard.size))
+                if (n == -1) {
+                    throw EOFException()
+                }
+                remainingBytes -= n
+            }
+        }
     }
 
     override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+        if (readWholeFrames) {
+            return readFromFrameBuffer(buffer, offset, count)
+        }
+
         while (remainingBytes <= 0) {
             readHeader()
         }
         val toRead = count.coerceAtMost(remainingBytes)
         val numRead = inner.read(buffer, offset, toRead)
         remainingBytes -= numRead
+        if (numRead > 0) {
+            bytesRead += numRead
+        }
         return numRead
     }
 
+    private fun readFromFrameBuffer(buffer: ByteArray, offset: Int, count: Int): Int {
+        while (framePosition == frameLimit) {
+            readFrame()
+        }
+        val toCopy = count.coerceAtMost(frameLimit - framePosition)
+        frameBuffer.copyInto(
+                destination = buffer,
+                destinationOffset = offset,
+                startIndex = framePosition,
+                endIndex = framePosition + toCopy)
+        framePosition += toCopy
+        bytesRead += toCopy
+        return toCopy
+    }
+
+    private fun readFrame() {
+        readHeader()
+        val frameSize = remainingBytes
+        if (frameBuffer.size < frameSize || frameBuffer.size > maxRetainedBufferSize) {
+            frameBuffer = ByteArray(frameSize)
+        }
+
+        var numRead = 0
+        while (numRead < frameSize) {
+            val n = inner.read(frameBuffer, numRead, frameSize - numRead)
+            if (n == -1) {
+                throw EOFException("Expected a frame of $frameSize bytes; got $numRead")
+            }
+            numRead += n
+        }
+
+        remainingBytes = 0
+        framePosition = 0
+        frameLimit = frameSize
+    }
+
     private fun readHeader() {
-        val headerBytes = ByteArray(4)
         var numRead = 0
         while (numRead < headerBytes.size) {
             val n = inner.read(headerBytes, numRead, headerBytes.size - numRead)
@@ -61,45 +211,66 @@ class FramedTransport(
             }
             numRead += n
         }
-        remainingBytes = (
+        val frameSize = (
                    ((headerBytes[0].toInt() and 0xFF) shl 24)
                 or ((headerBytes[1].toInt() and 0xFF) shl 16)
                 or ((headerBytes[2].toInt() and 0xFF) shl 8)
                 or ( headerBytes[3].toInt() and 0xFF))
+        if (frameSize < 0) {
+            throw ProtocolException("Read a negative frame size ($frameSize)")
+        }
+        if (frameSize > maxFrameSize) {
+            throw ProtocolException("Frame size ($frameSize) exceeds the maximum of $maxFrameSize")
+        }
+        remainingBytes = frameSize
     }
 
     override fun write(buffer: ByteArray, offset: Int, count: Int) {
-        if (pendingWrite == null) {
-            pendingWrite = SimpleBuffer(count)
-        }
-        pendingWrite!!.write(buffer, offset, count)
+        val write = pendingWrite ?: FrameBuffer(count).also { pendingWrite = it }
+        write.write(buffer, offset, count)
+        bytesWritten += count
+    }
+
+    /**
+     * Ends the current frame without writing it; frames ended this way are
+     * written together, in a single write to the inner transport, by the
+     * next [flush].
+     */
+    override fun endMessage() {
+        pendingWrite?.endFrame()
     }
 
     override fun flush() {
         val write = pendingWrite ?: return
-        val size = write.size
-        if (size == 0) {
+        write.endFrame()
+        if (write.completeSize == 0) {
             return
         }
 
-        val headerBytes = ByteArray(4)
-        headerBytes[0] = ((size shr 24) and 0xFF).toByte()
-        headerBytes[1] = ((size shr 16) and 0xFF).toByte()
-        headerBytes[2] = ((size shr 8)  and 0xFF).toByte()
-        headerBytes[3] = ( size         and 0xFF).toByte()
-        inner.write(headerBytes)
-        inner.write(write.buf, 0, size)
-        write.reset()
+        inner.write(write.buf, 0, write.completeSize)
+        write.reset(maxRetainedBufferSize)
     }
 
-    private class SimpleBuffer(count: Int = 32) {
-        var buf: ByteArray = ByteArray(count.coerceAtLeast(32))
-        var size: Int = 0
+    /**
+     * Accumulates one or more frames, leaving room at the front of each for
+     * its header.
+     */
+    private class FrameBuffer(count: Int) {
+        var buf: ByteArray = ByteArray(initialCapacity(count))
+        var size: Int = HEADER_SIZE
+
+        /**
+         * The offset of the current frame's header, which is also the size
+         * of the frames already ended.
+         */
+        var completeSize: Int = 0
+            private set
+
+        val payloadSize: Int
+            get() = size - completeSize - HEADER_SIZE
 
         fun write(buffer: ByteArray, offset: Int, count: Int) {
-            if (size + count > buf.size) {
-                buf = buf.copyOf(nextPowerOfTwo(size + count))
-            }
+            ensureCapacity(size + count)
             buffer.copyInto(
                     destination = buf,
                     destinationOffset = size,
@@ -108,19 +279,74 @@ class FramedTransport(
             size += count
         }
 
-        fun reset() {
-            buf = ByteArray(32)
-            size = 0
+        /**
+         * Writes the current frame's header, if it has any payload, and
+         * leaves room for the next.
+         */
+        fun endFrame() {
+            val payload = payloadSize
+            if (payload == 0) {
+                return
+            }
+
+            val start = completeSize
+            buf[start]     = ((payload shr 24) and 0xFF).toByte()
+            buf[start + 1] = ((payload shr 16) and 0xFF).toByte()
+            buf[start + 2] = ((payload shr 8)  and 0xFF).toByte()
+            buf[start + 3] = ( payload         and 0xFF).toByte()
+            completeSize = size
+            ensureCapacity(size + HEADER_SIZE)
+            size += HEADER_SIZE
+        }
+
+        /**
+         * Prepares to accumulate the next frame, keeping the current buffer
+         * unless it has grown beyond [maxRetainedSize] bytes.
+         */
+        fun reset(maxRetainedSize: Int) {
+            if (buf.size > maxRetainedSize) {
+                buf = ByteArray(MIN_BUFFER_SIZE)
+            }
+            size = HEADER_SIZE
+            completeSize = 0
+        }
+
+        private fun ensureCapacity(capacity: Int) {
+            if (capacity > buf.size) {
+                buf = buf.copyOf(nextPowerOfTwo(capacity))
+            }
         }
 
-        private fun nextPowerOfTwo(num: Int): Int {
-            var n = num - 1
-            n = n or (n ushr 1)
-            n = n or (n ushr 2)
-            n = n or (n ushr 4)
-            n = n or (n ushr 8)
-            n = n or (n ushr 16)
-            return n + 1
+        private companion object {
+            const val MIN_BUFFER_SIZE = 32
+
+            fun initialCapacity(count: Int): Int {
+                return (count + HEADER_SIZE).coerceAtLeast(MIN_BUFFER_SIZE)
+            }
+
+            fun nextPowerOfTwo(num: Int): Int {
+                var n = num - 1
+                n = n or (n ushr 1)
+                n = n or (n ushr 2)
+                n = n or (n ushr 4)
+                n = n or (n ushr 8)
+                n = n or (n ushr 16)
+                return n + 1
+            }
         }
     }
+
+    companion object {
+        /**
+         * The default maximum frame size, matching that of the Apache
+         * implementation.
+         */
+        const val DEFAULT_MAX_FRAME_SIZE = 16_384_000
+
+        const val DEFAULT_MAX_RETAINED_BUFFER_SIZE = 1 shl 20
+
+        private const val HEADER_SIZE = 4
+        private const val SKIP_BUFFER_SIZE = 4096
+        private val EMPTY_FRAME = ByteArray(0)
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport
+
+import okio.BufferedSink
+import okio.BufferedSource
+
+/**
+ * A [Transport] backed directly by Okio streams.
+ *
+ * [com.microsoft.thrifty.protocol.BinaryProtocol] and
+ * [com.microsoft.thrifty.protocol.CompactProtocol] recognize such transports
+ * and read and write primitives, strings and binaries through [source] and
+ * [sink] directly, avoiding intermediate byte arrays and per-byte decoding.
+ *
+ * Implementations must route [read], [write] and [flush] through the same
+ * [source] and [sink] that they expose, so that the two access paths may be
+ * freely interleaved.
+ */
+interface OkioTransport : Transport {
+    /**
+     * The source from which this transport reads, or `null` if it is write-only.
+     */
+    val source: BufferedSource?
+
+    /**
+     * The sink to which this transport writes, or `null` if it is read-only.
+     */
+    val sink: BufferedSink?
+}
+
+/**
+ * A read-only transport that reads from the given [BufferedSource].
+ */
+class SourceTransport(
+        override val source: BufferedSource
+) : OkioTransport {
+    override val sink: BufferedSink?
+        get() = null
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int) = source.read(buffer, offset, count)
+
+    override fun write(data: ByteArray) = error("read-only transport")
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) = error("read-only transport")
+
+    override fun flush() {
+        // No-op
+    }
+
+    override fun close() = source.close()
+}
+
+/**
+ * A write-only transport that writes to the given [BufferedSink].
+ */
+class SinkTransport(
+        override val sink: BufferedSink
+) : OkioTransport {
+    override val source: BufferedSource?
+        get() = null
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int) = error("write-only transport")
+
+    override fun write(data: ByteArray) {
+        sink.write(data)
+    }
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        sink.write(buffer, offset, count)
+    }
+
+    override fun flush() = sink.flush()
+
+    override fun close() = sink.close()
+}
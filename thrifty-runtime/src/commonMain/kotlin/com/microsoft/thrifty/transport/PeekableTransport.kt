@@ -0,0 +1,67 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport
+
+/**
+ * A [Transport] whose reads are served from an internal byte array, which
+ * it exposes so that protocols can decode values in place rather than
+ * copying a handful of bytes at a time through [read].
+ *
+ * Only the bytes in the half-open range
+ * `[bufferPosition, bufferPosition + bytesRemainingInBuffer)` of [buffer]
+ * are valid, and only until the next call to [read] or [consumeBuffer].
+ * Callers must never write into [buffer].
+ *
+ * A typical fast path looks like:
+ *
+ * ```
+ * if (transport.bytesRemainingInBuffer >= 4) {
+ *     val value = decodeInt(transport.buffer, transport.bufferPosition)
+ *     transport.consumeBuffer(4)
+ * } else {
+ *     // fall back to transport.read(...)
+ * }
+ * ```
+ */
+interface PeekableTransport : Transport {
+    /**
+     * The transport's internal read buffer.
+     */
+    val buffer: ByteArray
+
+    /**
+     * The offset within [buffer] of the next unread byte.
+     */
+    val bufferPosition: Int
+
+    /**
+     * The number of unread bytes available in [buffer], beginning
+     * at [bufferPosition].
+     */
+    val bytesRemainingInBuffer: Int
+
+    /**
+     * Marks [count] bytes of [buffer] as read.
+     *
+     * @param count the number of bytes consumed; must not exceed [bytesRemainingInBuffer].
+     */
+    fun consumeBuffer(count: Int)
+}
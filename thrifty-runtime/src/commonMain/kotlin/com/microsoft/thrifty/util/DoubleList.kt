@@ -0,0 +1,87 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.util
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.protocol.Protocol
+import okio.IOException
+import kotlin.jvm.JvmStatic
+
+/**
+ * An immutable list of [Double] values, stored in a primitive array rather
+ * than as boxed elements.
+ *
+ * Code generated with `--primitive-collections` reads `list<double>` fields
+ * into instances of this class; they can be used wherever a `List<Double>` is
+ * expected, and [getDouble] reads an element without boxing it.
+ *
+ * @param values the elements of the list, which are not copied and so must
+ * not be modified afterwards.
+ */
+class DoubleList(private val values: DoubleArray) : AbstractList<Double>(), RandomAccess {
+    override val size: Int
+        get() = values.size
+
+    override fun get(index: Int): Double = getDouble(index)
+
+    /**
+     * Returns the element at the given [index], without boxing it.
+     */
+    fun getDouble(index: Int): Double = values[index]
+
+    /**
+     * Returns a copy of the elements of this list.
+     */
+    fun toDoubleArray(): DoubleArray = values.copyOf()
+
+    companion object {
+        /**
+         * Reads a `list<double>` from the given [protocol].
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun read(protocol: Protocol): DoubleList {
+            val metadata = protocol.readListBegin()
+            val values = DoubleArray(metadata.size)
+            protocol.readDoubleArray(values, 0, values.size)
+            protocol.readListEnd()
+            return DoubleList(values)
+        }
+
+        /**
+         * Writes the given [list] to the [protocol] as a `list<double>`,
+         * without boxing its elements if it is a [DoubleList].
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun write(protocol: Protocol, list: List<Double>) {
+            protocol.writeListBegin(TType.DOUBLE, list.size)
+            if (list is DoubleList) {
+                protocol.writeDoubleArray(list.values, 0, list.values.size)
+            } else {
+                for (value in list) {
+                    protocol.writeDouble(value)
+                }
+            }
+            protocol.writeListEnd()
+        }
+    }
+}
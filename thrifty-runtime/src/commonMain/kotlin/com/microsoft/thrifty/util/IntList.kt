@@ -0,0 +1,87 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.util
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.protocol.Protocol
+import okio.IOException
+import kotlin.jvm.JvmStatic
+
+/**
+ * An immutable list of [Int] values, stored in a primitive array rather
+ * than as boxed elements.
+ *
+ * Code generated with `--primitive-collections` reads `list<i32>` fields
+ * into instances of this class; they can be used wherever a `List<Int>` is
+ * expected, and [getInt] reads an element without boxing it.
+ *
+ * @param values the elements of the list, which are not copied and so must
+ * not be modified afterwards.
+ */
+class IntList(private val values: IntArray) : AbstractList<Int>(), RandomAccess {
+    override val size: Int
+        get() = values.size
+
+    override fun get(index: Int): Int = getInt(index)
+
+    /**
+     * Returns the element at the given [index], without boxing it.
+     */
+    fun getInt(index: Int): Int = values[index]
+
+    /**
+     * Returns a copy of the elements of this list.
+     */
+    fun toIntArray(): IntArray = values.copyOf()
+
+    companion object {
+        /**
+         * Reads a `list<i32>` from the given [protocol].
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun read(protocol: Protocol): IntList {
+            val metadata = protocol.readListBegin()
+            val values = IntArray(metadata.size)
+            protocol.readI32Array(values, 0, values.size)
+            protocol.readListEnd()
+            return IntList(values)
+        }
+
+        /**
+         * Writes the given [list] to the [protocol] as a `list<i32>`,
+         * without boxing its elements if it is a [IntList].
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun write(protocol: Protocol, list: List<Int>) {
+            protocol.writeListBegin(TType.I32, list.size)
+            if (list is IntList) {
+                protocol.writeI32Array(list.values, 0, list.values.size)
+            } else {
+                for (value in list) {
+                    protocol.writeI32(value)
+                }
+            }
+            protocol.writeListEnd()
+        }
+    }
+}
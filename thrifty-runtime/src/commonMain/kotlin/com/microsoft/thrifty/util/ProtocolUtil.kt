@@ -37,7 +37,7 @@ object ProtocolUtil {
             TType.I32 -> protocol.readI32()
             TType.I64 -> protocol.readI64()
             TType.DOUBLE -> protocol.readDouble()
-            TType.STRING -> protocol.readString()
+            TType.STRING -> protocol.skipString()
             TType.STRUCT -> {
                 protocol.readStructBegin()
                 while (true) {
@@ -52,27 +52,50 @@ object ProtocolUtil {
             }
             TType.LIST -> {
                 val listMetadata = protocol.readListBegin()
-                for (i in 0 until listMetadata.size) {
-                    skip(protocol, listMetadata.elementTypeId)
-                }
+                skipElements(protocol, listMetadata.elementTypeId, listMetadata.size)
                 protocol.readListEnd()
             }
             TType.SET -> {
                 val setMetadata = protocol.readSetBegin()
-                for (i in 0 until setMetadata.size) {
-                    skip(protocol, setMetadata.elementTypeId)
-                }
+                skipElements(protocol, setMetadata.elementTypeId, setMetadata.size)
                 protocol.readSetEnd()
             }
             TType.MAP -> {
                 val mapMetadata = protocol.readMapBegin()
-                for (i in 0 until mapMetadata.size) {
-                    skip(protocol, mapMetadata.keyTypeId)
-                    skip(protocol, mapMetadata.valueTypeId)
+                val keyTypeId = mapMetadata.keyTypeId
+                val valueTypeId = mapMetadata.valueTypeId
+                if (keyTypeId == valueTypeId && isScalar(keyTypeId)) {
+                    // Alternating keys and values of one type are just a
+                    // run of twice as many values.
+                    protocol.skipValues(keyTypeId, mapMetadata.size)
+                    protocol.skipValues(keyTypeId, mapMetadata.size)
+                } else {
+                    for (i in 0 until mapMetadata.size) {
+                        skip(protocol, keyTypeId)
+                        skip(protocol, valueTypeId)
+                    }
                 }
                 protocol.readMapEnd()
             }
             else -> throw ProtocolException("Unrecognized TType value: $typeCode")
         }
     }
+
+    @Throws(IOException::class)
+    private fun skipElements(protocol: Protocol, typeCode: Byte, count: Int) {
+        if (isScalar(typeCode)) {
+            protocol.skipValues(typeCode, count)
+        } else {
+            for (i in 0 until count) {
+                skip(protocol, typeCode)
+            }
+        }
+    }
+
+    private fun isScalar(typeCode: Byte): Boolean {
+        return when (typeCode) {
+            TType.BOOL, TType.BYTE, TType.I16, TType.I32, TType.I64, TType.DOUBLE -> true
+            else -> false
+        }
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.booleans.shouldBeFalse
+import io.kotest.matchers.booleans.shouldBeTrue
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import kotlin.test.Test
+
+class FieldMaskTest {
+    @Test
+    fun topLevelFields() {
+        val mask = FieldMask.of(3, 1)
+
+        mask.contains(1).shouldBeTrue()
+        mask.contains(2).shouldBeFalse()
+        mask.contains(3).shouldBeTrue()
+        mask.nested(1) shouldBe FieldMask.ALL
+        mask.isAll.shouldBeFalse()
+        mask.toString() shouldBe "FieldMask(1, 3)"
+    }
+
+    @Test
+    fun nestedPaths() {
+        val mask = FieldMask.Builder()
+                .include(2, 5)
+                .include(2, 7, 1)
+                .include(4)
+                .build()
+
+        mask.contains(2).shouldBeTrue()
+        mask.contains(4).shouldBeTrue()
+        mask.contains(5).shouldBeFalse()
+
+        val nested = mask.nested(2)
+        nested.contains(5).shouldBeTrue()
+        nested.contains(7).shouldBeTrue()
+        nested.contains(1).shouldBeFalse()
+        nested.nested(7) shouldBe FieldMask.of(1)
+        mask.toString() shouldBe "FieldMask(2=FieldMask(5, 7=FieldMask(1)), 4)"
+    }
+
+    @Test
+    fun wholeFieldWinsOverPaths() {
+        val mask = FieldMask.Builder()
+                .include(2, 5)
+                .include(2)
+                .build()
+
+        mask.nested(2) shouldBe FieldMask.ALL
+    }
+
+    @Test
+    fun allIncludesEverything() {
+        FieldMask.ALL.isAll.shouldBeTrue()
+        FieldMask.ALL.contains(-1).shouldBeTrue()
+        FieldMask.ALL.nested(12) shouldBe FieldMask.ALL
+        FieldMask.of() shouldNotBe FieldMask.ALL
+    }
+
+    @Test
+    fun invalidPaths() {
+        shouldThrow<IllegalArgumentException> { FieldMask.Builder().include() }
+        shouldThrow<IllegalArgumentException> { FieldMask.Builder().include(1, 70000) }
+    }
+}
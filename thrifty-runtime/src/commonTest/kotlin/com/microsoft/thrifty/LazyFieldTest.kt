@@ -0,0 +1,96 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty
+
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.CompactProtocol
+import com.microsoft.thrifty.protocol.Xtruct
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.BufferedTransport
+import io.kotest.matchers.shouldBe
+import okio.Buffer
+import kotlin.test.Test
+
+class LazyFieldTest {
+    private val xtruct = Xtruct.Builder()
+            .string_thing("a string long enough not to fit in a small buffer")
+            .i32_thing(12345)
+            .build()
+
+    private var reads = 0
+    private var writes = 0
+
+    private val reader = LazyField.Reader { reads++; Xtruct.ADAPTER.read(it) }
+    private val writer = LazyField.Writer<Xtruct> { protocol, value -> writes++; Xtruct.ADAPTER.write(protocol, value) }
+
+    @Test
+    fun capturedValueIsDecodedOnFirstAccess() {
+        val buffer = Buffer()
+        val protocol = BinaryProtocol(BufferTransport(buffer))
+        xtruct.write(protocol)
+        protocol.writeI32(42)
+
+        val field = LazyField.read(protocol, TType.STRUCT, reader)
+        protocol.readI32() shouldBe 42
+        reads shouldBe 0
+
+        field.value shouldBe xtruct
+        field.value shouldBe xtruct
+        reads shouldBe 1
+        field shouldBe LazyField.of(xtruct)
+    }
+
+    @Test
+    fun capturedValueIsWrittenVerbatim() {
+        val buffer = Buffer()
+        xtruct.write(BinaryProtocol(BufferTransport(buffer)))
+        val encoded = buffer.snapshot()
+        val field = LazyField.read(BinaryProtocol(BufferTransport(buffer)), TType.STRUCT, reader)
+
+        field.write(BinaryProtocol(BufferTransport(buffer)), writer)
+        buffer.snapshot() shouldBe encoded
+        writes shouldBe 0
+        reads shouldBe 0
+
+        // A different encoding requires decoding and re-encoding.
+        buffer.clear()
+        field.write(CompactProtocol(BufferTransport(buffer)), writer)
+        writes shouldBe 1
+        Xtruct.ADAPTER.read(CompactProtocol(BufferTransport(buffer))) shouldBe xtruct
+    }
+
+    @Test
+    fun valueIsDecodedImmediatelyIfItCannotBeCaptured() {
+        val buffer = Buffer()
+        val protocol = BinaryProtocol(BufferTransport(buffer))
+        xtruct.write(protocol)
+        protocol.writeI32(42)
+
+        val buffered = BinaryProtocol(BufferedTransport(BufferTransport(buffer), 16))
+        val field = LazyField.read(buffered, TType.STRUCT, reader)
+        reads shouldBe 1
+        buffered.readI32() shouldBe 42
+
+        field.value shouldBe xtruct
+        field.write(BinaryProtocol(BufferTransport(buffer)), writer)
+        writes shouldBe 1
+    }
+}
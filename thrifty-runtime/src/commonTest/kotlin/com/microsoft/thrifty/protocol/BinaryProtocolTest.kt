@@ -23,6 +23,9 @@ package com.microsoft.thrifty.protocol
 import com.microsoft.thrifty.TType
 import com.microsoft.thrifty.internal.ProtocolException
 import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.BufferedTransport
+import com.microsoft.thrifty.transport.SinkTransport
+import com.microsoft.thrifty.transport.Transport
 import com.microsoft.thrifty.util.ProtocolUtil.skip
 import io.kotest.assertions.fail
 import io.kotest.matchers.should
@@ -212,6 +215,18 @@ class BinaryProtocolTest {
         buffer.readUtf8() shouldBe "here is a string"
     }
 
+    @Test
+    fun writeStringReplacesUnpairedSurrogates() {
+        for (okio in listOf(false, true)) {
+            val buffer = Buffer()
+            val transport = if (okio) SinkTransport(buffer) else BufferTransport(buffer)
+            val expected = "a\uD83Db".encodeToByteArray()
+            BinaryProtocol(transport).writeString("a\uD83Db")
+            buffer.readInt() shouldBe expected.size
+            buffer.readByteArray() shouldBe expected
+        }
+    }
+
     @Test
     fun writeMessage() {
         val buffer = Buffer()
@@ -277,6 +292,93 @@ class BinaryProtocolTest {
         read(protocol)
     }
 
+    @Test
+    fun roundtripOverOpaqueTransport() {
+        val xtruct = Xtruct.Builder()
+                .byte_thing(254.toByte())
+                .i32_thing(-0xFFFFFF)
+                .i64_thing(Long.MIN_VALUE)
+                .string_thing("foo")
+                .double_thing(PI)
+                .bool_thing(true)
+                .build()
+
+        // Hide the Buffer from the protocol, so that it cannot use its
+        // Okio fast path and must go through Transport.read/write.
+        val delegate = BufferTransport(Buffer())
+        val transport = object : Transport by delegate {}
+        Xtruct.ADAPTER.write(BinaryProtocol(transport), xtruct)
+        Xtruct.ADAPTER.read(BinaryProtocol(transport)) shouldBe xtruct
+    }
+
+    @Test
+    fun bulkArraysMatchElementwiseEncoding() {
+        val ints = IntArray(1500) { it * 1_000_003 - 700_000_000 }
+        val longs = LongArray(1500) { it * 6_000_000_000_001L - Long.MAX_VALUE / 2 }
+        val doubles = DoubleArray(1500) { it * PI - 1000 }
+
+        val expected = Buffer()
+        val elementwise = BinaryProtocol(BufferTransport(expected))
+        ints.forEach { elementwise.writeI32(it) }
+        longs.forEach { elementwise.writeI64(it) }
+        doubles.forEach { elementwise.writeDouble(it) }
+
+        // Through Transport.write, as with any non-Okio transport
+        val actual = Buffer()
+        val delegate = BufferTransport(actual)
+        val bulk = BinaryProtocol(object : Transport by delegate {})
+        bulk.writeI32Array(ints, 0, ints.size)
+        bulk.writeI64Array(longs, 0, longs.size)
+        bulk.writeDoubleArray(doubles, 0, doubles.size)
+        actual.snapshot() shouldBe expected.snapshot()
+
+        // A buffer too small to hold the arrays mixes in-place and fallback decoding.
+        val proto = BinaryProtocol(BufferedTransport(BufferTransport(actual), 100))
+        val intsRead = IntArray(ints.size + 1)
+        proto.readI32Array(intsRead, 1, ints.size)
+        intsRead.drop(1) shouldBe ints.toList()
+        val longsRead = LongArray(longs.size)
+        proto.readI64Array(longsRead, 0, longs.size)
+        longsRead.toList() shouldBe longs.toList()
+        val doublesRead = DoubleArray(doubles.size)
+        proto.readDoubleArray(doublesRead, 0, doubles.size)
+        doublesRead.toList() shouldBe doubles.toList()
+        actual.size shouldBe 0L
+
+        // Straight through the Okio sink and source
+        val okio = BinaryProtocol(BufferTransport(actual))
+        okio.writeI32Array(ints, 0, ints.size)
+        okio.writeI64Array(longs, 0, longs.size)
+        okio.writeDoubleArray(doubles, 0, doubles.size)
+        actual.snapshot() shouldBe expected.snapshot()
+        okio.readI32Array(intsRead, 0, ints.size)
+        intsRead.take(ints.size) shouldBe ints.toList()
+        okio.readI64Array(longsRead, 0, longs.size)
+        longsRead.toList() shouldBe longs.toList()
+        okio.readDoubleArray(doublesRead, 0, doubles.size)
+        doublesRead.toList() shouldBe doubles.toList()
+        actual.size shouldBe 0L
+    }
+
+    @Test
+    fun roundtripOverBufferedTransport() {
+        val xtruct = Xtruct.Builder()
+                .byte_thing(254.toByte())
+                .i32_thing(-0xFFFFFF)
+                .i64_thing(Long.MIN_VALUE)
+                .string_thing("a string long enough to span several buffer refills")
+                .double_thing(PI)
+                .bool_thing(true)
+                .build()
+        val buffer = Buffer()
+        Xtruct.ADAPTER.write(BinaryProtocol(BufferTransport(buffer)), xtruct)
+
+        // A tiny buffer forces values to straddle refills, exercising
+        // both the in-place and the fallback decoding paths.
+        val proto = BinaryProtocol(BufferedTransport(BufferTransport(buffer), 3))
+        Xtruct.ADAPTER.read(proto) shouldBe xtruct
+    }
+
     @Throws(IOException::class)
     fun read(protocol: Protocol) {
         protocol.readStructBegin()
@@ -20,9 +20,15 @@
  */
 package com.microsoft.thrifty.protocol
 
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.internal.ProtocolException
 import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.BufferedTransport
+import com.microsoft.thrifty.transport.Transport
+import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.shouldBe
 import okio.Buffer
+import okio.ByteString.Companion.encodeUtf8
 import okio.IOException
 import kotlin.math.PI
 import kotlin.test.Test
@@ -92,4 +98,95 @@ class CompactProtocolTest {
         Xtruct.ADAPTER.write(proto, xtruct)
         Xtruct.ADAPTER.read(CompactProtocol(transport)) shouldBe xtruct
     }
+
+    @Test
+    fun lengthLimitsAreEnforced() {
+        val buffer = Buffer()
+        val writer = CompactProtocol(BufferTransport(buffer))
+        writer.writeString("abc")
+        writer.writeBinary("abc".encodeUtf8())
+        writer.writeListBegin(TType.I32, 3)
+        writer.writeMapBegin(TType.I32, TType.I32, 3)
+
+        val reader = CompactProtocol(BufferTransport(buffer), stringLengthLimit = 2, containerLengthLimit = 2)
+        shouldThrow<ProtocolException> { reader.readString() }.message shouldBe "String size limit exceeded"
+        buffer.skip(3)
+        shouldThrow<ProtocolException> { reader.readBinary() }.message shouldBe "Binary size limit exceeded"
+        buffer.skip(3)
+        shouldThrow<ProtocolException> { reader.readListBegin() }.message shouldBe "Container size limit exceeded"
+        shouldThrow<ProtocolException> { reader.readMapBegin() }.message shouldBe "Container size limit exceeded"
+    }
+
+    @Test
+    fun roundtripOverOpaqueTransport() {
+        val xtruct = Xtruct.Builder()
+                .byte_thing(254.toByte())
+                .i32_thing(-0xFFFFFF)
+                .i64_thing(Long.MIN_VALUE)
+                .string_thing("foo")
+                .double_thing(PI)
+                .bool_thing(true)
+                .build()
+
+        // Hide the Buffer from the protocol, so that it cannot use its
+        // Okio fast path and must go through Transport.read/write.
+        val delegate = BufferTransport(Buffer())
+        val transport = object : Transport by delegate {}
+        Xtruct.ADAPTER.write(CompactProtocol(transport), xtruct)
+        Xtruct.ADAPTER.read(CompactProtocol(transport)) shouldBe xtruct
+    }
+
+    @Test
+    fun bulkArraysMatchElementwiseEncoding() {
+        val ints = IntArray(1500) { it * 1_000_003 - 700_000_000 }
+        val longs = LongArray(1500) { it * 6_000_000_000_001L - Long.MAX_VALUE / 2 }
+        val doubles = DoubleArray(1500) { it * PI - 1000 }
+
+        val expected = Buffer()
+        val elementwise = CompactProtocol(BufferTransport(expected))
+        ints.forEach { elementwise.writeI32(it) }
+        longs.forEach { elementwise.writeI64(it) }
+        doubles.forEach { elementwise.writeDouble(it) }
+
+        // Through Transport.write, as with any non-Okio transport
+        val actual = Buffer()
+        val delegate = BufferTransport(actual)
+        val bulk = CompactProtocol(object : Transport by delegate {})
+        bulk.writeI32Array(ints, 0, ints.size)
+        bulk.writeI64Array(longs, 0, longs.size)
+        bulk.writeDoubleArray(doubles, 0, doubles.size)
+        actual.snapshot() shouldBe expected.snapshot()
+
+        // A buffer too small to hold the arrays mixes in-place and fallback decoding.
+        val proto = CompactProtocol(BufferedTransport(BufferTransport(actual), 100))
+        val intsRead = IntArray(ints.size + 1)
+        proto.readI32Array(intsRead, 1, ints.size)
+        intsRead.drop(1) shouldBe ints.toList()
+        val longsRead = LongArray(longs.size)
+        proto.readI64Array(longsRead, 0, longs.size)
+        longsRead.toList() shouldBe longs.toList()
+        val doublesRead = DoubleArray(doubles.size)
+        proto.readDoubleArray(doublesRead, 0, doubles.size)
+        doublesRead.toList() shouldBe doubles.toList()
+        actual.size shouldBe 0L
+    }
+
+    @Test
+    fun roundtripOverBufferedTransport() {
+        val xtruct = Xtruct.Builder()
+                .byte_thing(254.toByte())
+                .i32_thing(-0xFFFFFF)
+                .i64_thing(Long.MIN_VALUE)
+                .string_thing("a string long enough to span several buffer refills")
+                .double_thing(PI)
+                .bool_thing(true)
+                .build()
+        val buffer = Buffer()
+        Xtruct.ADAPTER.write(CompactProtocol(BufferTransport(buffer)), xtruct)
+
+        // A tiny buffer forces values to straddle refills, exercising
+        // both the in-place and the fallback decoding paths.
+        val proto = CompactProtocol(BufferedTransport(BufferTransport(buffer), 3))
+        Xtruct.ADAPTER.read(proto) shouldBe xtruct
+    }
 }
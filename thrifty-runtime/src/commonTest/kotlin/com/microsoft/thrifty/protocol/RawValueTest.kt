@@ -0,0 +1,186 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.internal.ProtocolException
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.BufferedTransport
+import com.microsoft.thrifty.transport.FramedTransport
+import com.microsoft.thrifty.transport.Transport
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import okio.Buffer
+import okio.ByteString
+import kotlin.test.Test
+
+class RawValueTest {
+    private val protocols = listOf<(Transport) -> Protocol>({ BinaryProtocol(it) }, { CompactProtocol(it) })
+
+    @Test
+    fun valuesAreCapturedWholeFromOkioSources() {
+        for (newProtocol in protocols) {
+            val buffer = Buffer()
+            writeValues(newProtocol(BufferTransport(buffer)))
+            val expected = buffer.snapshot()
+
+            assertCapturesValues(newProtocol, newProtocol(BufferTransport(buffer)), expected)
+            buffer.size shouldBe 0L
+        }
+    }
+
+    @Test
+    fun valuesAreCapturedWholeFromBufferedFrames() {
+        for (newProtocol in protocols) {
+            val buffer = Buffer()
+            val writer = FramedTransport(BufferTransport(buffer))
+            writeValues(newProtocol(writer))
+            writer.flush()
+            val expected = buffer.snapshot().substring(4)
+
+            val reader = FramedTransport(BufferTransport(buffer), readWholeFrames = true)
+            assertCapturesValues(newProtocol, newProtocol(reader), expected)
+            reader.bytesRemainingInBuffer shouldBe 0
+        }
+    }
+
+    @Test
+    fun valuesThatAreNotBufferedAreNotCaptured() {
+        for (newProtocol in protocols) {
+            val buffer = Buffer()
+            writeValues(newProtocol(BufferTransport(buffer)))
+
+            val protocol = newProtocol(BufferedTransport(BufferTransport(buffer), 16))
+            protocol.readI32() // fills the buffer
+            protocol.readRawValue(TType.MAP) shouldBe null
+
+            // Nothing was consumed.
+            protocol.readMapBegin().size shouldBe 2
+            protocol.readString() shouldBe "ab"
+        }
+    }
+
+    @Test
+    fun lengthLimitsApplyToCapturedValues() {
+        val limited = listOf<(Transport) -> Protocol>(
+                { BinaryProtocol(it, stringLengthLimit = 2, containerLengthLimit = 2) },
+                { CompactProtocol(it, stringLengthLimit = 2, containerLengthLimit = 2) },
+        )
+        for (newProtocol in limited) {
+            fun capture(typeId: Byte, write: (Protocol) -> Unit): RawValue? {
+                val buffer = Buffer()
+                write(newProtocol(BufferTransport(buffer)))
+                return newProtocol(BufferTransport(buffer)).readRawValue(typeId)
+            }
+
+            shouldThrow<ProtocolException> {
+                capture(TType.STRING) { it.writeString("abc") }
+            }.message shouldBe "Invalid string size: 3"
+
+            shouldThrow<ProtocolException> {
+                capture(TType.LIST) {
+                    it.writeListBegin(TType.BOOL, 3)
+                    repeat(3) { _ -> it.writeBool(true) }
+                    it.writeListEnd()
+                }
+            }.message shouldBe "Invalid container size: 3"
+
+            val map = capture(TType.MAP) {
+                it.writeMapBegin(TType.STRING, TType.STRING, 1)
+                it.writeString("ab")
+                it.writeString("cd")
+                it.writeMapEnd()
+            }!!
+            map.decode { it.readMapBegin().size } shouldBe 1
+        }
+    }
+
+    @Test
+    fun rawValuesAreOnlyWrittenWithTheSameEncoding() {
+        val buffer = Buffer()
+        BinaryProtocol(BufferTransport(buffer)).writeI32(42)
+        val raw = BinaryProtocol(BufferTransport(buffer)).readRawValue(TType.I32)!!
+
+        CompactProtocol(BufferTransport(buffer)).writeRawValue(raw) shouldBe false
+        buffer.size shouldBe 0L
+        BinaryProtocol(BufferTransport(buffer)).writeRawValue(raw) shouldBe true
+        buffer.readInt() shouldBe 42
+    }
+
+    private fun assertCapturesValues(newProtocol: (Transport) -> Protocol, protocol: Protocol, expected: ByteString) {
+        protocol.readI32() shouldBe 7
+        val map = protocol.readRawValue(TType.MAP)!!
+        val list = protocol.readRawValue(TType.LIST)!!
+        protocol.readI32() shouldBe 42
+
+        map.typeId shouldBe TType.MAP
+        map.decode { readMap(it) } shouldBe mapOf("ab" to listOf(xtruct("ab", 0), xtruct("ab", 1)), "cd" to emptyList())
+        list.decode { p -> List(p.readListBegin().size) { p.readBool() } } shouldBe listOf(true, false, true)
+
+        val copy = Buffer()
+        val writer = newProtocol(BufferTransport(copy))
+        writer.writeI32(7)
+        writer.writeRawValue(map) shouldBe true
+        writer.writeRawValue(list) shouldBe true
+        writer.writeI32(42)
+        copy.snapshot() shouldBe expected
+    }
+
+    private fun writeValues(protocol: Protocol) {
+        protocol.writeI32(7)
+        protocol.writeMapBegin(TType.STRING, TType.LIST, 2)
+        protocol.writeString("ab")
+        protocol.writeListBegin(TType.STRUCT, 2)
+        xtruct("ab", 0).write(protocol)
+        xtruct("ab", 1).write(protocol)
+        protocol.writeListEnd()
+        protocol.writeString("cd")
+        protocol.writeListBegin(TType.STRUCT, 0)
+        protocol.writeListEnd()
+        protocol.writeMapEnd()
+        protocol.writeListBegin(TType.BOOL, 3)
+        protocol.writeBool(true)
+        protocol.writeBool(false)
+        protocol.writeBool(true)
+        protocol.writeListEnd()
+        protocol.writeI32(42)
+    }
+
+    private fun readMap(protocol: Protocol): Map<String, List<Xtruct>> {
+        val metadata = protocol.readMapBegin()
+        return (0 until metadata.size).associate {
+            val key = protocol.readString()
+            val size = protocol.readListBegin().size
+            key to List(size) { Xtruct.ADAPTER.read(protocol) }
+        }
+    }
+
+    private fun xtruct(name: String, n: Int): Xtruct {
+        return Xtruct.Builder()
+                .string_thing(name)
+                .byte_thing(n.toByte())
+                .i32_thing(-1000 * n)
+                .i64_thing(Long.MAX_VALUE - n)
+                .double_thing(n / 3.0)
+                .bool_thing(n % 2 == 0)
+                .build()
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol
+
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.Transport
+import io.kotest.matchers.shouldBe
+import okio.Buffer
+import okio.ByteString.Companion.encodeUtf8
+import okio.ByteString.Companion.toByteString
+import okio.utf8Size
+import kotlin.test.Test
+
+class ScratchWriterTest {
+    private val buffer = Buffer()
+    private val writer = ScratchWriter(object : Transport by BufferTransport(buffer) {})
+
+    @Test
+    fun asciiStrings() {
+        assertEncodesLikeOkio("")
+        assertEncodesLikeOkio("foo")
+    }
+
+    @Test
+    fun multiByteStrings() {
+        assertEncodesLikeOkio("ü")
+        assertEncodesLikeOkio("€100")
+        assertEncodesLikeOkio("mixed ascii, ünïcödé and 😀 emoji")
+    }
+
+    @Test
+    fun unpairedSurrogatesAreNotSized() {
+        ScratchWriter.utf8Size("\uD83D") shouldBe -1
+        ScratchWriter.utf8Size("a\uDE00b") shouldBe -1
+        ScratchWriter.utf8Size("\uD83Dx\uD83D") shouldBe -1
+        ScratchWriter.utf8Size("a\uD83D\uDE00b") shouldBe 6
+    }
+
+    @Test
+    fun stringsLargerThanTheScratchBufferAreChunked() {
+        // Lay out multi-byte sequences so that they straddle chunk boundaries.
+        assertEncodesLikeOkio("x".repeat(8191) + "😀" + "é".repeat(5000))
+        assertEncodesLikeOkio("€".repeat(20_000))
+    }
+
+    @Test
+    fun binaries() {
+        val small = "binary".encodeUtf8()
+        writer.write(small)
+        buffer.readByteString() shouldBe small
+
+        val large = ByteArray(20_000) { it.toByte() }.toByteString()
+        writer.write(large)
+        buffer.readByteString() shouldBe large
+    }
+
+    private fun assertEncodesLikeOkio(str: String) {
+        ScratchWriter.utf8Size(str).toLong() shouldBe str.utf8Size()
+        writer.writeUtf8(str, ScratchWriter.utf8Size(str))
+        buffer.readByteString() shouldBe str.encodeUtf8()
+    }
+}
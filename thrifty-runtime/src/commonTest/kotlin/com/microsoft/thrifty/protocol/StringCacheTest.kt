@@ -0,0 +1,145 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol
+
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.BufferedTransport
+import com.microsoft.thrifty.transport.Transport
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import io.kotest.matchers.types.shouldNotBeSameInstanceAs
+import okio.Buffer
+import kotlin.test.Test
+
+class StringCacheTest {
+    @Test
+    fun repeatedLookupsHit() {
+        val cache = StringCache()
+        val bytes = "xxhostnamexx".encodeToByteArray()
+
+        val first = cache.decode(bytes, 2, 8)
+        val second = cache.decode(bytes.copyOf(), 2, 8)
+
+        first shouldBe "hostname"
+        second shouldBeSameInstanceAs first
+        cache.misses shouldBe 1L
+        cache.hits shouldBe 1L
+    }
+
+    @Test
+    fun distinctStringsMiss() {
+        val cache = StringCache()
+
+        cache.decode("foo".encodeToByteArray(), 0, 3) shouldBe "foo"
+        cache.decode("bar".encodeToByteArray(), 0, 3) shouldBe "bar"
+        cache.decode("fo".encodeToByteArray(), 0, 2) shouldBe "fo"
+
+        cache.misses shouldBe 3L
+        cache.hits shouldBe 0L
+    }
+
+    @Test
+    fun longStringsBypassTheCache() {
+        val cache = StringCache(maxStringLength = 4)
+        val bytes = "too long".encodeToByteArray()
+
+        val first = cache.decode(bytes, 0, bytes.size)
+        val second = cache.decode(bytes, 0, bytes.size)
+
+        first shouldBe "too long"
+        second shouldNotBeSameInstanceAs first
+        cache.hits shouldBe 0L
+        cache.misses shouldBe 0L
+    }
+
+    @Test
+    fun cacheIsBounded() {
+        val cache = StringCache(maxEntries = 1)
+
+        val foo = cache.decode("foo".encodeToByteArray(), 0, 3)
+        cache.decode("bar".encodeToByteArray(), 0, 3)
+        val fooAgain = cache.decode("foo".encodeToByteArray(), 0, 3)
+
+        fooAgain shouldBe "foo"
+        fooAgain shouldNotBeSameInstanceAs foo
+        cache.misses shouldBe 3L
+    }
+
+    @Test
+    fun clearResetsEverything() {
+        val cache = StringCache()
+        cache.decode("foo".encodeToByteArray(), 0, 3)
+        cache.decode("foo".encodeToByteArray(), 0, 3)
+
+        cache.clear()
+
+        cache.hits shouldBe 0L
+        cache.misses shouldBe 0L
+        cache.decode("foo".encodeToByteArray(), 0, 3)
+        cache.misses shouldBe 1L
+    }
+
+    @Test
+    fun binaryProtocolSharesRepeatedStrings() {
+        readRepeatedStrings { cache, transport -> BinaryProtocol(transport, stringCache = cache) }
+    }
+
+    @Test
+    fun compactProtocolSharesRepeatedStrings() {
+        readRepeatedStrings { cache, transport -> CompactProtocol(transport, stringCache = cache) }
+    }
+
+    private fun Protocol.writeRepeatedStrings() {
+        repeat(3) {
+            writeString("tag")
+            writeString("ünïcödé")
+        }
+        flush()
+    }
+
+    private fun readRepeatedStrings(factory: (StringCache, Transport) -> Protocol) {
+        // Exercise the Okio, in-buffer, and scratch-buffer read paths.
+        val transports = listOf<(Buffer) -> Transport>(
+                { BufferTransport(it) },
+                { BufferedTransport(BufferTransport(it)) },
+                { buffer -> object : Transport by BufferTransport(buffer) {} },
+        )
+
+        for (makeTransport in transports) {
+            val cache = StringCache()
+            val buffer = Buffer()
+            factory(cache, BufferTransport(buffer)).writeRepeatedStrings()
+
+            val protocol = factory(cache, makeTransport(buffer))
+            val tag = protocol.readString()
+            val unicode = protocol.readString()
+            tag shouldBe "tag"
+            unicode shouldBe "ünïcödé"
+            repeat(2) {
+                protocol.readString() shouldBeSameInstanceAs tag
+                protocol.readString() shouldBeSameInstanceAs unicode
+            }
+
+            cache.misses shouldBe 2L
+            cache.hits shouldBe 4L
+        }
+    }
+}
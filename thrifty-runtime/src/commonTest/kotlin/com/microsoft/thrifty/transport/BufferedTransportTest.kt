@@ -0,0 +1,172 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport
+
+import io.kotest.matchers.shouldBe
+import okio.Buffer
+import kotlin.test.Test
+
+class BufferedTransportTest {
+    @Test
+    fun smallReadsAreServedFromOneUnderlyingRead() {
+        val buffer = Buffer()
+        buffer.writeUtf8("abcdefgh")
+        val inner = CountingTransport(BufferTransport(buffer))
+        val transport = BufferedTransport(inner, 16)
+        val readBuffer = ByteArray(8)
+
+        for (i in 0 until 8) {
+            transport.read(readBuffer, i, 1) shouldBe 1
+        }
+
+        readBuffer.decodeToString() shouldBe "abcdefgh"
+        inner.reads shouldBe 1
+    }
+
+    @Test
+    fun largeReadsBypassTheBuffer() {
+        val buffer = Buffer()
+        buffer.writeUtf8("abcdefghijklmnop")
+        val transport = BufferedTransport(BufferTransport(buffer), 4)
+        val readBuffer = ByteArray(16)
+
+        transport.read(readBuffer, 0, 16) shouldBe 16
+        transport.bytesRemainingInBuffer shouldBe 0
+        readBuffer.decodeToString() shouldBe "abcdefghijklmnop"
+    }
+
+    @Test
+    fun readsDoNotSpanBufferRefills() {
+        val buffer = Buffer()
+        buffer.writeUtf8("abcdef")
+        val transport = BufferedTransport(BufferTransport(buffer), 4)
+        val readBuffer = ByteArray(6)
+
+        transport.read(readBuffer, 0, 3) shouldBe 3
+        transport.read(readBuffer, 3, 3) shouldBe 1
+        transport.read(readBuffer, 4, 2) shouldBe 2
+        readBuffer.decodeToString() shouldBe "abcdef"
+    }
+
+    @Test
+    fun endedMessagesAreWrittenTogether() {
+        val buffer = Buffer()
+        val inner = CountingTransport(BufferTransport(buffer))
+        val transport = BufferedTransport(inner, 16)
+
+        transport.write("abc".encodeToByteArray(), 0, 3)
+        transport.endMessage()
+        transport.write("def".encodeToByteArray(), 0, 3)
+        transport.endMessage()
+        buffer.size shouldBe 0
+
+        transport.flush()
+        buffer.readUtf8() shouldBe "abcdef"
+        inner.writes shouldBe 1
+        transport.bytesWritten shouldBe 6
+    }
+
+    @Test
+    fun bytesReadAreCounted() {
+        val buffer = Buffer()
+        buffer.writeUtf8("abcdefghijklmnop")
+        val transport = BufferedTransport(BufferTransport(buffer), 4)
+
+        transport.read(ByteArray(2), 0, 2) shouldBe 2
+        transport.consumeBuffer(1)
+        transport.read(ByteArray(8), 0, 8) shouldBe 1
+        transport.read(ByteArray(8), 0, 8) shouldBe 8
+        transport.bytesRead shouldBe 12
+    }
+
+    @Test
+    fun readAtEofReturnsMinusOne() {
+        val transport = BufferedTransport(BufferTransport(Buffer()))
+        transport.read(ByteArray(4), 0, 4) shouldBe -1
+    }
+
+    @Test
+    fun peekAndConsume() {
+        val buffer = Buffer()
+        buffer.writeUtf8("abcdef")
+        val transport = BufferedTransport(BufferTransport(buffer), 4)
+        val readBuffer = ByteArray(1)
+
+        // Nothing is buffered until the first read.
+        transport.bytesRemainingInBuffer shouldBe 0
+
+        transport.read(readBuffer, 0, 1) shouldBe 1
+        transport.bytesRemainingInBuffer shouldBe 3
+        transport.buffer[transport.bufferPosition] shouldBe 'b'.code.toByte()
+
+        transport.consumeBuffer(2)
+        transport.bytesRemainingInBuffer shouldBe 1
+        transport.read(readBuffer, 0, 1) shouldBe 1
+        readBuffer[0] shouldBe 'd'.code.toByte()
+    }
+
+    @Test
+    fun writesAreHeldUntilFlush() {
+        val buffer = Buffer()
+        val inner = CountingTransport(BufferTransport(buffer))
+        val transport = BufferedTransport(inner, 16)
+
+        for (c in "abcdefgh") {
+            transport.write(byteArrayOf(c.code.toByte()))
+        }
+
+        buffer.size shouldBe 0L
+        transport.flush()
+        buffer.readUtf8() shouldBe "abcdefgh"
+        inner.writes shouldBe 1
+    }
+
+    @Test
+    fun writesLargerThanTheBufferAreWrittenThrough() {
+        val buffer = Buffer()
+        val transport = BufferedTransport(BufferTransport(buffer), 4)
+
+        transport.write("ab".encodeToByteArray())
+        transport.write("cdefgh".encodeToByteArray())
+
+        // Pending bytes must be written first to preserve ordering.
+        buffer.readUtf8() shouldBe "abcdefgh"
+    }
+
+    private class CountingTransport(private val inner: Transport) : Transport {
+        var reads = 0
+        var writes = 0
+
+        override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+            reads++
+            return inner.read(buffer, offset, count)
+        }
+
+        override fun write(buffer: ByteArray, offset: Int, count: Int) {
+            writes++
+            inner.write(buffer, offset, count)
+        }
+
+        override fun flush() = inner.flush()
+
+        override fun close() = inner.close()
+    }
+}
@@ -20,6 +20,8 @@
  */
 package com.microsoft.thrifty.transport
 
+import com.microsoft.thrifty.internal.ProtocolException
+import com.microsoft.thrifty.protocol.BinaryProtocol
 import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.shouldBe
 import okio.Buffer
@@ -88,4 +90,228 @@ class FramedTransportTest {
         val readBuffer = ByteArray(10)
         shouldThrow<EOFException> { transport.read(readBuffer, 0, 10) }
     }
+
+    @Test
+    fun eachFrameIsASingleWrite() {
+        val target = Buffer()
+        val writes = mutableListOf<Int>()
+        val inner = object : Transport by BufferTransport(target) {
+            override fun write(buffer: ByteArray, offset: Int, count: Int) {
+                writes += count
+                target.write(buffer, offset, count)
+            }
+        }
+        val transport = FramedTransport(inner)
+
+        transport.write("abc".encodeToByteArray())
+        transport.write("defg".encodeToByteArray())
+        transport.flush()
+        transport.write("this frame is larger than the initial buffer".encodeToByteArray())
+        transport.flush()
+
+        writes shouldBe listOf(11, 48)
+        target.readInt() shouldBe 7
+        target.readUtf8(7) shouldBe "abcdefg"
+        target.readInt() shouldBe 44
+        target.readUtf8() shouldBe "this frame is larger than the initial buffer"
+    }
+
+    @Test
+    fun framesAfterALargeFrameAreWrittenCorrectly() {
+        val target = Buffer()
+        val transport = FramedTransport(BufferTransport(target), maxRetainedBufferSize = 16)
+
+        transport.write(ByteArray(100))
+        transport.flush()
+        transport.write("small".encodeToByteArray())
+        transport.flush()
+
+        target.readInt() shouldBe 100
+        target.skip(100)
+        target.readInt() shouldBe 5
+        target.readUtf8() shouldBe "small"
+    }
+
+    @Test
+    fun oversizedFramesAreRejected() {
+        val buffer = Buffer()
+        buffer.writeInt(1025)
+        buffer.write(ByteArray(1025))
+        val transport = FramedTransport(BufferTransport(buffer), maxFrameSize = 1024)
+
+        val e = shouldThrow<ProtocolException> { transport.read(ByteArray(10), 0, 10) }
+        e.message shouldBe "Frame size (1025) exceeds the maximum of 1024"
+    }
+
+    @Test
+    fun negativeFrameSizesAreRejected() {
+        val buffer = Buffer()
+        buffer.writeInt(-1)
+        val transport = FramedTransport(BufferTransport(buffer))
+
+        shouldThrow<ProtocolException> { transport.read(ByteArray(10), 0, 10) }
+    }
+
+    @Test
+    fun wholeFramesAreReadInOneBulkRead() {
+        val buffer = Buffer()
+        buffer.writeInt(6)
+        buffer.writeUtf8("abcdef")
+        buffer.writeInt(4)
+        buffer.writeUtf8("ghij")
+        val reads = mutableListOf<Int>()
+        val delegate = BufferTransport(buffer)
+        val inner = object : Transport by delegate {
+            override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+                reads += count
+                return delegate.read(buffer, offset, count)
+            }
+        }
+        val transport = FramedTransport(inner, readWholeFrames = true)
+        val readBuffer = ByteArray(10)
+
+        transport.read(readBuffer, 0, 2) shouldBe 2
+        transport.bytesRemainingInBuffer shouldBe 4
+        transport.read(readBuffer, 2, 8) shouldBe 4
+        transport.bytesRemainingInBuffer shouldBe 0
+        transport.read(readBuffer, 6, 4) shouldBe 4
+
+        readBuffer.decodeToString() shouldBe "abcdefghij"
+        reads shouldBe listOf(4, 6, 4, 4)
+    }
+
+    @Test
+    fun wholeFrameIsExposedAsAWindow() {
+        val buffer = Buffer()
+        buffer.writeInt(8)
+        buffer.writeInt(42)
+        buffer.writeInt(43)
+        val transport = FramedTransport(BufferTransport(buffer), readWholeFrames = true)
+
+        // The frame is read on demand...
+        transport.bytesRemainingInBuffer shouldBe 0
+        val protocol = BinaryProtocol(transport)
+        protocol.readI32() shouldBe 42
+
+        // ...after which the remainder is decoded in place.
+        transport.bytesRemainingInBuffer shouldBe 4
+        transport.buffer[transport.bufferPosition + 3] shouldBe 43.toByte()
+        protocol.readI32() shouldBe 43
+        transport.bytesRemainingInBuffer shouldBe 0
+    }
+
+    @Test
+    fun skipFrameWhenStreaming() {
+        assertSkipsFrames(FramedTransport(BufferTransport(twoFrames())))
+    }
+
+    @Test
+    fun skipFrameWhenReadingWholeFrames() {
+        assertSkipsFrames(FramedTransport(BufferTransport(twoFrames()), readWholeFrames = true))
+    }
+
+    @Test
+    fun skipFrameWhenStreamingFramesLargerThanItsScratchBuffer() {
+        val buffer = Buffer()
+        for (size in listOf(10_000, 3, 5_000)) {
+            buffer.writeInt(size)
+            buffer.write(ByteArray(size))
+        }
+        buffer.writeInt(4)
+        buffer.writeUtf8("good")
+
+        val transport = FramedTransport(BufferTransport(buffer))
+        val readBuffer = ByteArray(4)
+        repeat(3) {
+            transport.read(readBuffer, 0, 1) shouldBe 1
+            transport.skipFrame()
+        }
+        transport.read(readBuffer, 0, 4) shouldBe 4
+        readBuffer.decodeToString() shouldBe "good"
+    }
+
+    @Test
+    fun wholeFrameReadsRejectOversizedFrames() {
+        val buffer = Buffer()
+        buffer.writeInt(Int.MAX_VALUE)
+        val transport = FramedTransport(BufferTransport(buffer), readWholeFrames = true)
+
+        shouldThrow<ProtocolException> { transport.read(ByteArray(10), 0, 10) }
+    }
+
+    @Test
+    fun truncatedWholeFrameThrowsEOF() {
+        val buffer = Buffer()
+        buffer.writeInt(10)
+        buffer.writeUtf8("abc")
+        val transport = FramedTransport(BufferTransport(buffer), readWholeFrames = true)
+
+        shouldThrow<EOFException> { transport.read(ByteArray(10), 0, 10) }
+    }
+
+    @Test
+    fun countsPayloadBytes() {
+        val buffer = Buffer()
+        val writer = FramedTransport(BufferTransport(buffer))
+        BinaryProtocol(writer).writeI64(42L)
+        writer.flush()
+        writer.bytesWritten shouldBe 8L
+        buffer.size shouldBe 12L
+
+        for (readWholeFrames in listOf(false, true)) {
+            val reader = FramedTransport(BufferTransport(buffer.copy()), readWholeFrames = readWholeFrames)
+            BinaryProtocol(reader).readI64() shouldBe 42L
+            reader.bytesRead shouldBe 8L
+        }
+    }
+
+    @Test
+    fun endedFramesAreWrittenTogether() {
+        val buffer = Buffer()
+        val writes = mutableListOf<Int>()
+        val delegate = BufferTransport(buffer)
+        val inner = object : Transport by delegate {
+            override fun write(buffer: ByteArray, offset: Int, count: Int) {
+                writes += count
+                delegate.write(buffer, offset, count)
+            }
+        }
+        val transport = FramedTransport(inner)
+
+        transport.write("abc".encodeToByteArray())
+        transport.endMessage()
+        transport.endMessage()
+        transport.write("defgh".encodeToByteArray())
+        transport.flush()
+
+        writes shouldBe listOf(16)
+        buffer.readInt() shouldBe 3
+        buffer.readUtf8(3) shouldBe "abc"
+        buffer.readInt() shouldBe 5
+        buffer.readUtf8() shouldBe "defgh"
+
+        // A batch that ends on a frame boundary
+        transport.write("ij".encodeToByteArray())
+        transport.endMessage()
+        transport.flush()
+        buffer.readInt() shouldBe 2
+        buffer.readUtf8() shouldBe "ij"
+    }
+
+    private fun twoFrames(): Buffer {
+        val buffer = Buffer()
+        buffer.writeInt(6)
+        buffer.writeUtf8("unwant")
+        buffer.writeInt(4)
+        buffer.writeUtf8("good")
+        return buffer
+    }
+
+    private fun assertSkipsFrames(transport: FramedTransport) {
+        val readBuffer = ByteArray(4)
+        transport.read(readBuffer, 0, 1) shouldBe 1
+        transport.skipFrame()
+        transport.read(readBuffer, 0, 4) shouldBe 4
+        readBuffer.decodeToString() shouldBe "good"
+    }
 }
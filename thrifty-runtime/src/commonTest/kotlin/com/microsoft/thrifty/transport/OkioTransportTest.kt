@@ -0,0 +1,78 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport
+
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.CompactProtocol
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.protocol.Xtruct
+import com.microsoft.thrifty.transport
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import okio.Buffer
+import okio.EOFException
+import okio.Sink
+import okio.Source
+import okio.buffer
+import kotlin.test.Test
+
+class OkioTransportTest {
+    private val xtruct = Xtruct.Builder()
+            .byte_thing(1)
+            .i32_thing(-2)
+            .i64_thing(Long.MAX_VALUE)
+            .string_thing("été")
+            .double_thing(-0.5)
+            .bool_thing(false)
+            .build()
+
+    @Test
+    fun binaryRoundtripThroughSinkAndSource() {
+        roundtrip(::BinaryProtocol)
+    }
+
+    @Test
+    fun compactRoundtripThroughSinkAndSource() {
+        roundtrip(::CompactProtocol)
+    }
+
+    @Test
+    fun truncatedSourceThrowsEOF() {
+        val buffer = Buffer()
+        buffer.writeShort(3)
+        val protocol = BinaryProtocol((buffer as Source).buffer().transport())
+        shouldThrow<EOFException> { protocol.readI32() }
+    }
+
+    private fun roundtrip(protocolFactory: (Transport) -> Protocol) {
+        val buffer = Buffer()
+
+        // Wrapping the buffer ensures we exercise the generic BufferedSink and
+        // BufferedSource implementations, not just Buffer's.
+        val sink = (buffer as Sink).buffer()
+        val writer = protocolFactory(sink.transport())
+        Xtruct.ADAPTER.write(writer, xtruct)
+        writer.flush()
+
+        val reader = protocolFactory((buffer as Source).buffer().transport())
+        Xtruct.ADAPTER.read(reader) shouldBe xtruct
+    }
+}
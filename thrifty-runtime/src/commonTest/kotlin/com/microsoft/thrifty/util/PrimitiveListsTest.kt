@@ -0,0 +1,69 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.util
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.CompactProtocol
+import com.microsoft.thrifty.transport.BufferTransport
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import okio.Buffer
+import kotlin.test.Test
+
+class PrimitiveListsTest {
+    private val buffer = Buffer()
+    private val protocol = BinaryProtocol(BufferTransport(buffer))
+
+    @Test
+    fun longListRoundTrip() {
+        LongList.write(protocol, LongList(longArrayOf(1L, Long.MIN_VALUE, Long.MAX_VALUE)))
+
+        val list = LongList.read(protocol)
+        list shouldBe listOf(1L, Long.MIN_VALUE, Long.MAX_VALUE)
+        list.getLong(1) shouldBe Long.MIN_VALUE
+        buffer.size shouldBe 0L
+    }
+
+    @Test
+    fun intListReadsBoxedLists() {
+        val compact = CompactProtocol(BufferTransport(buffer))
+        IntList.write(compact, listOf(3, -1, 4))
+
+        val metadata = CompactProtocol(BufferTransport(buffer.copy())).readListBegin()
+        metadata.elementTypeId shouldBe TType.I32
+        metadata.size shouldBe 3
+
+        val list = IntList.read(compact)
+        list.shouldBeInstanceOf<IntList>()
+        list.toIntArray().toList() shouldBe listOf(3, -1, 4)
+    }
+
+    @Test
+    fun doubleListsEqualOtherLists() {
+        val list = DoubleList(doubleArrayOf(0.5, Double.NaN))
+        list shouldBe listOf(0.5, Double.NaN)
+        list.hashCode() shouldBe listOf(0.5, Double.NaN).hashCode()
+
+        DoubleList.write(protocol, list)
+        DoubleList.read(protocol) shouldBe list
+    }
+}
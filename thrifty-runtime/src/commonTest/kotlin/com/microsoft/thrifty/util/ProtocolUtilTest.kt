@@ -23,14 +23,21 @@ package com.microsoft.thrifty.util
 import com.microsoft.thrifty.TType
 import com.microsoft.thrifty.internal.ProtocolException
 import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.CompactProtocol
+import com.microsoft.thrifty.protocol.Protocol
 import com.microsoft.thrifty.protocol.Xtruct
 import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.BufferedTransport
+import com.microsoft.thrifty.transport.SourceTransport
+import com.microsoft.thrifty.transport.Transport
 import io.kotest.assertions.fail
+import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.shouldBe
 import io.kotest.matchers.shouldNotBe
 import io.kotest.matchers.throwable.shouldHaveMessage
 import okio.Buffer
 import okio.ByteString.Companion.encodeUtf8
+import okio.EOFException
 import kotlin.test.Test
 
 class ProtocolUtilTest {
@@ -199,4 +206,84 @@ class ProtocolUtilTest {
         ProtocolUtil.skip(protocol, TType.STRING)
         buffer.size shouldBe 0
     }
+
+    @Test
+    fun skipsScalarRunsWithEveryTransport() {
+        for (encode in listOf<(Transport) -> Protocol>({ BinaryProtocol(it) }, { CompactProtocol(it) })) {
+            val encoded = Buffer()
+            val writer = encode(BufferTransport(encoded))
+            writeScalarContainers(writer)
+            writer.writeString("a string longer than the sixteen-byte transport buffer")
+            writer.writeI32(42)
+
+            val transports = listOf<(Buffer) -> Transport>(
+                    { BufferTransport(it) },
+                    { SourceTransport(it) },
+                    { BufferedTransport(BufferTransport(it), 16) },
+            )
+            for (transport in transports) {
+                val reader = encode(transport(encoded.copy()))
+                ProtocolUtil.skip(reader, TType.LIST)
+                ProtocolUtil.skip(reader, TType.LIST)
+                ProtocolUtil.skip(reader, TType.SET)
+                ProtocolUtil.skip(reader, TType.MAP)
+                ProtocolUtil.skip(reader, TType.MAP)
+                ProtocolUtil.skip(reader, TType.STRING)
+                reader.readI32() shouldBe 42
+            }
+        }
+    }
+
+    @Test
+    fun truncatedStringsThrowEOF() {
+        protocol.writeI32(20)
+        buffer.writeUtf8("too short")
+
+        shouldThrow<EOFException> { ProtocolUtil.skip(protocol, TType.STRING) }
+    }
+
+    @Test
+    fun overlongVarintsAreRejectedWhenSkipped() {
+        val encoded = Buffer()
+        encoded.writeByte(0x16) // A compact list of one i64
+        repeat(10) { encoded.writeByte(0xFF) }
+        encoded.writeByte(0x01)
+
+        val transports = listOf<(Buffer) -> Transport>(
+                { BufferTransport(it) },
+                { BufferedTransport(BufferTransport(it), 16) },
+        )
+        for (transport in transports) {
+            val reader = CompactProtocol(transport(encoded.copy()))
+            val e = shouldThrow<ProtocolException> { ProtocolUtil.skip(reader, TType.LIST) }
+            e shouldHaveMessage "Varint is longer than 10 bytes"
+        }
+    }
+
+    private fun writeScalarContainers(protocol: Protocol) {
+        val longs = listOf(0L, -1L, 300L, Long.MIN_VALUE, Long.MAX_VALUE)
+        protocol.writeListBegin(TType.I64, longs.size)
+        longs.forEach { protocol.writeI64(it) }
+        protocol.writeListEnd()
+
+        protocol.writeListBegin(TType.DOUBLE, 3)
+        listOf(1.5, -2.0, 1e300).forEach { protocol.writeDouble(it) }
+        protocol.writeListEnd()
+
+        protocol.writeSetBegin(TType.BOOL, 2)
+        protocol.writeBool(true)
+        protocol.writeBool(false)
+        protocol.writeSetEnd()
+
+        protocol.writeMapBegin(TType.I32, TType.I32, 2)
+        listOf(1, -70000, Int.MAX_VALUE, 2).forEach { protocol.writeI32(it) }
+        protocol.writeMapEnd()
+
+        protocol.writeMapBegin(TType.I16, TType.BYTE, 2)
+        protocol.writeI16(-300)
+        protocol.writeByte(1)
+        protocol.writeI16(5)
+        protocol.writeByte(-1)
+        protocol.writeMapEnd()
+    }
 }
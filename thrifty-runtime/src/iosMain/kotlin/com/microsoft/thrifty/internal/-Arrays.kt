@@ -0,0 +1,73 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.internal
+
+internal actual fun ByteArray.getInts(offset: Int, dest: IntArray, destIndex: Int, count: Int, bigEndian: Boolean) {
+    for (i in 0 until count) {
+        dest[destIndex + i] = getLong(offset + i * 4, 4, bigEndian).toInt()
+    }
+}
+
+internal actual fun ByteArray.putInts(offset: Int, src: IntArray, srcIndex: Int, count: Int, bigEndian: Boolean) {
+    for (i in 0 until count) {
+        putLong(offset + i * 4, 4, src[srcIndex + i].toLong(), bigEndian)
+    }
+}
+
+internal actual fun ByteArray.getLongs(offset: Int, dest: LongArray, destIndex: Int, count: Int, bigEndian: Boolean) {
+    for (i in 0 until count) {
+        dest[destIndex + i] = getLong(offset + i * 8, 8, bigEndian)
+    }
+}
+
+internal actual fun ByteArray.putLongs(offset: Int, src: LongArray, srcIndex: Int, count: Int, bigEndian: Boolean) {
+    for (i in 0 until count) {
+        putLong(offset + i * 8, 8, src[srcIndex + i], bigEndian)
+    }
+}
+
+internal actual fun ByteArray.getDoubles(offset: Int, dest: DoubleArray, destIndex: Int, count: Int, bigEndian: Boolean) {
+    for (i in 0 until count) {
+        dest[destIndex + i] = Double.fromBits(getLong(offset + i * 8, 8, bigEndian))
+    }
+}
+
+internal actual fun ByteArray.putDoubles(offset: Int, src: DoubleArray, srcIndex: Int, count: Int, bigEndian: Boolean) {
+    for (i in 0 until count) {
+        putLong(offset + i * 8, 8, src[srcIndex + i].toRawBits(), bigEndian)
+    }
+}
+
+private fun ByteArray.getLong(offset: Int, width: Int, bigEndian: Boolean): Long {
+    var result = 0L
+    for (i in 0 until width) {
+        val b = this[if (bigEndian) offset + i else offset + width - 1 - i].toLong() and 0xFFL
+        result = (result shl 8) or b
+    }
+    return result
+}
+
+private fun ByteArray.putLong(offset: Int, width: Int, value: Long, bigEndian: Boolean) {
+    for (i in 0 until width) {
+        val shift = 8 * (width - 1 - i)
+        this[if (bigEndian) offset + i else offset + width - 1 - i] = (value shr shift).toByte()
+    }
+}
@@ -25,4 +25,6 @@ import okio.IOException
 
 actual class ProtocolException actual constructor(message: String) : IOException(message)
 
-actual val DefaultDispatcher: kotlinx.coroutines.CoroutineDispatcher = Dispatchers.Default
\ No newline at end of file
+actual val DefaultDispatcher: kotlinx.coroutines.CoroutineDispatcher = Dispatchers.Default
+
+internal actual fun nanoTime(): Long = kotlin.system.getTimeNanos()
@@ -25,6 +25,7 @@ import com.microsoft.thrifty.Struct
 import com.microsoft.thrifty.ThriftException
 import com.microsoft.thrifty.protocol.Protocol
 import kotlinx.atomicfu.atomic
+import kotlinx.coroutines.CancellableContinuation
 import kotlinx.cinterop.ExperimentalForeignApi
 import kotlinx.cinterop.convert
 import okio.Closeable
@@ -46,17 +47,26 @@ import kotlin.coroutines.cancellation.CancellationException
  * at the transport level.  If your backend requires framing, be sure to
  * configure your [Protocol] and [com.microsoft.thrifty.transport.Transport]
  * objects appropriately.
+ *
+ * Calls are always sent one at a time; [ClientConfig.maxInFlightCalls]
+ * is not yet supported on this platform.
  */
 @OptIn(ExperimentalForeignApi::class)
 actual open class AsyncClientBase protected actual constructor(
     protocol: Protocol,
-    private val listener: Listener
+    private val listener: Listener,
+    config: ClientConfig
 ) : ClientBase(protocol), Closeable {
 
+    protected actual constructor(
+        protocol: Protocol,
+        listener: Listener
+    ) : this(protocol, listener, ClientConfig.DEFAULT)
+
     private val closed = atomic(false)
     private var queue = dispatch_queue_create("client-queue", dispatch_attr_serial())
     private val pendingCalls = mutableSetOf<MethodCall<*>>()
-
+    private val interceptors = config.interceptors
 
     /**
      * Exposes important events in the client's lifecycle.
@@ -97,6 +107,20 @@ actual open class AsyncClientBase protected actual constructor(
      */
     protected actual fun enqueue(methodCall: MethodCall<*>) {
         check(!closed.value) { "Client has been closed" }
+        if (interceptors.isEmpty()) {
+            queue(methodCall)
+        } else {
+            interceptors.intercept(methodCall) { queue(it) }
+        }
+    }
+
+    protected actual fun enqueue(methodCall: MethodCall<*>, continuation: CancellableContinuation<*>) {
+        continuation.invokeOnCancellation { methodCall.cancelled.compareAndSet(false, true) }
+        enqueue(methodCall)
+    }
+
+    private fun queue(methodCall: MethodCall<*>) {
+        check(!closed.value) { "Client has been closed" }
 
         pendingCalls.add(methodCall)
         dispatch_async(queue) {
@@ -107,6 +131,10 @@ actual open class AsyncClientBase protected actual constructor(
                 return@dispatch_async
             }
 
+            if (methodCall.cancelled.get()) {
+                return@dispatch_async
+            }
+
             var result: Any? = null
             var error: Exception? = null
             try {
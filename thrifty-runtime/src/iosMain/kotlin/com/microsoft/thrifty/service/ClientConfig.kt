@@ -0,0 +1,52 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+actual class ClientConfig internal actual constructor(
+        builder: Builder
+) {
+    actual val maxInFlightCalls: Int = builder.maxInFlightCalls
+    actual val interceptors: List<ClientInterceptor> = builder.interceptors.toList()
+
+    actual class Builder actual constructor() {
+        internal var maxInFlightCalls = 1
+        internal val interceptors = mutableListOf<ClientInterceptor>()
+
+        actual fun maxInFlightCalls(maxInFlightCalls: Int): Builder {
+            require(maxInFlightCalls > 0) { "maxInFlightCalls must be positive" }
+            this.maxInFlightCalls = maxInFlightCalls
+            return this
+        }
+
+        actual fun addInterceptor(interceptor: ClientInterceptor): Builder {
+            interceptors += interceptor
+            return this
+        }
+
+        actual fun build(): ClientConfig {
+            return ClientConfig(this)
+        }
+    }
+
+    actual companion object {
+        actual val DEFAULT: ClientConfig = Builder().build()
+    }
+}
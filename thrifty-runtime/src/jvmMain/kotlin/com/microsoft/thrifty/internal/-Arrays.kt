@@ -0,0 +1,56 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.internal
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+// NIO's view buffers copy whole runs of values at once, swapping byte order
+// as needed, rather than assembling each value from its bytes.
+
+private fun ByteArray.view(offset: Int, length: Int, bigEndian: Boolean): ByteBuffer {
+    val order = if (bigEndian) ByteOrder.BIG_ENDIAN else ByteOrder.LITTLE_ENDIAN
+    return ByteBuffer.wrap(this, offset, length).order(order)
+}
+
+internal actual fun ByteArray.getInts(offset: Int, dest: IntArray, destIndex: Int, count: Int, bigEndian: Boolean) {
+    view(offset, count * 4, bigEndian).asIntBuffer().get(dest, destIndex, count)
+}
+
+internal actual fun ByteArray.putInts(offset: Int, src: IntArray, srcIndex: Int, count: Int, bigEndian: Boolean) {
+    view(offset, count * 4, bigEndian).asIntBuffer().put(src, srcIndex, count)
+}
+
+internal actual fun ByteArray.getLongs(offset: Int, dest: LongArray, destIndex: Int, count: Int, bigEndian: Boolean) {
+    view(offset, count * 8, bigEndian).asLongBuffer().get(dest, destIndex, count)
+}
+
+internal actual fun ByteArray.putLongs(offset: Int, src: LongArray, srcIndex: Int, count: Int, bigEndian: Boolean) {
+    view(offset, count * 8, bigEndian).asLongBuffer().put(src, srcIndex, count)
+}
+
+internal actual fun ByteArray.getDoubles(offset: Int, dest: DoubleArray, destIndex: Int, count: Int, bigEndian: Boolean) {
+    view(offset, count * 8, bigEndian).asDoubleBuffer().get(dest, destIndex, count)
+}
+
+internal actual fun ByteArray.putDoubles(offset: Int, src: DoubleArray, srcIndex: Int, count: Int, bigEndian: Boolean) {
+    view(offset, count * 8, bigEndian).asDoubleBuffer().put(src, srcIndex, count)
+}
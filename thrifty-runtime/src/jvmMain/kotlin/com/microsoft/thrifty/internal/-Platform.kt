@@ -26,3 +26,5 @@ import kotlinx.coroutines.Dispatchers
 actual typealias ProtocolException = java.net.ProtocolException
 
 actual val DefaultDispatcher: CoroutineDispatcher = Dispatchers.IO
+
+internal actual fun nanoTime(): Long = System.nanoTime()
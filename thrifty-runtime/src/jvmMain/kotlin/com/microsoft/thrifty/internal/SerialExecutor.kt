@@ -0,0 +1,96 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.internal
+
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+/**
+ * Runs tasks one at a time, in submission order, on a (possibly shared)
+ * underlying [Executor].
+ *
+ * At most one task from this executor is submitted to [delegate] at any
+ * given time, so tasks never run concurrently with one another, even when
+ * [delegate] has many threads.
+ */
+internal class SerialExecutor(
+        private val delegate: Executor
+) : Executor {
+    private val tasks = ArrayDeque<Runnable>()
+    private var active: Runnable? = null
+
+    @Synchronized
+    override fun execute(command: Runnable) {
+        tasks.offer(command)
+        if (active == null) {
+            val next = tasks.poll()
+            active = next
+            try {
+                delegate.execute(wrap(next))
+            } catch (e: RejectedExecutionException) {
+                active = null
+                throw e
+            }
+        }
+    }
+
+    private fun wrap(task: Runnable): Runnable {
+        return Runnable {
+            try {
+                task.run()
+            } finally {
+                scheduleNext()
+            }
+        }
+    }
+
+    /**
+     * Submits the next task, if any, once the active one has finished.
+     *
+     * If [delegate] rejects it, for example because it is shutting down,
+     * the remaining tasks are run on the current thread instead, so that
+     * none of them is stranded in the queue.
+     */
+    private fun scheduleNext() {
+        var failure: Throwable? = null
+        while (true) {
+            val rejected = synchronized(this) {
+                val next = tasks.poll()
+                active = next
+                try {
+                    next?.let { delegate.execute(wrap(it)) }
+                    null
+                } catch (e: RejectedExecutionException) {
+                    next
+                }
+            } ?: break
+            try {
+                rejected.run()
+            } catch (t: Throwable) {
+                if (failure == null) failure = t else failure.addSuppressed(t)
+            }
+        }
+        if (failure != null) {
+            throw failure
+        }
+    }
+}
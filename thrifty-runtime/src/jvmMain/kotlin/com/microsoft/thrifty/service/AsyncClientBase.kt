@@ -22,14 +22,24 @@ package com.microsoft.thrifty.service
 
 import com.microsoft.thrifty.Struct
 import com.microsoft.thrifty.ThriftException
+import com.microsoft.thrifty.internal.SerialExecutor
 import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.MethodCallMetrics.Outcome
+import kotlinx.coroutines.CancellableContinuation
 import java.io.Closeable
 import java.io.IOException
 import java.util.concurrent.BlockingQueue
 import java.util.concurrent.CancellationException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Implements a basic service client that executes methods asynchronously.
@@ -40,12 +50,39 @@ import java.util.concurrent.RejectedExecutionException
  * at the transport level.  If your backend requires framing, be sure to
  * configure your [Protocol] and [com.microsoft.thrifty.transport.Transport]
  * objects appropriately.
+ *
+ * By default, a single worker thread sends each call and waits for its
+ * response before sending the next.  When [ClientConfig.maxInFlightCalls]
+ * is greater than one, the client instead pipelines calls: a writer thread
+ * sends calls as soon as they are enqueued, up to the in-flight limit, while
+ * a reader thread matches each response to its call by sequence ID.
+ *
+ * Each client creates its own I/O and callback threads unless configured
+ * otherwise; see [ClientConfig.Builder.threadFactory] and
+ * [ClientConfig.Builder.callbackExecutor] to share them among clients.
+ *
+ * Calls wait in a queue until they can be sent.  The queue is unbounded
+ * unless [ClientConfig.Builder.maxQueuedCalls] says otherwise; its depth
+ * is reported by [queuedCalls].
  */
 @Suppress("UNCHECKED_CAST")
 actual open class AsyncClientBase protected actual constructor(
         protocol: Protocol,
-        private val listener: Listener
-) : ClientBase(protocol), Closeable {
+        private val listener: Listener,
+        config: ClientConfig
+) : ClientBase(protocol, config.metrics), Closeable {
+
+    protected actual constructor(
+            protocol: Protocol,
+            listener: Listener
+    ) : this(protocol, listener, ClientConfig.DEFAULT)
+
+    init {
+        require(config.maxOnewayBatchCalls == 1 || batchingTransport != null) {
+            "Batching oneway calls requires a BatchingTransport, such as a FramedTransport or BufferedTransport"
+        }
+    }
+
     /**
      * Exposes important events in the client's lifecycle.
      */
@@ -78,20 +115,88 @@ actual open class AsyncClientBase protected actual constructor(
     }
 
     /**
-     * A single-thread executor on which to invoke method callbacks.
-     *
+     * The executor on which to invoke method callbacks, if this client
+     * created it (and so must shut it down).
+     */
+    private val ownedCallbackExecutor: ExecutorService? = if (config.callbackExecutor == null) {
+        config.threadFactory
+                ?.let { Executors.newSingleThreadExecutor(it) }
+                ?: Executors.newSingleThreadExecutor()
+    } else {
+        null
+    }
+
+    /**
+     * The executor on which to invoke method callbacks.
      *
-     * I expect that we'll revisit this design choice; it guarantees
-     * that method responses won't race each other, but arguably that's
-     * a higher-level concern, and this does feel a bit heavy-handed.
+     * By default, this is a single-thread executor dedicated to this client,
+     * which guarantees that method responses won't race each other.  A shared
+     * executor may be configured instead; unless unordered callbacks are
+     * requested, it is wrapped so that this client's callbacks still run one
+     * at a time.
+     */
+    private val callbackExecutor: Executor = ownedCallbackExecutor
+            ?: config.callbackExecutor!!.let { if (config.orderedCallbacks) SerialExecutor(it) else it }
+
+    /**
+     * A queue holding RPC calls awaiting execution, bounded by
+     * [ClientConfig.maxQueuedCalls].
      */
-    private val callbackExecutor = Executors.newSingleThreadExecutor()
+    private val pendingCalls: BlockingQueue<MethodCall<*>> = LinkedBlockingQueue(config.maxQueuedCalls)
+
+    private val overflowPolicy = config.overflowPolicy
+
+    private val batchesOnewayCalls = config.maxOnewayBatchCalls > 1
+    private val maxOnewayBatchCalls = config.maxOnewayBatchCalls
+    private val maxOnewayBatchBytes = config.maxOnewayBatchBytes
+    private val onewayBatchLingerNanos = config.onewayBatchLingerNanos
 
     /**
-     * An unbounded queue holding RPC calls awaiting execution.
+     * When pipelining, whether calls already queued behind the one being
+     * sent are written along with it and flushed together.  This needs a
+     * [BatchingTransport][com.microsoft.thrifty.transport.BatchingTransport];
+     * other transports, like an HTTP transport that sends one request per
+     * flush, may not merge calls, and so flush each on its own.
      */
-    private val pendingCalls: BlockingQueue<MethodCall<*>> = LinkedBlockingQueue()
-    private val workerThread: WorkerThread
+    private val coalescesWrites = batchingTransport != null
+
+    /**
+     * When pipelining, calls that have been sent and are awaiting a
+     * response, keyed by sequence ID.
+     */
+    private val inFlightCalls = ConcurrentHashMap<Int, MethodCall<*>>()
+
+    /**
+     * When pipelining, limits the number of calls awaiting a response.
+     */
+    private val inFlightPermits = Semaphore(config.maxInFlightCalls)
+
+    /**
+     * When pipelining, counts the responses the reader has yet to read.
+     * The reader only reads when a response is expected, so that an idle
+     * connection doesn't trip a transport's read timeout.
+     */
+    private val expectedResponses = Semaphore(0)
+
+    private val interceptors = config.interceptors
+
+    private val workerThread: Thread
+    private val readerThread: Thread?
+
+    private val outstanding = AtomicInteger(0)
+
+    /**
+     * The number of calls that have been enqueued, but whose callbacks have
+     * not yet been dispatched.
+     */
+    val outstandingCalls: Int
+        get() = outstanding.get()
+
+    /**
+     * The number of calls waiting to be sent.
+     */
+    val queuedCalls: Int
+        get() = pendingCalls.size
 
     /**
      * When invoked by a derived instance, places the given call in a queue to
@@ -100,10 +205,79 @@ actual open class AsyncClientBase protected actual constructor(
      * @param methodCall the remote method call to be invoked
      */
     protected actual fun enqueue(methodCall: MethodCall<*>) {
+        if (interceptors.isEmpty()) {
+            queue(methodCall, methodCall)
+        } else {
+            check(running.get()) { "Cannot write to a closed service client" }
+            interceptors.intercept(methodCall) { queue(it, methodCall) }
+        }
+    }
+
+    protected actual fun enqueue(methodCall: MethodCall<*>, continuation: CancellableContinuation<*>) {
+        continuation.invokeOnCancellation {
+            methodCall.cancelled.compareAndSet(false, true)
+            val queued = methodCall.queued
+            if (queued != null && pendingCalls.remove(queued)) {
+                // Free its place in the queue now; nobody awaits its callback.
+                outstanding.decrementAndGet()
+                finishRecording(queued, Outcome.FAILURE)
+            }
+        }
+        enqueue(methodCall)
+    }
+
+    /**
+     * Places the given call, which has passed through any interceptors, in
+     * the queue on behalf of the [original] call that was enqueued.
+     */
+    private fun queue(methodCall: MethodCall<*>, original: MethodCall<*>) {
         check(running.get()) { "Cannot write to a closed service client" }
-        check(pendingCalls.offer(methodCall)) {
-            // This should never happen with an unbounded queue
-            "Call queue is full"
+        startRecording(methodCall)
+        outstanding.incrementAndGet()
+        original.queued = methodCall
+        try {
+            offer(methodCall)
+        } catch (e: RejectedExecutionException) {
+            outstanding.decrementAndGet()
+            finishRecording(methodCall, Outcome.FAILURE)
+            throw e
+        }
+
+        if (!running.get() && pendingCalls.remove(methodCall)) {
+            // close() may have already drained the queue
+            fail(methodCall, CancellationException())
+        } else if (methodCall.cancelled.get() && pendingCalls.remove(methodCall)) {
+            // Cancelled before it was queued, too early to remove it then.
+            outstanding.decrementAndGet()
+            finishRecording(methodCall, Outcome.FAILURE)
+        }
+    }
+
+    /**
+     * Adds the given call to the queue, applying the overflow policy if it
+     * is full.
+     */
+    private fun offer(methodCall: MethodCall<*>) {
+        if (pendingCalls.offer(methodCall)) {
+            return
+        }
+
+        when (overflowPolicy) {
+            ClientConfig.OverflowPolicy.BLOCK -> try {
+                pendingCalls.put(methodCall)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw RejectedExecutionException("Interrupted while waiting for room in the call queue", e)
+            }
+            ClientConfig.OverflowPolicy.FAIL_FAST -> {
+                throw RejectedExecutionException("Call queue is full")
+            }
+            ClientConfig.OverflowPolicy.DROP_OLDEST -> {
+                while (!pendingCalls.offer(methodCall)) {
+                    val oldest = pendingCalls.poll() ?: continue
+                    fail(oldest, RejectedExecutionException("Dropped from a full call queue"))
+                }
+            }
         }
     }
 
@@ -117,6 +291,7 @@ actual open class AsyncClientBase protected actual constructor(
             return
         }
         workerThread.interrupt()
+        readerThread?.interrupt()
         closeProtocol()
         if (!pendingCalls.isEmpty()) {
             val incompleteCalls = mutableListOf<MethodCall<*>>()
@@ -130,28 +305,47 @@ actual open class AsyncClientBase protected actual constructor(
                 }
             }
         }
-        callbackExecutor.execute {
+        for (sid in inFlightCalls.keys) {
+            val call = inFlightCalls.remove(sid) ?: continue
+            try {
+                fail(call, error ?: CancellationException())
+            } catch (ignored: Exception) {
+                // nope
+            }
+        }
+        val notifyListener = Runnable {
             if (error != null) {
                 listener.onError(error)
             } else {
                 listener.onTransportClosed()
             }
         }
+        try {
+            callbackExecutor.execute(notifyListener)
+        } catch (e: RejectedExecutionException) {
+            // A shared callback executor has been shut down; there's
+            // nowhere else to deliver the event.
+            notifyListener.run()
+        }
         try {
             // Shut down, but let queued tasks finish.
             // Don't terminate!
-            callbackExecutor.shutdown()
+            ownedCallbackExecutor?.shutdown()
         } catch (ignored: Exception) {
             // nope
         }
     }
 
-    private inner class WorkerThread : Thread() {
+    /**
+     * Runs the loop until the client is closed or the loop fails, then
+     * closes the client.
+     */
+    private abstract inner class Loop : Runnable {
         override fun run() {
             var error: Throwable? = null
             while (running.get()) {
                 try {
-                    invokeRequest()
+                    runOnce()
                 } catch (e: Throwable) {
                     error = e
                     break
@@ -164,66 +358,278 @@ actual open class AsyncClientBase protected actual constructor(
             }
         }
 
+        @Throws(Exception::class)
+        abstract fun runOnce()
+    }
+
+    /**
+     * Sends each call and waits for its response before sending the next.
+     */
+    private inner class WorkerLoop : Loop() {
         @Throws(ThriftException::class, IOException::class, InterruptedException::class)
-        private fun invokeRequest() {
-            val call = pendingCalls.take()
-            if (!running.get()) {
+        override fun runOnce() {
+            var call = pendingCalls.take()
+            if (batchesOnewayCalls && call.callTypeId == TMessageType.ONEWAY) {
+                call = sendOnewayBatch(call) ?: return
+            }
+            if (!running.get() || call.cancelled.get()) {
                 fail(call, CancellationException())
                 return
             }
 
-            var result: Any? = null
-            var error: Exception? = null
+            deliver(call) { invokeRequest(call) }
+        }
+    }
+
+    /**
+     * Sends calls as they are enqueued, as long as fewer than the maximum
+     * number of calls are awaiting a response.
+     */
+    private inner class WriterLoop : Loop() {
+        @Throws(ThriftException::class, IOException::class, InterruptedException::class)
+        override fun runOnce() {
+            var call = pendingCalls.take()
+            if (batchesOnewayCalls && call.callTypeId == TMessageType.ONEWAY) {
+                call = sendOnewayBatch(call) ?: return
+            }
+            if (!running.get() || call.cancelled.get()) {
+                fail(call, CancellationException())
+                return
+            }
+
+            val sid = nextSeqId()
+            if (call.callTypeId == TMessageType.ONEWAY) {
+                deliver(call) { writeRequest(call, sid) }
+                return
+            }
+
+            inFlightPermits.acquire()
+            if (call.cancelled.get()) {
+                // Cancelled while waiting for a permit; never sent.
+                inFlightPermits.release()
+                fail(call, CancellationException())
+                return
+            }
+            inFlightCalls[sid] = call
+            if (!running.get()) {
+                // close() may have already drained the table
+                inFlightCalls.remove(sid)?.let { fail(it, CancellationException()) }
+                return
+            }
+
+            if (coalescesWrites) {
+                sendCoalesced(call, sid)
+                return
+            }
+
             try {
-                result = this@AsyncClientBase.invokeRequest(call)
-            } catch (e: IOException) {
-                fail(call, e)
-                throw e
-            } catch (e: RuntimeException) {
-                fail(call, e)
-                throw e
-            } catch (e: ServerException) {
-                error = e.thriftException
+                writeRequest(call, sid)
             } catch (e: Exception) {
-                error = if (e is Struct) {
-                    e
-                } else {
-                    // invokeRequest should only throw one of the caught Exception types or
-                    // an Exception extending Struct from MethodCall
-                    throw AssertionError("Unexpected exception", e)
+                inFlightCalls.remove(sid)?.let { fail(it, e) }
+                throw e
+            }
+            expectedResponses.release()
+        }
+    }
+
+    /**
+     * Reads responses and matches them to in-flight calls by sequence ID,
+     * in whatever order the server sends them.
+     */
+    private inner class ReaderLoop : Loop() {
+        @Throws(ThriftException::class, IOException::class, InterruptedException::class)
+        override fun runOnce() {
+            expectedResponses.acquire()
+            val metadata = readMessageBegin()
+            val call = inFlightCalls.remove(metadata.seqId) ?: throw ThriftException(
+                    ThriftException.Kind.BAD_SEQUENCE_ID,
+                    "Unrecognized sequence ID")
+            inFlightPermits.release()
+
+            deliver(call) { readResponse(call, metadata) }
+        }
+    }
+
+    /**
+     * Writes the given in-flight call, along with any calls already waiting
+     * in the queue for which an in-flight permit is available, then flushes
+     * them all at once.  The reader matches their responses as usual.
+     */
+    @Throws(IOException::class)
+    private fun sendCoalesced(first: MethodCall<*>, firstSeqId: Int) {
+        val written = mutableListOf<MethodCall<*>>(first)
+        val seqIds = mutableListOf(firstSeqId)
+        val oneway = mutableListOf<MethodCall<*>>()
+        try {
+            writeBatchedRequest(first, firstSeqId)
+            while (running.get() && inFlightPermits.tryAcquire()) {
+                val next = pendingCalls.poll()
+                if (next == null || next.callTypeId == TMessageType.ONEWAY || next.cancelled.get()) {
+                    // No response will be awaited
+                    inFlightPermits.release()
+                }
+                when {
+                    next == null -> break
+                    next.cancelled.get() -> fail(next, CancellationException())
+                    next.callTypeId == TMessageType.ONEWAY -> {
+                        written += next
+                        oneway += next
+                        writeBatchedRequest(next, nextSeqId())
+                    }
+                    else -> {
+                        val sid = nextSeqId()
+                        inFlightCalls[sid] = next
+                        if (!running.get()) {
+                            inFlightCalls.remove(sid)?.let { fail(it, CancellationException()) }
+                            break
+                        }
+                        written += next
+                        seqIds += sid
+                        writeBatchedRequest(next, sid)
+                    }
                 }
             }
+            flushRequests(written)
+        } catch (e: Exception) {
+            for (sid in seqIds) {
+                inFlightCalls.remove(sid)?.let { fail(it, e) }
+            }
+            for (call in oneway) {
+                fail(call, e)
+            }
+            throw e
+        }
 
-            try {
-                if (error != null) {
-                    fail(call, error)
-                } else {
-                    complete(call, result)
+        expectedResponses.release(seqIds.size)
+        for (call in oneway) {
+            deliver(call) { Unit }
+        }
+    }
+
+    /**
+     * Writes the given oneway call and any that follow it in the queue,
+     * within the limits of the batching configuration, then flushes them
+     * all at once.
+     *
+     * @return the first call taken from the queue that could not join the
+     * batch, because it is not oneway, or `null`.
+     */
+    @Throws(IOException::class, InterruptedException::class)
+    private fun sendOnewayBatch(first: MethodCall<*>): MethodCall<*>? {
+        val batch = mutableListOf<MethodCall<*>>()
+        val startBytes = bytesWritten
+        val lingerDeadline = System.nanoTime() + onewayBatchLingerNanos
+        var next: MethodCall<*>? = first
+        var notOneway: MethodCall<*>? = null
+        try {
+            while (next != null) {
+                if (next.callTypeId != TMessageType.ONEWAY) {
+                    notOneway = next
+                    break
                 }
-            } catch (e: RejectedExecutionException) {
-                // The client has been closed out from underneath; as there will
-                // be no further use for this thread, no harm in running it
-                // synchronously.
-                if (error != null) {
-                    call.callback!!.onError(error)
+                if (!running.get() || next.cancelled.get()) {
+                    fail(next, CancellationException())
                 } else {
-                    (call.callback as ServiceMethodCallback<Any?>).onSuccess(result)
+                    batch += next
+                    writeBatchedRequest(next, nextSeqId())
+                }
+                if (batch.size >= maxOnewayBatchCalls || bytesWritten - startBytes >= maxOnewayBatchBytes) {
+                    break
                 }
+
+                val linger = lingerDeadline - System.nanoTime()
+                next = if (linger > 0) pendingCalls.poll(linger, TimeUnit.NANOSECONDS) else pendingCalls.poll()
+            }
+            flushRequests(batch)
+        } catch (e: Exception) {
+            val error = if (e is InterruptedException) CancellationException() else e
+            for (call in batch) {
+                fail(call, error)
+            }
+            notOneway?.let { fail(it, error) }
+            throw e
+        }
+
+        for (call in batch) {
+            deliver(call) { Unit }
+        }
+        return notOneway
+    }
+
+    /**
+     * Invokes [request] and delivers its outcome to the given call's
+     * callback.  Errors that leave the connection unusable are rethrown,
+     * after failing the call.
+     */
+    @Throws(IOException::class)
+    private inline fun deliver(call: MethodCall<*>, request: () -> Any?) {
+        var result: Any? = null
+        var error: Exception? = null
+        var outcome = Outcome.SUCCESS
+        try {
+            result = request()
+        } catch (e: IOException) {
+            fail(call, e)
+            throw e
+        } catch (e: RuntimeException) {
+            fail(call, e)
+            throw e
+        } catch (e: ServerException) {
+            error = e.thriftException
+            outcome = Outcome.APPLICATION_EXCEPTION
+        } catch (e: Exception) {
+            outcome = Outcome.DECLARED_EXCEPTION
+            error = if (e is Struct) {
+                e
+            } else {
+                // invokeRequest should only throw one of the caught Exception types or
+                // an Exception extending Struct from MethodCall
+                throw AssertionError("Unexpected exception", e)
+            }
+        }
+
+        try {
+            if (error != null) {
+                fail(call, error, outcome)
+            } else {
+                complete(call, result)
+            }
+        } catch (e: RejectedExecutionException) {
+            // The client has been closed out from underneath; as there will
+            // be no further use for this thread, no harm in running it
+            // synchronously.
+            if (error != null) {
+                call.callback!!.onError(error)
+            } else {
+                (call.callback as ServiceMethodCallback<Any?>?)?.onSuccess(result)
             }
         }
     }
 
     private fun complete(call: MethodCall<*>, result: Any?) {
-        callbackExecutor.execute { (call.callback as ServiceMethodCallback<Any?>).onSuccess(result) }
+        finishRecording(call, Outcome.SUCCESS)
+        outstanding.decrementAndGet()
+        callbackExecutor.execute { (call.callback as ServiceMethodCallback<Any?>?)?.onSuccess(result) }
     }
 
-    private fun fail(call: MethodCall<*>, error: Throwable) {
-        callbackExecutor.execute { call.callback!!.onError(error) }
+    private fun fail(call: MethodCall<*>, error: Throwable, outcome: Outcome = Outcome.FAILURE) {
+        finishRecording(call, outcome)
+        outstanding.decrementAndGet()
+        callbackExecutor.execute { call.callback?.onError(error) }
     }
 
     init {
-        workerThread = WorkerThread()
-        workerThread.isDaemon = true
+        val threadFactory = config.threadFactory ?: ThreadFactory { loop ->
+            Thread(loop).apply { isDaemon = true }
+        }
+        if (config.maxInFlightCalls > 1) {
+            workerThread = threadFactory.newThread(WriterLoop())
+            readerThread = threadFactory.newThread(ReaderLoop())
+        } else {
+            workerThread = threadFactory.newThread(WorkerLoop())
+            readerThread = null
+        }
         workerThread.start()
+        readerThread?.start()
     }
 }
@@ -0,0 +1,243 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+actual class ClientConfig internal actual constructor(
+        builder: Builder
+) {
+    actual val maxInFlightCalls: Int = builder.maxInFlightCalls
+
+    actual val interceptors: List<ClientInterceptor> = builder.interceptors.toList()
+
+    /**
+     * Creates the threads on which a client performs I/O, or `null` to use
+     * daemon platform threads.
+     */
+    val threadFactory: ThreadFactory? = builder.threadFactory
+
+    /**
+     * The executor on which method callbacks are invoked, or `null` to give
+     * each client a dedicated callback thread.
+     */
+    val callbackExecutor: Executor? = builder.callbackExecutor
+
+    /**
+     * Whether callbacks from each client are invoked one at a time, in the
+     * order their calls completed, when using a shared [callbackExecutor].
+     */
+    val orderedCallbacks: Boolean = builder.orderedCallbacks
+
+    /**
+     * Where each call's latency, size and outcome are reported.
+     */
+    val metrics: MethodMetrics = builder.metrics
+
+    /**
+     * The maximum number of calls that may wait to be sent, or
+     * [Int.MAX_VALUE] if the queue is unbounded.
+     */
+    val maxQueuedCalls: Int = builder.maxQueuedCalls
+
+    /**
+     * What happens to a call made when [maxQueuedCalls] calls are already
+     * waiting to be sent.
+     */
+    val overflowPolicy: OverflowPolicy = builder.overflowPolicy
+
+    /**
+     * The maximum number of consecutive oneway calls written before a single
+     * flush; 1 if oneway calls are not batched.
+     */
+    val maxOnewayBatchCalls: Int = builder.maxOnewayBatchCalls
+
+    /**
+     * The number of bytes of oneway calls after which a batch is flushed.
+     */
+    val maxOnewayBatchBytes: Long = builder.maxOnewayBatchBytes
+
+    /**
+     * How long, in nanoseconds, a batch of oneway calls waits for more calls
+     * before it is flushed.
+     */
+    val onewayBatchLingerNanos: Long = builder.onewayBatchLingerNanos
+
+    /**
+     * What a client does with a call made while its queue is full.
+     */
+    enum class OverflowPolicy {
+        /**
+         * The caller blocks until there is room in the queue.  Coroutine
+         * callers block their thread, not just their coroutine.
+         */
+        BLOCK,
+
+        /**
+         * The call is rejected: enqueuing it throws a
+         * [java.util.concurrent.RejectedExecutionException].
+         */
+        FAIL_FAST,
+
+        /**
+         * The oldest queued call is dropped to make room, and fails with a
+         * [java.util.concurrent.RejectedExecutionException].
+         */
+        DROP_OLDEST,
+    }
+
+    actual class Builder actual constructor() {
+        internal var maxInFlightCalls = 1
+        internal var threadFactory: ThreadFactory? = null
+        internal var callbackExecutor: Executor? = null
+        internal var orderedCallbacks = true
+        internal var metrics = MethodMetrics.NONE
+        internal val interceptors = mutableListOf<ClientInterceptor>()
+        internal var maxQueuedCalls = Int.MAX_VALUE
+        internal var overflowPolicy = OverflowPolicy.BLOCK
+        internal var maxOnewayBatchCalls = 1
+        internal var maxOnewayBatchBytes = Long.MAX_VALUE
+        internal var onewayBatchLingerNanos = 0L
+
+        actual fun maxInFlightCalls(maxInFlightCalls: Int): Builder {
+            require(maxInFlightCalls > 0) { "maxInFlightCalls must be positive" }
+            this.maxInFlightCalls = maxInFlightCalls
+            return this
+        }
+
+        /**
+         * Creates the threads on which clients perform blocking I/O; each
+         * client needs one such thread, or two when pipelining.
+         *
+         * Unless a [callbackExecutor] is also given, each client's callback
+         * thread is created by this factory too.
+         */
+        fun threadFactory(threadFactory: ThreadFactory): Builder {
+            this.threadFactory = threadFactory
+            return this
+        }
+
+        /**
+         * Uses virtual threads for I/O and, unless a [callbackExecutor] is
+         * given, for callbacks, so that the number of clients no longer
+         * dictates the number of platform threads.
+         *
+         * @throws UnsupportedOperationException if the JVM does not support
+         * virtual threads (JDK 21 and later do).
+         */
+        fun virtualThreads(): Builder {
+            val factory = try {
+                val builder = Thread::class.java.getMethod("ofVirtual").invoke(null)
+                Class.forName("java.lang.Thread\$Builder").getMethod("factory").invoke(builder) as ThreadFactory
+            } catch (e: ReflectiveOperationException) {
+                throw UnsupportedOperationException("Virtual threads require JDK 21 or later", e)
+            }
+            return threadFactory(factory)
+        }
+
+        /**
+         * Invokes method callbacks and listener events on the given executor,
+         * which may be shared among many clients and is not shut down when a
+         * client is closed.
+         *
+         * When [ordered] is true (the default), each client's callbacks are
+         * still invoked one at a time, in the order their calls completed.
+         * Otherwise, callbacks may run concurrently and in any order.
+         */
+        @JvmOverloads
+        fun callbackExecutor(executor: Executor, ordered: Boolean = true): Builder {
+            this.callbackExecutor = executor
+            this.orderedCallbacks = ordered
+            return this
+        }
+
+        /**
+         * Reports the latency, size and outcome of each call to the given
+         * [MethodMetrics].  Defaults to [MethodMetrics.NONE], in which case
+         * calls are not measured.
+         *
+         * Each call is reported before its callback is dispatched, usually
+         * on one of the client's I/O threads.
+         */
+        fun metrics(metrics: MethodMetrics): Builder {
+            this.metrics = metrics
+            return this
+        }
+
+        /**
+         * Bounds the number of calls that may wait to be sent, so that a burst
+         * of calls against a slow server pushes back on the callers instead
+         * of growing without limit.  Calls beyond the bound are handled
+         * according to [policy].  By default, the queue is unbounded.
+         */
+        @JvmOverloads
+        fun maxQueuedCalls(maxQueuedCalls: Int, policy: OverflowPolicy = OverflowPolicy.BLOCK): Builder {
+            require(maxQueuedCalls > 0) { "maxQueuedCalls must be positive" }
+            this.maxQueuedCalls = maxQueuedCalls
+            this.overflowPolicy = policy
+            return this
+        }
+
+        /**
+         * Writes consecutive oneway calls back to back and flushes them
+         * together, rather than flushing each on its own, to save syscalls
+         * and packets when many oneway calls are made.
+         *
+         * A batch is flushed once it holds [maxCalls] calls or at least
+         * [maxBytes] bytes, or once no further oneway call is queued within
+         * [linger] of the batch's first call; a call that is not oneway
+         * flushes the batch ahead of it.  Oneway callbacks are invoked once
+         * their batch has been flushed.
+         *
+         * Batching requires a [com.microsoft.thrifty.transport.BatchingTransport],
+         * such as a [com.microsoft.thrifty.transport.FramedTransport] or a
+         * [com.microsoft.thrifty.transport.BufferedTransport]; a client
+         * configured to batch on any other transport fails to be created.
+         * [maxBytes] only applies when the transport also counts bytes, as
+         * both of those do.
+         */
+        fun batchOnewayCalls(maxCalls: Int, maxBytes: Long, linger: Long, unit: TimeUnit): Builder {
+            require(maxCalls > 0) { "maxCalls must be positive" }
+            require(maxBytes > 0) { "maxBytes must be positive" }
+            require(linger >= 0) { "linger must not be negative" }
+            this.maxOnewayBatchCalls = maxCalls
+            this.maxOnewayBatchBytes = maxBytes
+            this.onewayBatchLingerNanos = unit.toNanos(linger)
+            return this
+        }
+
+        actual fun addInterceptor(interceptor: ClientInterceptor): Builder {
+            interceptors += interceptor
+            return this
+        }
+
+        actual fun build(): ClientConfig {
+            return ClientConfig(this)
+        }
+    }
+
+    actual companion object {
+        @JvmField
+        actual val DEFAULT: ClientConfig = Builder().build()
+    }
+}
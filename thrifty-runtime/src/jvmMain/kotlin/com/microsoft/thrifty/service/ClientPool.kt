@@ -0,0 +1,365 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+import com.microsoft.thrifty.protocol.Protocol
+import java.io.Closeable
+import java.io.IOException
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Spreads calls across a fixed number of service clients, each with its
+ * own connection.
+ *
+ * Each call to [client] returns the connected client with the fewest
+ * outstanding calls; invoke service methods on it as usual.  This works
+ * equally well for callback-based and coroutine-based generated clients:
+ *
+ * ```kotlin
+ * val pool = ClientPool.Builder(
+ *     protocolFactory = {
+ *         val transport = SocketTransport.Builder(host, port).build().apply { connect() }
+ *         CompactProtocol(FramedTransport(transport))
+ *     },
+ *     clientFactory = { protocol, listener -> GoogleClient(protocol, listener) }
+ * ).size(4).build()
+ *
+ * val results = pool.client().search(query)
+ * ```
+ *
+ * When a client's connection fails, or the client is closed, it is
+ * replaced in the background.  Reconnection attempts back off
+ * exponentially, from [Builder.initialReconnectDelay] up to
+ * [Builder.maxReconnectDelay], for as long as the pool remains open.
+ *
+ * Calls already made on a failed client are not retried; their callbacks
+ * receive the client's error as usual.
+ */
+class ClientPool<C : AsyncClientBase> private constructor(
+        builder: Builder<C>
+) : Closeable {
+    /**
+     * Creates connected protocols, one per pooled client.
+     */
+    fun interface ProtocolFactory {
+        @Throws(IOException::class)
+        fun create(): Protocol
+    }
+
+    /**
+     * Creates a service client, given a connected protocol and a listener
+     * through which the pool observes the client's lifecycle.
+     */
+    fun interface ClientFactory<C : AsyncClientBase> {
+        fun create(protocol: Protocol, listener: AsyncClientBase.Listener): C
+    }
+
+    /**
+     * A point-in-time snapshot of a pool's state.
+     */
+    class Metrics internal constructor(
+            /**
+             * The number of clients the pool maintains.
+             */
+            val size: Int,
+
+            /**
+             * The number of clients that are currently connected.
+             */
+            val connectedClients: Int,
+
+            /**
+             * The number of calls awaiting completion across all connected clients.
+             */
+            val outstandingCalls: Int,
+
+            /**
+             * The number of connections successfully established, including reconnections.
+             */
+            val connects: Long,
+
+            /**
+             * The number of failed attempts to establish a connection.
+             */
+            val connectFailures: Long,
+
+            /**
+             * The number of times a connected client has failed or been closed.
+             */
+            val disconnects: Long
+    ) {
+        override fun toString(): String {
+            return "ClientPool.Metrics(size=$size, connectedClients=$connectedClients, " +
+                    "outstandingCalls=$outstandingCalls, connects=$connects, " +
+                    "connectFailures=$connectFailures, disconnects=$disconnects)"
+        }
+    }
+
+    private val protocolFactory = builder.protocolFactory
+    private val clientFactory = builder.clientFactory
+    private val initialReconnectDelayMillis = builder.initialReconnectDelayMillis
+    private val maxReconnectDelayMillis = builder.maxReconnectDelayMillis
+
+    private val closed = AtomicBoolean(false)
+    private val nextSlot = AtomicInteger(0)
+    private val connects = AtomicLong(0)
+    private val connectFailures = AtomicLong(0)
+    private val disconnects = AtomicLong(0)
+
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "thrifty-client-pool").apply { isDaemon = true }
+    }
+
+    private val slots = List(builder.size) { Slot() }
+
+    init {
+        for (slot in slots) {
+            slot.connect()
+        }
+    }
+
+    /**
+     * Returns the connected client with the fewest outstanding calls.
+     *
+     * @throws IllegalStateException if the pool is closed, or no client is
+     * currently connected.
+     */
+    fun client(): C {
+        check(!closed.get()) { "Cannot use a closed client pool" }
+
+        // Start from a rotating offset so that idle clients share the load.
+        val offset = nextSlot.getAndIncrement() and Int.MAX_VALUE
+        var best: C? = null
+        for (i in slots.indices) {
+            val client = slots[(offset + i) % slots.size].client ?: continue
+            if (!client.running.get()) {
+                continue
+            }
+            if (best == null || client.outstandingCalls < best.outstandingCalls) {
+                best = client
+            }
+        }
+        return checkNotNull(best) { "No connected clients are available" }
+    }
+
+    /**
+     * Returns a snapshot of this pool's state.
+     */
+    fun metrics(): Metrics {
+        var connected = 0
+        var outstanding = 0
+        for (slot in slots) {
+            val client = slot.client ?: continue
+            if (client.running.get()) {
+                connected++
+                outstanding += client.outstandingCalls
+            }
+        }
+        return Metrics(
+                size = slots.size,
+                connectedClients = connected,
+                outstandingCalls = outstanding,
+                connects = connects.get(),
+                connectFailures = connectFailures.get(),
+                disconnects = disconnects.get())
+    }
+
+    /**
+     * Closes every client in the pool and stops reconnecting.
+     */
+    override fun close() {
+        if (!closed.compareAndSet(false, true)) {
+            return
+        }
+        scheduler.shutdownNow()
+        for (slot in slots) {
+            slot.close()
+        }
+    }
+
+    /**
+     * Holds one pooled client, replacing it when it disconnects.
+     */
+    private inner class Slot {
+        private val current = AtomicReference<C?>(null)
+        private var consecutiveFailures = 0
+
+        val client: C?
+            get() = current.get()
+
+        fun connect() {
+            if (closed.get()) {
+                return
+            }
+
+            val listener = SlotListener(this)
+            var protocol: Protocol? = null
+            val client = try {
+                protocol = protocolFactory.create()
+                clientFactory.create(protocol, listener)
+            } catch (e: Exception) {
+                try {
+                    protocol?.close()
+                } catch (ignored: IOException) {
+                    // nope
+                }
+                connectFailures.incrementAndGet()
+                scheduleReconnect(consecutiveFailures++)
+                return
+            }
+
+            connects.incrementAndGet()
+            consecutiveFailures = 0
+            current.set(client)
+            listener.client = client
+
+            if (closed.get()) {
+                close()
+            }
+        }
+
+        fun onDisconnected(client: C) {
+            if (current.compareAndSet(client, null)) {
+                disconnects.incrementAndGet()
+                scheduleReconnect(0)
+            }
+        }
+
+        fun close() {
+            val client = current.getAndSet(null) ?: return
+            try {
+                client.close()
+            } catch (ignored: IOException) {
+                // nope
+            }
+        }
+
+        /**
+         * Schedules a reconnect after [failures] consecutive failed attempts,
+         * doubling the initial delay for each one.
+         */
+        private fun scheduleReconnect(failures: Int) {
+            if (closed.get()) {
+                return
+            }
+            val shift = minOf(failures, 30)
+            val delay = minOf(initialReconnectDelayMillis shl shift, maxReconnectDelayMillis)
+            try {
+                scheduler.schedule({ connect() }, delay, TimeUnit.MILLISECONDS)
+            } catch (ignored: RejectedExecutionException) {
+                // The pool was closed concurrently
+            }
+        }
+    }
+
+    /**
+     * Observes a single client; each connection attempt gets its own
+     * listener, so that events from a replaced client are ignored.
+     */
+    private inner class SlotListener(private val slot: Slot) : AsyncClientBase.Listener {
+        @Volatile
+        private var disconnected = false
+
+        @Volatile
+        var client: C? = null
+            set(value) {
+                field = value
+                if (disconnected && value != null) {
+                    slot.onDisconnected(value)
+                }
+            }
+
+        override fun onTransportClosed() {
+            onDisconnected()
+        }
+
+        override fun onError(error: Throwable) {
+            onDisconnected()
+        }
+
+        private fun onDisconnected() {
+            disconnected = true
+            client?.let { slot.onDisconnected(it) }
+        }
+    }
+
+    /**
+     * Configures and creates a [ClientPool].
+     *
+     * @param protocolFactory creates a connected protocol for each client.
+     * @param clientFactory creates a service client from a protocol and listener.
+     */
+    class Builder<C : AsyncClientBase>(
+            internal val protocolFactory: ProtocolFactory,
+            internal val clientFactory: ClientFactory<C>
+    ) {
+        internal var size = 4
+        internal var initialReconnectDelayMillis = 100L
+        internal var maxReconnectDelayMillis = 30_000L
+
+        /**
+         * The number of clients, and hence connections, to maintain.  Defaults to 4.
+         */
+        fun size(size: Int): Builder<C> {
+            require(size > 0) { "size must be positive" }
+            this.size = size
+            return this
+        }
+
+        /**
+         * The delay before the first attempt to replace a failed connection.
+         * Defaults to 100 milliseconds.
+         */
+        fun initialReconnectDelay(delay: Long, unit: TimeUnit): Builder<C> {
+            require(delay > 0) { "delay must be positive" }
+            this.initialReconnectDelayMillis = unit.toMillis(delay)
+            return this
+        }
+
+        /**
+         * The longest delay between consecutive reconnection attempts.
+         * Defaults to 30 seconds.
+         */
+        fun maxReconnectDelay(delay: Long, unit: TimeUnit): Builder<C> {
+            require(delay > 0) { "delay must be positive" }
+            this.maxReconnectDelayMillis = unit.toMillis(delay)
+            return this
+        }
+
+        /**
+         * Creates the pool, connecting its clients.  Clients whose initial
+         * connection fails are connected in the background.
+         */
+        fun build(): ClientPool<C> {
+            require(maxReconnectDelayMillis >= initialReconnectDelayMillis) {
+                "maxReconnectDelay must not be less than initialReconnectDelay"
+            }
+            return ClientPool(this)
+        }
+    }
+}
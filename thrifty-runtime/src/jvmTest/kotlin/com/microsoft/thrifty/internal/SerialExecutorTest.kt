@@ -0,0 +1,80 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.internal
+
+import io.kotest.matchers.shouldBe
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+
+class SerialExecutorTest {
+    @Test
+    fun tasksRunInOrder() {
+        val ran = CopyOnWriteArrayList<Int>()
+        val done = CountDownLatch(10)
+        val executor = SerialExecutor(Executor { Thread(it).start() })
+
+        for (i in 0 until 10) {
+            executor.execute {
+                ran += i
+                done.countDown()
+            }
+        }
+
+        done.await(5, TimeUnit.SECONDS) shouldBe true
+        ran shouldBe (0 until 10).toList()
+    }
+
+    @Test
+    fun queuedTasksRunWhenTheDelegateRejectsThem() {
+        val ran = CopyOnWriteArrayList<Int>()
+        val release = CountDownLatch(1)
+        val done = CountDownLatch(3)
+        var accepting = true
+        val delegate = Executor {
+            if (!accepting) throw RejectedExecutionException("Shut down")
+            accepting = false
+            Thread(it).start()
+        }
+        val executor = SerialExecutor(delegate)
+
+        executor.execute {
+            release.await()
+            ran += 0
+            done.countDown()
+        }
+        executor.execute {
+            ran += 1
+            done.countDown()
+        }
+        executor.execute {
+            ran += 2
+            done.countDown()
+        }
+        release.countDown()
+
+        done.await(5, TimeUnit.SECONDS) shouldBe true
+        ran shouldBe listOf(0, 1, 2)
+    }
+}
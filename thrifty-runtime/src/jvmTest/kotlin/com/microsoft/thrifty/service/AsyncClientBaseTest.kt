@@ -0,0 +1,701 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+import com.microsoft.thrifty.ThriftException
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.MessageMetadata
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.transport.BufferedTransport
+import com.microsoft.thrifty.transport.FramedTransport
+import com.microsoft.thrifty.transport.Transport
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
+import okio.Pipe
+import okio.Sink
+import okio.Source
+import java.io.InterruptedIOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlin.test.AfterTest
+import kotlin.test.Test
+
+class AsyncClientBaseTest {
+    private val toServer = Pipe(1L shl 16)
+    private val toClient = Pipe(1L shl 16)
+    private val server = BinaryProtocol(DuplexTransport(toServer.source, toClient.sink))
+    private val clientProtocol = BinaryProtocol(DuplexTransport(toClient.source, toServer.sink))
+    private val events = ArrayBlockingQueue<Any>(16)
+    private val results = ArrayBlockingQueue<Any>(16)
+    private val callbackThreads = ArrayBlockingQueue<Thread>(16)
+
+    private lateinit var client: EchoClient
+
+    @AfterTest
+    fun tearDown() {
+        client.close()
+    }
+
+    @Test
+    fun pipelinedResponsesAreMatchedBySequenceId() {
+        client = EchoClient(pipelined(4))
+        for (i in 1..4) {
+            client.echo(i)
+        }
+
+        // All four requests are written before any response is sent.
+        val requests = List(4) { readRequest() }
+        requests.map { it.second } shouldBe listOf(1, 2, 3, 4)
+
+        for ((metadata, value) in requests.reversed()) {
+            reply(metadata, value * 10)
+        }
+
+        List(4) { nextResult() }.toSet() shouldBe setOf(10, 20, 30, 40)
+    }
+
+    @Test
+    fun pipelinedClientRespectsInFlightLimit() {
+        client = EchoClient(pipelined(2))
+        for (i in 1..3) {
+            client.echo(i)
+        }
+
+        val first = readRequest()
+        val second = readRequest()
+        toServer.source.timeout().timeout(200, TimeUnit.MILLISECONDS)
+        shouldThrow<InterruptedIOException> { readRequest() }
+        toServer.source.timeout().clearTimeout()
+
+        reply(second.first, 2)
+        nextResult() shouldBe 2
+
+        val third = readRequest()
+        third.second shouldBe 3
+        reply(third.first, 3)
+        reply(first.first, 1)
+        nextResult() shouldBe 3
+        nextResult() shouldBe 1
+    }
+
+    @Test
+    fun unrecognizedSequenceIdClosesPipelinedClient() {
+        client = EchoClient(pipelined(2))
+        client.echo(1)
+
+        val (metadata, _) = readRequest()
+        reply(MessageMetadata(metadata.name, TMessageType.REPLY, metadata.seqId + 100), 1)
+
+        val error = events.poll(5, TimeUnit.SECONDS)
+        error.shouldBeInstanceOf<ThriftException>()
+        error.kind shouldBe ThriftException.Kind.BAD_SEQUENCE_ID
+        nextResult().shouldBeInstanceOf<ThriftException>()
+    }
+
+    @Test
+    fun defaultClientSendsOneCallAtATime() {
+        client = EchoClient(ClientConfig.DEFAULT)
+        client.echo(1)
+        client.echo(2)
+
+        val first = readRequest()
+        toServer.source.timeout().timeout(200, TimeUnit.MILLISECONDS)
+        shouldThrow<InterruptedIOException> { readRequest() }
+        toServer.source.timeout().clearTimeout()
+
+        reply(first.first, 1)
+        nextResult() shouldBe 1
+
+        val second = readRequest()
+        reply(second.first, 2)
+        nextResult() shouldBe 2
+    }
+
+    @Test
+    fun callbacksRunOnSharedExecutor() {
+        val shared = Executors.newFixedThreadPool(2) { Thread(it, "shared-callbacks") }
+        try {
+            client = EchoClient(ClientConfig.Builder().callbackExecutor(shared).build())
+            client.echo(1)
+            reply(readRequest().first, 1)
+
+            nextResult() shouldBe 1
+            callbackThreads.poll(5, TimeUnit.SECONDS)!!.name shouldBe "shared-callbacks"
+
+            client.close()
+            shared.isShutdown shouldBe false
+        } finally {
+            shared.shutdown()
+        }
+    }
+
+    @Test
+    fun orderedCallbacksOnSharedExecutorRunInCompletionOrder() {
+        val shared = Executors.newFixedThreadPool(4)
+        try {
+            val config = ClientConfig.Builder()
+                    .maxInFlightCalls(8)
+                    .callbackExecutor(shared)
+                    .build()
+            client = EchoClient(config)
+            for (i in 1..8) {
+                client.echo(i)
+            }
+            for ((metadata, value) in List(8) { readRequest() }) {
+                reply(metadata, value)
+            }
+
+            List(8) { nextResult() } shouldBe (1..8).toList()
+        } finally {
+            shared.shutdown()
+        }
+    }
+
+    @Test
+    fun threadFactoryCreatesClientThreads() {
+        val created = AtomicInteger(0)
+        val config = ClientConfig.Builder()
+                .maxInFlightCalls(2)
+                .threadFactory { runnable ->
+                    created.incrementAndGet()
+                    Thread(runnable, "client-thread").apply { isDaemon = true }
+                }
+                .build()
+        client = EchoClient(config)
+        client.echo(1)
+        reply(readRequest().first, 1)
+
+        nextResult() shouldBe 1
+        callbackThreads.poll(5, TimeUnit.SECONDS)!!.name shouldBe "client-thread"
+
+        // A writer, a reader, and a callback thread
+        created.get() shouldBe 3
+    }
+
+    @Test
+    fun virtualThreadsRequireJdk21() {
+        val feature = System.getProperty("java.specification.version").toIntOrNull() ?: 8
+        if (feature < 21) {
+            shouldThrow<UnsupportedOperationException> { ClientConfig.Builder().virtualThreads() }
+            client = EchoClient(ClientConfig.DEFAULT)
+            return
+        }
+
+        client = EchoClient(ClientConfig.Builder().virtualThreads().build())
+        client.echo(1)
+        reply(readRequest().first, 1)
+        nextResult() shouldBe 1
+    }
+
+    @Test
+    fun callsAreReportedToMetrics() {
+        val calls = ArrayBlockingQueue<MethodCallMetrics>(16)
+        client = EchoClient(ClientConfig.Builder().metrics { calls.add(it) }.build())
+        client.echo(1)
+        val (first, _) = readRequest()
+        reply(first, 1)
+        nextResult() shouldBe 1
+
+        client.echo(2)
+        val (second, _) = readRequest()
+        server.writeMessageBegin(second.name, TMessageType.EXCEPTION, second.seqId)
+        ThriftException(ThriftException.Kind.INTERNAL_ERROR, "boom").write(server)
+        server.writeMessageEnd()
+        server.flush()
+        nextResult().shouldBeInstanceOf<ThriftException>()
+
+        val success = calls.poll(5, TimeUnit.SECONDS)!!
+        success.side shouldBe MethodCallMetrics.Side.CLIENT
+        success.method shouldBe "echo"
+        success.seqId shouldBe first.seqId
+        success.outcome shouldBe MethodCallMetrics.Outcome.SUCCESS
+        (success.totalNanos >= success.serializationNanos + success.wireNanos) shouldBe true
+
+        // DuplexTransport does not count bytes, so sizes are unknown.
+        success.requestBytes shouldBe MethodCallMetrics.UNKNOWN_SIZE
+        success.responseBytes shouldBe MethodCallMetrics.UNKNOWN_SIZE
+
+        val failure = calls.poll(5, TimeUnit.SECONDS)!!
+        failure.seqId shouldBe second.seqId
+        failure.outcome shouldBe MethodCallMetrics.Outcome.APPLICATION_EXCEPTION
+    }
+
+    @Test
+    @Suppress("UNCHECKED_CAST")
+    fun interceptorsCanAnswerCallsThemselves() {
+        val cache = ClientInterceptor { call, chain ->
+            if (call is EchoCall && call.value < 0) {
+                (call.callback as ServiceMethodCallback<Any?>).onSuccess(0)
+            } else {
+                chain.proceed(call)
+            }
+        }
+        client = EchoClient(ClientConfig.Builder().addInterceptor(cache).build())
+
+        client.echo(-1)
+        nextResult() shouldBe 0
+
+        client.echo(1)
+        val (metadata, value) = readRequest()
+        value shouldBe 1
+        metadata.seqId shouldBe 1
+        reply(metadata, 1)
+        nextResult() shouldBe 1
+    }
+
+    @Test
+    @Suppress("UNCHECKED_CAST")
+    fun interceptorsRunInOrderAndCanObserveOutcomes() {
+        val seen = mutableListOf<String>()
+        val first = ClientInterceptor { call, chain ->
+            seen += "first ${call.name}"
+            chain.proceed(call)
+        }
+        val second = ClientInterceptor { call, chain ->
+            seen += "second ${call.name}"
+            val observed = (call as MethodCall<Any?>).withCallback(object : ServiceMethodCallback<Any?> {
+                override fun onSuccess(result: Any?) {
+                    events.add("observed $result")
+                    call.callback!!.onSuccess(result)
+                }
+
+                override fun onError(error: Throwable) {
+                    call.callback!!.onError(error)
+                }
+            })
+            chain.proceed(observed)
+        }
+        client = EchoClient(ClientConfig.Builder().addInterceptor(first).addInterceptor(second).build())
+
+        client.echo(7)
+        seen shouldBe listOf("first echo", "second echo")
+        val (metadata, value) = readRequest()
+        value shouldBe 7
+        reply(metadata, 70)
+
+        nextResult() shouldBe 70
+        events.poll(5, TimeUnit.SECONDS) shouldBe "observed 70"
+    }
+
+    @Test
+    fun cancelledCallsAreNotSent() = runBlocking<Unit> {
+        client = EchoClient(ClientConfig.DEFAULT)
+        client.echo(1)
+        val first = readRequest()
+
+        // The second call is still queued behind the first when it times out.
+        withTimeoutOrNull(100) { client.echoSuspending(2) } shouldBe null
+
+        reply(first.first, 1)
+        nextResult() shouldBe 1
+
+        client.echo(3)
+        val third = readRequest()
+        third.second shouldBe 3
+        reply(third.first, 3)
+        nextResult() shouldBe 3
+    }
+
+    @Test
+    @Suppress("UNCHECKED_CAST")
+    fun cancelledCallsLeaveTheQueueWhenIntercepted() = runBlocking<Unit> {
+        val observing = ClientInterceptor { call, chain ->
+            chain.proceed((call as MethodCall<Any?>).withCallback(call.callback))
+        }
+        client = EchoClient(ClientConfig.Builder()
+                .addInterceptor(observing)
+                .maxQueuedCalls(1, ClientConfig.OverflowPolicy.BLOCK)
+                .build())
+        client.echo(1)
+        val first = readRequest()
+
+        withTimeoutOrNull(100) { client.echoSuspending(2) } shouldBe null
+        client.queuedCalls shouldBe 0
+        client.outstandingCalls shouldBe 1
+
+        // The cancelled call no longer holds the queue's only place.
+        val caller = Thread { client.echo(3) }.apply { start() }
+        caller.join(5000)
+        caller.isAlive shouldBe false
+
+        reply(first.first, 1)
+        nextResult() shouldBe 1
+        val third = readRequest()
+        third.second shouldBe 3
+        reply(third.first, 3)
+        nextResult() shouldBe 3
+    }
+
+    @Test
+    fun lateResponsesToCancelledCallsAreDiscarded() = runBlocking<Unit> {
+        client = EchoClient(pipelined(2))
+
+        withTimeoutOrNull(100) { client.echoSuspending(1) } shouldBe null
+        val first = readRequest()
+        reply(first.first, 1)
+
+        client.echo(2)
+        val second = readRequest()
+        reply(second.first, 2)
+        nextResult() shouldBe 2
+
+        val third = async(Dispatchers.Default) { client.echoSuspending(3) }
+        reply(readRequest().first, 3)
+        third.await() shouldBe 3
+        events.poll() shouldBe null
+    }
+
+    @Test
+    fun fullQueueFailsFast() {
+        client = EchoClient(boundedQueue(ClientConfig.OverflowPolicy.FAIL_FAST))
+        client.echo(1)
+        val first = readRequest()
+        client.echo(2)
+        client.queuedCalls shouldBe 1
+
+        shouldThrow<RejectedExecutionException> { client.echo(3) }
+        client.outstandingCalls shouldBe 2
+
+        reply(first.first, 1)
+        nextResult() shouldBe 1
+        reply(readRequest().first, 2)
+        nextResult() shouldBe 2
+    }
+
+    @Test
+    fun fullQueueDropsOldestCall() {
+        client = EchoClient(boundedQueue(ClientConfig.OverflowPolicy.DROP_OLDEST))
+        client.echo(1)
+        val first = readRequest()
+        client.echo(2)
+        client.echo(3)
+
+        nextResult().shouldBeInstanceOf<RejectedExecutionException>()
+        client.queuedCalls shouldBe 1
+
+        reply(first.first, 1)
+        nextResult() shouldBe 1
+        val third = readRequest()
+        third.second shouldBe 3
+        reply(third.first, 3)
+        nextResult() shouldBe 3
+    }
+
+    @Test
+    fun fullQueueBlocksCaller() {
+        client = EchoClient(boundedQueue(ClientConfig.OverflowPolicy.BLOCK))
+        client.echo(1)
+        val first = readRequest()
+        client.echo(2)
+
+        val caller = Thread { client.echo(3) }.apply { start() }
+        caller.join(200)
+        caller.isAlive shouldBe true
+
+        reply(first.first, 1)
+        nextResult() shouldBe 1
+        caller.join(5000)
+        caller.isAlive shouldBe false
+
+        for (value in 2..3) {
+            val request = readRequest()
+            request.second shouldBe value
+            reply(request.first, value)
+            nextResult() shouldBe value
+        }
+    }
+
+    @Test
+    fun onewayCallsAreFlushedInBatches() {
+        val writes = ArrayBlockingQueue<Int>(16)
+        client = framedClient(onewayBatches(maxInFlightCalls = 1, maxBatchCalls = 2, lingerMillis = 100)) { writes.add(it) }
+        for (i in 1..3) {
+            client.ping(i)
+        }
+
+        // Two calls fill the first batch; the third is sent once the linger expires.
+        val framed = framedServer()
+        for (i in 1..3) {
+            framed.readMessageBegin().type shouldBe TMessageType.ONEWAY
+            framed.readI32() shouldBe i
+            framed.readMessageEnd()
+            nextResult() shouldBe Unit
+        }
+        writes.toList().size shouldBe 2
+    }
+
+    @Test
+    fun callThatIsNotOnewayEndsTheBatch() {
+        val writes = ArrayBlockingQueue<Int>(16)
+        client = framedClient(onewayBatches(maxInFlightCalls = 2, maxBatchCalls = 10, lingerMillis = 5000)) { writes.add(it) }
+        client.ping(1)
+        client.ping(2)
+        client.echo(3)
+
+        val framed = framedServer()
+        for (i in 1..3) {
+            framed.readMessageBegin()
+            framed.readI32() shouldBe i
+            framed.readMessageEnd()
+        }
+        nextResult() shouldBe Unit
+        nextResult() shouldBe Unit
+        writes.toList().size shouldBe 2
+    }
+
+    @Test
+    fun onewayCallsAreBatchedOverBufferedTransport() {
+        val writes = ArrayBlockingQueue<Int>(16)
+        val transport = BufferedTransport(writeThrough(toClient.source, toServer.sink) { writes.add(it) })
+        client = EchoClient(onewayBatches(maxInFlightCalls = 1, maxBatchCalls = 3, lingerMillis = 5000), BinaryProtocol(transport))
+        for (i in 1..3) {
+            client.ping(i)
+        }
+
+        for (i in 1..3) {
+            server.readMessageBegin().type shouldBe TMessageType.ONEWAY
+            server.readI32() shouldBe i
+            server.readMessageEnd()
+            nextResult() shouldBe Unit
+        }
+        writes.toList().size shouldBe 1
+    }
+
+    @Test
+    fun onewayBatchingRequiresABatchingTransport() {
+        client = EchoClient(ClientConfig.DEFAULT)
+        shouldThrow<IllegalArgumentException> {
+            EchoClient(onewayBatches(maxInFlightCalls = 1, maxBatchCalls = 2, lingerMillis = 0))
+        }
+    }
+
+    @Test
+    fun queuedCallsAreWrittenTogetherWhenPipelining() {
+        val writes = ArrayBlockingQueue<Int>(16)
+        val release = CountDownLatch(1)
+        client = framedClient(pipelined(4)) {
+            writes.add(it)
+            release.await()
+        }
+        client.echo(1)
+
+        // Queue up three more calls while the first is being written...
+        writes.poll(5, TimeUnit.SECONDS)
+        for (i in 2..4) {
+            client.echo(i)
+        }
+        release.countDown()
+
+        // ...which then go out in a single write.
+        val framed = framedServer()
+        val requests = List(4) {
+            val metadata = framed.readMessageBegin()
+            val value = framed.readI32()
+            framed.readMessageEnd()
+            metadata to value
+        }
+        requests.map { it.second } shouldBe listOf(1, 2, 3, 4)
+        writes.toList().size shouldBe 1
+
+        for ((metadata, value) in requests.reversed()) {
+            framed.writeMessageBegin(metadata.name, TMessageType.REPLY, metadata.seqId)
+            framed.writeI32(value * 10)
+            framed.writeMessageEnd()
+            framed.flush()
+        }
+        List(4) { nextResult() }.toSet() shouldBe setOf(10, 20, 30, 40)
+    }
+
+    @Test
+    fun queuedCallsAreWrittenTogetherOverBufferedTransport() {
+        val writes = ArrayBlockingQueue<Int>(16)
+        val release = CountDownLatch(1)
+        val transport = BufferedTransport(writeThrough(toClient.source, toServer.sink) {
+            writes.add(it)
+            release.await()
+        })
+        client = EchoClient(pipelined(4), BinaryProtocol(transport))
+        client.echo(1)
+
+        writes.poll(5, TimeUnit.SECONDS)
+        for (i in 2..4) {
+            client.echo(i)
+        }
+        release.countDown()
+
+        val requests = List(4) { readRequest() }
+        requests.map { it.second } shouldBe listOf(1, 2, 3, 4)
+        writes.toList().size shouldBe 1
+
+        for ((metadata, value) in requests) {
+            reply(metadata, value * 10)
+        }
+        List(4) { nextResult() }.toSet() shouldBe setOf(10, 20, 30, 40)
+    }
+
+    private fun framedClient(config: ClientConfig, onWrite: (Int) -> Unit): EchoClient {
+        return EchoClient(config, BinaryProtocol(FramedTransport(writeThrough(toClient.source, toServer.sink, onWrite))))
+    }
+
+    private fun framedServer(): Protocol {
+        return BinaryProtocol(FramedTransport(writeThrough(toServer.source, toClient.sink) {}))
+    }
+
+    /**
+     * A transport that sends each write immediately, as a socket would.
+     */
+    private fun writeThrough(source: Source, sink: Sink, onWrite: (Int) -> Unit): Transport {
+        val delegate = DuplexTransport(source, sink)
+        return object : Transport by delegate {
+            override fun write(buffer: ByteArray, offset: Int, count: Int) {
+                onWrite(count)
+                delegate.write(buffer, offset, count)
+                delegate.flush()
+            }
+        }
+    }
+
+    private fun onewayBatches(maxInFlightCalls: Int, maxBatchCalls: Int, lingerMillis: Long): ClientConfig {
+        return ClientConfig.Builder()
+                .maxInFlightCalls(maxInFlightCalls)
+                .batchOnewayCalls(maxBatchCalls, Long.MAX_VALUE, lingerMillis, TimeUnit.MILLISECONDS)
+                .build()
+    }
+
+    private fun pipelined(maxInFlightCalls: Int): ClientConfig {
+        return ClientConfig.Builder()
+                .maxInFlightCalls(maxInFlightCalls)
+                .build()
+    }
+
+    private fun boundedQueue(policy: ClientConfig.OverflowPolicy): ClientConfig {
+        return ClientConfig.Builder()
+                .maxQueuedCalls(1, policy)
+                .build()
+    }
+
+    private fun readRequest(): Pair<MessageMetadata, Int> {
+        val metadata = server.readMessageBegin()
+        val value = server.readI32()
+        server.readMessageEnd()
+        return metadata to value
+    }
+
+    private fun reply(request: MessageMetadata, value: Int) {
+        server.writeMessageBegin(request.name, TMessageType.REPLY, request.seqId)
+        server.writeI32(value)
+        server.writeMessageEnd()
+        server.flush()
+    }
+
+    private fun nextResult(): Any {
+        return checkNotNull(results.poll(5, TimeUnit.SECONDS)) { "Timed out waiting for a result" }
+    }
+
+    private inner class EchoClient(
+            config: ClientConfig,
+            protocol: Protocol = clientProtocol
+    ) : AsyncClientBase(protocol, Events(), config) {
+        fun echo(value: Int) {
+            enqueue(EchoCall(value))
+        }
+
+        fun ping(value: Int) {
+            enqueue(PingCall(value))
+        }
+
+        suspend fun echoSuspending(value: Int): Int = suspendCancellableCoroutine { cont ->
+            enqueue(EchoCall(value, object : ServiceMethodCallback<Int> {
+                override fun onSuccess(result: Int) {
+                    cont.resume(result)
+                }
+
+                override fun onError(error: Throwable) {
+                    cont.resumeWithException(error)
+                }
+            }), cont)
+        }
+    }
+
+    private inner class EchoCall(
+            val value: Int,
+            callback: ServiceMethodCallback<Int> = ResultCallback()
+    ) : MethodCall<Int>("echo", TMessageType.CALL, callback) {
+        override fun send(protocol: Protocol) {
+            protocol.writeI32(value)
+        }
+
+        override fun receive(protocol: Protocol, metadata: MessageMetadata): Int {
+            return protocol.readI32()
+        }
+    }
+
+    private inner class PingCall(val value: Int) : MethodCall<Unit>("ping", TMessageType.ONEWAY, PingCallback()) {
+        override fun send(protocol: Protocol) {
+            protocol.writeI32(value)
+        }
+
+        override fun receive(protocol: Protocol, metadata: MessageMetadata) = Unit
+    }
+
+    private inner class PingCallback : ServiceMethodCallback<Unit> {
+        override fun onSuccess(result: Unit) {
+            results.add(result)
+        }
+
+        override fun onError(error: Throwable) {
+            results.add(error)
+        }
+    }
+
+    private inner class ResultCallback : ServiceMethodCallback<Int> {
+        override fun onSuccess(result: Int) {
+            callbackThreads.add(Thread.currentThread())
+            results.add(result)
+        }
+
+        override fun onError(error: Throwable) {
+            results.add(error)
+        }
+    }
+
+    private inner class Events : AsyncClientBase.Listener {
+        override fun onTransportClosed() {
+            events.add(Unit)
+        }
+
+        override fun onError(error: Throwable) {
+            events.add(error)
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.MessageMetadata
+import com.microsoft.thrifty.protocol.Protocol
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import okio.Pipe
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.AfterTest
+import kotlin.test.Test
+
+class ClientPoolTest {
+    private val servers = CopyOnWriteArrayList<Pipe>()
+    private val errors = ArrayBlockingQueue<Throwable>(16)
+    private var pool: ClientPool<TestClient>? = null
+
+    @AfterTest
+    fun tearDown() {
+        pool?.close()
+    }
+
+    @Test
+    fun callsGoToTheLeastBusyClient() {
+        val pool = newPool(size = 2)
+
+        // The servers never reply, so every call stays outstanding.
+        val clients = List(4) { pool.client().also { it.call() } }
+
+        clients.groupingBy { it }.eachCount().values.toList() shouldBe listOf(2, 2)
+        pool.metrics().outstandingCalls shouldBe 4
+    }
+
+    @Test
+    fun failedConnectionsAreReplaced() {
+        val pool = newPool(size = 1)
+        val original = pool.client()
+        original.call()
+
+        // Closing the server's end fails the outstanding call, and the client with it.
+        servers.single().sink.close()
+        errors.poll(5, TimeUnit.SECONDS).shouldBeInstanceOf<IOException>()
+
+        awaitCondition { pool.metrics().connects == 2L && pool.metrics().connectedClients == 1 }
+        pool.client() shouldNotBe original
+        pool.metrics().disconnects shouldBe 1L
+    }
+
+    @Test
+    fun failedInitialConnectionsAreRetried() {
+        val attempts = AtomicInteger(0)
+        val pool = newPool(size = 1) {
+            if (attempts.incrementAndGet() <= 2) {
+                throw IOException("Connection refused")
+            }
+            connect()
+        }
+
+        awaitCondition { pool.metrics().connectedClients == 1 }
+        pool.metrics().connectFailures shouldBe 2L
+        pool.metrics().connects shouldBe 1L
+    }
+
+    @Test
+    fun protocolsAreClosedWhenClientCreationFails() {
+        val closes = AtomicInteger(0)
+        val attempts = AtomicInteger(0)
+        val protocolFactory = ClientPool.ProtocolFactory {
+            val delegate = connect()
+            object : Protocol by delegate {
+                override fun close() {
+                    closes.incrementAndGet()
+                    delegate.close()
+                }
+            }
+        }
+        pool = ClientPool.Builder(protocolFactory) { protocol, listener ->
+            if (attempts.incrementAndGet() == 1) {
+                throw IllegalStateException("Handshake failed")
+            }
+            TestClient(protocol, listener)
+        }
+                .size(1)
+                .initialReconnectDelay(10, TimeUnit.MILLISECONDS)
+                .build()
+
+        awaitCondition { pool!!.metrics().connectedClients == 1 }
+        closes.get() shouldBe 1
+        pool!!.metrics().connectFailures shouldBe 1L
+    }
+
+    @Test
+    fun closingThePoolClosesItsClients() {
+        val pool = newPool(size = 2)
+        val clients = List(2) { pool.client().also { it.call() } }
+
+        pool.close()
+
+        clients.forEach { it.running.get() shouldBe false }
+        shouldThrow<IllegalStateException> { pool.client() }
+        pool.metrics().connectedClients shouldBe 0
+    }
+
+    private fun newPool(
+            size: Int,
+            protocolFactory: ClientPool.ProtocolFactory = ClientPool.ProtocolFactory { connect() }
+    ): ClientPool<TestClient> {
+        return ClientPool.Builder(protocolFactory) { protocol, listener -> TestClient(protocol, listener) }
+                .size(size)
+                .initialReconnectDelay(10, TimeUnit.MILLISECONDS)
+                .maxReconnectDelay(50, TimeUnit.MILLISECONDS)
+                .build()
+                .also { pool = it }
+    }
+
+    private fun connect(): Protocol {
+        val toServer = Pipe(1L shl 16)
+        val toClient = Pipe(1L shl 16)
+        servers.add(toClient)
+        return BinaryProtocol(DuplexTransport(toClient.source, toServer.sink))
+    }
+
+    private fun awaitCondition(condition: () -> Boolean) {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (!condition()) {
+            check(System.nanoTime() < deadline) { "Timed out waiting for condition" }
+            Thread.sleep(10)
+        }
+    }
+
+    inner class TestClient(
+            protocol: Protocol,
+            listener: AsyncClientBase.Listener
+    ) : AsyncClientBase(protocol, listener) {
+        fun call() {
+            enqueue(object : MethodCall<Int>("call", TMessageType.CALL, object : ServiceMethodCallback<Int> {
+                override fun onSuccess(result: Int) = Unit
+
+                override fun onError(error: Throwable) {
+                    errors.add(error)
+                }
+            }) {
+                override fun send(protocol: Protocol) = Unit
+
+                override fun receive(protocol: Protocol, metadata: MessageMetadata) = protocol.readI32()
+            })
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service
+
+import com.microsoft.thrifty.transport.OkioTransport
+import okio.BufferedSink
+import okio.BufferedSource
+import okio.Sink
+import okio.Source
+import okio.buffer
+
+/**
+ * A full-duplex transport over a pair of Okio streams, e.g. the ends of two
+ * [okio.Pipe]s standing in for a socket.
+ */
+internal class DuplexTransport(
+        source: Source,
+        sink: Sink
+) : OkioTransport {
+    override val source: BufferedSource = source.buffer()
+    override val sink: BufferedSink = sink.buffer()
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int) = source.read(buffer, offset, count)
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        sink.write(buffer, offset, count)
+    }
+
+    override fun flush() = sink.flush()
+
+    override fun close() {
+        source.close()
+        sink.close()
+    }
+}
@@ -50,6 +50,16 @@ class Field private constructor(
     val isObfuscated: Boolean
         get() = mixin.hasThriftOrJavadocAnnotation("obfuscated")
 
+    /**
+     * True if this field should be decoded only when first accessed.
+     *
+     * Lazy fields are captured as encoded bytes when their struct is read,
+     * and written back out verbatim if never modified.  Only struct, union,
+     * exception, and container fields without default values may be lazy.
+     */
+    val isLazy: Boolean
+        get() = mixin.hasThriftOrJavadocAnnotation("lazy")
+
     override val isDeprecated: Boolean
         get() = mixin.isDeprecated
 
@@ -116,6 +126,16 @@ class Field private constructor(
             }
 
         }
+
+        if (isLazy) {
+            val trueType = type.trueType
+            if (!trueType.isStruct && !trueType.isList && !trueType.isSet && !trueType.isMap) {
+                linker.addError(location, "Only struct and container fields may be lazy: $name")
+            }
+            if (value != null) {
+                linker.addError(location, "Lazy fields may not have default values: $name")
+            }
+        }
     }
 
     /**
@@ -125,6 +125,15 @@ class FieldTest {
         field.isObfuscated shouldBe true
     }
 
+    @Test
+    fun lazyByThriftAnnotation() {
+        annotations = annotation("thrifty.lazy")
+        val element = field()
+
+        val field = Field(element, emptyMap())
+        field.isLazy shouldBe true
+    }
+
     @Test
     fun builderCreatesCorrectField() {
         val fieldElement = field()
@@ -891,6 +891,21 @@ class LoaderTest {
         e.message shouldContain "Duplicate symbols: Foo defined at"
     }
 
+    @Test
+    fun lazyScalarFieldsAreRejected() {
+        val thrift = """
+            namespace java lazyScalar;
+
+            struct Foo {
+              1: list<string> names (thrifty.lazy = "true");
+              2: i32 count (thrifty.lazy = "true");
+            }
+        """
+
+        val e = shouldThrow<LoadFailedException> { load(thrift) }
+        e.message shouldContain "Only struct and container fields may be lazy: count"
+    }
+
     @Test
     fun loadingProgramWithDuplicatedConstantNamesThrows() {
         val thrift = """
@@ -0,0 +1,455 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.internal.ProtocolException
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.service.server.BlockingProcessor
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.FramedTransport
+import okio.Buffer
+import okio.buffer
+import okio.sink
+import okio.source
+import java.io.Closeable
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Serves a [BlockingProcessor] over framed TCP connections, with one
+ * thread per connection.
+ *
+ * This suits handlers written in a blocking style, such as those of
+ * Java-generated processors.  By default, connection threads are virtual
+ * threads when the JVM supports them (JDK 21 and later), so that tens of
+ * thousands of mostly-idle connections cost little more than their sockets;
+ * on older JVMs, platform threads are used instead.
+ *
+ * ```java
+ * BlockingThriftServer server = new BlockingThriftServer.Builder(new GoogleProcessor(handler))
+ *     .port(9090)
+ *     .build()
+ *     .start();
+ *
+ * // later
+ * server.shutdown(30, TimeUnit.SECONDS);
+ * ```
+ *
+ * Each connection's requests are processed one at a time, in the order
+ * they arrive.  Connections beyond [Builder.maxConnections] are closed as
+ * soon as they are accepted, and are counted in [rejectedConnections].
+ */
+class BlockingThriftServer private constructor(
+        builder: Builder
+) : Closeable {
+    private val processor = builder.processor
+    private val bindAddress = builder.bindAddress
+    private val protocolFactory = builder.protocolFactory
+    private val threadFactory = builder.threadFactory ?: defaultThreadFactory()
+    private val maxConnections = builder.maxConnections
+    private val maxFrameSize = builder.maxFrameSize
+
+    private val state = AtomicInteger(NEW)
+    private val connections = ConcurrentHashMap.newKeySet<Connection>()
+    private val rejected = AtomicLong(0)
+    private val terminated = CountDownLatch(1)
+    private val lock = ReentrantLock()
+    private val connectionClosed = lock.newCondition()
+
+    @Volatile
+    private var serverSocket: ServerSocket? = null
+
+    @Volatile
+    private var drainedGracefully = false
+
+    /**
+     * The address on which the server is listening.
+     *
+     * @throws IllegalStateException if the server has not been started.
+     */
+    val localAddress: InetSocketAddress
+        get() {
+            val socket = checkNotNull(serverSocket) { "Server has not been started" }
+            return socket.localSocketAddress as InetSocketAddress
+        }
+
+    /**
+     * The port on which the server is listening; useful when the server
+     * was bound to port 0.
+     *
+     * @throws IllegalStateException if the server has not been started.
+     */
+    val port: Int
+        get() = localAddress.port
+
+    /**
+     * The number of connections currently open.
+     */
+    val activeConnections: Int
+        get() = connections.size
+
+    /**
+     * The number of connections closed on arrival because
+     * [Builder.maxConnections] connections were already open.
+     */
+    val rejectedConnections: Long
+        get() = rejected.get()
+
+    /**
+     * Binds the server's address and starts accepting connections.
+     *
+     * @return this server, for convenience.
+     * @throws IllegalStateException if the server was already started or shut down.
+     */
+    @Throws(IOException::class)
+    fun start(): BlockingThriftServer {
+        check(state.compareAndSet(NEW, RUNNING)) { "Server has already been started or shut down" }
+
+        val socket = ServerSocket()
+        try {
+            socket.reuseAddress = true
+            socket.bind(bindAddress)
+        } catch (e: IOException) {
+            socket.closeQuietly()
+            state.set(SHUTDOWN)
+            terminated.countDown()
+            throw e
+        }
+
+        serverSocket = socket
+        threadFactory.newThread { accept(socket) }.start()
+        return this
+    }
+
+    /**
+     * Stops the server, blocking until it has terminated.
+     *
+     * The server stops accepting connections at once, and idle connections
+     * are closed.  Requests already being processed are allowed up to
+     * [gracePeriod] to complete and reply, after which their connections are
+     * closed and their threads interrupted.
+     *
+     * @return true if every connection closed within the grace period.
+     */
+    fun shutdown(gracePeriod: Long, unit: TimeUnit): Boolean {
+        if (state.getAndSet(SHUTDOWN) == SHUTDOWN) {
+            terminated.await()
+            return drainedGracefully
+        }
+
+        serverSocket?.closeQuietly()
+        for (connection in connections) {
+            connection.drain()
+        }
+
+        lock.withLock {
+            var remaining = unit.toNanos(gracePeriod)
+            while (connections.isNotEmpty() && remaining > 0) {
+                remaining = connectionClosed.awaitNanos(remaining)
+            }
+        }
+
+        drainedGracefully = connections.isEmpty()
+        for (connection in connections) {
+            connection.close()
+        }
+
+        terminated.countDown()
+        return drainedGracefully
+    }
+
+    /**
+     * Blocks until the server has been shut down.
+     */
+    @Throws(InterruptedException::class)
+    fun awaitTermination() {
+        terminated.await()
+    }
+
+    /**
+     * Shuts the server down immediately, without waiting for requests in
+     * progress.
+     */
+    override fun close() {
+        shutdown(0, TimeUnit.MILLISECONDS)
+    }
+
+    private fun accept(server: ServerSocket) {
+        while (!server.isClosed) {
+            val socket = try {
+                server.accept()
+            } catch (e: IOException) {
+                if (server.isClosed) {
+                    return
+                }
+                // Most likely out of file descriptors; give connections a
+                // chance to close before trying again.
+                Thread.sleep(ACCEPT_RETRY_DELAY_MILLIS)
+                continue
+            }
+
+            if (connections.size >= maxConnections) {
+                rejected.incrementAndGet()
+                socket.closeQuietly()
+                continue
+            }
+
+            val connection = try {
+                socket.tcpNoDelay = true
+                Connection(socket)
+            } catch (e: IOException) {
+                socket.closeQuietly()
+                continue
+            }
+
+            connections.add(connection)
+            threadFactory.newThread(connection).start()
+
+            if (state.get() == SHUTDOWN) {
+                // Shutdown began while this connection was being accepted,
+                // and may not have seen it.
+                connection.drain()
+            }
+        }
+    }
+
+    private fun onConnectionClosed(connection: Connection) {
+        connections.remove(connection)
+        lock.withLock {
+            connectionClosed.signalAll()
+        }
+    }
+
+    /**
+     * Reads framed requests from one socket, processing each in full
+     * before reading the next.
+     */
+    private inner class Connection(private val socket: Socket) : Runnable {
+        private val source = socket.source().buffer()
+        private val sink = socket.sink().buffer()
+
+        private val requestBuffer = Buffer()
+        private val replyBuffer = Buffer()
+        private val input = protocolFactory.create(BufferTransport(requestBuffer))
+        private val output = protocolFactory.create(BufferTransport(replyBuffer))
+
+        private val connectionState = AtomicInteger(IDLE)
+
+        @Volatile
+        private var draining = false
+
+        @Volatile
+        private var thread: Thread? = null
+
+        override fun run() {
+            thread = Thread.currentThread()
+            try {
+                while (readRequest()) {
+                    input.reset()
+                    output.reset()
+                    processor.process(input, output)
+                    requestBuffer.clear()
+                    writeReply()
+
+                    if (!connectionState.compareAndSet(BUSY, IDLE) || draining) {
+                        break
+                    }
+                }
+            } catch (ignored: Exception) {
+                // The client went away, or sent something we could not process;
+                // either way, the connection is no longer usable.
+            } finally {
+                connectionState.set(CLOSED)
+                socket.closeQuietly()
+                onConnectionClosed(this)
+            }
+        }
+
+        /**
+         * Closes the connection once any request currently being processed
+         * has been replied to.  Idle connections are closed immediately.
+         */
+        fun drain() {
+            draining = true
+            if (connectionState.compareAndSet(IDLE, CLOSED)) {
+                socket.closeQuietly()
+            }
+        }
+
+        /**
+         * Closes the connection without waiting for a request in progress,
+         * interrupting its thread.
+         */
+        fun close() {
+            connectionState.set(CLOSED)
+            socket.closeQuietly()
+            thread?.interrupt()
+        }
+
+        private fun readRequest(): Boolean {
+            if (source.exhausted()) {
+                return false
+            }
+            val size = source.readInt()
+
+            // A client may send nothing else once it has started a frame, so
+            // the connection counts as busy - and won't be cut short by a
+            // drain - only once a complete header has arrived.
+            if (!connectionState.compareAndSet(IDLE, BUSY)) {
+                return false
+            }
+
+            if (size < 0 || size > maxFrameSize) {
+                throw ProtocolException("Frame size $size is out of bounds (max $maxFrameSize)")
+            }
+
+            requestBuffer.clear()
+            source.readFully(requestBuffer, size.toLong())
+            return true
+        }
+
+        private fun writeReply() {
+            output.flush()
+            val size = replyBuffer.size
+            if (size == 0L) {
+                return
+            }
+            sink.writeInt(size.toInt())
+            sink.write(replyBuffer, size)
+            sink.flush()
+        }
+    }
+
+    /**
+     * Configures and creates a [BlockingThriftServer].
+     *
+     * @param processor the processor to which requests are dispatched.
+     */
+    class Builder(
+            internal val processor: BlockingProcessor
+    ) {
+        internal var bindAddress = InetSocketAddress(0)
+        internal var protocolFactory = ThriftServer.ProtocolFactory { transport -> BinaryProtocol(transport) }
+        internal var threadFactory: ThreadFactory? = null
+        internal var maxConnections = Int.MAX_VALUE
+        internal var maxFrameSize = FramedTransport.DEFAULT_MAX_FRAME_SIZE
+
+        /**
+         * The address on which to listen.  Defaults to an ephemeral port on
+         * all interfaces.
+         */
+        fun bindAddress(bindAddress: InetSocketAddress): Builder {
+            this.bindAddress = bindAddress
+            return this
+        }
+
+        /**
+         * The port on which to listen, on all interfaces.
+         */
+        fun port(port: Int): Builder {
+            require(port in 0..65535) { "port must be between 0 and 65535" }
+            return bindAddress(InetSocketAddress(port))
+        }
+
+        /**
+         * The protocol spoken by clients.  Defaults to [BinaryProtocol].
+         */
+        fun protocolFactory(protocolFactory: ThriftServer.ProtocolFactory): Builder {
+            this.protocolFactory = protocolFactory
+            return this
+        }
+
+        /**
+         * Creates the server's threads: one to accept connections, and one
+         * per connection.  Defaults to virtual threads where available, and
+         * daemon platform threads otherwise.
+         */
+        fun threadFactory(threadFactory: ThreadFactory): Builder {
+            this.threadFactory = threadFactory
+            return this
+        }
+
+        /**
+         * The most connections that may be open at once.  Defaults to no limit.
+         */
+        fun maxConnections(maxConnections: Int): Builder {
+            require(maxConnections > 0) { "maxConnections must be positive" }
+            this.maxConnections = maxConnections
+            return this
+        }
+
+        /**
+         * The largest request frame, in bytes, that will be accepted; a
+         * client sending a larger frame is disconnected.  Defaults to
+         * [FramedTransport.DEFAULT_MAX_FRAME_SIZE].
+         */
+        fun maxFrameSize(maxFrameSize: Int): Builder {
+            require(maxFrameSize > 0) { "maxFrameSize must be positive" }
+            this.maxFrameSize = maxFrameSize
+            return this
+        }
+
+        fun build(): BlockingThriftServer {
+            return BlockingThriftServer(this)
+        }
+    }
+
+    private companion object {
+        const val NEW = 0
+        const val RUNNING = 1
+        const val SHUTDOWN = 2
+
+        const val IDLE = 0
+        const val BUSY = 1
+        const val CLOSED = 2
+
+        const val ACCEPT_RETRY_DELAY_MILLIS = 10L
+
+        /**
+         * Returns a factory for virtual threads if the JVM supports them, or
+         * for daemon platform threads if not.
+         */
+        fun defaultThreadFactory(): ThreadFactory {
+            return try {
+                val builder = Thread::class.java.getMethod("ofVirtual").invoke(null)
+                val named = Class.forName("java.lang.Thread\$Builder")
+                        .getMethod("name", String::class.java, Long::class.javaPrimitiveType)
+                        .invoke(builder, "thrifty-server-", 0L)
+                Class.forName("java.lang.Thread\$Builder").getMethod("factory").invoke(named) as ThreadFactory
+            } catch (e: ReflectiveOperationException) {
+                val count = AtomicInteger(0)
+                ThreadFactory { runnable ->
+                    Thread(runnable, "thrifty-server-${count.getAndIncrement()}").apply { isDaemon = true }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.AsynchronousServerSocketChannel
+import java.nio.channels.AsynchronousSocketChannel
+import java.nio.channels.CompletionHandler
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+// Suspending adapters over NIO.2's callback-based channel operations.
+// Cancelling a pending operation closes the channel, which is the only
+// way to abort an asynchronous read or accept.
+
+internal suspend fun AsynchronousServerSocketChannel.acceptAsync(): AsynchronousSocketChannel {
+    return suspendCancellableCoroutine { cont ->
+        cont.invokeOnCancellation { closeQuietly() }
+        accept(cont, ContinuationHandler())
+    }
+}
+
+/**
+ * Fills [buffer], suspending until it has no bytes remaining.
+ *
+ * @return false if the peer closed the connection before any byte was read.
+ * @throws IOException if the connection is closed partway through.
+ */
+internal suspend fun AsynchronousSocketChannel.readFully(buffer: ByteBuffer): Boolean {
+    val start = buffer.position()
+    while (buffer.hasRemaining()) {
+        val read = readAsync(buffer)
+        if (read < 0) {
+            if (buffer.position() == start) {
+                return false
+            }
+            throw IOException("Connection closed in the middle of a frame")
+        }
+    }
+    return true
+}
+
+/**
+ * Writes every remaining byte of [buffer].
+ */
+internal suspend fun AsynchronousSocketChannel.writeFully(buffer: ByteBuffer) {
+    while (buffer.hasRemaining()) {
+        writeAsync(buffer)
+    }
+}
+
+private suspend fun AsynchronousSocketChannel.readAsync(buffer: ByteBuffer): Int {
+    return suspendCancellableCoroutine { cont ->
+        cont.invokeOnCancellation { closeQuietly() }
+        read(buffer, cont, ContinuationHandler())
+    }
+}
+
+private suspend fun AsynchronousSocketChannel.writeAsync(buffer: ByteBuffer): Int {
+    return suspendCancellableCoroutine { cont ->
+        cont.invokeOnCancellation { closeQuietly() }
+        write(buffer, cont, ContinuationHandler())
+    }
+}
+
+internal fun Closeable.closeQuietly() {
+    try {
+        close()
+    } catch (ignored: IOException) {
+        // nope
+    }
+}
+
+private class ContinuationHandler<T> : CompletionHandler<T, CancellableContinuation<T>> {
+    override fun completed(result: T, attachment: CancellableContinuation<T>) {
+        attachment.resume(result)
+    }
+
+    override fun failed(exc: Throwable, attachment: CancellableContinuation<T>) {
+        attachment.resumeWithException(exc)
+    }
+}
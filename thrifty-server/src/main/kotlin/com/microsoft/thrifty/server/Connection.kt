@@ -0,0 +1,281 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.internal.ProtocolException
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.server.Processor
+import com.microsoft.thrifty.transport.FramedTransport
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import okio.Buffer
+import java.nio.ByteBuffer
+import java.nio.channels.AsynchronousSocketChannel
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Serves framed requests from one client.
+ *
+ * Each request frame is read in full before it is handed to the
+ * [Processor], which reads it from, and writes its reply to, in-memory
+ * buffers; the reply is then written as a single frame.  Oneway calls
+ * produce no reply, and so no frame is written for them.
+ *
+ * By default requests are processed one at a time, in the order they
+ * arrive.  When [maxConcurrentRequests] is greater than one, each request
+ * is processed in its own coroutine, and replies are written as they
+ * become ready - possibly out of order, which clients match up by their
+ * sequence IDs.  Once the limit is reached, no more requests are read
+ * until one completes.
+ */
+internal class Connection(
+        private val channel: AsynchronousSocketChannel,
+        private val processor: Processor,
+        private val protocolFactory: ThriftServer.ProtocolFactory,
+        private val maxFrameSize: Int,
+        private val maxConcurrentRequests: Int
+) {
+    /**
+     * The number of requests being processed, or [CLOSED].
+     */
+    private val inFlight = AtomicInteger(0)
+
+    private val header = ByteBuffer.allocate(4)
+    private var frame = ByteBuffer.allocate(INITIAL_BUFFER_SIZE)
+    private var reply = ByteBuffer.allocate(INITIAL_BUFFER_SIZE)
+    private val writeLock = Mutex()
+
+    // Reused for every request when they are processed one at a time.
+    private val exchange = Exchange()
+
+    @Volatile
+    private var draining = false
+
+    /**
+     * Serves requests until the client disconnects, a request fails, or
+     * the connection is drained or closed.
+     */
+    suspend fun serve() {
+        try {
+            if (maxConcurrentRequests == 1) {
+                serveSerially()
+            } else {
+                serveConcurrently()
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (ignored: Exception) {
+            // The client went away, or sent something we could not process;
+            // either way, the connection is no longer usable.
+        } finally {
+            inFlight.set(CLOSED)
+            channel.closeQuietly()
+        }
+    }
+
+    private suspend fun serveSerially() {
+        while (true) {
+            val size = readHeader()
+            if (size < 0) {
+                return
+            }
+
+            try {
+                readFrame(size, exchange.request)
+                process(exchange)
+            } finally {
+                finishRequest()
+            }
+        }
+    }
+
+    private suspend fun serveConcurrently() = coroutineScope {
+        val permits = Semaphore(maxConcurrentRequests)
+        while (true) {
+            val size = readHeader()
+            if (size < 0) {
+                break
+            }
+
+            permits.acquire()
+            try {
+                val exchange = Exchange()
+                readFrame(size, exchange.request)
+                launch {
+                    try {
+                        process(exchange)
+                    } finally {
+                        permits.release()
+                        finishRequest()
+                    }
+                }
+            } catch (e: Throwable) {
+                permits.release()
+                finishRequest()
+                throw e
+            }
+        }
+    }
+
+    /**
+     * Closes the connection once every request currently being processed
+     * has been replied to; no further requests are read.  Idle connections
+     * are closed immediately.
+     */
+    fun drain() {
+        draining = true
+        if (inFlight.compareAndSet(0, CLOSED)) {
+            channel.closeQuietly()
+        }
+    }
+
+    /**
+     * Closes the connection without waiting for requests in progress.
+     */
+    fun close() {
+        inFlight.set(CLOSED)
+        channel.closeQuietly()
+    }
+
+    /**
+     * Reads the next frame header, and counts the request it introduces as
+     * in flight.
+     *
+     * @return the frame size, or -1 if no more requests should be served.
+     */
+    private suspend fun readHeader(): Int {
+        header.clear()
+        if (!channel.readFully(header)) {
+            return -1
+        }
+
+        // A client may send nothing else once it has started a frame, so a
+        // request counts as in flight - and won't be cut short by a drain -
+        // only once its complete header has arrived.
+        if (!startRequest()) {
+            return -1
+        }
+
+        val size = header.getInt(0)
+        if (size < 0 || size > maxFrameSize) {
+            finishRequest()
+            throw ProtocolException("Frame size $size is out of bounds (max $maxFrameSize)")
+        }
+        return size
+    }
+
+    private suspend fun readFrame(size: Int, target: Buffer) {
+        if (frame.capacity() < size || frame.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            frame = ByteBuffer.allocate(maxOf(size, INITIAL_BUFFER_SIZE))
+        }
+        frame.clear()
+        frame.limit(size)
+        channel.readFully(frame)
+        frame.flip()
+
+        target.clear()
+        target.write(frame)
+    }
+
+    private suspend fun process(exchange: Exchange) {
+        val response = exchange.response
+        exchange.input.reset()
+        exchange.output.reset()
+        response.clear()
+        exchange.requestTransport.mark()
+        exchange.responseTransport.mark()
+        processor.process(exchange.input, exchange.output)
+        exchange.request.clear()
+
+        exchange.output.flush()
+        if (response.size > 0) {
+            writeLock.withLock {
+                writeReply(response)
+            }
+        }
+    }
+
+    private suspend fun writeReply(response: Buffer) {
+        val size = response.size.toInt()
+        val frameSize = size + 4
+        if (reply.capacity() < frameSize || reply.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            reply = ByteBuffer.allocate(maxOf(frameSize, INITIAL_BUFFER_SIZE))
+        }
+        reply.clear()
+        reply.putInt(size)
+        while (response.size > 0) {
+            response.read(reply)
+        }
+        reply.flip()
+        channel.writeFully(reply)
+    }
+
+    private fun startRequest(): Boolean {
+        while (true) {
+            val count = inFlight.get()
+            if (count == CLOSED || draining) {
+                return false
+            }
+            if (inFlight.compareAndSet(count, count + 1)) {
+                return true
+            }
+        }
+    }
+
+    private fun finishRequest() {
+        while (true) {
+            val count = inFlight.get()
+            if (count == CLOSED) {
+                return
+            }
+            if (inFlight.compareAndSet(count, count - 1)) {
+                if (count == 1 && draining && inFlight.compareAndSet(0, CLOSED)) {
+                    channel.closeQuietly()
+                }
+                return
+            }
+        }
+    }
+
+    /**
+     * The buffers and protocols with which a request is read and its reply
+     * written.
+     */
+    private inner class Exchange {
+        val request = Buffer()
+        val response = Buffer()
+        val requestTransport = MessageTransport(request)
+        val responseTransport = MessageTransport(response)
+        val input: Protocol = protocolFactory.create(requestTransport)
+        val output: Protocol = protocolFactory.create(responseTransport)
+    }
+
+    companion object {
+        private const val CLOSED = -1
+
+        private const val INITIAL_BUFFER_SIZE = 8192
+        private const val MAX_RETAINED_BUFFER_SIZE = FramedTransport.DEFAULT_MAX_RETAINED_BUFFER_SIZE
+    }
+}
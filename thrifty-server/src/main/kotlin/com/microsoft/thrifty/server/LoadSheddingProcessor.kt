@@ -0,0 +1,282 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.ThriftException
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.service.server.Processor
+import com.microsoft.thrifty.service.server.readMessage
+import com.microsoft.thrifty.service.server.reply
+import com.microsoft.thrifty.util.ProtocolUtil
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Limits how many requests a [Processor] handles at once, and rejects
+ * ("sheds") requests that it cannot get to in good time, rather than
+ * letting them pile up until their clients give up.
+ *
+ * Up to [Builder.maxConcurrentRequests] requests are passed to the
+ * wrapped processor at once.  Requests beyond that wait for a turn in a
+ * queue of at most [Builder.maxQueuedRequests]; once the queue is full,
+ * further requests are shed as soon as they arrive.  Optionally, requests
+ * are also shed when they have waited longer than [Builder.maxQueueDelay],
+ * or - while the average time requests spend waiting exceeds
+ * [Builder.targetQueueDelay] - when they would have to wait at all.  The
+ * latter lets the server shed load early, while it is falling behind,
+ * instead of only once the queue has filled.
+ *
+ * A shed request is answered at once with a [ThriftException] of kind
+ * [ThriftException.Kind.INTERNAL_ERROR] whose message begins with
+ * [OVERLOADED_MESSAGE], and its handler is never called; a client may
+ * therefore safely retry it, preferably elsewhere.  Shed oneway calls are
+ * dropped silently.
+ *
+ * ```kotlin
+ * val processor = LoadSheddingProcessor.Builder(GoogleProcessor(handler))
+ *     .maxConcurrentRequests(64)
+ *     .maxQueuedRequests(256)
+ *     .targetQueueDelay(50, TimeUnit.MILLISECONDS)
+ *     .build()
+ *
+ * val server = ThriftServer.Builder(processor)
+ *     .port(9090)
+ *     .build()
+ *     .start()
+ * ```
+ *
+ * One instance should be shared by every connection whose requests it is
+ * meant to limit.
+ */
+class LoadSheddingProcessor private constructor(
+        builder: Builder
+) : Processor {
+    private val delegate = builder.delegate
+    private val maxQueuedRequests = builder.maxQueuedRequests
+    private val maxQueueDelayMillis = builder.maxQueueDelayMillis
+    private val targetQueueDelayNanos = builder.targetQueueDelayNanos
+
+    private val permits = Semaphore(builder.maxConcurrentRequests)
+    private val active = AtomicInteger(0)
+    private val queued = AtomicInteger(0)
+    private val accepted = AtomicLong(0)
+    private val shed = AtomicLong(0)
+
+    /**
+     * A moving average of the time, in nanoseconds, that admitted requests
+     * spent waiting for their turn.
+     */
+    private val averageQueueDelayNanos = AtomicLong(0)
+
+    /**
+     * The number of requests currently being processed.
+     */
+    val activeRequests: Int
+        get() = active.get()
+
+    /**
+     * The number of requests currently waiting to be processed.
+     */
+    val queuedRequests: Int
+        get() = queued.get()
+
+    /**
+     * The number of requests that have been passed to the wrapped processor.
+     */
+    val acceptedRequests: Long
+        get() = accepted.get()
+
+    /**
+     * The number of requests that have been rejected without being processed.
+     */
+    val shedRequests: Long
+        get() = shed.get()
+
+    override suspend fun process(input: Protocol, output: Protocol) {
+        if (!admit()) {
+            shed.incrementAndGet()
+            reject(input, output)
+            return
+        }
+
+        accepted.incrementAndGet()
+        active.incrementAndGet()
+        try {
+            delegate.process(input, output)
+        } finally {
+            active.decrementAndGet()
+            permits.release()
+        }
+    }
+
+    /**
+     * Waits, if necessary and permitted, for a turn to process a request.
+     *
+     * @return true if the request may be processed, false if it is to be shed.
+     */
+    private suspend fun admit(): Boolean {
+        if (permits.tryAcquire()) {
+            recordQueueDelay(0)
+            return true
+        }
+
+        if (targetQueueDelayNanos > 0 && averageQueueDelayNanos.get() > targetQueueDelayNanos) {
+            return false
+        }
+
+        if (queued.incrementAndGet() > maxQueuedRequests) {
+            queued.decrementAndGet()
+            return false
+        }
+
+        val start = System.nanoTime()
+        var acquired = false
+        try {
+            if (maxQueueDelayMillis > 0) {
+                // The flag, rather than the block's result, tells whether a
+                // permit was taken; a timeout can fire just after acquire()
+                // returns, and the result would then be lost.
+                withTimeoutOrNull(maxQueueDelayMillis) {
+                    permits.acquire()
+                    acquired = true
+                }
+            } else {
+                permits.acquire()
+                acquired = true
+            }
+        } finally {
+            queued.decrementAndGet()
+        }
+
+        recordQueueDelay(System.nanoTime() - start)
+        return acquired
+    }
+
+    private fun recordQueueDelay(delayNanos: Long) {
+        while (true) {
+            val average = averageQueueDelayNanos.get()
+            val updated = average + (delayNanos - average) / QUEUE_DELAY_SMOOTHING
+            if (averageQueueDelayNanos.compareAndSet(average, updated)) {
+                return
+            }
+        }
+    }
+
+    private suspend fun reject(input: Protocol, output: Protocol) {
+        input.readMessage { msg ->
+            ProtocolUtil.skip(this, TType.STRUCT)
+            if (msg.type != TMessageType.ONEWAY) {
+                msg.reply(output, TMessageType.EXCEPTION) {
+                    val err = ThriftException(
+                            ThriftException.Kind.INTERNAL_ERROR,
+                            "$OVERLOADED_MESSAGE; ${msg.name} was not processed")
+                    err.write(this)
+                }
+            }
+        }
+    }
+
+    /**
+     * Configures and creates a [LoadSheddingProcessor].
+     *
+     * @param delegate the processor to which admitted requests are passed.
+     */
+    class Builder(
+            internal val delegate: Processor
+    ) {
+        internal var maxConcurrentRequests = Runtime.getRuntime().availableProcessors()
+        internal var maxQueuedRequests = Int.MAX_VALUE
+        internal var maxQueueDelayMillis = 0L
+        internal var targetQueueDelayNanos = 0L
+
+        /**
+         * The most requests that may be processed at once.  Defaults to the
+         * number of available processors, which suits handlers that do not
+         * block; handlers that wait on I/O can usually be given more.
+         */
+        fun maxConcurrentRequests(maxConcurrentRequests: Int): Builder {
+            require(maxConcurrentRequests > 0) { "maxConcurrentRequests must be positive" }
+            this.maxConcurrentRequests = maxConcurrentRequests
+            return this
+        }
+
+        /**
+         * The most requests that may wait to be processed; requests arriving
+         * when the queue is full are shed.  Defaults to no limit.  Zero
+         * means that requests are shed whenever none can be processed
+         * immediately.
+         */
+        fun maxQueuedRequests(maxQueuedRequests: Int): Builder {
+            require(maxQueuedRequests >= 0) { "maxQueuedRequests must not be negative" }
+            this.maxQueuedRequests = maxQueuedRequests
+            return this
+        }
+
+        /**
+         * How long a request may wait to be processed before it is shed.
+         * This should be somewhat shorter than clients' timeouts, as there
+         * is no point in processing a request whose client has given up on
+         * it.  Defaults to no limit.
+         */
+        fun maxQueueDelay(delay: Long, unit: TimeUnit): Builder {
+            require(delay > 0) { "delay must be positive" }
+            this.maxQueueDelayMillis = maxOf(unit.toMillis(delay), 1)
+            return this
+        }
+
+        /**
+         * The average time that requests should spend waiting to be
+         * processed.  While the recent average exceeds it, the server is
+         * considered to be falling behind, and requests that cannot be
+         * processed immediately are shed rather than queued.  Defaults to
+         * none, in which case requests are shed only when the queue is full
+         * or [maxQueueDelay] is exceeded.
+         */
+        fun targetQueueDelay(delay: Long, unit: TimeUnit): Builder {
+            require(delay > 0) { "delay must be positive" }
+            this.targetQueueDelayNanos = unit.toNanos(delay)
+            return this
+        }
+
+        fun build(): LoadSheddingProcessor {
+            return LoadSheddingProcessor(this)
+        }
+    }
+
+    companion object {
+        /**
+         * The start of the message of every [ThriftException] sent in reply
+         * to a shed request.
+         */
+        const val OVERLOADED_MESSAGE = "Server overloaded"
+
+        /**
+         * The weight given to past queue delays relative to the newest
+         * one; each new delay moves the average 1/8th of the way to it.
+         */
+        private const val QUEUE_DELAY_SMOOTHING = 8
+    }
+}
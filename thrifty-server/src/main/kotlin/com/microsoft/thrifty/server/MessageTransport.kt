@@ -0,0 +1,66 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.transport.ByteCountingTransport
+import com.microsoft.thrifty.transport.OkioTransport
+import okio.Buffer
+import okio.BufferedSink
+import okio.BufferedSource
+
+/**
+ * A transport over a buffer holding one message, which counts the bytes a
+ * protocol reads from or writes to it.
+ *
+ * Counting starts afresh at each [mark], which the connection makes once
+ * it has filled the buffer with a request, or emptied it of a reply.
+ */
+internal class MessageTransport(
+        private val buffer: Buffer
+) : OkioTransport, ByteCountingTransport {
+    private var sizeAtMark = buffer.size
+
+    override val source: BufferedSource
+        get() = buffer
+
+    override val sink: BufferedSink
+        get() = buffer
+
+    override val bytesRead: Long
+        get() = sizeAtMark - buffer.size
+
+    override val bytesWritten: Long
+        get() = buffer.size - sizeAtMark
+
+    fun mark() {
+        sizeAtMark = buffer.size
+    }
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int) = this.buffer.read(buffer, offset, count)
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        this.buffer.write(buffer, offset, count)
+    }
+
+    override fun flush() = buffer.flush()
+
+    override fun close() = buffer.close()
+}
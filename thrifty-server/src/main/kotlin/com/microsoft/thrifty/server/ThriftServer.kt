@@ -0,0 +1,367 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.ClientConfig
+import com.microsoft.thrifty.service.server.Processor
+import com.microsoft.thrifty.transport.FramedTransport
+import com.microsoft.thrifty.transport.Transport
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.Closeable
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.StandardSocketOptions
+import java.nio.channels.AsynchronousServerSocketChannel
+import java.nio.channels.ClosedChannelException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Serves a [Processor] over framed TCP connections.
+ *
+ * Connections are accepted and read with non-blocking NIO channels, so an
+ * idle connection costs no thread; requests are handed to the processor on
+ * the configured [CoroutineDispatcher].  Each request must arrive as a
+ * single frame - a four-byte big-endian length followed by the message -
+ * which is what clients using a [FramedTransport] send.
+ *
+ * ```kotlin
+ * val server = ThriftServer.Builder(GoogleProcessor(handler))
+ *     .port(9090)
+ *     .protocolFactory { transport -> CompactProtocol(transport) }
+ *     .maxConnections(1000)
+ *     .build()
+ *     .start()
+ *
+ * // later
+ * server.shutdown(30, TimeUnit.SECONDS)
+ * ```
+ *
+ * Connections beyond [Builder.maxConnections] are closed as soon as they
+ * are accepted, and are counted in [rejectedConnections].
+ */
+class ThriftServer private constructor(
+        builder: Builder
+) : Closeable {
+    /**
+     * Creates the protocol used to read a connection's requests, or write
+     * its replies, given an in-memory transport holding the message.
+     */
+    fun interface ProtocolFactory {
+        fun create(transport: Transport): Protocol
+    }
+
+    private val processor = builder.processor
+    private val bindAddress = builder.bindAddress
+    private val protocolFactory = builder.protocolFactory
+    private val maxConnections = builder.maxConnections
+    private val maxFrameSize = builder.maxFrameSize
+    private val maxConcurrentRequestsPerConnection = builder.maxConcurrentRequestsPerConnection
+
+    private val state = AtomicInteger(NEW)
+    private val job = SupervisorJob()
+    private val scope = CoroutineScope(job + builder.dispatcher + CoroutineName("thrifty-server"))
+    private val connections = ConcurrentHashMap.newKeySet<Connection>()
+    private val rejected = AtomicLong(0)
+    private val terminated = CountDownLatch(1)
+
+    @Volatile
+    private var serverChannel: AsynchronousServerSocketChannel? = null
+
+    @Volatile
+    private var drainedGracefully = false
+
+    /**
+     * The address on which the server is listening.
+     *
+     * @throws IllegalStateException if the server has not been started.
+     */
+    val localAddress: InetSocketAddress
+        get() {
+            val channel = checkNotNull(serverChannel) { "Server has not been started" }
+            return channel.localAddress as InetSocketAddress
+        }
+
+    /**
+     * The port on which the server is listening; useful when the server
+     * was bound to port 0.
+     *
+     * @throws IllegalStateException if the server has not been started.
+     */
+    val port: Int
+        get() = localAddress.port
+
+    /**
+     * The number of connections currently open.
+     */
+    val activeConnections: Int
+        get() = connections.size
+
+    /**
+     * The number of connections closed on arrival because
+     * [Builder.maxConnections] connections were already open.
+     */
+    val rejectedConnections: Long
+        get() = rejected.get()
+
+    /**
+     * Binds the server's address and starts accepting connections.
+     *
+     * @return this server, for convenience.
+     * @throws IllegalStateException if the server was already started or shut down.
+     */
+    @Throws(IOException::class)
+    fun start(): ThriftServer {
+        check(state.compareAndSet(NEW, RUNNING)) { "Server has already been started or shut down" }
+
+        val channel = AsynchronousServerSocketChannel.open()
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+            channel.bind(bindAddress)
+        } catch (e: IOException) {
+            channel.closeQuietly()
+            state.set(SHUTDOWN)
+            terminated.countDown()
+            throw e
+        }
+
+        serverChannel = channel
+        scope.launch { accept(channel) }
+        return this
+    }
+
+    /**
+     * Stops the server, blocking until it has terminated.
+     *
+     * The server stops accepting connections at once, and idle connections
+     * are closed.  Requests already being processed are allowed up to
+     * [gracePeriod] to complete and reply, after which their connections are
+     * closed and their processing is cancelled.
+     *
+     * @return true if every connection closed within the grace period.
+     */
+    fun shutdown(gracePeriod: Long, unit: TimeUnit): Boolean {
+        if (state.getAndSet(SHUTDOWN) == SHUTDOWN) {
+            terminated.await()
+            return drainedGracefully
+        }
+
+        serverChannel?.closeQuietly()
+        for (connection in connections) {
+            connection.drain()
+        }
+
+        drainedGracefully = runBlocking {
+            withTimeoutOrNull(unit.toMillis(gracePeriod)) {
+                for (child in job.children) {
+                    child.join()
+                }
+            } != null
+        } || connections.isEmpty()
+
+        job.cancel()
+        for (connection in connections) {
+            connection.close()
+        }
+
+        terminated.countDown()
+        return drainedGracefully
+    }
+
+    /**
+     * Blocks until the server has been shut down.
+     */
+    @Throws(InterruptedException::class)
+    fun awaitTermination() {
+        terminated.await()
+    }
+
+    /**
+     * Shuts the server down immediately, without waiting for requests in
+     * progress.
+     */
+    override fun close() {
+        shutdown(0, TimeUnit.MILLISECONDS)
+    }
+
+    private suspend fun accept(server: AsynchronousServerSocketChannel) {
+        while (true) {
+            val channel = try {
+                server.acceptAsync()
+            } catch (e: ClosedChannelException) {
+                return
+            } catch (e: IOException) {
+                // Most likely out of file descriptors; give connections a
+                // chance to close before trying again.
+                delay(ACCEPT_RETRY_DELAY_MILLIS)
+                continue
+            }
+
+            if (connections.size >= maxConnections) {
+                rejected.incrementAndGet()
+                channel.closeQuietly()
+                continue
+            }
+
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true)
+            } catch (e: IOException) {
+                channel.closeQuietly()
+                continue
+            }
+
+            val connection = Connection(
+                    channel,
+                    processor,
+                    protocolFactory,
+                    maxFrameSize,
+                    maxConcurrentRequestsPerConnection)
+            connections.add(connection)
+            scope.launch {
+                try {
+                    connection.serve()
+                } finally {
+                    connections.remove(connection)
+                }
+            }
+
+            if (state.get() == SHUTDOWN) {
+                // Shutdown began while this connection was being accepted,
+                // and may not have seen it.
+                connection.drain()
+            }
+        }
+    }
+
+    /**
+     * Configures and creates a [ThriftServer].
+     *
+     * @param processor the processor to which requests are dispatched.
+     */
+    class Builder(
+            internal val processor: Processor
+    ) {
+        internal var bindAddress = InetSocketAddress(0)
+        internal var protocolFactory = ProtocolFactory { transport -> BinaryProtocol(transport) }
+        internal var dispatcher: CoroutineDispatcher = Dispatchers.Default
+        internal var maxConnections = Int.MAX_VALUE
+        internal var maxFrameSize = FramedTransport.DEFAULT_MAX_FRAME_SIZE
+        internal var maxConcurrentRequestsPerConnection = 1
+
+        /**
+         * The address on which to listen.  Defaults to an ephemeral port on
+         * all interfaces.
+         */
+        fun bindAddress(bindAddress: InetSocketAddress): Builder {
+            this.bindAddress = bindAddress
+            return this
+        }
+
+        /**
+         * The port on which to listen, on all interfaces.
+         */
+        fun port(port: Int): Builder {
+            require(port in 0..65535) { "port must be between 0 and 65535" }
+            return bindAddress(InetSocketAddress(port))
+        }
+
+        /**
+         * The protocol spoken by clients.  Defaults to [BinaryProtocol].
+         */
+        fun protocolFactory(protocolFactory: ProtocolFactory): Builder {
+            this.protocolFactory = protocolFactory
+            return this
+        }
+
+        /**
+         * The dispatcher on which requests are processed.  Defaults to
+         * [Dispatchers.Default]; handlers that block should be given a
+         * dispatcher sized for that, such as [Dispatchers.IO].
+         */
+        fun dispatcher(dispatcher: CoroutineDispatcher): Builder {
+            this.dispatcher = dispatcher
+            return this
+        }
+
+        /**
+         * The most connections that may be open at once.  Defaults to no limit.
+         */
+        fun maxConnections(maxConnections: Int): Builder {
+            require(maxConnections > 0) { "maxConnections must be positive" }
+            this.maxConnections = maxConnections
+            return this
+        }
+
+        /**
+         * The largest request frame, in bytes, that will be accepted; a
+         * client sending a larger frame is disconnected.  Defaults to
+         * [FramedTransport.DEFAULT_MAX_FRAME_SIZE].
+         */
+        fun maxFrameSize(maxFrameSize: Int): Builder {
+            require(maxFrameSize > 0) { "maxFrameSize must be positive" }
+            this.maxFrameSize = maxFrameSize
+            return this
+        }
+
+        /**
+         * The most requests from a single connection that may be processed
+         * at once.  Defaults to 1, meaning that each request is read only
+         * after the previous one has been replied to.
+         *
+         * With a higher limit, a connection's requests are processed
+         * concurrently and their replies written in the order they complete,
+         * so that a slow request does not hold up the rest.  Clients must
+         * then match replies to calls by sequence ID, as pipelined clients
+         * (see [ClientConfig.Builder.maxInFlightCalls]) do.  The processor
+         * must be safe to call concurrently; generated processors are.
+         */
+        fun maxConcurrentRequestsPerConnection(maxConcurrentRequests: Int): Builder {
+            require(maxConcurrentRequests > 0) { "maxConcurrentRequests must be positive" }
+            this.maxConcurrentRequestsPerConnection = maxConcurrentRequests
+            return this
+        }
+
+        fun build(): ThriftServer {
+            return ThriftServer(this)
+        }
+    }
+
+    private companion object {
+        const val NEW = 0
+        const val RUNNING = 1
+        const val SHUTDOWN = 2
+
+        const val ACCEPT_RETRY_DELAY_MILLIS = 10L
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.service.server.BlockingProcessor
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import java.io.IOException
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.AfterTest
+import kotlin.test.Test
+
+class BlockingThriftServerTest {
+    private val processor = BlockingEchoProcessor()
+    private val clients = mutableListOf<TestClient>()
+    private var server: BlockingThriftServer? = null
+
+    @AfterTest
+    fun tearDown() {
+        processor.gate.countDown()
+        server?.close()
+        clients.forEach { it.close() }
+    }
+
+    @Test
+    fun repliesToRequests() {
+        val client = connect(startServer())
+
+        for (seqId in 1..3) {
+            client.call("echo", "hello $seqId", seqId)
+            client.receive() shouldBe Reply(seqId, "hello $seqId")
+        }
+    }
+
+    @Test
+    fun servesEachConnectionOnItsOwnThread() {
+        val threads = AtomicInteger(0)
+        val server = startServer {
+            threadFactory(ThreadFactory { runnable ->
+                threads.incrementAndGet()
+                Thread(runnable).apply { isDaemon = true }
+            })
+        }
+
+        // While one connection's handler blocks, others are still served.
+        val blocked = connect(server)
+        blocked.call("slow", "blocked", 1)
+        awaitCondition { processor.waiting.get() == 1 }
+
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            val results = List(4) { i ->
+                executor.submit(Callable {
+                    TestClient(server.port).use {
+                        it.call("echo", "$i", 1)
+                        it.receive().text
+                    }
+                })
+            }
+            results.map { it.get(5, TimeUnit.SECONDS) } shouldBe listOf("0", "1", "2", "3")
+        } finally {
+            executor.shutdownNow()
+        }
+
+        processor.gate.countDown()
+        blocked.receive() shouldBe Reply(1, "blocked")
+
+        // One acceptor thread, plus one per connection.
+        threads.get() shouldBe 6
+    }
+
+    @Test
+    fun onewayCallsGetNoReply() {
+        val client = connect(startServer())
+
+        client.call("ping", "", 1, TMessageType.ONEWAY)
+        client.call("echo", "after ping", 2)
+
+        client.receive() shouldBe Reply(2, "after ping")
+    }
+
+    @Test
+    fun connectionsBeyondTheLimitAreRejected() {
+        val server = startServer { maxConnections(1) }
+        val first = connect(server)
+        first.call("echo", "first", 1)
+        first.receive() shouldBe Reply(1, "first")
+
+        val second = connect(server)
+        second.call("echo", "second", 1)
+        shouldThrow<IOException> { second.receive() }
+        server.rejectedConnections shouldBe 1L
+    }
+
+    @Test
+    fun shutdownLetsRequestsInProgressFinish() {
+        val server = startServer()
+        val busy = connect(server)
+        val idle = connect(server)
+
+        idle.call("echo", "idle", 1)
+        idle.receive() shouldBe Reply(1, "idle")
+        busy.call("slow", "busy", 1)
+        awaitCondition { processor.waiting.get() == 1 }
+
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val shutdown = executor.submit(Callable { server.shutdown(10, TimeUnit.SECONDS) })
+
+            shouldThrow<IOException> { idle.receive() }
+
+            processor.gate.countDown()
+            busy.receive() shouldBe Reply(1, "busy")
+            shutdown.get(5, TimeUnit.SECONDS) shouldBe true
+            server.activeConnections shouldBe 0
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test
+    fun shutdownInterruptsRequestsAfterTheGracePeriod() {
+        val server = startServer()
+        val client = connect(server)
+
+        client.call("slow", "never", 1)
+        awaitCondition { processor.waiting.get() == 1 }
+
+        server.shutdown(100, TimeUnit.MILLISECONDS) shouldBe false
+        shouldThrow<IOException> { client.receive() }
+        awaitCondition { processor.interrupted.get() == 1 }
+    }
+
+    private fun startServer(configure: BlockingThriftServer.Builder.() -> Unit = {}): BlockingThriftServer {
+        return BlockingThriftServer.Builder(processor)
+                .apply(configure)
+                .build()
+                .start()
+                .also { server = it }
+    }
+
+    private fun connect(server: BlockingThriftServer): TestClient {
+        return TestClient(server.port).also { clients.add(it) }
+    }
+
+    /**
+     * Echoes the string argument of "echo" and "slow" calls; the latter
+     * block on [gate] before replying.
+     */
+    class BlockingEchoProcessor : BlockingProcessor {
+        val gate = CountDownLatch(1)
+        val waiting = AtomicInteger(0)
+        val interrupted = AtomicInteger(0)
+
+        override fun process(input: Protocol, output: Protocol) {
+            val msg = input.readMessageBegin()
+            val text = readText(input)
+            input.readMessageEnd()
+
+            when (msg.name) {
+                "ping" -> return
+                "slow" -> {
+                    waiting.incrementAndGet()
+                    try {
+                        gate.await()
+                    } catch (e: InterruptedException) {
+                        interrupted.incrementAndGet()
+                        throw e
+                    }
+                }
+            }
+
+            output.writeMessageBegin(msg.name, TMessageType.REPLY, msg.seqId)
+            writeText(output, 0, text)
+            output.writeMessageEnd()
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.ThriftException
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.transport.BufferTransport
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.string.shouldStartWith
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import okio.Buffer
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+
+class LoadSheddingProcessorTest {
+    private val delegate = ThriftServerTest.EchoProcessor()
+
+    @Test
+    fun requestsBeyondTheQueueAreShed() = runBlocking<Unit>(Dispatchers.Default) {
+        delegate.gate = CompletableDeferred()
+        val processor = LoadSheddingProcessor.Builder(delegate)
+                .maxConcurrentRequests(1)
+                .maxQueuedRequests(1)
+                .build()
+
+        val first = call(processor, "slow", 1)
+        awaitTrue { delegate.waiting.get() == 1 }
+        val second = call(processor, "slow", 2)
+        awaitTrue { processor.queuedRequests == 1 }
+
+        val third = call(processor, "slow", 3).await()
+        third.type shouldBe TMessageType.EXCEPTION
+        val error = third.error!!
+        error.kind shouldBe ThriftException.Kind.INTERNAL_ERROR
+        error.message!! shouldStartWith LoadSheddingProcessor.OVERLOADED_MESSAGE
+        processor.shedRequests shouldBe 1L
+
+        delegate.gate!!.complete(Unit)
+        first.await().text shouldBe "1"
+        second.await().text shouldBe "2"
+        processor.acceptedRequests shouldBe 2L
+        processor.activeRequests shouldBe 0
+        processor.queuedRequests shouldBe 0
+    }
+
+    @Test
+    fun requestsThatWaitTooLongAreShed() = runBlocking<Unit>(Dispatchers.Default) {
+        delegate.gate = CompletableDeferred()
+        val processor = LoadSheddingProcessor.Builder(delegate)
+                .maxConcurrentRequests(1)
+                .maxQueueDelay(50, TimeUnit.MILLISECONDS)
+                .build()
+
+        val first = call(processor, "slow", 1)
+        awaitTrue { delegate.waiting.get() == 1 }
+
+        val second = call(processor, "slow", 2).await()
+        second.type shouldBe TMessageType.EXCEPTION
+        delegate.waiting.get() shouldBe 1
+
+        delegate.gate!!.complete(Unit)
+        first.await().text shouldBe "1"
+        processor.acceptedRequests shouldBe 1L
+        processor.shedRequests shouldBe 1L
+    }
+
+    @Test
+    fun requestsAreShedEarlyWhileFallingBehind() = runBlocking<Unit>(Dispatchers.Default) {
+        delegate.gate = CompletableDeferred()
+        val processor = LoadSheddingProcessor.Builder(delegate)
+                .maxConcurrentRequests(1)
+                .targetQueueDelay(10, TimeUnit.MILLISECONDS)
+                .build()
+
+        // Make one request wait long enough to push the average queue delay
+        // well past the target.
+        val first = call(processor, "slow", 1)
+        awaitTrue { delegate.waiting.get() == 1 }
+        val second = call(processor, "slow", 2)
+        awaitTrue { processor.queuedRequests == 1 }
+        delay(400)
+        delegate.gate!!.complete(Unit)
+        first.await()
+        second.await()
+
+        // Now that the server is behind, a request that cannot run straight
+        // away is shed rather than queued...
+        delegate.gate = CompletableDeferred()
+        val third = call(processor, "slow", 3)
+        awaitTrue { delegate.waiting.get() == 3 }
+        call(processor, "slow", 4).await().type shouldBe TMessageType.EXCEPTION
+        processor.queuedRequests shouldBe 0
+
+        // ...while requests that can run immediately still do.
+        delegate.gate!!.complete(Unit)
+        third.await().text shouldBe "3"
+        call(processor, "echo", 5).await().text shouldBe "5"
+        processor.shedRequests shouldBe 1L
+    }
+
+    @Test
+    fun shedOnewayCallsGetNoReply() = runBlocking<Unit>(Dispatchers.Default) {
+        delegate.gate = CompletableDeferred()
+        val processor = LoadSheddingProcessor.Builder(delegate)
+                .maxConcurrentRequests(1)
+                .maxQueuedRequests(0)
+                .build()
+
+        val first = call(processor, "slow", 1)
+        awaitTrue { delegate.waiting.get() == 1 }
+
+        call(processor, "ping", 2, TMessageType.ONEWAY).await().type shouldBe NO_REPLY
+        processor.shedRequests shouldBe 1L
+        delegate.pings.get() shouldBe 0
+
+        delegate.gate!!.complete(Unit)
+        first.await()
+    }
+
+    private class Response(val type: Byte, val text: String?, val error: ThriftException?)
+
+    /**
+     * Sends a request to [processor] in a new coroutine, and yields its
+     * response; one of type [NO_REPLY] if none was written.
+     */
+    private fun CoroutineScope.call(
+            processor: LoadSheddingProcessor,
+            name: String,
+            seqId: Int,
+            type: Byte = TMessageType.CALL
+    ): Deferred<Response> {
+        val request = Buffer()
+        val input = BinaryProtocol(BufferTransport(request))
+        input.writeMessageBegin(name, type, seqId)
+        writeText(input, 1, "$seqId")
+        input.writeMessageEnd()
+
+        return async {
+            val response = Buffer()
+            val output = BinaryProtocol(BufferTransport(response))
+            processor.process(input, output)
+            if (response.size == 0L) {
+                return@async Response(NO_REPLY, null, null)
+            }
+
+            val msg = output.readMessageBegin()
+            val result = if (msg.type == TMessageType.EXCEPTION) {
+                Response(msg.type, null, ThriftException.read(output))
+            } else {
+                Response(msg.type, readText(output), null)
+            }
+            output.readMessageEnd()
+            result
+        }
+    }
+
+    private suspend fun awaitTrue(condition: () -> Boolean) {
+        withTimeout(5000) {
+            while (!condition()) {
+                delay(10)
+            }
+        }
+    }
+
+    private companion object {
+        const val NO_REPLY: Byte = -1
+    }
+}
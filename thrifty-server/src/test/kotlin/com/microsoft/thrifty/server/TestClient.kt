@@ -0,0 +1,99 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.transport.FramedTransport
+import com.microsoft.thrifty.transport.SocketTransport
+import com.microsoft.thrifty.util.ProtocolUtil
+import java.io.Closeable
+import java.util.concurrent.TimeUnit
+
+data class Reply(val seqId: Int, val text: String)
+
+/**
+ * Sends requests whose arguments, and receives replies whose results,
+ * are a struct with a single string field.
+ */
+class TestClient(port: Int) : Closeable {
+    private val transport = SocketTransport.Builder("localhost", port)
+            .readTimeout(5000)
+            .build()
+            .apply { connect() }
+    private val protocol = BinaryProtocol(FramedTransport(transport))
+
+    fun call(name: String, text: String, seqId: Int, type: Byte = TMessageType.CALL) {
+        protocol.writeMessageBegin(name, type, seqId)
+        writeText(protocol, 1, text)
+        protocol.writeMessageEnd()
+        protocol.flush()
+    }
+
+    fun receive(): Reply {
+        val msg = protocol.readMessageBegin()
+        val text = readText(protocol)
+        protocol.readMessageEnd()
+        return Reply(msg.seqId, text)
+    }
+
+    override fun close() {
+        transport.close()
+    }
+}
+
+fun writeText(protocol: Protocol, fieldId: Int, text: String) {
+    protocol.writeStructBegin("Text")
+    protocol.writeFieldBegin("text", fieldId, TType.STRING)
+    protocol.writeString(text)
+    protocol.writeFieldEnd()
+    protocol.writeFieldStop()
+    protocol.writeStructEnd()
+}
+
+fun readText(protocol: Protocol): String {
+    var text = ""
+    protocol.readStructBegin()
+    while (true) {
+        val field = protocol.readFieldBegin()
+        if (field.typeId == TType.STOP) {
+            break
+        }
+        if (field.typeId == TType.STRING) {
+            text = protocol.readString()
+        } else {
+            ProtocolUtil.skip(protocol, field.typeId)
+        }
+        protocol.readFieldEnd()
+    }
+    protocol.readStructEnd()
+    return text
+}
+
+fun awaitCondition(condition: () -> Boolean) {
+    val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+    while (!condition()) {
+        check(System.nanoTime() < deadline) { "Timed out waiting for condition" }
+        Thread.sleep(10)
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server
+
+import com.microsoft.thrifty.Struct
+import com.microsoft.thrifty.protocol.MessageMetadata
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.MethodCallMetrics
+import com.microsoft.thrifty.service.MethodMetrics
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.service.server.DefaultErrorHandler
+import com.microsoft.thrifty.service.server.Processor
+import com.microsoft.thrifty.service.server.ServerCall
+import com.microsoft.thrifty.service.server.ServerInterceptor
+import com.microsoft.thrifty.service.server.readMessage
+import com.microsoft.thrifty.service.server.reply
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import kotlinx.coroutines.CompletableDeferred
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.AfterTest
+import kotlin.test.Test
+
+class ThriftServerTest {
+    private val processor = EchoProcessor()
+    private val clients = mutableListOf<TestClient>()
+    private var server: ThriftServer? = null
+
+    @AfterTest
+    fun tearDown() {
+        server?.close()
+        clients.forEach { it.close() }
+    }
+
+    @Test
+    fun repliesToRequests() {
+        val client = connect(startServer())
+
+        for (seqId in 1..3) {
+            client.call("echo", "hello $seqId", seqId)
+            client.receive() shouldBe Reply(seqId, "hello $seqId")
+        }
+    }
+
+    @Test
+    fun servesConnectionsConcurrently() {
+        val server = startServer()
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results = List(8) { i ->
+                executor.submit(Callable {
+                    val client = TestClient(server.port)
+                    client.use {
+                        List(10) { seqId ->
+                            it.call("echo", "$i-$seqId", seqId)
+                            it.receive().text
+                        }
+                    }
+                })
+            }
+
+            results.forEachIndexed { i, result ->
+                result.get(10, TimeUnit.SECONDS) shouldBe List(10) { seqId -> "$i-$seqId" }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test
+    fun onewayCallsGetNoReply() {
+        val client = connect(startServer())
+
+        client.call("ping", "", 1, TMessageType.ONEWAY)
+        client.call("echo", "after ping", 2)
+
+        client.receive() shouldBe Reply(2, "after ping")
+        processor.pings.get() shouldBe 1
+    }
+
+    @Test
+    fun concurrentRequestsAreRepliedToAsTheyComplete() {
+        processor.gate = CompletableDeferred()
+        val client = connect(startServer { maxConcurrentRequestsPerConnection(4) })
+
+        client.call("slow", "slow", 1)
+        client.call("echo", "fast", 2)
+
+        client.receive() shouldBe Reply(2, "fast")
+        processor.gate!!.complete(Unit)
+        client.receive() shouldBe Reply(1, "slow")
+    }
+
+    @Test
+    fun concurrentRequestsAreBounded() {
+        processor.gate = CompletableDeferred()
+        val client = connect(startServer { maxConcurrentRequestsPerConnection(2) })
+
+        for (seqId in 1..3) {
+            client.call("slow", "slow $seqId", seqId)
+        }
+        awaitCondition { processor.waiting.get() == 2 }
+        Thread.sleep(100)
+        processor.waiting.get() shouldBe 2
+
+        processor.gate!!.complete(Unit)
+        List(3) { client.receive().seqId }.sorted() shouldBe listOf(1, 2, 3)
+    }
+
+    @Test
+    fun connectionsBeyondTheLimitAreRejected() {
+        val server = startServer { maxConnections(1) }
+        val first = connect(server)
+        first.call("echo", "first", 1)
+        first.receive() shouldBe Reply(1, "first")
+
+        val second = connect(server)
+        second.call("echo", "second", 1)
+        shouldThrow<IOException> { second.receive() }
+        server.rejectedConnections shouldBe 1L
+
+        // Once the first client leaves, its slot is available again.
+        first.close()
+        awaitCondition { server.activeConnections == 0 }
+        val third = connect(server)
+        third.call("echo", "third", 1)
+        third.receive() shouldBe Reply(1, "third")
+    }
+
+    @Test
+    fun oversizedFramesCloseTheConnection() {
+        val server = startServer { maxFrameSize(32) }
+        val client = connect(server)
+
+        client.call("echo", "x".repeat(64), 1)
+
+        shouldThrow<IOException> { client.receive() }
+        awaitCondition { server.activeConnections == 0 }
+    }
+
+    @Test
+    fun shutdownLetsRequestsInProgressFinish() {
+        val gate = CompletableDeferred<Unit>()
+        val server = startServer()
+        val busy = connect(server)
+        val idle = connect(server)
+
+        idle.call("echo", "idle", 1)
+        idle.receive() shouldBe Reply(1, "idle")
+        processor.gate = gate
+        busy.call("slow", "busy", 1)
+        awaitCondition { processor.waiting.get() == 1 }
+
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val shutdown = executor.submit(Callable { server.shutdown(10, TimeUnit.SECONDS) })
+
+            // The idle connection is closed straight away...
+            shouldThrow<IOException> { idle.receive() }
+
+            // ...while the busy one gets its reply before being closed.
+            gate.complete(Unit)
+            busy.receive() shouldBe Reply(1, "busy")
+            shutdown.get(5, TimeUnit.SECONDS) shouldBe true
+            shouldThrow<IOException> { busy.receive() }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test
+    fun shutdownGivesUpAfterTheGracePeriod() {
+        processor.gate = CompletableDeferred()
+        val server = startServer()
+        val client = connect(server)
+
+        client.call("slow", "never", 1)
+        awaitCondition { processor.waiting.get() == 1 }
+
+        server.shutdown(100, TimeUnit.MILLISECONDS) shouldBe false
+        shouldThrow<IOException> { client.receive() }
+    }
+
+    @Test
+    fun serverCallsReportMetrics() {
+        val calls = ArrayBlockingQueue<MethodCallMetrics>(16)
+        val server = ThriftServer.Builder(ServerCallEchoProcessor(metrics = { calls.add(it) }))
+                .build()
+                .start()
+                .also { server = it }
+        val client = connect(server)
+
+        client.call("echo", "hello", 7)
+        client.receive() shouldBe Reply(7, "hello")
+
+        val call = calls.poll(5, TimeUnit.SECONDS)!!
+        call.side shouldBe MethodCallMetrics.Side.SERVER
+        call.method shouldBe "echo"
+        call.seqId shouldBe 7
+        call.outcome shouldBe MethodCallMetrics.Outcome.SUCCESS
+        // The arguments struct, excluding the message header...
+        call.requestBytes shouldBe 13L
+        // ...and the reply, including it.
+        call.responseBytes shouldBe 26L
+    }
+
+    @Test
+    fun serverInterceptorsRunInOrderAndCanAnswerCalls() {
+        val seen = mutableListOf<String>()
+        val tracer = object : ServerInterceptor {
+            override suspend fun intercept(msg: MessageMetadata, input: Protocol, output: Protocol, chain: ServerInterceptor.Chain) {
+                seen += "trace ${msg.name}"
+                chain.proceed()
+            }
+        }
+        val cache = object : ServerInterceptor {
+            override suspend fun intercept(msg: MessageMetadata, input: Protocol, output: Protocol, chain: ServerInterceptor.Chain) {
+                if (msg.name == "cached") {
+                    msg.reply(output) { writeText(this, 0, "from cache") }
+                } else {
+                    chain.proceed()
+                }
+            }
+        }
+        val processor = ServerCallEchoProcessor(interceptors = listOf(tracer, cache))
+        val client = connect(ThriftServer.Builder(processor).build().start().also { server = it })
+
+        client.call("cached", "ignored", 1)
+        client.receive() shouldBe Reply(1, "from cache")
+        client.call("echo", "hello", 2)
+        client.receive() shouldBe Reply(2, "hello")
+        seen shouldBe listOf("trace cached", "trace echo")
+    }
+
+    @Test
+    fun serverInterceptorErrorsGoToTheErrorHandler() {
+        val deny = object : ServerInterceptor {
+            override suspend fun intercept(msg: MessageMetadata, input: Protocol, output: Protocol, chain: ServerInterceptor.Chain) {
+                throw SecurityException("denied")
+            }
+        }
+        val processor = ServerCallEchoProcessor(interceptors = listOf(deny))
+        val client = connect(ThriftServer.Builder(processor).build().start().also { server = it })
+
+        client.call("echo", "hello", 1)
+        client.receive() shouldBe Reply(1, "Internal error processing echo")
+    }
+
+    private fun startServer(configure: ThriftServer.Builder.() -> Unit = {}): ThriftServer {
+        return ThriftServer.Builder(processor)
+                .apply(configure)
+                .build()
+                .start()
+                .also { server = it }
+    }
+
+    private fun connect(server: ThriftServer): TestClient {
+        return TestClient(server.port).also { clients.add(it) }
+    }
+
+    /**
+     * Echoes the string argument of "echo" and "slow" calls; the latter
+     * wait on [gate] before replying.  Counts oneway "ping" calls.
+     */
+    class EchoProcessor : Processor {
+        val pings = AtomicInteger(0)
+        val waiting = AtomicInteger(0)
+
+        @Volatile
+        var gate: CompletableDeferred<Unit>? = null
+
+        override suspend fun process(input: Protocol, output: Protocol) {
+            input.readMessage { msg ->
+                val text = readText(this)
+                when (msg.name) {
+                    "ping" -> pings.incrementAndGet()
+                    "slow" -> {
+                        waiting.incrementAndGet()
+                        gate?.await()
+                        echo(msg, output, text)
+                    }
+                    else -> echo(msg, output, text)
+                }
+            }
+        }
+
+        private suspend fun echo(msg: MessageMetadata, output: Protocol, text: String) {
+            msg.reply(output) {
+                writeText(this, 0, text)
+            }
+        }
+    }
+
+    /**
+     * Echoes the string argument of every call through a [ServerCall], as
+     * generated processors do.
+     */
+    private class ServerCallEchoProcessor(
+            private val metrics: MethodMetrics = MethodMetrics.NONE,
+            private val interceptors: List<ServerInterceptor> = emptyList()
+    ) : Processor {
+        override suspend fun process(input: Protocol, output: Protocol) {
+            input.readMessage { msg ->
+                EchoCall.process(msg, input, output, DefaultErrorHandler, Unit, metrics, interceptors)
+            }
+        }
+    }
+
+    private object EchoCall : ServerCall<String, Unit> {
+        override val oneWay = false
+
+        override suspend fun receive(protocol: Protocol) = readText(protocol)
+
+        override suspend fun getResult(args: String, handler: Unit): Struct {
+            return object : Struct {
+                override fun write(protocol: Protocol) = writeText(protocol, 0, args)
+            }
+        }
+    }
+}